@@ -1,12 +1,13 @@
 package fiji.plugin.trackmate.features.edge;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.swing.ImageIcon;
 
@@ -16,12 +17,19 @@ import org.scijava.plugin.Plugin;
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
-import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
-import net.imglib2.multithreading.SimpleMultiThreading;
+import fiji.plugin.trackmate.features.linear.AnglePrecision;
+import fiji.plugin.trackmate.features.linear.EdgeBatchKernel;
+import fiji.plugin.trackmate.features.linear.FastAtan2;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+import fiji.plugin.trackmate.features.linear.RunControl;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics.Phase;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetricsSnapshot;
 
-@SuppressWarnings( "deprecation" )
 @Plugin( type = EdgeAnalyzer.class )
 public class LinearTrackEdgeStatistics implements EdgeAnalyzer
 {
@@ -74,10 +82,30 @@ public class LinearTrackEdgeStatistics implements EdgeAnalyzer
 		IS_INT.put( ABSOLUTE_ANGLE_ZX, Boolean.FALSE );
 	}
 
+	/**
+	 * Below this number of edges, a run is processed sequentially in the
+	 * calling thread.
+	 */
+	private static final int MIN_EDGES_PER_CHUNK = 1024;
+
 	private int numThreads;
 
 	private long processingTime;
 
+	private ForkJoinPool forkJoinPool;
+
+	private AnglePrecision anglePrecision = AnglePrecision.EXACT;
+
+	private EdgeBatchKernel edgeKernel = EdgeBatchKernel.scalar();
+
+	private AnalyzerMetrics metrics = AnalyzerMetrics.get( KEY );
+
+	private AnalyzerMetricsSnapshot lastRunMetrics;
+
+	private RunControl runControl = new RunControl();
+
+	private List< DefaultWeightedEdge > pendingEdges = Collections.emptyList();
+
 	public LinearTrackEdgeStatistics()
 	{
 		setNumThreads();
@@ -168,126 +196,207 @@ public class LinearTrackEdgeStatistics implements EdgeAnalyzer
 
 	}
 
-	@Override
-	public boolean isLocal()
+	/**
+	 * Sets the pool this analyzer runs on. If <code>null</code>, the pool
+	 * shared by all the analyzers of this package is used.
+	 *
+	 * @param forkJoinPool
+	 *            the pool to use.
+	 * @see RangeExecutor#setSharedPool(ForkJoinPool)
+	 */
+	public void setForkJoinPool( final ForkJoinPool forkJoinPool )
 	{
-		return true;
+		this.forkJoinPool = forkJoinPool;
 	}
 
-	@Override
-	public void process( final Collection< DefaultWeightedEdge > edges, final Model model )
+	/**
+	 * Sets the precision with which the angle features are computed. With
+	 * {@link AnglePrecision#FAST}, angles are within
+	 * {@value FastAtan2#MAX_ERROR} radians of the exact values. The default is
+	 * {@link AnglePrecision#EXACT}.
+	 *
+	 * @param anglePrecision
+	 *            the precision of the angles.
+	 */
+	public void setAnglePrecision( final AnglePrecision anglePrecision )
 	{
-		if ( edges.isEmpty() )
-		{ return; }
+		this.anglePrecision = anglePrecision;
+	}
 
-		final FeatureModel featureModel = model.getFeatureModel();
-		// Neighbor index, for predecessor retrieval.
-		final TimeDirectedNeighborIndex neighborIndex = model.getTrackModel().getDirectedNeighborIndex();
+	public AnglePrecision getAnglePrecision()
+	{
+		return anglePrecision;
+	}
 
-		final ArrayBlockingQueue< DefaultWeightedEdge > queue = new ArrayBlockingQueue<>( edges.size(), false, edges );
+	/**
+	 * Sets whether the edge features are computed with the Vector API, when
+	 * the JVM provides it, see {@link EdgeBatchKernel#get()}. With
+	 * {@link AnglePrecision#EXACT}, values are then within
+	 * {@value EdgeBatchKernel#MAX_EXACT_ULPS} ulps of the ones computed one
+	 * edge at a time. The default is <code>false</code>.
+	 *
+	 * @param vectorized
+	 *            whether to use the vectorized kernel.
+	 */
+	public void setVectorized( final boolean vectorized )
+	{
+		this.edgeKernel = vectorized ? EdgeBatchKernel.get() : EdgeBatchKernel.scalar();
+	}
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
-		{
-			threads[ i ] = new Thread( KEY + " thread " + i )
-			{
-				@Override
-				public void run()
-				{
-					// Storage array for 3D angle calculation.
-					final double[] out = new double[ 3 ];
-
-					DefaultWeightedEdge edge;
-					while ( ( edge = queue.poll() ) != null )
-					{
-						Spot source = model.getTrackModel().getEdgeSource( edge );
-						Spot target = model.getTrackModel().getEdgeTarget( edge );
-
-						// Some edges maybe improperly oriented.
-						if ( source.diffTo( target, Spot.FRAME ) > 0 )
-						{
-							final Spot tmp = target;
-							target = source;
-							source = tmp;
-						}
-
-						/*
-						 * Edge absolute angle.
-						 */
-
-						final double dx2 = target.diffTo( source, Spot.POSITION_X );
-						final double dy2 = target.diffTo( source, Spot.POSITION_Y );
-						final double dz2 = target.diffTo( source, Spot.POSITION_Z );
-
-						final double angleXY = Math.atan2( dy2, dx2 );
-						final double angleYZ = Math.atan2( dz2, dy2 );
-						final double angleZX = Math.atan2( dx2, dz2 );
-
-						featureModel.putEdgeFeature( edge, ABSOLUTE_ANGLE_XY, Double.valueOf( angleXY ) );
-						featureModel.putEdgeFeature( edge, ABSOLUTE_ANGLE_YZ, Double.valueOf( angleYZ ) );
-						featureModel.putEdgeFeature( edge, ABSOLUTE_ANGLE_ZX, Double.valueOf( angleZX ) );
-
-						/*
-						 * Rate of directional change. We need to fetch the
-						 * previous edge, via the source.
-						 */
-
-						final Set< Spot > predecessors = neighborIndex.predecessorsOf( source );
-						if ( null == predecessors || predecessors.size() != 1 )
-						{
-							featureModel.putEdgeFeature( edge, DIRECTIONAL_CHANGE_RATE, Double.NaN );
-							continue;
-						}
-
-						/*
-						 * We take the first predecessor. The directional change
-						 * is anyway not defined in case of branching.
-						 */
-						final Spot predecessor = predecessors.iterator().next();
-
-						// Vectors.
-						final double dx1 = source.diffTo( predecessor, Spot.POSITION_X );
-						final double dy1 = source.diffTo( predecessor, Spot.POSITION_Y );
-						final double dz1 = source.diffTo( predecessor, Spot.POSITION_Z );
-
-
-						crossProduct( dx1, dy1, dz1, dx2, dy2, dz2, out );
-						final double deltaAlpha = Math.atan2( norm( out ), dotProduct( dx1, dy1, dz1, dx2, dy2, dz2 ) );
-						final double angleSpeed = deltaAlpha / target.diffTo( source, Spot.POSITION_T );
-
-						featureModel.putEdgeFeature( edge, DIRECTIONAL_CHANGE_RATE, Double.valueOf( angleSpeed ) );
-					}
+	/**
+	 * Returns whether the edge features are computed with the Vector API.
+	 * Can be <code>false</code> after {@link #setVectorized(boolean)} if the
+	 * JVM does not provide it.
+	 *
+	 * @return whether the vectorized kernel is used.
+	 */
+	public boolean isVectorized()
+	{
+		return edgeKernel.isVectorized();
+	}
 
-				}
-			};
-		}
+	/**
+	 * Sets the metrics the runs of this analyzer are recorded in. By
+	 * default, the metrics shared by all the instances of this analyzer, see
+	 * {@link AnalyzerMetrics#get(String)}.
+	 *
+	 * @param metrics
+	 *            the metrics to record the runs in.
+	 */
+	public void setMetrics( final AnalyzerMetrics metrics )
+	{
+		this.metrics = metrics;
+	}
 
-		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+	/**
+	 * Returns the metrics the runs of this analyzer are recorded in. Unless
+	 * set otherwise, they are shared by all the instances of this analyzer,
+	 * and their <code>LastRun</code> values may come from another instance
+	 * running concurrently. Use {@link #getLastRunMetrics()} for the values
+	 * of the last run of this instance.
+	 *
+	 * @return the metrics.
+	 */
+	public AnalyzerMetrics getMetrics()
+	{
+		return metrics;
 	}
 
-	private static final double dotProduct( final double dx1, final double dy1, final double dz1, final double dx2, final double dy2, final double dz2 )
+	/**
+	 * Returns the metrics of the last run of this instance only.
+	 *
+	 * @return the metrics of the last run, or <code>null</code> if this
+	 *         instance did not complete a run yet.
+	 */
+	public AnalyzerMetricsSnapshot getLastRunMetrics()
 	{
-		return dx1 * dx2 + dy1 * dy2 + dz1 * dz2;
+		return lastRunMetrics;
 	}
 
-	private static final void crossProduct( final double dx1, final double dy1, final double dz1, final double dx2, final double dy2, final double dz2, final double[] out )
+	/**
+	 * Sets the control used to cancel the runs of this analyzer, bound their
+	 * duration and follow their progress.
+	 *
+	 * @param runControl
+	 *            the control.
+	 */
+	public void setRunControl( final RunControl runControl )
 	{
-		out[ 0 ] = dy1 * dz2 - dz1 * dy2;
-		out[ 1 ] = dz1 * dx2 - dx1 * dz2;
-		out[ 2 ] = dx1 * dy2 - dy1 * dx2;
+		this.runControl = runControl;
 	}
 
-	private static final double norm( final double[] v )
+	public RunControl getRunControl()
 	{
-		double sumSq = 0.;
-		for ( final double d : v )
+		return runControl;
+	}
+
+	/**
+	 * Returns the edges the last run did not process, because it was
+	 * canceled or ran out of time. Their features are left unchanged.
+	 * Processing these edges completes the analysis.
+	 *
+	 * @return the pending edges, empty if the last run completed.
+	 */
+	public List< DefaultWeightedEdge > getPendingEdges()
+	{
+		return pendingEdges;
+	}
+
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
+	@Override
+	public void process( final Collection< DefaultWeightedEdge > edges, final Model model )
+	{
+		pendingEdges = Collections.emptyList();
+		if ( edges.isEmpty() )
+		{ return; }
+
+		final AnalyzerMetrics.Run run = metrics.startRun();
+		final RunControl control = runControl;
+
+		final FeatureModel featureModel = model.getFeatureModel();
+		// Primitive snapshot of the edges, with the predecessors of sources.
+		final TrackGeometry geom = TrackGeometry.forEdges( model.getTrackModel(), edges );
+		final FeatureColumns columns = new FeatureColumns( FEATURES, geom.nEdges );
+		final boolean[] done = new boolean[ geom.nEdges ];
+		control.start( geom.nEdges );
+		run.endPhase( Phase.GATHER );
+
+		new RangeExecutor( forkJoinPool, numThreads ).forEach( geom.nEdges, MIN_EDGES_PER_CHUNK, new RangeTask()
 		{
-			sumSq += d * d;
+			@Override
+			public void run( final int from, final int to )
+			{
+				if ( control.shouldStop() )
+					return;
+				final long chunkStart = System.nanoTime();
+				// Edges are oriented forward in time in the snapshot.
+				final double[] directionalChangeRate = columns.column( DIRECTIONAL_CHANGE_RATE );
+				final double[] absoluteAngleXY = columns.column( ABSOLUTE_ANGLE_XY );
+				final double[] absoluteAngleYZ = columns.column( ABSOLUTE_ANGLE_YZ );
+				final double[] absoluteAngleZX = columns.column( ABSOLUTE_ANGLE_ZX );
+				edgeKernel.compute( geom, from, to, directionalChangeRate, absoluteAngleXY, absoluteAngleYZ, absoluteAngleZX, anglePrecision );
+				Arrays.fill( done, from, to, true );
+				run.chunk( chunkStart, to - from, null );
+				control.advance( to - from );
+			}
+		} );
+		run.endPhase( Phase.COMPUTE );
+
+		// Publish all values at once, for the edges processed.
+		final int nDone = ( int ) control.getDone();
+		if ( nDone == geom.nEdges )
+		{
+			columns.commitEdgeFeatures( featureModel, geom.edges );
 		}
-		return Math.sqrt( sumSq );
-	}
+		else
+		{
+			final int[] rows = new int[ nDone ];
+			final DefaultWeightedEdge[] doneEdges = new DefaultWeightedEdge[ nDone ];
+			final List< DefaultWeightedEdge > pending = new ArrayList<>( geom.nEdges - nDone );
+			int n = 0;
+			for ( int e = 0; e < geom.nEdges; e++ )
+			{
+				if ( done[ e ] )
+				{
+					rows[ n ] = e;
+					doneEdges[ n++ ] = geom.edges[ e ];
+				}
+				else
+				{
+					pending.add( geom.edges[ e ] );
+				}
+			}
+			columns.subset( rows ).commitEdgeFeatures( featureModel, doneEdges );
+			pendingEdges = Collections.unmodifiableList( pending );
+		}
+		run.endPhase( Phase.WRITE );
 
+		processingTime = run.end( 0, nDone ) / 1000000;
+		lastRunMetrics = run.snapshot();
+	}
 }
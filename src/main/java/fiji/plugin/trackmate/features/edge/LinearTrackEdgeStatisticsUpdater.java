@@ -0,0 +1,174 @@
+package fiji.plugin.trackmate.features.edge;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * Keeps the features of {@link LinearTrackEdgeStatistics} up to date
+ * incrementally, by listening to model changes.
+ * <p>
+ * The directional change rate of an edge depends on the edge before it, so
+ * recomputing only the edges flagged in a change event is not enough. For
+ * each event, this updater recomputes the minimal set of edges whose
+ * features may have changed:
+ * <ul>
+ * <li>the edges added or modified, and the outgoing edges of their target
+ * spot, whose predecessor changed;</li>
+ * <li>the outgoing edges of the target spot of removed edges;</li>
+ * <li>for spots moved or modified, all their edges, and the outgoing edges
+ * of their successors.</li>
+ * </ul>
+ * The features of the recomputed edges are identical to what a full
+ * recomputation would give, because the analyzer fetches predecessors from
+ * the whole model and not from the edges it is given. The features of the
+ * other edges are not affected by the change.
+ */
+public class LinearTrackEdgeStatisticsUpdater implements ModelChangeListener
+{
+
+	private final Model model;
+
+	private final LinearTrackEdgeStatistics analyzer;
+
+	/**
+	 * Creates an updater and registers it as a listener of the specified
+	 * model.
+	 *
+	 * @param model
+	 *            the model to keep up to date.
+	 * @param analyzer
+	 *            the analyzer to use for recomputation.
+	 */
+	public LinearTrackEdgeStatisticsUpdater( final Model model, final LinearTrackEdgeStatistics analyzer )
+	{
+		this.model = model;
+		this.analyzer = analyzer;
+		model.addModelChangeListener( this );
+	}
+
+	/**
+	 * Stops listening to the model.
+	 */
+	public void quit()
+	{
+		model.removeModelChangeListener( this );
+	}
+
+	@Override
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.TRACKS_COMPUTED:
+			analyzer.process( model.getTrackModel().edgeSet(), model );
+			break;
+
+		case ModelChangeEvent.MODEL_MODIFIED:
+			final Set< DefaultWeightedEdge > dirty = dirtyEdges( event, model.getTrackModel() );
+			analyzer.process( dirty, model );
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Returns the edges whose linear features may have changed after the
+	 * specified modification.
+	 *
+	 * @param event
+	 *            a {@link ModelChangeEvent#MODEL_MODIFIED} event.
+	 * @param trackModel
+	 *            the track model, in its state after the modification.
+	 * @return a new set of edges, all present in the track model.
+	 */
+	public static Set< DefaultWeightedEdge > dirtyEdges( final ModelChangeEvent event, final TrackModel trackModel )
+	{
+		final Set< DefaultWeightedEdge > dirty = new LinkedHashSet<>();
+		final Set< DefaultWeightedEdge > edgeSet = trackModel.edgeSet();
+		final Set< Spot > vertexSet = trackModel.vertexSet();
+
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			final Spot later = laterSpot( edge, trackModel );
+			final Integer flag = event.getEdgeFlag( edge );
+			if ( null != flag && flag.intValue() != ModelChangeEvent.FLAG_EDGE_REMOVED && edgeSet.contains( edge ) )
+				dirty.add( edge );
+
+			// The target spot has a new predecessor, or lost one.
+			if ( null != later && vertexSet.contains( later ) )
+				addOutgoingEdges( later, trackModel, dirty );
+		}
+
+		for ( final Spot spot : event.getSpots() )
+		{
+			final Integer flag = event.getSpotFlag( spot );
+			if ( null == flag || flag.intValue() == ModelChangeEvent.FLAG_SPOT_REMOVED || !vertexSet.contains( spot ) )
+				continue;
+
+			// The spot may have moved: all its edges and the edges after.
+			final double frame = spot.getFeature( Spot.FRAME ).doubleValue();
+			for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+			{
+				dirty.add( edge );
+				final Spot other = opposite( edge, spot, trackModel );
+				if ( other.getFeature( Spot.FRAME ).doubleValue() > frame )
+					addOutgoingEdges( other, trackModel, dirty );
+			}
+		}
+
+		return dirty;
+	}
+
+	/**
+	 * Adds the edges of the specified spot that do not lead back in time.
+	 */
+	private static void addOutgoingEdges( final Spot spot, final TrackModel trackModel, final Set< DefaultWeightedEdge > dirty )
+	{
+		final double frame = spot.getFeature( Spot.FRAME ).doubleValue();
+		for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+		{
+			final Spot other = opposite( edge, spot, trackModel );
+			if ( other.getFeature( Spot.FRAME ).doubleValue() >= frame )
+				dirty.add( edge );
+		}
+	}
+
+	private static Spot opposite( final DefaultWeightedEdge edge, final Spot spot, final TrackModel trackModel )
+	{
+		final Spot source = trackModel.getEdgeSource( edge );
+		return source == spot ? trackModel.getEdgeTarget( edge ) : source;
+	}
+
+	/**
+	 * Returns the spot of the edge in the latest frame, or <code>null</code>
+	 * if it cannot be retrieved anymore from the track model.
+	 */
+	private static Spot laterSpot( final DefaultWeightedEdge edge, final TrackModel trackModel )
+	{
+		final Spot source;
+		final Spot target;
+		try
+		{
+			source = trackModel.getEdgeSource( edge );
+			target = trackModel.getEdgeTarget( edge );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			// Edge removed from the graph, and its ends are unknown.
+			return null;
+		}
+		if ( null == source || null == target )
+			return null;
+		return source.diffTo( target, Spot.FRAME ) > 0 ? source : target;
+	}
+}
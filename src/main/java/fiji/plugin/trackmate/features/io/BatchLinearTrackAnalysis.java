@@ -0,0 +1,566 @@
+package fiji.plugin.trackmate.features.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fiji.plugin.trackmate.features.linear.AnglePrecision;
+import fiji.plugin.trackmate.features.linear.FastAtan2;
+
+/**
+ * Runs the {@link StreamingLinearTrackAnalysis} on many TrackMate files, in
+ * parallel across files, and writes the features of all files to one edge
+ * table and one track table, with a <code>FILE</code> column holding the
+ * path of the file relative to the input root.
+ * <p>
+ * The number of files analyzed at the same time is bounded by the number
+ * of threads and by a memory budget. The memory needed for a file is
+ * estimated from its size, and a file only starts when its estimate fits
+ * in what is left of the budget. The rows of a file are written to
+ * temporary tables first, and appended to the output tables only if its
+ * analysis succeeds. A file that fails, with an exception or an error, is
+ * reported and skipped, and does not contribute any line to the tables.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * BatchLinearTrackAnalysis [options] &lt;directory or glob&gt; &lt;output prefix&gt;
+ * </pre>
+ *
+ * writes <code>&lt;output prefix&gt;-edges.csv</code> and
+ * <code>&lt;output prefix&gt;-tracks.csv</code>. Run without arguments for the
+ * list of options.
+ */
+public class BatchLinearTrackAnalysis
+{
+
+	/**
+	 * Rough ratio between the size of a TrackMate file and the heap needed
+	 * to analyze it in streaming mode: the spot ID map takes 16 to 32 bytes
+	 * per spot of a pass, and a spot takes a few hundred bytes in the file.
+	 */
+	private static final long FILE_BYTES_PER_HEAP_BYTE = 8;
+
+	private static final long MIN_FILE_MEMORY = 16l << 20;
+
+	private final List< File > files;
+
+	private final File edgeTable;
+
+	private final File trackTable;
+
+	private int numThreads;
+
+	private long memoryBudget;
+
+	private File temporaryDirectory;
+
+	private File inputRoot;
+
+	private AnglePrecision anglePrecision = AnglePrecision.EXACT;
+
+	private PrintStream out = System.out;
+
+	private final Map< File, Throwable > failures = Collections.synchronizedMap( new LinkedHashMap< File, Throwable >() );
+
+	private long processingTime;
+
+	/**
+	 * Creates a batch over the specified files.
+	 *
+	 * @param files
+	 *            the TrackMate files to analyze.
+	 * @param edgeTable
+	 *            the CSV file to write the edge features of all files to.
+	 * @param trackTable
+	 *            the CSV file to write the track features of all files to.
+	 */
+	public BatchLinearTrackAnalysis( final List< File > files, final File edgeTable, final File trackTable )
+	{
+		this.files = files;
+		this.edgeTable = edgeTable;
+		this.trackTable = trackTable;
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+		this.memoryBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+	}
+
+	/**
+	 * Sets the maximal number of files analyzed at the same time.
+	 *
+	 * @param numThreads
+	 *            the number of threads.
+	 */
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	/**
+	 * Sets the heap the files analyzed at the same time may use together.
+	 * Defaults to 3/4 of the maximal heap size.
+	 *
+	 * @param memoryBudget
+	 *            the budget, in bytes.
+	 */
+	public void setMemoryBudget( final long memoryBudget )
+	{
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Sets the directory to write the temporary files to.
+	 *
+	 * @param temporaryDirectory
+	 *            the directory, or <code>null</code> for the default
+	 *            temporary directory.
+	 */
+	public void setTemporaryDirectory( final File temporaryDirectory )
+	{
+		this.temporaryDirectory = temporaryDirectory;
+	}
+
+	/**
+	 * Sets the directory the paths of the <code>FILE</code> column are
+	 * relative to. If <code>null</code>, the default, they are relative to
+	 * the deepest directory containing all the files.
+	 *
+	 * @param inputRoot
+	 *            the input root.
+	 * @see #inputRoot(String)
+	 */
+	public void setInputRoot( final File inputRoot )
+	{
+		this.inputRoot = inputRoot;
+	}
+
+	/**
+	 * Sets the precision with which the angle features are computed. The
+	 * default is {@link AnglePrecision#EXACT}.
+	 *
+	 * @param anglePrecision
+	 *            the precision of the angles.
+	 */
+	public void setAnglePrecision( final AnglePrecision anglePrecision )
+	{
+		this.anglePrecision = anglePrecision;
+	}
+
+	/**
+	 * Sets where progress and timings are reported.
+	 *
+	 * @param out
+	 *            the stream to report to.
+	 */
+	public void setOutput( final PrintStream out )
+	{
+		this.out = out;
+	}
+
+	/**
+	 * Returns the files that failed in the last run, with the cause of the
+	 * failure.
+	 *
+	 * @return the failed files.
+	 */
+	public Map< File, Throwable > getFailures()
+	{
+		return failures;
+	}
+
+	/**
+	 * Returns the time spent in the last run, in ms.
+	 *
+	 * @return the processing time.
+	 */
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	/**
+	 * Analyzes all the files.
+	 *
+	 * @return <code>true</code> if all the files were analyzed successfully.
+	 * @throws IOException
+	 *             if the output tables cannot be written. They are then
+	 *             incomplete.
+	 */
+	public boolean process() throws IOException
+	{
+		final long start = System.currentTimeMillis();
+		failures.clear();
+		final Path root = root();
+		IOException outputError = null;
+
+		// Budget in kB, to count permits in an int.
+		final int budget = ( int ) Math.min( Integer.MAX_VALUE, Math.max( 1, memoryBudget >> 10 ) );
+		final Semaphore memory = new Semaphore( budget, true );
+		final AtomicInteger nDone = new AtomicInteger();
+
+		try (final OutputStream edgeOut = new BufferedOutputStream( new FileOutputStream( edgeTable ), 1 << 16 );
+				final OutputStream trackOut = new BufferedOutputStream( new FileOutputStream( trackTable ), 1 << 16 ))
+		{
+			final Writer edgeHeader = new OutputStreamWriter( edgeOut, StandardCharsets.UTF_8 );
+			final Writer trackHeader = new OutputStreamWriter( trackOut, StandardCharsets.UTF_8 );
+			CsvFeatureSink.writeHeaders( edgeHeader, trackHeader, true );
+			edgeHeader.flush();
+			trackHeader.flush();
+
+			final ExecutorService executor = Executors.newFixedThreadPool( Math.min( numThreads, Math.max( 1, files.size() ) ) );
+			final List< Future< ? > > futures = new ArrayList<>( files.size() );
+			try
+			{
+				for ( final File file : files )
+				{
+					futures.add( executor.submit( new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							final int permits = ( int ) Math.min( budget, estimateMemory( file ) >> 10 );
+							memory.acquireUninterruptibly( permits );
+							try
+							{
+								processFile( file, relativeName( root, file ), edgeOut, trackOut, nDone );
+							}
+							finally
+							{
+								memory.release( permits );
+							}
+						}
+					} ) );
+				}
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+
+			// Whatever escaped a task marks its file as failed.
+			try
+			{
+				for ( int i = 0; i < futures.size(); i++ )
+				{
+					try
+					{
+						futures.get( i ).get();
+					}
+					catch ( final ExecutionException e )
+					{
+						final Throwable cause = e.getCause();
+						if ( cause instanceof UncheckedIOException )
+						{
+							if ( null == outputError )
+								outputError = ( ( UncheckedIOException ) cause ).getCause();
+						}
+						else if ( !failures.containsKey( files.get( i ) ) )
+						{
+							failures.put( files.get( i ), cause );
+						}
+					}
+				}
+			}
+			catch ( final InterruptedException e )
+			{
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IOException( "Batch interrupted.", e );
+			}
+		}
+		if ( null != outputError )
+			throw new IOException( "Could not write the output tables.", outputError );
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+
+		out.println( String.format( "Analyzed %d files in %.1f s: %d succeeded, %d failed.",
+				files.size(), processingTime / 1000., files.size() - failures.size(), failures.size() ) );
+		for ( final File file : failures.keySet() )
+			out.println( "  Failed: " + file + " - " + failures.get( file ) );
+		return failures.isEmpty();
+	}
+
+	/**
+	 * Analyzes one file to temporary tables, and appends them to the output
+	 * tables if the analysis succeeded. A failure of the analysis, exception
+	 * or error, is recorded. A failure to write the output tables is thrown
+	 * as an {@link UncheckedIOException}.
+	 */
+	private void processFile( final File file, final String name, final OutputStream edgeOut, final OutputStream trackOut, final AtomicInteger nDone )
+	{
+		final long start = System.currentTimeMillis();
+		File edgeFile = null;
+		File trackFile = null;
+		try
+		{
+			final StreamingLinearTrackAnalysis analysis = new StreamingLinearTrackAnalysis( file );
+			try
+			{
+				edgeFile = File.createTempFile( "trackmate-batch-edges", ".csv", temporaryDirectory );
+				trackFile = File.createTempFile( "trackmate-batch-tracks", ".csv", temporaryDirectory );
+				analysis.setTemporaryDirectory( temporaryDirectory );
+				analysis.setAnglePrecision( anglePrecision );
+				try (final CsvFeatureSink sink = new CsvFeatureSink( CsvFeatureSink.open( edgeFile ), CsvFeatureSink.open( trackFile ), name, false ))
+				{
+					analysis.process( sink );
+				}
+			}
+			catch ( final Throwable e )
+			{
+				failures.put( file, e );
+				report( name + ": FAILED - " + e, nDone );
+				return;
+			}
+
+			synchronized ( this )
+			{
+				try
+				{
+					Files.copy( edgeFile.toPath(), edgeOut );
+					Files.copy( trackFile.toPath(), trackOut );
+				}
+				catch ( final IOException e )
+				{
+					failures.put( file, e );
+					throw new UncheckedIOException( e );
+				}
+			}
+
+			final long end = System.currentTimeMillis();
+			report( String.format( "%s: %d spots, %d edges, %d tracks, largest track %d spots, in %d ms.",
+					name, analysis.getNSpots(), analysis.getNEdges(), analysis.getNTracks(),
+					analysis.getLargestTrack(), end - start ), nDone );
+		}
+		finally
+		{
+			if ( null != edgeFile )
+				edgeFile.delete();
+			if ( null != trackFile )
+				trackFile.delete();
+		}
+	}
+
+	/**
+	 * Returns the input root, or the deepest directory containing all the
+	 * files if it is not set.
+	 */
+	private Path root()
+	{
+		if ( null != inputRoot )
+			return inputRoot.getAbsoluteFile().toPath();
+
+		Path root = null;
+		for ( final File file : files )
+		{
+			final Path parent = file.getAbsoluteFile().toPath().getParent();
+			if ( null == root )
+				root = parent;
+			while ( null != root && !parent.startsWith( root ) )
+				root = root.getParent();
+		}
+		return root;
+	}
+
+	private static String relativeName( final Path root, final File file )
+	{
+		final Path path = file.getAbsoluteFile().toPath();
+		if ( null == root || !path.startsWith( root ) )
+			return file.getPath();
+		return root.relativize( path ).toString().replace( File.separatorChar, '/' );
+	}
+
+	private void report( final String message, final AtomicInteger nDone )
+	{
+		out.println( String.format( "[%d/%d] %s", nDone.incrementAndGet(), files.size(), message ) );
+	}
+
+	private long estimateMemory( final File file )
+	{
+		return Math.max( MIN_FILE_MEMORY, file.length() / FILE_BYTES_PER_HEAP_BYTE );
+	}
+
+	/**
+	 * Returns the TrackMate files designated by a path. If the path is a
+	 * directory, returns all the XML files it contains. Otherwise, the path
+	 * is a glob pattern, such as <code>/data/&#42;&#42;/&#42;.xml</code>,
+	 * and all the matching files are returned.
+	 *
+	 * @param pathOrGlob
+	 *            the directory or the glob pattern.
+	 * @return the files, sorted by path.
+	 * @throws IOException
+	 *             if a directory cannot be listed.
+	 */
+	public static List< File > resolve( final String pathOrGlob ) throws IOException
+	{
+		final List< File > files = new ArrayList<>();
+		final File input = new File( pathOrGlob ).getAbsoluteFile();
+		final File root = inputRoot( pathOrGlob );
+		if ( input.isDirectory() )
+		{
+			final File[] children = input.listFiles();
+			if ( null != children )
+				for ( final File child : children )
+					if ( child.isFile() && child.getName().toLowerCase().endsWith( ".xml" ) )
+						files.add( child );
+		}
+		else if ( !hasWildcard( input.getPath() ) )
+		{
+			if ( input.isFile() )
+				files.add( input );
+		}
+		else
+		{
+			final PathMatcher matcher = FileSystems.getDefault().getPathMatcher( "glob:" + input.getPath().replace( "\\", "\\\\" ) );
+			if ( null != root && root.isDirectory() )
+			{
+				Files.walkFileTree( root.toPath(), new SimpleFileVisitor< Path >()
+				{
+					@Override
+					public FileVisitResult visitFile( final Path file, final BasicFileAttributes attrs )
+					{
+						if ( attrs.isRegularFile() && matcher.matches( file ) )
+							files.add( file.toFile() );
+						return FileVisitResult.CONTINUE;
+					}
+				} );
+			}
+		}
+		Collections.sort( files );
+		return files;
+	}
+
+	/**
+	 * Returns the input root of a path given to {@link #resolve(String)}: the
+	 * directory itself, the parent directory of a file, or the deepest
+	 * directory of a glob pattern without wildcards.
+	 *
+	 * @param pathOrGlob
+	 *            the directory, file or glob pattern.
+	 * @return the input root.
+	 */
+	public static File inputRoot( final String pathOrGlob )
+	{
+		final File input = new File( pathOrGlob ).getAbsoluteFile();
+		if ( input.isDirectory() )
+			return input;
+		if ( !hasWildcard( input.getPath() ) )
+			return input.getParentFile();
+
+		// The deepest directory without wildcards.
+		File root = input;
+		while ( null != root && hasWildcard( root.getPath() ) )
+			root = root.getParentFile();
+		return root;
+	}
+
+	private static boolean hasWildcard( final String path )
+	{
+		for ( final char c : new char[] { '*', '?', '[', '{' } )
+			if ( path.indexOf( c ) >= 0 )
+				return true;
+		return false;
+	}
+
+	public static void main( final String[] args )
+	{
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		long memoryBudget = -1;
+		File temporaryDirectory = null;
+		AnglePrecision anglePrecision = AnglePrecision.EXACT;
+		final List< String > positional = new ArrayList<>();
+		try
+		{
+			for ( int i = 0; i < args.length; i++ )
+			{
+				switch ( args[ i ] )
+				{
+				case "-threads":
+					numThreads = Integer.parseInt( args[ ++i ] );
+					break;
+				case "-memory":
+					memoryBudget = Long.parseLong( args[ ++i ] ) << 20;
+					break;
+				case "-tmp":
+					temporaryDirectory = new File( args[ ++i ] );
+					break;
+				case "-fast":
+					anglePrecision = AnglePrecision.FAST;
+					break;
+				default:
+					positional.add( args[ i ] );
+					break;
+				}
+			}
+		}
+		catch ( final RuntimeException e )
+		{
+			positional.clear();
+		}
+
+		if ( positional.size() != 2 )
+		{
+			System.err.println( "Usage: BatchLinearTrackAnalysis [options] <directory or glob> <output prefix>" );
+			System.err.println( "Writes <output prefix>-edges.csv and <output prefix>-tracks.csv." );
+			System.err.println( "Options:" );
+			System.err.println( "  -threads <n>   number of files analyzed in parallel (default: number of cores)" );
+			System.err.println( "  -memory <MB>   heap budget for the files analyzed in parallel (default: 3/4 of max heap)" );
+			System.err.println( "  -tmp <dir>     directory for temporary files" );
+			System.err.println( "  -fast          approximate angles, within " + FastAtan2.MAX_ERROR + " rad" );
+			System.exit( 2 );
+			return;
+		}
+
+		try
+		{
+			final List< File > files = resolve( positional.get( 0 ) );
+			if ( files.isEmpty() )
+			{
+				System.err.println( "No TrackMate file found for " + positional.get( 0 ) );
+				System.exit( 2 );
+				return;
+			}
+			System.out.println( "Found " + files.size() + " files." );
+
+			final String prefix = positional.get( 1 );
+			final BatchLinearTrackAnalysis batch = new BatchLinearTrackAnalysis( files, new File( prefix + "-edges.csv" ), new File( prefix + "-tracks.csv" ) );
+			batch.setNumThreads( numThreads );
+			if ( memoryBudget > 0 )
+				batch.setMemoryBudget( memoryBudget );
+			batch.setTemporaryDirectory( temporaryDirectory );
+			batch.setInputRoot( inputRoot( positional.get( 0 ) ) );
+			batch.setAnglePrecision( anglePrecision );
+			System.exit( batch.process() ? 0 : 1 );
+		}
+		catch ( final IOException e )
+		{
+			System.err.println( e.getMessage() );
+			System.exit( 2 );
+		}
+	}
+}
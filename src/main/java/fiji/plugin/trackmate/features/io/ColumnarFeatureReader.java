@@ -0,0 +1,200 @@
+package fiji.plugin.trackmate.features.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the columns of a file written by {@link ColumnarFeatureWriter}, read
+ * only. Values are read from the mapped file directly, without copy.
+ */
+public class ColumnarFeatureReader implements Closeable
+{
+
+	private final Map< String, Table > tables = new LinkedHashMap<>();
+
+	/**
+	 * Opens a file and maps all its columns.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @throws IOException
+	 *             if the file cannot be read or is not a columnar feature
+	 *             file.
+	 */
+	public ColumnarFeatureReader( final File file ) throws IOException
+	{
+		try (final RandomAccessFile raf = new RandomAccessFile( file, "r" ))
+		{
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer header = channel.map( MapMode.READ_ONLY, 0, Math.min( channel.size(), 1 << 20 ) ).order( ByteOrder.LITTLE_ENDIAN );
+			final byte[] magic = new byte[ ColumnarFeatureWriter.MAGIC.length ];
+			if ( header.remaining() < magic.length + 8 )
+				throw new IOException( "Not a columnar feature file: " + file );
+			header.get( magic );
+			if ( !Arrays.equals( magic, ColumnarFeatureWriter.MAGIC ) )
+				throw new IOException( "Not a columnar feature file: " + file );
+			final int version = header.getInt();
+			if ( version != ColumnarFeatureWriter.VERSION )
+				throw new IOException( "Unsupported version " + version + " of columnar feature file: " + file );
+
+			final int nTables = header.getInt();
+			for ( int t = 0; t < nTables; t++ )
+			{
+				final String name = getString( header );
+				final long nRows = header.getLong();
+				final int nColumns = header.getInt();
+				final Table table = new Table( nRows );
+				for ( int c = 0; c < nColumns; c++ )
+				{
+					final String column = getString( header );
+					final byte type = header.get();
+					final long offset = header.getLong();
+					final int width = type == ColumnarFeatureWriter.INT32 ? 4 : 8;
+					table.columns.put( column, new Column( type, ColumnarFeatureWriter.map( channel, MapMode.READ_ONLY, offset, nRows, width ) ) );
+				}
+				tables.put( name, table );
+			}
+		}
+	}
+
+	/**
+	 * Returns the names of the tables of the file.
+	 *
+	 * @return the table names.
+	 */
+	public List< String > getTables()
+	{
+		return Collections.unmodifiableList( new ArrayList<>( tables.keySet() ) );
+	}
+
+	public long getNRows( final String table )
+	{
+		return table( table ).nRows;
+	}
+
+	/**
+	 * Returns the names of the columns of a table, in file order.
+	 *
+	 * @param table
+	 *            the table name.
+	 * @return the column names.
+	 */
+	public List< String > getColumns( final String table )
+	{
+		return Collections.unmodifiableList( new ArrayList<>( table( table ).columns.keySet() ) );
+	}
+
+	/**
+	 * Returns a value of an int32 column.
+	 *
+	 * @param table
+	 *            the table name.
+	 * @param column
+	 *            the column name.
+	 * @param row
+	 *            the row index.
+	 * @return the value.
+	 * @throws IllegalArgumentException
+	 *             if the column does not exist or is not an int32 column.
+	 */
+	public int getInt( final String table, final String column, final long row )
+	{
+		final Column c = column( table, column, ColumnarFeatureWriter.INT32 );
+		return c.segments[ ( int ) ( row / ColumnarFeatureWriter.ROWS_PER_SEGMENT ) ].getInt( ( int ) ( row % ColumnarFeatureWriter.ROWS_PER_SEGMENT ) * 4 );
+	}
+
+	/**
+	 * Returns a value of a float64 column.
+	 *
+	 * @param table
+	 *            the table name.
+	 * @param column
+	 *            the column name.
+	 * @param row
+	 *            the row index.
+	 * @return the value.
+	 * @throws IllegalArgumentException
+	 *             if the column does not exist or is not a float64 column.
+	 */
+	public double getDouble( final String table, final String column, final long row )
+	{
+		final Column c = column( table, column, ColumnarFeatureWriter.FLOAT64 );
+		return c.segments[ ( int ) ( row / ColumnarFeatureWriter.ROWS_PER_SEGMENT ) ].getDouble( ( int ) ( row % ColumnarFeatureWriter.ROWS_PER_SEGMENT ) * 8 );
+	}
+
+	/**
+	 * Releases the mapped columns. The mappings themselves are released by
+	 * the garbage collector.
+	 */
+	@Override
+	public void close()
+	{
+		tables.clear();
+	}
+
+	private Table table( final String name )
+	{
+		final Table table = tables.get( name );
+		if ( null == table )
+			throw new IllegalArgumentException( "Unknown table: " + name );
+		return table;
+	}
+
+	private Column column( final String table, final String name, final byte type )
+	{
+		final Column column = table( table ).columns.get( name );
+		if ( null == column )
+			throw new IllegalArgumentException( "Unknown column: " + name );
+		if ( column.type != type )
+			throw new IllegalArgumentException( "Column " + name + " is not of type " + ( type == ColumnarFeatureWriter.INT32 ? "int32" : "float64" ) + "." );
+		return column;
+	}
+
+	private static String getString( final ByteBuffer header )
+	{
+		final byte[] bytes = new byte[ header.getShort() ];
+		header.get( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+	private static final class Table
+	{
+
+		private final long nRows;
+
+		private final Map< String, Column > columns = new LinkedHashMap<>();
+
+		private Table( final long nRows )
+		{
+			this.nRows = nRows;
+		}
+	}
+
+	private static final class Column
+	{
+
+		private final byte type;
+
+		private final MappedByteBuffer[] segments;
+
+		private Column( final byte type, final MappedByteBuffer[] segments )
+		{
+			this.type = type;
+			this.segments = segments;
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package fiji.plugin.trackmate.features.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+
+/**
+ * Writes the edge and track features to a columnar binary file, through
+ * memory-mapped buffers, so that other tools can map the columns they need
+ * without parsing anything.
+ * <p>
+ * The file holds two tables, {@value #EDGE_TABLE} and
+ * {@value #TRACK_TABLE}, with the same columns as the tables of
+ * {@link CsvFeatureSink}. ID columns are 32-bit integers, feature columns
+ * 64-bit floats, and missing values <code>NaN</code>. All values are little
+ * endian. The file starts with a header describing its tables:
+ *
+ * <pre>
+ * magic          8 bytes, "TMFEATS" and a 0 byte
+ * version        int32, {@value #VERSION}
+ * nTables        int32
+ * for each table:
+ *   name         string
+ *   nRows        int64
+ *   nColumns     int32
+ *   for each column:
+ *     name       string
+ *     type       int8, {@value #INT32} for int32, {@value #FLOAT64} for float64
+ *     offset     int64, position of the first value in the file
+ * </pre>
+ *
+ * where strings are an int16 byte length followed by UTF-8 bytes. Each
+ * column stores its <code>nRows</code> values contiguously, from an offset
+ * aligned on 8 bytes, so that a column can be mapped as an array, for
+ * instance with <code>numpy.memmap</code>.
+ * <p>
+ * All the rows are allocated when the writer is created, and the values are
+ * written at absolute positions, so that several threads can write disjoint
+ * ranges of rows concurrently. Rows that are not written read 0.
+ */
+public class ColumnarFeatureWriter implements Closeable
+{
+
+	public static final String EDGE_TABLE = "edges";
+
+	public static final String TRACK_TABLE = "tracks";
+
+	public static final int VERSION = 1;
+
+	/**
+	 * Column type of 32-bit integers.
+	 */
+	public static final byte INT32 = 0;
+
+	/**
+	 * Column type of 64-bit floats.
+	 */
+	public static final byte FLOAT64 = 1;
+
+	static final byte[] MAGIC = "TMFEATS\0".getBytes( StandardCharsets.US_ASCII );
+
+	/**
+	 * Columns are mapped in segments of this number of rows, since a single
+	 * buffer cannot map more than 2 GB. Values never straddle two segments.
+	 */
+	static final int ROWS_PER_SEGMENT = 1 << 27;
+
+	/**
+	 * The data start on this boundary after the header.
+	 */
+	private static final int ALIGNMENT = 64;
+
+	/**
+	 * Below this number of edges, an export is written sequentially in the
+	 * calling thread.
+	 */
+	private static final int MIN_EDGES_PER_CHUNK = 1 << 14;
+
+	private static final String[] EDGE_ID_COLUMNS = new String[] { "TRACK_ID", "SPOT_SOURCE_ID", "SPOT_TARGET_ID" };
+
+	private static final String[] TRACK_ID_COLUMNS = new String[] { "TRACK_ID" };
+
+	private final long nEdges;
+
+	private final long nTracks;
+
+	private final MappedByteBuffer[][] edgeIDs;
+
+	private final MappedByteBuffer[][] edgeValues;
+
+	private final MappedByteBuffer[][] trackIDs;
+
+	private final MappedByteBuffer[][] trackValues;
+
+	/**
+	 * Creates a file for the specified numbers of edges and tracks,
+	 * overwriting it, and maps its columns.
+	 *
+	 * @param file
+	 *            the file to write to.
+	 * @param nEdges
+	 *            the number of rows of the edge table.
+	 * @param nTracks
+	 *            the number of rows of the track table.
+	 * @throws IOException
+	 *             if the file cannot be created or mapped.
+	 */
+	public ColumnarFeatureWriter( final File file, final long nEdges, final long nTracks ) throws IOException
+	{
+		this.nEdges = nEdges;
+		this.nTracks = nTracks;
+
+		final List< String > edgeColumns = new ArrayList<>();
+		final List< String > trackColumns = new ArrayList<>();
+		for ( final String column : EDGE_ID_COLUMNS )
+			edgeColumns.add( column );
+		edgeColumns.addAll( LinearTrackEdgeStatistics.FEATURES );
+		for ( final String column : TRACK_ID_COLUMNS )
+			trackColumns.add( column );
+		trackColumns.addAll( LinearTrackDescriptor.FEATURES );
+
+		// Header size, then column offsets.
+		int headerSize = MAGIC.length + 4 + 4;
+		headerSize += tableHeaderSize( EDGE_TABLE, edgeColumns );
+		headerSize += tableHeaderSize( TRACK_TABLE, trackColumns );
+		long offset = align( headerSize, ALIGNMENT );
+		final long[] edgeOffsets = new long[ edgeColumns.size() ];
+		for ( int c = 0; c < edgeOffsets.length; c++ )
+		{
+			edgeOffsets[ c ] = offset;
+			offset = align( offset + nEdges * ( c < EDGE_ID_COLUMNS.length ? 4 : 8 ), 8 );
+		}
+		final long[] trackOffsets = new long[ trackColumns.size() ];
+		for ( int c = 0; c < trackOffsets.length; c++ )
+		{
+			trackOffsets[ c ] = offset;
+			offset = align( offset + nTracks * ( c < TRACK_ID_COLUMNS.length ? 4 : 8 ), 8 );
+		}
+
+		final ByteBuffer header = ByteBuffer.allocate( headerSize ).order( ByteOrder.LITTLE_ENDIAN );
+		header.put( MAGIC ).putInt( VERSION ).putInt( 2 );
+		putTableHeader( header, EDGE_TABLE, nEdges, edgeColumns, EDGE_ID_COLUMNS.length, edgeOffsets );
+		putTableHeader( header, TRACK_TABLE, nTracks, trackColumns, TRACK_ID_COLUMNS.length, trackOffsets );
+		header.flip();
+
+		try (final RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+		{
+			raf.setLength( 0 );
+			raf.setLength( offset );
+			final FileChannel channel = raf.getChannel();
+			while ( header.hasRemaining() )
+				channel.write( header, header.position() );
+
+			// Mappings stay valid after the channel is closed.
+			edgeIDs = new MappedByteBuffer[ EDGE_ID_COLUMNS.length ][];
+			for ( int c = 0; c < edgeIDs.length; c++ )
+				edgeIDs[ c ] = map( channel, MapMode.READ_WRITE, edgeOffsets[ c ], nEdges, 4 );
+			edgeValues = new MappedByteBuffer[ LinearTrackEdgeStatistics.FEATURES.size() ][];
+			for ( int c = 0; c < edgeValues.length; c++ )
+				edgeValues[ c ] = map( channel, MapMode.READ_WRITE, edgeOffsets[ EDGE_ID_COLUMNS.length + c ], nEdges, 8 );
+			trackIDs = new MappedByteBuffer[ TRACK_ID_COLUMNS.length ][];
+			for ( int c = 0; c < trackIDs.length; c++ )
+				trackIDs[ c ] = map( channel, MapMode.READ_WRITE, trackOffsets[ c ], nTracks, 4 );
+			trackValues = new MappedByteBuffer[ LinearTrackDescriptor.FEATURES.size() ][];
+			for ( int c = 0; c < trackValues.length; c++ )
+				trackValues[ c ] = map( channel, MapMode.READ_WRITE, trackOffsets[ TRACK_ID_COLUMNS.length + c ], nTracks, 8 );
+		}
+	}
+
+	/**
+	 * Writes the features of all the tracks of a model and of their edges,
+	 * as computed by {@link LinearTrackEdgeStatistics} and
+	 * {@link LinearTrackDescriptor}, in parallel over the tracks. The edges
+	 * of each track are consecutive, oriented forward in time and sorted by
+	 * source spot.
+	 *
+	 * @param model
+	 *            the model, with its features computed.
+	 * @param file
+	 *            the file to write to.
+	 * @param numThreads
+	 *            the number of threads to write with.
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public static void export( final Model model, final File file, final int numThreads ) throws IOException
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), model.getTrackModel().trackIDs( false ) );
+		try (final ColumnarFeatureWriter writer = new ColumnarFeatureWriter( file, geom.nEdges, geom.nTracks ))
+		{
+			final int grain = Math.max( 1, MIN_EDGES_PER_CHUNK * geom.nTracks / Math.max( 1, geom.nEdges ) );
+			new RangeExecutor( null, numThreads ).forEach( geom.nTracks, grain, new RangeTask()
+			{
+				@Override
+				public void run( final int from, final int to )
+				{
+					final double[] edgeFeatures = new double[ LinearTrackEdgeStatistics.FEATURES.size() ];
+					final double[] trackFeatures = new double[ LinearTrackDescriptor.FEATURES.size() ];
+					for ( int k = from; k < to; k++ )
+					{
+						final int trackID = geom.trackIDs[ k ];
+						for ( int e = geom.edgeStart[ k ]; e < geom.edgeStart[ k + 1 ]; e++ )
+						{
+							for ( int f = 0; f < edgeFeatures.length; f++ )
+								edgeFeatures[ f ] = value( fm.getEdgeFeature( geom.edges[ e ], LinearTrackEdgeStatistics.FEATURES.get( f ) ) );
+							writer.putEdge( e, trackID, geom.spots[ geom.source[ e ] ].ID(), geom.spots[ geom.target[ e ] ].ID(), edgeFeatures );
+						}
+
+						final Integer id = Integer.valueOf( trackID );
+						for ( int f = 0; f < trackFeatures.length; f++ )
+							trackFeatures[ f ] = value( fm.getTrackFeature( id, LinearTrackDescriptor.FEATURES.get( f ) ) );
+						writer.putTrack( k, trackID, trackFeatures );
+					}
+				}
+			} );
+		}
+	}
+
+	/**
+	 * Writes one row of the edge table.
+	 *
+	 * @param row
+	 *            the row index.
+	 * @param trackID
+	 *            the ID of the track of the edge.
+	 * @param sourceID
+	 *            the ID of the source spot of the edge.
+	 * @param targetID
+	 *            the ID of the target spot of the edge.
+	 * @param values
+	 *            the feature values, in the order of
+	 *            {@link LinearTrackEdgeStatistics#FEATURES}.
+	 */
+	public void putEdge( final long row, final int trackID, final int sourceID, final int targetID, final double[] values )
+	{
+		checkRow( row, nEdges );
+		putInt( edgeIDs[ 0 ], row, trackID );
+		putInt( edgeIDs[ 1 ], row, sourceID );
+		putInt( edgeIDs[ 2 ], row, targetID );
+		for ( int c = 0; c < edgeValues.length; c++ )
+			putDouble( edgeValues[ c ], row, values[ c ] );
+	}
+
+	/**
+	 * Writes one row of the track table.
+	 *
+	 * @param row
+	 *            the row index.
+	 * @param trackID
+	 *            the track ID.
+	 * @param values
+	 *            the feature values, in the order of
+	 *            {@link LinearTrackDescriptor#FEATURES}.
+	 */
+	public void putTrack( final long row, final int trackID, final double[] values )
+	{
+		checkRow( row, nTracks );
+		putInt( trackIDs[ 0 ], row, trackID );
+		for ( int c = 0; c < trackValues.length; c++ )
+			putDouble( trackValues[ c ], row, values[ c ] );
+	}
+
+	/**
+	 * Flushes the written values to the file.
+	 */
+	@Override
+	public void close()
+	{
+		for ( final MappedByteBuffer[][] columns : new MappedByteBuffer[][][] { edgeIDs, edgeValues, trackIDs, trackValues } )
+			for ( final MappedByteBuffer[] column : columns )
+				for ( final MappedByteBuffer segment : column )
+					segment.force();
+	}
+
+	/**
+	 * Maps a column in segments of {@value #ROWS_PER_SEGMENT} rows, little
+	 * endian.
+	 */
+	static MappedByteBuffer[] map( final FileChannel channel, final MapMode mode, final long offset, final long nRows, final int width ) throws IOException
+	{
+		final int nSegments = ( int ) ( ( nRows + ROWS_PER_SEGMENT - 1 ) / ROWS_PER_SEGMENT );
+		final MappedByteBuffer[] segments = new MappedByteBuffer[ nSegments ];
+		for ( int s = 0; s < nSegments; s++ )
+		{
+			final long first = ( long ) s * ROWS_PER_SEGMENT;
+			final long size = Math.min( ROWS_PER_SEGMENT, nRows - first ) * width;
+			segments[ s ] = channel.map( mode, offset + first * width, size );
+			segments[ s ].order( ByteOrder.LITTLE_ENDIAN );
+		}
+		return segments;
+	}
+
+	private static void putInt( final MappedByteBuffer[] column, final long row, final int value )
+	{
+		column[ ( int ) ( row / ROWS_PER_SEGMENT ) ].putInt( ( int ) ( row % ROWS_PER_SEGMENT ) * 4, value );
+	}
+
+	private static void putDouble( final MappedByteBuffer[] column, final long row, final double value )
+	{
+		column[ ( int ) ( row / ROWS_PER_SEGMENT ) ].putDouble( ( int ) ( row % ROWS_PER_SEGMENT ) * 8, value );
+	}
+
+	private static void checkRow( final long row, final long nRows )
+	{
+		if ( row < 0 || row >= nRows )
+			throw new IndexOutOfBoundsException( "Row " + row + " out of [0, " + nRows + ")." );
+	}
+
+	private static double value( final Double value )
+	{
+		return null == value ? Double.NaN : value.doubleValue();
+	}
+
+	private static int tableHeaderSize( final String name, final List< String > columns )
+	{
+		int size = 2 + utf8( name ).length + 8 + 4;
+		for ( final String column : columns )
+			size += 2 + utf8( column ).length + 1 + 8;
+		return size;
+	}
+
+	private static void putTableHeader( final ByteBuffer header, final String name, final long nRows, final List< String > columns, final int nIDColumns, final long[] offsets )
+	{
+		putString( header, name );
+		header.putLong( nRows ).putInt( columns.size() );
+		for ( int c = 0; c < columns.size(); c++ )
+		{
+			putString( header, columns.get( c ) );
+			header.put( c < nIDColumns ? INT32 : FLOAT64 ).putLong( offsets[ c ] );
+		}
+	}
+
+	private static void putString( final ByteBuffer header, final String str )
+	{
+		final byte[] bytes = utf8( str );
+		header.putShort( ( short ) bytes.length ).put( bytes );
+	}
+
+	private static byte[] utf8( final String str )
+	{
+		return str.getBytes( StandardCharsets.UTF_8 );
+	}
+
+	private static long align( final long position, final int alignment )
+	{
+		return ( position + alignment - 1 ) / alignment * alignment;
+	}
+}
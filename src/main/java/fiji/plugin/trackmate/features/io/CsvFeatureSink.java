@@ -0,0 +1,180 @@
+package fiji.plugin.trackmate.features.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+
+/**
+ * Writes the edge and track features to two CSV tables, with one header
+ * line and one line per edge or per track. Optionally, a first
+ * <code>FILE</code> column holds the name of the file the features come
+ * from, so that the tables of several files can be concatenated.
+ */
+public class CsvFeatureSink implements FeatureSink
+{
+
+	private static final char SEPARATOR = ',';
+
+	private final Writer edgeWriter;
+
+	private final Writer trackWriter;
+
+	private final String source;
+
+	private final StringBuilder line = new StringBuilder();
+
+	/**
+	 * Creates a sink writing to the specified files, overwriting them.
+	 *
+	 * @param edgeFile
+	 *            the file to write the edge table to.
+	 * @param trackFile
+	 *            the file to write the track table to.
+	 * @throws IOException
+	 *             if a file cannot be opened.
+	 */
+	public CsvFeatureSink( final File edgeFile, final File trackFile ) throws IOException
+	{
+		this( open( edgeFile ), open( trackFile ) );
+	}
+
+	/**
+	 * Creates a sink writing to the specified writers. The writers are
+	 * closed with the sink.
+	 *
+	 * @param edgeWriter
+	 *            the writer for the edge table.
+	 * @param trackWriter
+	 *            the writer for the track table.
+	 * @throws IOException
+	 *             if the headers cannot be written.
+	 */
+	public CsvFeatureSink( final Writer edgeWriter, final Writer trackWriter ) throws IOException
+	{
+		this( edgeWriter, trackWriter, null, true );
+	}
+
+	/**
+	 * Creates a sink writing to the specified writers. The writers are
+	 * closed with the sink.
+	 *
+	 * @param edgeWriter
+	 *            the writer for the edge table.
+	 * @param trackWriter
+	 *            the writer for the track table.
+	 * @param source
+	 *            the value of the <code>FILE</code> column, or
+	 *            <code>null</code> not to write this column.
+	 * @param header
+	 *            whether to write the header lines.
+	 * @throws IOException
+	 *             if the headers cannot be written.
+	 */
+	public CsvFeatureSink( final Writer edgeWriter, final Writer trackWriter, final String source, final boolean header ) throws IOException
+	{
+		this.edgeWriter = edgeWriter;
+		this.trackWriter = trackWriter;
+		this.source = null == source ? null : quote( source );
+		if ( header )
+			writeHeaders( edgeWriter, trackWriter, null != source );
+	}
+
+	/**
+	 * Writes the header lines of the two tables.
+	 *
+	 * @param edgeWriter
+	 *            the writer for the edge table.
+	 * @param trackWriter
+	 *            the writer for the track table.
+	 * @param withSource
+	 *            whether the tables have a <code>FILE</code> column.
+	 * @throws IOException
+	 *             if the headers cannot be written.
+	 */
+	public static void writeHeaders( final Writer edgeWriter, final Writer trackWriter, final boolean withSource ) throws IOException
+	{
+		final StringBuilder header = new StringBuilder();
+		if ( withSource )
+			header.append( "FILE" ).append( SEPARATOR );
+		header.append( "TRACK_ID" ).append( SEPARATOR ).append( "SPOT_SOURCE_ID" ).append( SEPARATOR ).append( "SPOT_TARGET_ID" );
+		for ( final String feature : LinearTrackEdgeStatistics.FEATURES )
+			header.append( SEPARATOR ).append( feature );
+		edgeWriter.append( header ).append( '\n' );
+
+		header.setLength( 0 );
+		if ( withSource )
+			header.append( "FILE" ).append( SEPARATOR );
+		header.append( "TRACK_ID" );
+		for ( final String feature : LinearTrackDescriptor.FEATURES )
+			header.append( SEPARATOR ).append( feature );
+		trackWriter.append( header ).append( '\n' );
+	}
+
+	@Override
+	public void edge( final int trackID, final int sourceID, final int targetID, final double[] values ) throws IOException
+	{
+		appendSource();
+		line.append( trackID ).append( SEPARATOR ).append( sourceID ).append( SEPARATOR ).append( targetID );
+		for ( int i = 0; i < LinearTrackEdgeStatistics.FEATURES.size(); i++ )
+			line.append( SEPARATOR ).append( values[ i ] );
+		writeLine( edgeWriter );
+	}
+
+	@Override
+	public void track( final int trackID, final double[] values ) throws IOException
+	{
+		appendSource();
+		line.append( trackID );
+		for ( int i = 0; i < LinearTrackDescriptor.FEATURES.size(); i++ )
+			line.append( SEPARATOR ).append( values[ i ] );
+		writeLine( trackWriter );
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			edgeWriter.close();
+		}
+		finally
+		{
+			trackWriter.close();
+		}
+	}
+
+	private void appendSource()
+	{
+		if ( null != source )
+			line.append( source ).append( SEPARATOR );
+	}
+
+	private void writeLine( final Writer writer ) throws IOException
+	{
+		line.append( '\n' );
+		writer.append( line );
+		line.setLength( 0 );
+	}
+
+	/**
+	 * Quotes a value if it contains a separator, a quote or a line break.
+	 */
+	private static String quote( final String value )
+	{
+		if ( value.indexOf( SEPARATOR ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0 && value.indexOf( '\r' ) < 0 )
+			return value;
+		return '"' + value.replace( "\"", "\"\"" ) + '"';
+	}
+
+	static Writer open( final File file ) throws IOException
+	{
+		return new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), StandardCharsets.UTF_8 ), 1 << 16 );
+	}
+}
@@ -0,0 +1,48 @@
+package fiji.plugin.trackmate.features.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+
+/**
+ * Receives the features computed by a streaming analysis, one edge or one
+ * track at a time.
+ */
+public interface FeatureSink extends Closeable
+{
+
+	/**
+	 * Receives the features of one edge.
+	 *
+	 * @param trackID
+	 *            the ID of the track of the edge.
+	 * @param sourceID
+	 *            the ID of the source spot of the edge. Edges are oriented
+	 *            forward in time.
+	 * @param targetID
+	 *            the ID of the target spot of the edge.
+	 * @param values
+	 *            the feature values, in the order of
+	 *            {@link LinearTrackEdgeStatistics#FEATURES}. The array is
+	 *            reused after this call returns.
+	 * @throws IOException
+	 *             if the values cannot be written.
+	 */
+	public void edge( int trackID, int sourceID, int targetID, double[] values ) throws IOException;
+
+	/**
+	 * Receives the features of one track.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @param values
+	 *            the feature values, in the order of
+	 *            {@link LinearTrackDescriptor#FEATURES}. The array is reused
+	 *            after this call returns.
+	 * @throws IOException
+	 *             if the values cannot be written.
+	 */
+	public void track( int trackID, double[] values ) throws IOException;
+}
@@ -0,0 +1,147 @@
+package fiji.plugin.trackmate.features.io;
+
+import java.util.Arrays;
+
+/**
+ * A minimal open-addressing hash map from <code>int</code> keys to
+ * non-negative <code>int</code> values, without boxing. It uses 8 bytes
+ * per slot, and keeps the load factor at most 1/2.
+ */
+public class IntIntHashMap
+{
+
+	/**
+	 * The value returned for absent keys.
+	 */
+	public static final int NO_VALUE = -1;
+
+	private int[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	private int mask;
+
+	/**
+	 * Creates a map.
+	 *
+	 * @param expectedSize
+	 *            the number of keys the map is expected to hold.
+	 */
+	public IntIntHashMap( final int expectedSize )
+	{
+		allocate( capacityFor( expectedSize ) );
+	}
+
+	/**
+	 * Returns the value associated with a key.
+	 *
+	 * @param key
+	 *            the key.
+	 * @return the value, or {@link #NO_VALUE} if the key is absent.
+	 */
+	public int get( final int key )
+	{
+		int slot = hash( key ) & mask;
+		while ( values[ slot ] != NO_VALUE )
+		{
+			if ( keys[ slot ] == key )
+				return values[ slot ];
+			slot = ( slot + 1 ) & mask;
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Associates a value with a key, if the key is absent.
+	 *
+	 * @param key
+	 *            the key.
+	 * @param value
+	 *            the value, which must be non-negative.
+	 * @return the value already associated with the key, or
+	 *         {@link #NO_VALUE} if the key was absent and the value was
+	 *         added.
+	 */
+	public int putIfAbsent( final int key, final int value )
+	{
+		if ( value < 0 )
+			throw new IllegalArgumentException( "Values must be non-negative: " + value );
+
+		int slot = hash( key ) & mask;
+		while ( values[ slot ] != NO_VALUE )
+		{
+			if ( keys[ slot ] == key )
+				return values[ slot ];
+			slot = ( slot + 1 ) & mask;
+		}
+		keys[ slot ] = key;
+		values[ slot ] = value;
+		size++;
+		if ( 2 * size > keys.length )
+			rehash( 2 * keys.length );
+		return NO_VALUE;
+	}
+
+	/**
+	 * Returns the number of keys in the map.
+	 *
+	 * @return the number of keys.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes all the keys, keeping the current capacity.
+	 */
+	public void clear()
+	{
+		Arrays.fill( values, NO_VALUE );
+		size = 0;
+	}
+
+	private void rehash( final int capacity )
+	{
+		final int[] oldKeys = keys;
+		final int[] oldValues = values;
+		allocate( capacity );
+		for ( int i = 0; i < oldKeys.length; i++ )
+		{
+			if ( oldValues[ i ] == NO_VALUE )
+				continue;
+			int slot = hash( oldKeys[ i ] ) & mask;
+			while ( values[ slot ] != NO_VALUE )
+				slot = ( slot + 1 ) & mask;
+			keys[ slot ] = oldKeys[ i ];
+			values[ slot ] = oldValues[ i ];
+		}
+	}
+
+	private void allocate( final int capacity )
+	{
+		keys = new int[ capacity ];
+		values = new int[ capacity ];
+		Arrays.fill( values, NO_VALUE );
+		mask = capacity - 1;
+	}
+
+	private static int capacityFor( final int expectedSize )
+	{
+		int capacity = 16;
+		while ( capacity < 2 * expectedSize )
+			capacity <<= 1;
+		return capacity;
+	}
+
+	/**
+	 * Spreads consecutive IDs over the table.
+	 */
+	private static int hash( final int key )
+	{
+		final int h = key * 0x9E3779B9;
+		return h ^ ( h >>> 16 );
+	}
+}
@@ -0,0 +1,682 @@
+package fiji.plugin.trackmate.features.io;
+
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.SPOT_ID_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_SOURCE_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_EDGE_TARGET_ATTRIBUTE_NAME;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ELEMENT_KEY;
+import static fiji.plugin.trackmate.io.TmXmlKeys.TRACK_ID_ATTRIBUTE_NAME;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.linear.AnglePrecision;
+import fiji.plugin.trackmate.features.linear.LinearTrackAccumulator;
+import fiji.plugin.trackmate.features.linear.LinearTrackKernel;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+
+/**
+ * Computes the features of {@link LinearTrackEdgeStatistics} and
+ * {@link LinearTrackDescriptor} directly from a TrackMate XML file, without
+ * building a model.
+ * <p>
+ * The file is read once with a pull parser. Spot records are spilled to a
+ * temporary file as they are read, and the edges of each track to another
+ * one. The spots are then regrouped per track in a third temporary file,
+ * which is memory-mapped, and the tracks are analyzed one at a time from
+ * there.
+ * <p>
+ * The spots are regrouped in passes over consecutive tracks holding at most
+ * {@link #setMaxSpotsPerPass(int) a given number of spots}, or a single
+ * track if it is larger. Each pass builds a map from spot ID to track for
+ * its tracks only, and scans the spot file once. The heap used is therefore
+ * bounded by the primitive geometry of the largest track plus a map taking
+ * 16 to 32 bytes per spot of the largest pass, whatever the size of the
+ * file. A lower bound trades memory for more scans of the spot file.
+ * <p>
+ * The features the track features depend on (displacement, duration and
+ * mean speed) are computed from the track geometry, with the same
+ * definitions as in TrackMate. All the tracks of the file are analyzed,
+ * visible or not.
+ */
+public class StreamingLinearTrackAnalysis
+{
+
+	/**
+	 * Spot ID, frame, then X, Y, Z and T.
+	 */
+	private static final int SPOT_RECORD_BYTES = 4 + 4 + 4 * 8;
+
+	/**
+	 * Number of spot records in one mapped segment of the regrouped spots.
+	 * Records never straddle two segments.
+	 */
+	private static final int SPOTS_PER_SEGMENT = 1 << 24;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Expected number of spots of a track, for the set of the spots of the
+	 * track being parsed.
+	 */
+	private static final int EXPECTED_TRACK_SPOTS = 64;
+
+	public static final int DEFAULT_MAX_SPOTS_PER_PASS = 1 << 22;
+
+	private final File file;
+
+	private File temporaryDirectory;
+
+	private AnglePrecision anglePrecision = AnglePrecision.EXACT;
+
+	private int maxSpotsPerPass = DEFAULT_MAX_SPOTS_PER_PASS;
+
+	private long processingTime;
+
+	private long nSpots;
+
+	private long nEdges;
+
+	private int nTracks;
+
+	private int largestTrack;
+
+	private int nPasses;
+
+	/*
+	 * Per-track counts, filled while parsing.
+	 */
+
+	private int[] trackIDs;
+
+	private int[] trackSpots;
+
+	private int[] trackEdges;
+
+	/*
+	 * Buffers for the geometry of the current track, grown as needed.
+	 */
+
+	private int[] ids = new int[ 0 ];
+
+	private int[] frame = new int[ 0 ];
+
+	private double[] x = new double[ 0 ];
+
+	private double[] y = new double[ 0 ];
+
+	private double[] z = new double[ 0 ];
+
+	private double[] t = new double[ 0 ];
+
+	private long[] keys = new long[ 0 ];
+
+	private int[] sortedIDs = new int[ 0 ];
+
+	private int[] sortedIndices = new int[ 0 ];
+
+	private int[] rawIDs = new int[ 0 ];
+
+	private int[] rawFrames = new int[ 0 ];
+
+	/**
+	 * X, Y, Z and T of each spot, interleaved, in the order of the file.
+	 */
+	private double[] raw = new double[ 0 ];
+
+	private int[] edgeSource = new int[ 0 ];
+
+	private int[] edgeTarget = new int[ 0 ];
+
+	/**
+	 * Creates an analysis of the specified TrackMate XML file.
+	 *
+	 * @param file
+	 *            the file to analyze.
+	 */
+	public StreamingLinearTrackAnalysis( final File file )
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Sets the directory to write the temporary files to. If
+	 * <code>null</code>, the default temporary directory is used.
+	 *
+	 * @param temporaryDirectory
+	 *            the directory.
+	 */
+	public void setTemporaryDirectory( final File temporaryDirectory )
+	{
+		this.temporaryDirectory = temporaryDirectory;
+	}
+
+	/**
+	 * Sets the precision with which the angle features are computed. The
+	 * default is {@link AnglePrecision#EXACT}.
+	 *
+	 * @param anglePrecision
+	 *            the precision of the angles.
+	 */
+	public void setAnglePrecision( final AnglePrecision anglePrecision )
+	{
+		this.anglePrecision = anglePrecision;
+	}
+
+	/**
+	 * Sets the maximal number of spots regrouped per pass over the spot
+	 * file, which bounds the size of the map from spot ID to track. A track
+	 * larger than this is regrouped alone. The default is
+	 * {@value #DEFAULT_MAX_SPOTS_PER_PASS}.
+	 *
+	 * @param maxSpotsPerPass
+	 *            the maximal number of spots per pass.
+	 */
+	public void setMaxSpotsPerPass( final int maxSpotsPerPass )
+	{
+		if ( maxSpotsPerPass < 1 )
+			throw new IllegalArgumentException( "The number of spots per pass must be at least 1: " + maxSpotsPerPass );
+		this.maxSpotsPerPass = maxSpotsPerPass;
+	}
+
+	/**
+	 * Analyzes the file and sends the features of all edges and tracks to
+	 * the specified sink. The sink is not closed.
+	 *
+	 * @param sink
+	 *            the sink to send the features to.
+	 * @throws IOException
+	 *             if the file or a temporary file cannot be read or written,
+	 *             or if the file is not a valid TrackMate file.
+	 */
+	public void process( final FeatureSink sink ) throws IOException
+	{
+		final long start = System.currentTimeMillis();
+		nSpots = 0;
+		nEdges = 0;
+		nTracks = 0;
+		largestTrack = 0;
+		nPasses = 0;
+		trackIDs = new int[ 64 ];
+		trackSpots = new int[ 64 ];
+		trackEdges = new int[ 64 ];
+
+		final File spotFile = File.createTempFile( "trackmate-spots", ".bin", temporaryDirectory );
+		final File edgeFile = File.createTempFile( "trackmate-edges", ".bin", temporaryDirectory );
+		final File groupedFile = File.createTempFile( "trackmate-tracks", ".bin", temporaryDirectory );
+		try
+		{
+			parse( spotFile, edgeFile );
+
+			// Offsets of the tracks in the grouped spot file.
+			final long[] offsets = new long[ nTracks + 1 ];
+			for ( int k = 0; k < nTracks; k++ )
+			{
+				offsets[ k + 1 ] = offsets[ k ] + trackSpots[ k ];
+				largestTrack = Math.max( largestTrack, trackSpots[ k ] );
+			}
+
+			try (final RandomAccessFile raf = new RandomAccessFile( groupedFile, "rw" ))
+			{
+				final MappedByteBuffer[] segments = map( raf.getChannel(), offsets[ nTracks ] );
+				group( spotFile, edgeFile, offsets, segments );
+				analyze( edgeFile, offsets, segments, sink );
+			}
+		}
+		catch ( final XMLStreamException e )
+		{
+			throw new IOException( "Could not parse " + file, e );
+		}
+		finally
+		{
+			spotFile.delete();
+			edgeFile.delete();
+			groupedFile.delete();
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+	}
+
+	/**
+	 * Returns the time spent in the last call to {@link #process(FeatureSink)},
+	 * in ms.
+	 *
+	 * @return the processing time.
+	 */
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	/**
+	 * Returns the number of spots read in the file.
+	 *
+	 * @return the number of spots.
+	 */
+	public long getNSpots()
+	{
+		return nSpots;
+	}
+
+	/**
+	 * Returns the number of edges analyzed.
+	 *
+	 * @return the number of edges.
+	 */
+	public long getNEdges()
+	{
+		return nEdges;
+	}
+
+	/**
+	 * Returns the number of tracks analyzed.
+	 *
+	 * @return the number of tracks.
+	 */
+	public int getNTracks()
+	{
+		return nTracks;
+	}
+
+	/**
+	 * Returns the number of spots of the largest track, which bounds the
+	 * memory used by the analysis with the maximal number of spots per pass.
+	 *
+	 * @return the number of spots of the largest track.
+	 */
+	public int getLargestTrack()
+	{
+		return largestTrack;
+	}
+
+	/**
+	 * Returns the number of passes over the spot file made to regroup the
+	 * spots per track.
+	 *
+	 * @return the number of passes.
+	 */
+	public int getNPasses()
+	{
+		return nPasses;
+	}
+
+	/**
+	 * Reads the XML file once. Spots are written to the spot file in the
+	 * order of the file, and edges to the edge file grouped by track. The
+	 * spots of each track are counted with a set of the spots of the track
+	 * being read only, as the edges of a track are contiguous.
+	 */
+	private void parse( final File spotFile, final File edgeFile ) throws IOException, XMLStreamException
+	{
+		IntIntHashMap trackSpotSet = new IntIntHashMap( EXPECTED_TRACK_SPOTS );
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		try (final InputStream is = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+				final DataOutputStream spots = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( spotFile ), BUFFER_SIZE ) );
+				final DataOutputStream edges = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( edgeFile ), BUFFER_SIZE ) ))
+		{
+			final XMLStreamReader reader = factory.createXMLStreamReader( is );
+			try
+			{
+				int k = -1;
+				while ( reader.hasNext() )
+				{
+					if ( reader.next() != XMLStreamConstants.START_ELEMENT )
+						continue;
+
+					final String name = reader.getLocalName();
+					if ( SPOT_ELEMENT_KEY.equals( name ) )
+					{
+						spots.writeInt( intAttribute( reader, SPOT_ID_ATTRIBUTE_NAME ) );
+						spots.writeInt( intAttribute( reader, Spot.FRAME ) );
+						spots.writeDouble( doubleAttribute( reader, Spot.POSITION_X ) );
+						spots.writeDouble( doubleAttribute( reader, Spot.POSITION_Y ) );
+						spots.writeDouble( doubleAttribute( reader, Spot.POSITION_Z ) );
+						spots.writeDouble( doubleAttribute( reader, Spot.POSITION_T ) );
+						nSpots++;
+					}
+					else if ( TRACK_ELEMENT_KEY.equals( name ) )
+					{
+						k = nTracks++;
+						if ( k == trackIDs.length )
+						{
+							trackIDs = Arrays.copyOf( trackIDs, 2 * k );
+							trackSpots = Arrays.copyOf( trackSpots, 2 * k );
+							trackEdges = Arrays.copyOf( trackEdges, 2 * k );
+						}
+						trackIDs[ k ] = intAttribute( reader, TRACK_ID_ATTRIBUTE_NAME );
+						// Do not keep clearing a table grown for a large track.
+						if ( trackSpotSet.size() > EXPECTED_TRACK_SPOTS )
+							trackSpotSet = new IntIntHashMap( EXPECTED_TRACK_SPOTS );
+						else
+							trackSpotSet.clear();
+					}
+					else if ( TRACK_EDGE_ELEMENT_KEY.equals( name ) && k >= 0 )
+					{
+						final int source = intAttribute( reader, TRACK_EDGE_SOURCE_ATTRIBUTE_NAME );
+						final int target = intAttribute( reader, TRACK_EDGE_TARGET_ATTRIBUTE_NAME );
+						edges.writeInt( source );
+						edges.writeInt( target );
+						trackEdges[ k ]++;
+						nEdges++;
+						if ( trackSpotSet.putIfAbsent( source, k ) == IntIntHashMap.NO_VALUE )
+							trackSpots[ k ]++;
+						if ( trackSpotSet.putIfAbsent( target, k ) == IntIntHashMap.NO_VALUE )
+							trackSpots[ k ]++;
+					}
+				}
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Copies the spots of the spot file that belong to a track to the
+	 * mapped segments, grouped by track, in passes over consecutive tracks.
+	 */
+	private void group( final File spotFile, final File edgeFile, final long[] offsets, final MappedByteBuffer[] segments ) throws IOException
+	{
+		final int expectedSize = ( int ) Math.max( largestTrack, Math.min( maxSpotsPerPass, offsets[ nTracks ] ) );
+		final IntIntHashMap spotTracks = new IntIntHashMap( expectedSize );
+		final int[] filled = new int[ nTracks ];
+		try (final DataInputStream edges = new DataInputStream( new BufferedInputStream( new FileInputStream( edgeFile ), BUFFER_SIZE ) ))
+		{
+			int k0 = 0;
+			while ( k0 < nTracks )
+			{
+				// Consecutive tracks, at least one, within the budget.
+				long nPassSpots = trackSpots[ k0 ];
+				int k1 = k0 + 1;
+				while ( k1 < nTracks && nPassSpots + trackSpots[ k1 ] <= maxSpotsPerPass )
+					nPassSpots += trackSpots[ k1++ ];
+
+				// Their edges are contiguous in the edge file.
+				spotTracks.clear();
+				for ( int k = k0; k < k1; k++ )
+				{
+					for ( int i = 0; i < 2 * trackEdges[ k ]; i++ )
+					{
+						final int id = edges.readInt();
+						final int previous = spotTracks.putIfAbsent( id, k );
+						if ( previous != IntIntHashMap.NO_VALUE && previous != k )
+							throw new IOException( "Spot " + id + " of " + file + " is linked to several tracks." );
+					}
+				}
+
+				if ( nPassSpots > 0 )
+				{
+					final long nRouted = route( spotFile, spotTracks, offsets, filled, segments );
+					nPasses++;
+					if ( nRouted < nPassSpots )
+						throw new IOException( "Some edges of " + file + " refer to spots that are not in the file." );
+					if ( nRouted > nPassSpots )
+						throw new IOException( "Some spot IDs of " + file + " are used by several spots." );
+				}
+				k0 = k1;
+			}
+		}
+		catch ( final EOFException e )
+		{
+			throw new IOException( "Truncated temporary edge file.", e );
+		}
+	}
+
+	/**
+	 * Scans the spot file and copies the spots of the map to the mapped
+	 * segments.
+	 *
+	 * @return the number of spots copied.
+	 */
+	private long route( final File spotFile, final IntIntHashMap spotTracks, final long[] offsets, final int[] filled, final MappedByteBuffer[] segments ) throws IOException
+	{
+		long nRouted = 0;
+		try (final DataInputStream spots = new DataInputStream( new BufferedInputStream( new FileInputStream( spotFile ), BUFFER_SIZE ) ))
+		{
+			for ( long i = 0; i < nSpots; i++ )
+			{
+				final int id = spots.readInt();
+				final int k = spotTracks.get( id );
+				if ( k == IntIntHashMap.NO_VALUE )
+				{
+					// Not in a track of this pass.
+					spots.skipBytes( SPOT_RECORD_BYTES - 4 );
+					continue;
+				}
+
+				final long index = offsets[ k ] + filled[ k ]++;
+				final MappedByteBuffer segment = segments[ ( int ) ( index / SPOTS_PER_SEGMENT ) ];
+				int position = ( int ) ( index % SPOTS_PER_SEGMENT ) * SPOT_RECORD_BYTES;
+				segment.putInt( position, id );
+				position += 4;
+				segment.putInt( position, spots.readInt() );
+				position += 4;
+				for ( int d = 0; d < 4; d++ )
+				{
+					segment.putDouble( position, spots.readDouble() );
+					position += 8;
+				}
+				nRouted++;
+			}
+		}
+		catch ( final EOFException e )
+		{
+			throw new IOException( "Truncated temporary spot file.", e );
+		}
+		return nRouted;
+	}
+
+	/**
+	 * Analyzes the tracks one at a time.
+	 */
+	private void analyze( final File edgeFile, final long[] offsets, final MappedByteBuffer[] segments, final FeatureSink sink ) throws IOException
+	{
+		final LinearTrackAccumulator acc = new LinearTrackAccumulator();
+		final double[] trackFeatures = new double[ LinearTrackAccumulator.N_FEATURES ];
+		final double[] edgeFeatures = new double[ LinearTrackEdgeStatistics.FEATURES.size() ];
+
+		try (final DataInputStream edges = new DataInputStream( new BufferedInputStream( new FileInputStream( edgeFile ), BUFFER_SIZE ) ))
+		{
+			for ( int k = 0; k < nTracks; k++ )
+			{
+				final int n = trackSpots[ k ];
+				final int nTrackEdges = trackEdges[ k ];
+				if ( nTrackEdges == 0 )
+					continue;
+				ensureCapacity( n, nTrackEdges );
+				readSpots( segments, offsets[ k ], n );
+
+				for ( int i = 0; i < nTrackEdges; i++ )
+				{
+					edgeSource[ i ] = indexOf( edges.readInt(), n );
+					edgeTarget[ i ] = indexOf( edges.readInt(), n );
+				}
+
+				final TrackGeometry geom = TrackGeometry.forTrack( trackIDs[ k ], n, x, y, z, t, frame, nTrackEdges, edgeSource, edgeTarget );
+				final double[] directionalChangeRate = new double[ nTrackEdges ];
+				final double[] angleXY = new double[ nTrackEdges ];
+				final double[] angleYZ = new double[ nTrackEdges ];
+				final double[] angleZX = new double[ nTrackEdges ];
+				acc.reset();
+				LinearTrackKernel.accumulate( geom, 0, acc, directionalChangeRate, angleXY, angleYZ, angleZX, anglePrecision );
+
+				for ( int e = 0; e < nTrackEdges; e++ )
+				{
+					edgeFeatures[ 0 ] = directionalChangeRate[ e ];
+					edgeFeatures[ 1 ] = angleXY[ e ];
+					edgeFeatures[ 2 ] = angleYZ[ e ];
+					edgeFeatures[ 3 ] = angleZX[ e ];
+					sink.edge( trackIDs[ k ], ids[ geom.source[ e ] ], ids[ geom.target[ e ] ], edgeFeatures );
+				}
+
+				// Dependency features, from the first and last spots in time.
+				final int last = n - 1;
+				final double dx = x[ last ] - x[ 0 ];
+				final double dy = y[ last ] - y[ 0 ];
+				final double dz = z[ last ] - z[ 0 ];
+				final double netDistance = Math.sqrt( dx * dx + dy * dy + dz * dz );
+				final double tTotal = t[ last ] - t[ 0 ];
+				final double vMean = LinearTrackKernel.meanSpeed( geom, 0 );
+
+				acc.computeFeatures( netDistance, tTotal, vMean, trackFeatures, anglePrecision );
+				sink.track( trackIDs[ k ], trackFeatures );
+			}
+		}
+		catch ( final EOFException e )
+		{
+			throw new IOException( "Truncated temporary edge file.", e );
+		}
+	}
+
+	/**
+	 * Reads the spots of one track from the mapped segments into the
+	 * buffers, sorted by frame. The buffers must be large enough.
+	 */
+	private void readSpots( final MappedByteBuffer[] segments, final long offset, final int n )
+	{
+		for ( int i = 0; i < n; i++ )
+		{
+			final long index = offset + i;
+			final MappedByteBuffer segment = segments[ ( int ) ( index / SPOTS_PER_SEGMENT ) ];
+			int position = ( int ) ( index % SPOTS_PER_SEGMENT ) * SPOT_RECORD_BYTES;
+			rawIDs[ i ] = segment.getInt( position );
+			position += 4;
+			rawFrames[ i ] = segment.getInt( position );
+			position += 4;
+			for ( int d = 0; d < 4; d++ )
+			{
+				raw[ 4 * i + d ] = segment.getDouble( position );
+				position += 8;
+			}
+			keys[ i ] = ( ( long ) rawFrames[ i ] << 32 ) | i;
+		}
+
+		// Sort by frame, keeping the file order for spots in the same frame.
+		Arrays.sort( keys, 0, n );
+		for ( int j = 0; j < n; j++ )
+		{
+			final int i = ( int ) keys[ j ];
+			ids[ j ] = rawIDs[ i ];
+			frame[ j ] = rawFrames[ i ];
+			x[ j ] = raw[ 4 * i ];
+			y[ j ] = raw[ 4 * i + 1 ];
+			z[ j ] = raw[ 4 * i + 2 ];
+			t[ j ] = raw[ 4 * i + 3 ];
+		}
+
+		// Index of spot IDs, for the edges.
+		for ( int j = 0; j < n; j++ )
+			keys[ j ] = ( ( long ) ids[ j ] << 32 ) | j;
+		Arrays.sort( keys, 0, n );
+		for ( int j = 0; j < n; j++ )
+		{
+			sortedIDs[ j ] = ( int ) ( keys[ j ] >> 32 );
+			sortedIndices[ j ] = ( int ) keys[ j ];
+		}
+	}
+
+	private int indexOf( final int id, final int n ) throws IOException
+	{
+		final int j = Arrays.binarySearch( sortedIDs, 0, n, id );
+		if ( j < 0 )
+			throw new IOException( "Spot " + id + " of " + file + " is linked but missing from the spots of the file." );
+		return sortedIndices[ j ];
+	}
+
+	private void ensureCapacity( final int nSpotsTrack, final int nEdgesTrack )
+	{
+		if ( ids.length < nSpotsTrack )
+		{
+			final int capacity = Math.max( nSpotsTrack, 2 * ids.length );
+			ids = new int[ capacity ];
+			frame = new int[ capacity ];
+			x = new double[ capacity ];
+			y = new double[ capacity ];
+			z = new double[ capacity ];
+			t = new double[ capacity ];
+			keys = new long[ capacity ];
+			sortedIDs = new int[ capacity ];
+			sortedIndices = new int[ capacity ];
+			rawIDs = new int[ capacity ];
+			rawFrames = new int[ capacity ];
+			raw = new double[ 4 * capacity ];
+		}
+		if ( edgeSource.length < nEdgesTrack )
+		{
+			edgeSource = new int[ nEdgesTrack ];
+			edgeTarget = new int[ nEdgesTrack ];
+		}
+	}
+
+	private static MappedByteBuffer[] map( final FileChannel channel, final long nRecords ) throws IOException
+	{
+		final int nSegments = ( int ) ( ( nRecords + SPOTS_PER_SEGMENT - 1 ) / SPOTS_PER_SEGMENT );
+		final MappedByteBuffer[] segments = new MappedByteBuffer[ nSegments ];
+		for ( int s = 0; s < nSegments; s++ )
+		{
+			final long first = ( long ) s * SPOTS_PER_SEGMENT;
+			final long size = Math.min( SPOTS_PER_SEGMENT, nRecords - first ) * SPOT_RECORD_BYTES;
+			segments[ s ] = channel.map( MapMode.READ_WRITE, first * SPOT_RECORD_BYTES, size );
+		}
+		return segments;
+	}
+
+	private static String attribute( final XMLStreamReader reader, final String name ) throws XMLStreamException
+	{
+		final String value = reader.getAttributeValue( null, name );
+		if ( null == value )
+			throw new XMLStreamException( "Missing attribute " + name + " in element " + reader.getLocalName() + ".", reader.getLocation() );
+		return value;
+	}
+
+	private static int intAttribute( final XMLStreamReader reader, final String name ) throws XMLStreamException
+	{
+		final String value = attribute( reader, name );
+		try
+		{
+			return Integer.parseInt( value );
+		}
+		catch ( final NumberFormatException e )
+		{
+			// Integer features may be written as decimals.
+			return ( int ) doubleAttribute( reader, name );
+		}
+	}
+
+	private static double doubleAttribute( final XMLStreamReader reader, final String name ) throws XMLStreamException
+	{
+		final String value = attribute( reader, name );
+		try
+		{
+			return Double.parseDouble( value );
+		}
+		catch ( final NumberFormatException e )
+		{
+			throw new XMLStreamException( "Invalid value for attribute " + name + ": " + value, reader.getLocation(), e );
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package fiji.plugin.trackmate.features.linear;
+
+/**
+ * The precision with which the linear track analyzers compute angles.
+ */
+public enum AnglePrecision
+{
+	/**
+	 * Angles are computed with {@link Math#atan2(double, double)}.
+	 */
+	EXACT
+	{
+		@Override
+		public double atan2( final double y, final double x )
+		{
+			return Math.atan2( y, x );
+		}
+
+		@Override
+		public double maxError()
+		{
+			return 0.;
+		}
+	},
+
+	/**
+	 * Angles are computed with {@link FastAtan2#atan2(double, double)}, within
+	 * {@value FastAtan2#MAX_ERROR} radians of the exact values.
+	 */
+	FAST
+	{
+		@Override
+		public double atan2( final double y, final double x )
+		{
+			return FastAtan2.atan2( y, x );
+		}
+
+		@Override
+		public double maxError()
+		{
+			return FastAtan2.MAX_ERROR;
+		}
+	};
+
+	/**
+	 * Returns the angle <i>theta</i> of the conversion of the rectangular
+	 * coordinates (<code>x</code>, <code>y</code>) to polar coordinates, with
+	 * this precision.
+	 *
+	 * @param y
+	 *            the ordinate coordinate.
+	 * @param x
+	 *            the abscissa coordinate.
+	 * @return the angle, from -&pi; to &pi;.
+	 */
+	public abstract double atan2( final double y, final double x );
+
+	/**
+	 * Returns the maximal absolute error of the angles computed with this
+	 * precision, in radians.
+	 *
+	 * @return the maximal error.
+	 */
+	public abstract double maxError();
+}
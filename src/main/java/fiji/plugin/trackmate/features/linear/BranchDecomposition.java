@@ -0,0 +1,210 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.Arrays;
+
+/**
+ * The decomposition of the tracks of a {@link TrackGeometry} into branches,
+ * the maximal linear segments of the track graphs.
+ * <p>
+ * A branch is a maximal path of edges whose inner spots have exactly one
+ * predecessor and one successor. Branches therefore start at the first spot
+ * of a track, at a division or at a merge, and end at the last spot of a
+ * track, at a division or at a merge. Each edge belongs to exactly one
+ * branch. A spot where branches meet is the last spot of the branches that
+ * end there and the first spot of the branches that start there.
+ * <p>
+ * The branches of the track at index <code>k</code> of the snapshot are
+ * found in <code>[trackBranchStart[k], trackBranchStart[k+1])</code>, and
+ * the edges of branch <code>b</code>, in path order, at
+ * <code>edges[edgeStart[b]]</code> to <code>edges[edgeStart[b+1] - 1]</code>.
+ * Edge and spot indices are those of the snapshot.
+ * <p>
+ * The decomposition is built in one pass over the snapshot, in time and
+ * memory linear in its number of spots and edges.
+ */
+public class BranchDecomposition
+{
+
+	/**
+	 * Number of branches.
+	 */
+	public final int nBranches;
+
+	/**
+	 * Index in the snapshot of the track of each branch.
+	 */
+	public final int[] track;
+
+	/**
+	 * Index of the first edge of each branch in {@link #edges}. Has
+	 * <code>nBranches + 1</code> elements.
+	 */
+	public final int[] edgeStart;
+
+	/**
+	 * The snapshot edges of all branches, branch after branch, each in path
+	 * order.
+	 */
+	public final int[] edges;
+
+	/**
+	 * Index of the parent branch of each branch, that is of the branch that
+	 * ends at its first spot, or -1 if its first spot does not have exactly
+	 * one predecessor.
+	 */
+	public final int[] parent;
+
+	/**
+	 * Index of the first branch of each track. Has <code>nTracks + 1</code>
+	 * elements.
+	 */
+	public final int[] trackBranchStart;
+
+	private final TrackGeometry geom;
+
+	private BranchDecomposition( final TrackGeometry geom, final int nBranches, final int[] track, final int[] edgeStart, final int[] edges, final int[] parent, final int[] trackBranchStart )
+	{
+		this.geom = geom;
+		this.nBranches = nBranches;
+		this.track = track;
+		this.edgeStart = edgeStart;
+		this.edges = edges;
+		this.parent = parent;
+		this.trackBranchStart = trackBranchStart;
+	}
+
+	/**
+	 * Decomposes all the tracks of a snapshot into branches.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @return a new decomposition.
+	 */
+	public static BranchDecomposition of( final TrackGeometry geom )
+	{
+		final int nSpots = geom.nSpots;
+		final int nEdges = geom.nEdges;
+		final int[] source = geom.source;
+		final int[] target = geom.target;
+
+		/*
+		 * Degrees, and for each spot its first outgoing edge (edges are
+		 * sorted by source) and its incoming edge if it has exactly one.
+		 */
+
+		final int[] in = new int[ nSpots ];
+		final int[] out = new int[ nSpots ];
+		final int[] firstOut = new int[ nSpots ];
+		final int[] inEdge = new int[ nSpots ];
+		Arrays.fill( firstOut, -1 );
+		for ( int e = nEdges - 1; e >= 0; e-- )
+		{
+			out[ source[ e ] ]++;
+			firstOut[ source[ e ] ] = e;
+			in[ target[ e ] ]++;
+			inEdge[ target[ e ] ] = e;
+		}
+
+		/*
+		 * Follow each branch from its first edge, an edge whose source is
+		 * not an inner spot. Edges are sorted by track, so are the branches.
+		 */
+
+		int nBranches = 0;
+		for ( int e = 0; e < nEdges; e++ )
+			if ( in[ source[ e ] ] != 1 || out[ source[ e ] ] != 1 )
+				nBranches++;
+
+		final int[] branchTrack = new int[ nBranches ];
+		final int[] edgeStart = new int[ nBranches + 1 ];
+		final int[] edges = new int[ nEdges ];
+		final int[] parent = new int[ nBranches ];
+		final int[] edgeBranch = new int[ nEdges ];
+		final int[] trackBranchStart = new int[ geom.nTracks + 1 ];
+
+		int b = 0;
+		int n = 0;
+		int k = 0;
+		for ( int e = 0; e < nEdges; e++ )
+		{
+			final int s = source[ e ];
+			if ( in[ s ] == 1 && out[ s ] == 1 )
+				continue;
+
+			while ( e >= geom.edgeStart[ k + 1 ] )
+				trackBranchStart[ ++k ] = b;
+			branchTrack[ b ] = k;
+			edgeStart[ b ] = n;
+
+			int current = e;
+			while ( true )
+			{
+				edges[ n++ ] = current;
+				edgeBranch[ current ] = b;
+				final int next = target[ current ];
+				if ( in[ next ] != 1 || out[ next ] != 1 )
+					break;
+				current = firstOut[ next ];
+			}
+			b++;
+		}
+		edgeStart[ nBranches ] = n;
+		while ( k < geom.nTracks )
+			trackBranchStart[ ++k ] = nBranches;
+
+		// Parents, now that all edges have a branch.
+		for ( int i = 0; i < nBranches; i++ )
+		{
+			final int first = source[ edges[ edgeStart[ i ] ] ];
+			parent[ i ] = in[ first ] == 1 ? edgeBranch[ inEdge[ first ] ] : -1;
+		}
+
+		return new BranchDecomposition( geom, nBranches, branchTrack, edgeStart, edges, parent, trackBranchStart );
+	}
+
+	/**
+	 * Returns the number of edges of a branch.
+	 *
+	 * @param branch
+	 *            the branch index.
+	 * @return the number of edges, at least 1.
+	 */
+	public int nEdges( final int branch )
+	{
+		return edgeStart[ branch + 1 ] - edgeStart[ branch ];
+	}
+
+	/**
+	 * Returns the snapshot index of the first spot of a branch.
+	 *
+	 * @param branch
+	 *            the branch index.
+	 * @return the spot index.
+	 */
+	public int firstSpot( final int branch )
+	{
+		return geom.source[ edges[ edgeStart[ branch ] ] ];
+	}
+
+	/**
+	 * Returns the snapshot index of the last spot of a branch.
+	 *
+	 * @param branch
+	 *            the branch index.
+	 * @return the spot index.
+	 */
+	public int lastSpot( final int branch )
+	{
+		return geom.target[ edges[ edgeStart[ branch + 1 ] - 1 ] ];
+	}
+
+	/**
+	 * Returns the snapshot this decomposition was built from.
+	 *
+	 * @return the snapshot.
+	 */
+	public TrackGeometry getGeometry()
+	{
+		return geom;
+	}
+}
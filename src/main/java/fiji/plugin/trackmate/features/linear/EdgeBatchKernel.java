@@ -0,0 +1,145 @@
+package fiji.plugin.trackmate.features.linear;
+
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+
+/**
+ * Computes the features of {@link LinearTrackEdgeStatistics} for ranges of
+ * edges of a {@link TrackGeometry}, several edges at a time when the JDK
+ * Vector API is available.
+ * <p>
+ * The vectorized kernel is shipped in the Java 17 part of the multi-release
+ * JAR and requires the <code>jdk.incubator.vector</code> module, e.g. with
+ * the JVM option <code>--add-modules jdk.incubator.vector</code>. It gathers
+ * the positions of the spots of as many edges as there are lanes in the
+ * preferred vector shape of the platform, and computes the displacements,
+ * cross and dot products and angles lane-wise. On Java 8, or without the
+ * module, {@link #get()} returns the {@link #scalar()} kernel, which is
+ * {@link EdgeKernel}.
+ * <p>
+ * Tolerance: all operations are the ones of {@link EdgeKernel}, in the same
+ * order and without fused multiply-adds, so that only the arc tangent can
+ * differ. With {@link AnglePrecision#FAST}, the polynomial of
+ * {@link FastAtan2} is evaluated lane-wise and values are identical. With
+ * {@link AnglePrecision#EXACT}, the Vector API arc tangent is only specified
+ * to 1 ulp of the exact value, like {@link Math#atan2(double, double)}, and
+ * values are within {@value #MAX_EXACT_ULPS} ulps of the ones of
+ * {@link EdgeKernel}. Special values (NaN, infinite and null displacements)
+ * are the same.
+ */
+public abstract class EdgeBatchKernel
+{
+
+	/**
+	 * The maximal difference between the values of a vectorized kernel and
+	 * of {@link EdgeKernel}, in ulps of the value of {@link EdgeKernel}, with
+	 * {@link AnglePrecision#EXACT}.
+	 */
+	public static final int MAX_EXACT_ULPS = 4;
+
+	private static final String VECTOR_KERNEL_CLASS = "fiji.plugin.trackmate.features.linear.VectorEdgeBatchKernel";
+
+	private static final EdgeBatchKernel SCALAR = new EdgeBatchKernel()
+	{
+
+		@Override
+		public void compute( final TrackGeometry geom, final int from, final int to,
+				final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+				final AnglePrecision precision )
+		{
+			EdgeKernel.compute( geom, from, to, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+		}
+
+		@Override
+		public int lanes()
+		{
+			return 1;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "scalar";
+		}
+	};
+
+	private static final EdgeBatchKernel BEST = loadVectorKernel();
+
+	/**
+	 * Returns the vectorized kernel if the Vector API is available, and the
+	 * scalar kernel otherwise.
+	 *
+	 * @return the fastest kernel of this JVM.
+	 */
+	public static EdgeBatchKernel get()
+	{
+		return BEST;
+	}
+
+	/**
+	 * Returns the kernel that computes one edge at a time with
+	 * {@link EdgeKernel}, on all JVMs.
+	 *
+	 * @return the scalar kernel.
+	 */
+	public static EdgeBatchKernel scalar()
+	{
+		return SCALAR;
+	}
+
+	private static EdgeBatchKernel loadVectorKernel()
+	{
+		try
+		{
+			// Absent on Java 8, fails to initialize without the module.
+			return ( EdgeBatchKernel ) Class.forName( VECTOR_KERNEL_CLASS ).newInstance();
+		}
+		catch ( final ReflectiveOperationException | LinkageError e )
+		{
+			return SCALAR;
+		}
+	}
+
+	/**
+	 * Computes the edge features of a range of edges of a snapshot, with
+	 * angles computed with the specified precision. Values are written at
+	 * the index of the edge in the snapshot.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param from
+	 *            the first edge, inclusive.
+	 * @param to
+	 *            the last edge, exclusive.
+	 * @param directionalChangeRate
+	 *            the array to store the directional change rates in.
+	 * @param angleXY
+	 *            the array to store the absolute angles in the XY plane in.
+	 * @param angleYZ
+	 *            the array to store the absolute angles in the YZ plane in.
+	 * @param angleZX
+	 *            the array to store the absolute angles in the ZX plane in.
+	 * @param precision
+	 *            the precision of the angles.
+	 */
+	public abstract void compute( TrackGeometry geom, int from, int to,
+			double[] directionalChangeRate, double[] angleXY, double[] angleYZ, double[] angleZX,
+			AnglePrecision precision );
+
+	/**
+	 * Returns the number of edges this kernel processes at a time.
+	 *
+	 * @return the number of lanes, 1 for the scalar kernel.
+	 */
+	public abstract int lanes();
+
+	/**
+	 * Returns whether this kernel uses the Vector API.
+	 *
+	 * @return <code>true</code> if values can differ from the ones of
+	 *         {@link EdgeKernel} with {@link AnglePrecision#EXACT}.
+	 */
+	public boolean isVectorized()
+	{
+		return this != SCALAR;
+	}
+}
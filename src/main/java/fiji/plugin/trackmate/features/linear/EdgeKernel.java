@@ -0,0 +1,144 @@
+package fiji.plugin.trackmate.features.linear;
+
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+
+/**
+ * Computes the features of {@link LinearTrackEdgeStatistics} for ranges of
+ * edges of a {@link TrackGeometry}, one edge at a time.
+ * <p>
+ * Snapshots of 2D data, see {@link TrackGeometry#isPlanar()}, are processed
+ * by a specialized loop that does not read the Z positions, gets the angles
+ * in the YZ and ZX planes from signs, and the turning angles from the Z
+ * component of the cross product, with the same values.
+ */
+public class EdgeKernel
+{
+
+	private EdgeKernel()
+	{}
+
+	/**
+	 * Computes the edge features of a range of edges of a snapshot. Values
+	 * are written at the index of the edge in the snapshot.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param from
+	 *            the first edge, inclusive.
+	 * @param to
+	 *            the last edge, exclusive.
+	 * @param directionalChangeRate
+	 *            the array to store the directional change rates in.
+	 * @param angleXY
+	 *            the array to store the absolute angles in the XY plane in.
+	 * @param angleYZ
+	 *            the array to store the absolute angles in the YZ plane in.
+	 * @param angleZX
+	 *            the array to store the absolute angles in the ZX plane in.
+	 */
+	public static void compute( final TrackGeometry geom, final int from, final int to,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX )
+	{
+		compute( geom, from, to, directionalChangeRate, angleXY, angleYZ, angleZX, AnglePrecision.EXACT );
+	}
+
+	/**
+	 * Computes the edge features of a range of edges of a snapshot, with
+	 * angles computed with the specified precision. Values are written at
+	 * the index of the edge in the snapshot.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param from
+	 *            the first edge, inclusive.
+	 * @param to
+	 *            the last edge, exclusive.
+	 * @param directionalChangeRate
+	 *            the array to store the directional change rates in.
+	 * @param angleXY
+	 *            the array to store the absolute angles in the XY plane in.
+	 * @param angleYZ
+	 *            the array to store the absolute angles in the YZ plane in.
+	 * @param angleZX
+	 *            the array to store the absolute angles in the ZX plane in.
+	 * @param precision
+	 *            the precision of the angles.
+	 */
+	public static void compute( final TrackGeometry geom, final int from, final int to,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		if ( geom.isPlanar() )
+		{
+			compute2D( geom, from, to, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+			return;
+		}
+
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		final double[] t = geom.t;
+
+		for ( int e = from; e < to; e++ )
+		{
+			final int source = geom.source[ e ];
+			final int target = geom.target[ e ];
+
+			final double dx2 = x[ target ] - x[ source ];
+			final double dy2 = y[ target ] - y[ source ];
+			final double dz2 = z[ target ] - z[ source ];
+
+			angleXY[ e ] = precision.atan2( dy2, dx2 );
+			angleYZ[ e ] = precision.atan2( dz2, dy2 );
+			angleZX[ e ] = precision.atan2( dx2, dz2 );
+
+			final int predecessor = geom.predecessor[ e ];
+			if ( predecessor < 0 )
+			{
+				directionalChangeRate[ e ] = Double.NaN;
+				continue;
+			}
+
+			final double dx1 = x[ source ] - x[ predecessor ];
+			final double dy1 = y[ source ] - y[ predecessor ];
+			final double dz1 = z[ source ] - z[ predecessor ];
+			directionalChangeRate[ e ] = LinearTrackMath.directionalChangeRate( dx1, dy1, dz1, dx2, dy2, dz2, t[ target ] - t[ source ], precision );
+		}
+	}
+
+	/**
+	 * For planar snapshots.
+	 */
+	private static void compute2D( final TrackGeometry geom, final int from, final int to,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] t = geom.t;
+
+		for ( int e = from; e < to; e++ )
+		{
+			final int source = geom.source[ e ];
+			final int target = geom.target[ e ];
+
+			final double dx2 = x[ target ] - x[ source ];
+			final double dy2 = y[ target ] - y[ source ];
+
+			angleXY[ e ] = precision.atan2( dy2, dx2 );
+			angleYZ[ e ] = LinearTrackMath.atan2ZeroY( dy2 );
+			angleZX[ e ] = LinearTrackMath.atan2ZeroX( dx2 );
+
+			final int predecessor = geom.predecessor[ e ];
+			if ( predecessor < 0 )
+			{
+				directionalChangeRate[ e ] = Double.NaN;
+				continue;
+			}
+
+			final double dx1 = x[ source ] - x[ predecessor ];
+			final double dy1 = y[ source ] - y[ predecessor ];
+			directionalChangeRate[ e ] = LinearTrackMath.turningAngle2D( dx1, dy1, dx2, dy2, precision ) / ( t[ target ] - t[ source ] );
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package fiji.plugin.trackmate.features.linear;
+
+/**
+ * In-place radix-2 fast Fourier transform of complex sequences stored as
+ * separate real and imaginary arrays, for one power-of-two size.
+ * <p>
+ * The twiddle factors are computed once per instance. Instances are
+ * immutable and can be shared between threads, see {@link #forSize(int)}.
+ */
+public class FFT
+{
+
+	/**
+	 * Shared transforms, by log2 of their size.
+	 */
+	private static final FFT[] CACHE = new FFT[ 31 ];
+
+	private final int n;
+
+	private final double[] cos;
+
+	private final double[] sin;
+
+	/**
+	 * Creates a transform of the specified size.
+	 *
+	 * @param n
+	 *            the size, a power of two.
+	 * @throws IllegalArgumentException
+	 *             if the size is not a power of two.
+	 */
+	public FFT( final int n )
+	{
+		if ( n < 1 || Integer.bitCount( n ) != 1 )
+			throw new IllegalArgumentException( "Size must be a power of two: " + n );
+		this.n = n;
+		this.cos = new double[ Math.max( 1, n / 2 ) ];
+		this.sin = new double[ Math.max( 1, n / 2 ) ];
+		for ( int k = 0; k < n / 2; k++ )
+		{
+			cos[ k ] = Math.cos( 2. * Math.PI * k / n );
+			sin[ k ] = Math.sin( 2. * Math.PI * k / n );
+		}
+	}
+
+	/**
+	 * Returns a transform of the specified size, shared by all the callers.
+	 *
+	 * @param n
+	 *            the size, a power of two.
+	 * @return the transform.
+	 * @throws IllegalArgumentException
+	 *             if the size is not a power of two.
+	 */
+	public static FFT forSize( final int n )
+	{
+		if ( n < 1 || Integer.bitCount( n ) != 1 )
+			throw new IllegalArgumentException( "Size must be a power of two: " + n );
+		final int log2 = Integer.numberOfTrailingZeros( n );
+		synchronized ( CACHE )
+		{
+			if ( null == CACHE[ log2 ] )
+				CACHE[ log2 ] = new FFT( n );
+			return CACHE[ log2 ];
+		}
+	}
+
+	/**
+	 * Returns the smallest power of two larger than or equal to a value.
+	 *
+	 * @param value
+	 *            the value, at least 1 and at most 2<sup>30</sup>.
+	 * @return the power of two.
+	 */
+	public static int nextPowerOfTwo( final int value )
+	{
+		return value <= 1 ? 1 : Integer.highestOneBit( value - 1 ) << 1;
+	}
+
+	public int size()
+	{
+		return n;
+	}
+
+	/**
+	 * Computes the forward transform, X<sub>k</sub> = &Sigma;
+	 * x<sub>j</sub> e<sup>-2&pi;ijk/n</sup>, in place.
+	 *
+	 * @param re
+	 *            the real parts, of at least <code>n</code> elements.
+	 * @param im
+	 *            the imaginary parts, of at least <code>n</code> elements.
+	 */
+	public void forward( final double[] re, final double[] im )
+	{
+		transform( re, im );
+	}
+
+	/**
+	 * Computes the inverse transform, x<sub>j</sub> = 1/n &Sigma;
+	 * X<sub>k</sub> e<sup>2&pi;ijk/n</sup>, in place.
+	 *
+	 * @param re
+	 *            the real parts, of at least <code>n</code> elements.
+	 * @param im
+	 *            the imaginary parts, of at least <code>n</code> elements.
+	 */
+	public void inverse( final double[] re, final double[] im )
+	{
+		// Inverse by swapping the real and imaginary parts.
+		transform( im, re );
+		final double scale = 1. / n;
+		for ( int i = 0; i < n; i++ )
+		{
+			re[ i ] *= scale;
+			im[ i ] *= scale;
+		}
+	}
+
+	private void transform( final double[] re, final double[] im )
+	{
+		// Bit-reversal permutation.
+		for ( int i = 1, j = 0; i < n; i++ )
+		{
+			int bit = n >> 1;
+			for ( ; ( j & bit ) != 0; bit >>= 1 )
+				j ^= bit;
+			j ^= bit;
+			if ( i < j )
+			{
+				final double tr = re[ i ];
+				re[ i ] = re[ j ];
+				re[ j ] = tr;
+				final double ti = im[ i ];
+				im[ i ] = im[ j ];
+				im[ j ] = ti;
+			}
+		}
+
+		// Butterflies.
+		for ( int len = 2; len <= n; len <<= 1 )
+		{
+			final int half = len >> 1;
+			final int step = n / len;
+			for ( int start = 0; start < n; start += len )
+			{
+				for ( int k = 0; k < half; k++ )
+				{
+					final double wr = cos[ k * step ];
+					final double wi = -sin[ k * step ];
+					final int a = start + k;
+					final int b = a + half;
+					final double xr = re[ b ] * wr - im[ b ] * wi;
+					final double xi = re[ b ] * wi + im[ b ] * wr;
+					re[ b ] = re[ a ] - xr;
+					im[ b ] = im[ a ] - xi;
+					re[ a ] += xr;
+					im[ a ] += xi;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package fiji.plugin.trackmate.features.linear;
+
+/**
+ * Polynomial approximation of {@link Math#atan2(double, double)}.
+ * <p>
+ * The arguments are reduced to the first octant, where the arc tangent of
+ * the ratio of the smallest to the largest absolute value is approximated
+ * by an odd polynomial of degree 9 (Abramowitz &amp; Stegun 4.4.47). The
+ * result is then unfolded to the right octant. The absolute error is below
+ * {@value #MAX_ERROR} radians for all finite arguments. Infinite, NaN and
+ * zero arguments are delegated to {@link Math#atan2(double, double)}, so
+ * that the special cases are the same.
+ */
+public class FastAtan2
+{
+
+	/**
+	 * The maximal absolute error of {@link #atan2(double, double)}, in
+	 * radians.
+	 */
+	public static final double MAX_ERROR = 1.2e-5;
+
+	static final double A1 = 0.9998660;
+
+	static final double A3 = -0.3302995;
+
+	static final double A5 = 0.1801410;
+
+	static final double A7 = -0.0851330;
+
+	static final double A9 = 0.0208351;
+
+	static final double HALF_PI = Math.PI / 2.;
+
+	private FastAtan2()
+	{}
+
+	/**
+	 * Returns an approximation of the angle <i>theta</i> of the conversion
+	 * of the rectangular coordinates (<code>x</code>, <code>y</code>) to
+	 * polar coordinates, from -&pi; to &pi;.
+	 *
+	 * @param y
+	 *            the ordinate coordinate.
+	 * @param x
+	 *            the abscissa coordinate.
+	 * @return the angle, within {@value #MAX_ERROR} of
+	 *         {@link Math#atan2(double, double)}.
+	 */
+	public static double atan2( final double y, final double x )
+	{
+		final double ax = Math.abs( x );
+		final double ay = Math.abs( y );
+		final double max = Math.max( ax, ay );
+		// Also false for NaN.
+		if ( !( max > 0. && max < Double.POSITIVE_INFINITY ) )
+			return Math.atan2( y, x );
+
+		final double a = Math.min( ax, ay ) / max;
+		final double s = a * a;
+		double r = a * ( A1 + s * ( A3 + s * ( A5 + s * ( A7 + s * A9 ) ) ) );
+		if ( ay > ax )
+			r = HALF_PI - r;
+		if ( x < 0. )
+			r = Math.PI - r;
+		return Math.copySign( r, y );
+	}
+}
@@ -0,0 +1,187 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.store.CompactEdgeFeatureStore;
+import fiji.plugin.trackmate.features.store.CompactFeatureModel;
+
+/**
+ * Primitive storage for the feature values computed during an analysis
+ * run, one <code>double[]</code> column per feature.
+ * <p>
+ * Workers write into the columns at the index of the item they process, so
+ * that concurrent workers never write to the same slot and never touch the
+ * {@link FeatureModel}. The values are then published to the feature model
+ * in one bulk commit at the end of the run.
+ */
+public class FeatureColumns
+{
+
+	private final List< String > features;
+
+	private final double[][] values;
+
+	/**
+	 * Creates columns for the specified features.
+	 *
+	 * @param features
+	 *            the feature keys, one column per feature.
+	 * @param size
+	 *            the number of items, that is the length of each column.
+	 */
+	public FeatureColumns( final List< String > features, final int size )
+	{
+		this.features = features;
+		this.values = new double[ features.size() ][ size ];
+	}
+
+	/**
+	 * Returns the column of the specified feature.
+	 *
+	 * @param feature
+	 *            the feature key.
+	 * @return the column, indexed like the items of the run.
+	 * @throws IllegalArgumentException
+	 *             if the feature has no column.
+	 */
+	public double[] column( final String feature )
+	{
+		final int i = features.indexOf( feature );
+		if ( i < 0 )
+			throw new IllegalArgumentException( "Unknown feature: " + feature );
+		return values[ i ];
+	}
+
+	/**
+	 * Sets the values of all the features for one item.
+	 *
+	 * @param index
+	 *            the item index.
+	 * @param row
+	 *            the values, in the order of the feature keys.
+	 */
+	public void setRow( final int index, final double[] row )
+	{
+		for ( int f = 0; f < values.length; f++ )
+			values[ f ][ index ] = row[ f ];
+	}
+
+	/**
+	 * Returns columns holding the values of some of the items only, for
+	 * runs that completed part of their items.
+	 *
+	 * @param rows
+	 *            the indices of the items to keep, in the order of the new
+	 *            columns.
+	 * @return new columns.
+	 */
+	public FeatureColumns subset( final int[] rows )
+	{
+		final FeatureColumns subset = new FeatureColumns( features, rows.length );
+		for ( int f = 0; f < values.length; f++ )
+		{
+			final double[] from = values[ f ];
+			final double[] to = subset.values[ f ];
+			for ( int i = 0; i < rows.length; i++ )
+				to[ i ] = from[ rows[ i ] ];
+		}
+		return subset;
+	}
+
+	/**
+	 * Returns the feature keys of the columns.
+	 *
+	 * @return the feature keys.
+	 */
+	public List< String > getFeatures()
+	{
+		return features;
+	}
+
+	/**
+	 * Publishes the columns as edge features.
+	 * <p>
+	 * The put methods of {@link FeatureModel} synchronize on the feature
+	 * model. We hold its monitor while writing a whole column, so that each
+	 * put only re-enters a lock the committing thread already owns, and the
+	 * lock is contended at most once per column instead of once per value.
+	 *
+	 * <p>
+	 * If the feature model is a {@link CompactFeatureModel} storing all the
+	 * features of the columns, they are copied to its store directly, without
+	 * boxing.
+	 *
+	 * @param fm
+	 *            the feature model to write to.
+	 * @param edges
+	 *            the edges, indexed like the columns.
+	 */
+	public void commitEdgeFeatures( final FeatureModel fm, final DefaultWeightedEdge[] edges )
+	{
+		if ( fm instanceof CompactFeatureModel )
+		{
+			final CompactEdgeFeatureStore store = ( ( CompactFeatureModel ) fm ).getEdgeStore();
+			if ( store.getFeatures().containsAll( features ) )
+			{
+				store.putAll( edges, features, values );
+				return;
+			}
+		}
+
+		for ( int f = 0; f < values.length; f++ )
+		{
+			final String feature = features.get( f );
+			final double[] column = values[ f ];
+			synchronized ( fm )
+			{
+				for ( int i = 0; i < edges.length; i++ )
+					fm.putEdgeFeature( edges[ i ], feature, Double.valueOf( column[ i ] ) );
+			}
+		}
+	}
+
+	/**
+	 * Publishes the columns as track features.
+	 *
+	 * @param fm
+	 *            the feature model to write to.
+	 * @param trackIDs
+	 *            the track IDs, indexed like the columns.
+	 * @see #commitEdgeFeatures(FeatureModel, DefaultWeightedEdge[])
+	 */
+	public void commitTrackFeatures( final FeatureModel fm, final int[] trackIDs )
+	{
+		for ( int f = 0; f < values.length; f++ )
+		{
+			final String feature = features.get( f );
+			final double[] column = values[ f ];
+			synchronized ( fm )
+			{
+				for ( int i = 0; i < trackIDs.length; i++ )
+					fm.putTrackFeature( Integer.valueOf( trackIDs[ i ] ), feature, Double.valueOf( column[ i ] ) );
+			}
+		}
+	}
+
+	/**
+	 * Publishes the columns as spot features. Spot features are stored in
+	 * the spots themselves, not in the feature model.
+	 *
+	 * @param spots
+	 *            the spots, indexed like the columns.
+	 */
+	public void commitSpotFeatures( final Spot[] spots )
+	{
+		for ( int f = 0; f < values.length; f++ )
+		{
+			final String feature = features.get( f );
+			final double[] column = values[ f ];
+			for ( int i = 0; i < spots.length; i++ )
+				spots[ i ].putFeature( feature, Double.valueOf( column[ i ] ) );
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package fiji.plugin.trackmate.features.linear;
+
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+
+/**
+ * Running sums over the edges of a track, from which the features of
+ * {@link LinearTrackDescriptor} are computed.
+ */
+public class LinearTrackAccumulator
+{
+
+	/**
+	 * Number of features computed by {@link #computeFeatures}.
+	 */
+	public static final int N_FEATURES = 9;
+
+	private double totalDistance;
+
+	private double maxDistanceSq;
+
+	private double sumAngleSpeed;
+
+	private int nAngleSpeed;
+
+	private double dx;
+
+	private double dy;
+
+	private double dz;
+
+	public LinearTrackAccumulator()
+	{
+		reset();
+	}
+
+	/**
+	 * Resets all the sums.
+	 */
+	public void reset()
+	{
+		totalDistance = 0.;
+		maxDistanceSq = Double.NEGATIVE_INFINITY;
+		sumAngleSpeed = 0.;
+		nAngleSpeed = 0;
+		dx = 0.;
+		dy = 0.;
+		dz = 0.;
+	}
+
+	/**
+	 * Adds one edge to the sums.
+	 *
+	 * @param ex
+	 *            X component of the edge displacement.
+	 * @param ey
+	 *            Y component of the edge displacement.
+	 * @param ez
+	 *            Z component of the edge displacement.
+	 * @param dToFirstSq
+	 *            the squared distance between the edge target and the first
+	 *            spot of the track.
+	 * @param angleSpeed
+	 *            the directional change rate of the edge, or NaN if it is
+	 *            not defined.
+	 */
+	public void accumulate( final double ex, final double ey, final double ez, final double dToFirstSq, final double angleSpeed )
+	{
+		totalDistance += Math.sqrt( ex * ex + ey * ey + ez * ez );
+		if ( dToFirstSq > maxDistanceSq )
+			maxDistanceSq = dToFirstSq;
+		if ( !Double.isNaN( angleSpeed ) )
+		{
+			sumAngleSpeed += angleSpeed;
+			nAngleSpeed++;
+		}
+		dx += ex;
+		dy += ey;
+		dz += ez;
+	}
+
+	/**
+	 * Adds one edge of the XY plane to the sums. Same sums as
+	 * {@link #accumulate(double, double, double, double, double)} with a
+	 * null Z component.
+	 *
+	 * @param ex
+	 *            X component of the edge displacement.
+	 * @param ey
+	 *            Y component of the edge displacement.
+	 * @param dToFirstSq
+	 *            the squared distance between the edge target and the first
+	 *            spot of the track.
+	 * @param angleSpeed
+	 *            the directional change rate of the edge, or NaN if it is
+	 *            not defined.
+	 */
+	public void accumulate2D( final double ex, final double ey, final double dToFirstSq, final double angleSpeed )
+	{
+		totalDistance += Math.sqrt( ex * ex + ey * ey );
+		if ( dToFirstSq > maxDistanceSq )
+			maxDistanceSq = dToFirstSq;
+		if ( !Double.isNaN( angleSpeed ) )
+		{
+			sumAngleSpeed += angleSpeed;
+			nAngleSpeed++;
+		}
+		dx += ex;
+		dy += ey;
+	}
+
+	/**
+	 * Adds the sums of another accumulator to the sums of this one, so that
+	 * the edges of a track can be accumulated in several ranges, possibly
+	 * in parallel, and merged. Merging the ranges in edge order gives the
+	 * same sums whatever the number of threads, but they may differ in the
+	 * last bits from the sums of a single pass over all the edges.
+	 *
+	 * @param other
+	 *            the accumulator to merge into this one. It is not modified.
+	 */
+	public void merge( final LinearTrackAccumulator other )
+	{
+		totalDistance += other.totalDistance;
+		if ( other.maxDistanceSq > maxDistanceSq )
+			maxDistanceSq = other.maxDistanceSq;
+		sumAngleSpeed += other.sumAngleSpeed;
+		nAngleSpeed += other.nAngleSpeed;
+		dx += other.dx;
+		dy += other.dy;
+		dz += other.dz;
+	}
+
+	/**
+	 * Computes the track features from the sums.
+	 *
+	 * @param netDistance
+	 *            the distance between the first and last spots of the
+	 *            track.
+	 * @param tTotal
+	 *            the duration of the track.
+	 * @param vMean
+	 *            the mean speed over the track edges.
+	 * @param out
+	 *            an array of at least {@value #N_FEATURES} elements, in which
+	 *            the features are written in the order of
+	 *            {@link LinearTrackDescriptor#FEATURES}.
+	 */
+	public void computeFeatures( final double netDistance, final double tTotal, final double vMean, final double[] out )
+	{
+		computeFeatures( netDistance, tTotal, vMean, out, AnglePrecision.EXACT );
+	}
+
+	/**
+	 * Computes the track features from the sums, with angles computed with
+	 * the specified precision.
+	 *
+	 * @param netDistance
+	 *            the distance between the first and last spots of the
+	 *            track.
+	 * @param tTotal
+	 *            the duration of the track.
+	 * @param vMean
+	 *            the mean speed over the track edges.
+	 * @param out
+	 *            an array of at least {@value #N_FEATURES} elements, in which
+	 *            the features are written in the order of
+	 *            {@link LinearTrackDescriptor#FEATURES}.
+	 * @param precision
+	 *            the precision of the angles.
+	 */
+	public void computeFeatures( final double netDistance, final double tTotal, final double vMean, final double[] out, final AnglePrecision precision )
+	{
+		final double maxDistance = maxDistanceSq == Double.NEGATIVE_INFINITY ? 0. : Math.sqrt( maxDistanceSq );
+		final double meanStraightLineSpeed = netDistance / tTotal;
+
+		out[ 0 ] = totalDistance;
+		out[ 1 ] = maxDistance;
+		out[ 2 ] = netDistance / totalDistance;
+		out[ 3 ] = meanStraightLineSpeed;
+		out[ 4 ] = meanStraightLineSpeed / vMean;
+		out[ 5 ] = sumAngleSpeed / nAngleSpeed;
+		out[ 6 ] = precision.atan2( dy, dx );
+		out[ 7 ] = precision.atan2( dz, dy );
+		out[ 8 ] = precision.atan2( dx, dz );
+	}
+}
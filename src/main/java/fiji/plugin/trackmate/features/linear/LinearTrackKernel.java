@@ -0,0 +1,298 @@
+package fiji.plugin.trackmate.features.linear;
+
+/**
+ * Computes the per-track sums of the linear track features from a
+ * {@link TrackGeometry}, with the directional change rate of each edge
+ * computed on the fly from the snapshot.
+ */
+public class LinearTrackKernel
+{
+
+	private LinearTrackKernel()
+	{}
+
+	/**
+	 * Adds all the edges of one track of the snapshot to an accumulator.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @param acc
+	 *            the accumulator to add the edges to.
+	 */
+	public static void accumulate( final TrackGeometry geom, final int track, final LinearTrackAccumulator acc )
+	{
+		accumulate( geom, track, acc, null, null, null, null, AnglePrecision.EXACT );
+	}
+
+	/**
+	 * Adds all the edges of one track of the snapshot to an accumulator, and
+	 * stores the edge features computed along the way. The edge features are
+	 * written at the index of the edge in the snapshot.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @param acc
+	 *            the accumulator to add the edges to.
+	 * @param directionalChangeRate
+	 *            the array to store the directional change rates in, or
+	 *            <code>null</code>. If <code>null</code>, no edge feature is
+	 *            stored.
+	 * @param angleXY
+	 *            the array to store the absolute angles in the XY plane in.
+	 * @param angleYZ
+	 *            the array to store the absolute angles in the YZ plane in.
+	 * @param angleZX
+	 *            the array to store the absolute angles in the ZX plane in.
+	 */
+	public static void accumulate( final TrackGeometry geom, final int track, final LinearTrackAccumulator acc,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX )
+	{
+		accumulate( geom, track, acc, directionalChangeRate, angleXY, angleYZ, angleZX, AnglePrecision.EXACT );
+	}
+
+	/**
+	 * Adds all the edges of one track of the snapshot to an accumulator, and
+	 * stores the edge features computed along the way, with angles computed
+	 * with the specified precision.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @param acc
+	 *            the accumulator to add the edges to.
+	 * @param directionalChangeRate
+	 *            the array to store the directional change rates in, or
+	 *            <code>null</code>. If <code>null</code>, no edge feature is
+	 *            stored.
+	 * @param angleXY
+	 *            the array to store the absolute angles in the XY plane in.
+	 * @param angleYZ
+	 *            the array to store the absolute angles in the YZ plane in.
+	 * @param angleZX
+	 *            the array to store the absolute angles in the ZX plane in.
+	 * @param precision
+	 *            the precision of the angles.
+	 */
+	public static void accumulate( final TrackGeometry geom, final int track, final LinearTrackAccumulator acc,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		accumulate( geom, track, geom.edgeStart[ track ], geom.edgeStart[ track + 1 ], acc, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+	}
+
+	/**
+	 * Adds a range of the edges of one track of the snapshot to an
+	 * accumulator, and stores the edge features computed along the way.
+	 * Ranges of the same track can be accumulated separately, and merged
+	 * with {@link LinearTrackAccumulator#merge(LinearTrackAccumulator)}.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @param fromEdge
+	 *            the index of the first edge of the range in the snapshot,
+	 *            inclusive.
+	 * @param toEdge
+	 *            the index of the last edge of the range, exclusive.
+	 * @param acc
+	 *            the accumulator to add the edges to.
+	 * @param directionalChangeRate
+	 *            the array to store the directional change rates in, or
+	 *            <code>null</code>. If <code>null</code>, no edge feature is
+	 *            stored.
+	 * @param angleXY
+	 *            the array to store the absolute angles in the XY plane in.
+	 * @param angleYZ
+	 *            the array to store the absolute angles in the YZ plane in.
+	 * @param angleZX
+	 *            the array to store the absolute angles in the ZX plane in.
+	 * @param precision
+	 *            the precision of the angles.
+	 */
+	public static void accumulate( final TrackGeometry geom, final int track, final int fromEdge, final int toEdge, final LinearTrackAccumulator acc,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		if ( geom.isPlanar() )
+		{
+			accumulate2D( geom, track, fromEdge, toEdge, acc, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+			return;
+		}
+
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		final double[] t = geom.t;
+		final int first = geom.spotStart[ track ];
+		final boolean storeEdgeFeatures = null != directionalChangeRate;
+
+		for ( int e = fromEdge; e < toEdge; e++ )
+		{
+			final int source = geom.source[ e ];
+			final int target = geom.target[ e ];
+			final double ex = x[ target ] - x[ source ];
+			final double ey = y[ target ] - y[ source ];
+			final double ez = z[ target ] - z[ source ];
+
+			final double fx = x[ target ] - x[ first ];
+			final double fy = y[ target ] - y[ first ];
+			final double fz = z[ target ] - z[ first ];
+
+			final int predecessor = geom.predecessor[ e ];
+			final double angleSpeed = predecessor < 0
+					? Double.NaN
+					: LinearTrackMath.directionalChangeRate(
+							x[ source ] - x[ predecessor ], y[ source ] - y[ predecessor ], z[ source ] - z[ predecessor ],
+							ex, ey, ez, t[ target ] - t[ source ], precision );
+
+			if ( storeEdgeFeatures )
+			{
+				directionalChangeRate[ e ] = angleSpeed;
+				angleXY[ e ] = precision.atan2( ey, ex );
+				angleYZ[ e ] = precision.atan2( ez, ey );
+				angleZX[ e ] = precision.atan2( ex, ez );
+			}
+
+			acc.accumulate( ex, ey, ez, fx * fx + fy * fy + fz * fz, angleSpeed );
+		}
+	}
+
+	/**
+	 * Same as
+	 * {@link #accumulate(TrackGeometry, int, int, int, LinearTrackAccumulator, double[], double[], double[], double[], AnglePrecision)}
+	 * for planar snapshots, without reading the Z positions.
+	 */
+	private static void accumulate2D( final TrackGeometry geom, final int track, final int fromEdge, final int toEdge, final LinearTrackAccumulator acc,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] t = geom.t;
+		final int first = geom.spotStart[ track ];
+		final boolean storeEdgeFeatures = null != directionalChangeRate;
+
+		for ( int e = fromEdge; e < toEdge; e++ )
+		{
+			final int source = geom.source[ e ];
+			final int target = geom.target[ e ];
+			final double ex = x[ target ] - x[ source ];
+			final double ey = y[ target ] - y[ source ];
+
+			final double fx = x[ target ] - x[ first ];
+			final double fy = y[ target ] - y[ first ];
+
+			final int predecessor = geom.predecessor[ e ];
+			final double angleSpeed = predecessor < 0
+					? Double.NaN
+					: LinearTrackMath.turningAngle2D( x[ source ] - x[ predecessor ], y[ source ] - y[ predecessor ],
+							ex, ey, precision ) / ( t[ target ] - t[ source ] );
+
+			if ( storeEdgeFeatures )
+			{
+				directionalChangeRate[ e ] = angleSpeed;
+				angleXY[ e ] = precision.atan2( ey, ex );
+				angleYZ[ e ] = LinearTrackMath.atan2ZeroY( ey );
+				angleZX[ e ] = LinearTrackMath.atan2ZeroX( ex );
+			}
+
+			acc.accumulate2D( ex, ey, fx * fx + fy * fy, angleSpeed );
+		}
+	}
+
+	/**
+	 * Adds all the edges of one branch to an accumulator. Distances are
+	 * measured from the first spot of the branch, and the directional change
+	 * rate of the first edge of the branch is not defined, so that the
+	 * features of a branch do not depend on the rest of its track.
+	 *
+	 * @param branches
+	 *            the branch decomposition of the snapshot.
+	 * @param branch
+	 *            the index of the branch.
+	 * @param acc
+	 *            the accumulator to add the edges to.
+	 * @param precision
+	 *            the precision of the angles.
+	 * @return the mean speed over the edges of the branch.
+	 */
+	public static double accumulateBranch( final BranchDecomposition branches, final int branch, final LinearTrackAccumulator acc, final AnglePrecision precision )
+	{
+		final TrackGeometry geom = branches.getGeometry();
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		final double[] t = geom.t;
+		final int first = branches.firstSpot( branch );
+
+		double sumSpeed = 0.;
+		int predecessor = -1;
+		for ( int i = branches.edgeStart[ branch ]; i < branches.edgeStart[ branch + 1 ]; i++ )
+		{
+			final int e = branches.edges[ i ];
+			final int source = geom.source[ e ];
+			final int target = geom.target[ e ];
+			final double ex = x[ target ] - x[ source ];
+			final double ey = y[ target ] - y[ source ];
+			final double ez = z[ target ] - z[ source ];
+
+			final double fx = x[ target ] - x[ first ];
+			final double fy = y[ target ] - y[ first ];
+			final double fz = z[ target ] - z[ first ];
+
+			final double angleSpeed = predecessor < 0
+					? Double.NaN
+					: LinearTrackMath.directionalChangeRate(
+							x[ source ] - x[ predecessor ], y[ source ] - y[ predecessor ], z[ source ] - z[ predecessor ],
+							ex, ey, ez, t[ target ] - t[ source ], precision );
+
+			acc.accumulate( ex, ey, ez, fx * fx + fy * fy + fz * fz, angleSpeed );
+			sumSpeed += speed( geom, e );
+			predecessor = source;
+		}
+		return sumSpeed / branches.nEdges( branch );
+	}
+
+	/**
+	 * Returns the mean speed over the edges of one track of the snapshot,
+	 * as defined for the <code>TRACK_MEAN_SPEED</code> feature.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @return the mean speed.
+	 */
+	public static double meanSpeed( final TrackGeometry geom, final int track )
+	{
+		double sumSpeed = 0.;
+		for ( int e = geom.edgeStart[ track ]; e < geom.edgeStart[ track + 1 ]; e++ )
+			sumSpeed += speed( geom, e );
+		return sumSpeed / geom.nEdges( track );
+	}
+
+	/**
+	 * Returns the speed along one edge of the snapshot.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param e
+	 *            the index of the edge in the snapshot.
+	 * @return the speed.
+	 */
+	public static double speed( final TrackGeometry geom, final int e )
+	{
+		final int source = geom.source[ e ];
+		final int target = geom.target[ e ];
+		final double ex = geom.x[ target ] - geom.x[ source ];
+		final double ey = geom.y[ target ] - geom.y[ source ];
+		final double ez = geom.z[ target ] - geom.z[ source ];
+		return Math.sqrt( ex * ex + ey * ey + ez * ez ) / Math.abs( geom.t[ target ] - geom.t[ source ] );
+	}
+}
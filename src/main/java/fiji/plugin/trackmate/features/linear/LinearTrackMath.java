@@ -0,0 +1,178 @@
+package fiji.plugin.trackmate.features.linear;
+
+/**
+ * Geometry computations shared by the linear track analyzers.
+ */
+public class LinearTrackMath
+{
+
+	private static final double HALF_PI = Math.PI / 2.;
+
+	private LinearTrackMath()
+	{}
+
+	/**
+	 * Returns the unsigned angle between two 3D vectors, in radians, from 0
+	 * to &pi;.
+	 *
+	 * @param dx1
+	 *            X component of the first vector.
+	 * @param dy1
+	 *            Y component of the first vector.
+	 * @param dz1
+	 *            Z component of the first vector.
+	 * @param dx2
+	 *            X component of the second vector.
+	 * @param dy2
+	 *            Y component of the second vector.
+	 * @param dz2
+	 *            Z component of the second vector.
+	 * @return the angle between the two vectors.
+	 */
+	public static final double turningAngle( final double dx1, final double dy1, final double dz1, final double dx2, final double dy2, final double dz2 )
+	{
+		return turningAngle( dx1, dy1, dz1, dx2, dy2, dz2, AnglePrecision.EXACT );
+	}
+
+	/**
+	 * Returns the unsigned angle between two 3D vectors, in radians, from 0
+	 * to &pi;, computed with the specified precision.
+	 *
+	 * @param dx1
+	 *            X component of the first vector.
+	 * @param dy1
+	 *            Y component of the first vector.
+	 * @param dz1
+	 *            Z component of the first vector.
+	 * @param dx2
+	 *            X component of the second vector.
+	 * @param dy2
+	 *            Y component of the second vector.
+	 * @param dz2
+	 *            Z component of the second vector.
+	 * @param precision
+	 *            the precision of the angle.
+	 * @return the angle between the two vectors.
+	 */
+	public static final double turningAngle( final double dx1, final double dy1, final double dz1, final double dx2, final double dy2, final double dz2, final AnglePrecision precision )
+	{
+		// Cross product.
+		final double cx = dy1 * dz2 - dz1 * dy2;
+		final double cy = dz1 * dx2 - dx1 * dz2;
+		final double cz = dx1 * dy2 - dy1 * dx2;
+		final double norm = Math.sqrt( cx * cx + cy * cy + cz * cz );
+		final double dot = dx1 * dx2 + dy1 * dy2 + dz1 * dz2;
+		return precision.atan2( norm, dot );
+	}
+
+	/**
+	 * Returns the rate of directional change between two successive
+	 * displacements, in radians per time unit.
+	 *
+	 * @param dx1
+	 *            X component of the first displacement.
+	 * @param dy1
+	 *            Y component of the first displacement.
+	 * @param dz1
+	 *            Z component of the first displacement.
+	 * @param dx2
+	 *            X component of the second displacement.
+	 * @param dy2
+	 *            Y component of the second displacement.
+	 * @param dz2
+	 *            Z component of the second displacement.
+	 * @param dt2
+	 *            the duration of the second displacement.
+	 * @return the directional change rate.
+	 */
+	public static final double directionalChangeRate( final double dx1, final double dy1, final double dz1, final double dx2, final double dy2, final double dz2, final double dt2 )
+	{
+		return directionalChangeRate( dx1, dy1, dz1, dx2, dy2, dz2, dt2, AnglePrecision.EXACT );
+	}
+
+	/**
+	 * Returns the rate of directional change between two successive
+	 * displacements, in radians per time unit, computed with the specified
+	 * precision.
+	 *
+	 * @param dx1
+	 *            X component of the first displacement.
+	 * @param dy1
+	 *            Y component of the first displacement.
+	 * @param dz1
+	 *            Z component of the first displacement.
+	 * @param dx2
+	 *            X component of the second displacement.
+	 * @param dy2
+	 *            Y component of the second displacement.
+	 * @param dz2
+	 *            Z component of the second displacement.
+	 * @param dt2
+	 *            the duration of the second displacement.
+	 * @param precision
+	 *            the precision of the angle.
+	 * @return the directional change rate.
+	 */
+	public static final double directionalChangeRate( final double dx1, final double dy1, final double dz1, final double dx2, final double dy2, final double dz2, final double dt2, final AnglePrecision precision )
+	{
+		return turningAngle( dx1, dy1, dz1, dx2, dy2, dz2, precision ) / dt2;
+	}
+
+	/**
+	 * Returns the unsigned angle between two vectors of the XY plane, in
+	 * radians, from 0 to &pi;. Same value as
+	 * {@link #turningAngle(double, double, double, double, double, double, AnglePrecision)}
+	 * with null Z components, as long as the square of the cross product
+	 * neither overflows nor underflows.
+	 *
+	 * @param dx1
+	 *            X component of the first vector.
+	 * @param dy1
+	 *            Y component of the first vector.
+	 * @param dx2
+	 *            X component of the second vector.
+	 * @param dy2
+	 *            Y component of the second vector.
+	 * @param precision
+	 *            the precision of the angle.
+	 * @return the angle between the two vectors.
+	 */
+	public static final double turningAngle2D( final double dx1, final double dy1, final double dx2, final double dy2, final AnglePrecision precision )
+	{
+		// The cross product is along Z. Adding 0 keeps the sign of a null dot product as in 3D.
+		final double cz = dx1 * dy2 - dy1 * dx2;
+		final double dot = dx1 * dx2 + dy1 * dy2 + 0.;
+		return precision.atan2( Math.abs( cz ), dot );
+	}
+
+	/**
+	 * Returns <code>atan2( +0, x )</code> without trigonometry. Both
+	 * {@link AnglePrecision}s give this value.
+	 *
+	 * @param x
+	 *            the second argument of <code>atan2</code>.
+	 * @return 0 or &pi;.
+	 */
+	public static final double atan2ZeroY( final double x )
+	{
+		if ( Double.isNaN( x ) )
+			return x;
+		// Pi for negative values and -0.
+		return Double.doubleToRawLongBits( x ) < 0l ? Math.PI : 0.;
+	}
+
+	/**
+	 * Returns <code>atan2( y, +0 )</code> without trigonometry. Both
+	 * {@link AnglePrecision}s give this value.
+	 *
+	 * @param y
+	 *            the first argument of <code>atan2</code>.
+	 * @return -&pi;/2, &pi;/2, or <code>y</code> if it is 0 or NaN.
+	 */
+	public static final double atan2ZeroX( final double y )
+	{
+		if ( y == 0. || Double.isNaN( y ) )
+			return y;
+		return Math.copySign( HALF_PI, y );
+	}
+}
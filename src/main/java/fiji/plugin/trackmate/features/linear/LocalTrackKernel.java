@@ -0,0 +1,188 @@
+package fiji.plugin.trackmate.features.linear;
+
+/**
+ * Computes features over a sliding window of frames centered on each spot
+ * of the linear tracks of a {@link TrackGeometry}, in <code>O(n)</code> per
+ * track whatever the window size.
+ * <p>
+ * The window of a spot holds the spots of its track at most
+ * <code>halfWindow</code> frames before or after it, so that tracks that
+ * skip frames get fewer spots in their windows, and the windows near the
+ * ends of a track are truncated. Over the spots <code>a</code> to
+ * <code>b</code> of a window:
+ * <ul>
+ * <li>the local confinement ratio is the distance from <code>a</code> to
+ * <code>b</code> divided by the length of the path between them;
+ * <li>the local straightness is the length of the mean of the unit vectors
+ * of the steps, 1 for steps all in the same direction and close to 0 for a
+ * random walk;
+ * <li>the local directional change rate is the mean of the directional
+ * change rates of the edges of the window whose predecessor is also in the
+ * window.
+ * </ul>
+ * Each window is read from prefix sums of the step lengths, unit step
+ * vectors and directional change rates of the track, while the two ends of
+ * the window slide along the track. Features of windows with too few steps
+ * are <code>NaN</code>.
+ * <p>
+ * The prefix sums are kept in work buffers that are reused from one track
+ * to the next and only grow to the size of the longest track. An instance
+ * must not be shared between threads.
+ */
+public class LocalTrackKernel
+{
+
+	private double[] pathLength = new double[ 0 ];
+
+	private double[] ux = new double[ 0 ];
+
+	private double[] uy = new double[ 0 ];
+
+	private double[] uz = new double[ 0 ];
+
+	private double[] dcr = new double[ 0 ];
+
+	/**
+	 * Computes the local features of the spots of a track. The features are
+	 * written at the index of the spot in the snapshot.
+	 *
+	 * @param geom
+	 *            the geometry snapshot, with the spots of each track sorted
+	 *            by frame.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @param halfWindow
+	 *            the number of frames on each side of a spot its window
+	 *            spans.
+	 * @param confinementRatio
+	 *            the array to store the local confinement ratios in.
+	 * @param straightness
+	 *            the array to store the local straightness in.
+	 * @param directionalChangeRate
+	 *            the array to store the local directional change rates in.
+	 * @return <code>false</code> if the track is not linear or has edges of
+	 *         null duration, in which case the features of its spots are all
+	 *         <code>NaN</code>.
+	 */
+	public boolean compute( final TrackGeometry geom, final int track, final int halfWindow,
+			final double[] confinementRatio, final double[] straightness, final double[] directionalChangeRate )
+	{
+		final int first = geom.spotStart[ track ];
+		final int end = geom.spotStart[ track + 1 ];
+		final int e0 = geom.edgeStart[ track ];
+		final int e1 = geom.edgeStart[ track + 1 ];
+		final int n = end - first;
+		if ( !isLinear( geom, first, end, e0, e1 ) )
+		{
+			for ( int s = first; s < end; s++ )
+			{
+				confinementRatio[ s ] = Double.NaN;
+				straightness[ s ] = Double.NaN;
+				directionalChangeRate[ s ] = Double.NaN;
+			}
+			return false;
+		}
+
+		/*
+		 * Prefix sums, indexed by the spot the steps end at: the sums over
+		 * the steps from spot 0 to spot j are at j. The directional change
+		 * rate of a step is that between the previous step and this one.
+		 */
+
+		ensureCapacity( n );
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		final double[] t = geom.t;
+		pathLength[ 0 ] = 0.;
+		ux[ 0 ] = 0.;
+		uy[ 0 ] = 0.;
+		uz[ 0 ] = 0.;
+		dcr[ 0 ] = 0.;
+		if ( n > 1 )
+			dcr[ 1 ] = 0.;
+		for ( int j = 1; j < n; j++ )
+		{
+			final int s = first + j;
+			final double dx = x[ s ] - x[ s - 1 ];
+			final double dy = y[ s ] - y[ s - 1 ];
+			final double dz = z[ s ] - z[ s - 1 ];
+			final double d = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			pathLength[ j ] = pathLength[ j - 1 ] + d;
+			// Steps of null length have no direction.
+			final double inv = d > 0. ? 1. / d : 0.;
+			ux[ j ] = ux[ j - 1 ] + dx * inv;
+			uy[ j ] = uy[ j - 1 ] + dy * inv;
+			uz[ j ] = uz[ j - 1 ] + dz * inv;
+			if ( j > 1 )
+				dcr[ j ] = dcr[ j - 1 ] + LinearTrackMath.directionalChangeRate(
+						x[ s - 1 ] - x[ s - 2 ], y[ s - 1 ] - y[ s - 2 ], z[ s - 1 ] - z[ s - 2 ],
+						dx, dy, dz, t[ s ] - t[ s - 1 ] );
+		}
+
+		// Sliding window [a, b] over the spots.
+		final int[] frame = geom.frame;
+		int a = 0;
+		int b = 0;
+		for ( int i = 0; i < n; i++ )
+		{
+			final int f = frame[ first + i ];
+			while ( frame[ first + a ] < f - halfWindow )
+				a++;
+			while ( b + 1 < n && frame[ first + b + 1 ] <= f + halfWindow )
+				b++;
+
+			final int s = first + i;
+			final int nSteps = b - a;
+			if ( nSteps < 1 )
+			{
+				confinementRatio[ s ] = Double.NaN;
+				straightness[ s ] = Double.NaN;
+			}
+			else
+			{
+				final double dx = x[ first + b ] - x[ first + a ];
+				final double dy = y[ first + b ] - y[ first + a ];
+				final double dz = z[ first + b ] - z[ first + a ];
+				confinementRatio[ s ] = Math.sqrt( dx * dx + dy * dy + dz * dz ) / ( pathLength[ b ] - pathLength[ a ] );
+				final double sx = ux[ b ] - ux[ a ];
+				final double sy = uy[ b ] - uy[ a ];
+				final double sz = uz[ b ] - uz[ a ];
+				straightness[ s ] = Math.sqrt( sx * sx + sy * sy + sz * sz ) / nSteps;
+			}
+			// The rates of the steps ending at a + 2 to b.
+			directionalChangeRate[ s ] = nSteps < 2 ? Double.NaN : ( dcr[ b ] - dcr[ a + 1 ] ) / ( nSteps - 1 );
+		}
+		return true;
+	}
+
+	/**
+	 * Linear: each spot links to the next one, in a later frame and at a
+	 * later time.
+	 */
+	private static boolean isLinear( final TrackGeometry geom, final int first, final int end, final int e0, final int e1 )
+	{
+		if ( e1 - e0 != end - first - 1 )
+			return false;
+		for ( int e = e0; e < e1; e++ )
+		{
+			final int s = geom.source[ e ];
+			final int target = geom.target[ e ];
+			if ( target != s + 1 || geom.frame[ target ] <= geom.frame[ s ] || !( geom.t[ target ] > geom.t[ s ] ) )
+				return false;
+		}
+		return true;
+	}
+
+	private void ensureCapacity( final int n )
+	{
+		if ( pathLength.length >= n )
+			return;
+		final int size = Math.max( n, 2 * pathLength.length );
+		pathLength = new double[ size ];
+		ux = new double[ size ];
+		uy = new double[ size ];
+		uz = new double[ size ];
+		dcr = new double[ size ];
+	}
+}
@@ -0,0 +1,170 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.Arrays;
+
+/**
+ * A largest-first order of items of known estimated costs, cut in chunks of
+ * similar costs, to be run with {@link RangeExecutor#forEach(LptSchedule,
+ * RangeExecutor.RangeTask)}.
+ * <p>
+ * Items are sorted by decreasing cost, ties in index order. Items more
+ * costly than the target chunk cost get a chunk of their own, and the
+ * cheaper ones are grouped until the target cost is reached. Since workers
+ * fetch chunks in order and each takes the next one as soon as it is done,
+ * this is the longest-processing-time-first heuristic: the costly items
+ * start first, and the cheap ones fill the gaps at the end of the run, which
+ * bounds the makespan to 4/3 of the optimum when the costs are exact.
+ * <p>
+ * The order depends on the costs only, so the items processed by each
+ * worker may change from run to run, but not the items themselves.
+ */
+public class LptSchedule
+{
+
+	/**
+	 * The item indices, in the order they are to be processed.
+	 */
+	public final int[] order;
+
+	/**
+	 * The position in {@link #order} of the first item of each chunk. Has
+	 * <code>nChunks + 1</code> elements.
+	 */
+	public final int[] chunkStart;
+
+	private final int nWorkers;
+
+	private final long totalCost;
+
+	private final double estimatedImbalance;
+
+	private LptSchedule( final int[] order, final int[] chunkStart, final int nWorkers, final long totalCost, final double estimatedImbalance )
+	{
+		this.order = order;
+		this.chunkStart = chunkStart;
+		this.nWorkers = nWorkers;
+		this.totalCost = totalCost;
+		this.estimatedImbalance = estimatedImbalance;
+	}
+
+	/**
+	 * Schedules items of the specified costs on up to the specified number
+	 * of workers.
+	 *
+	 * @param costs
+	 *            the estimated cost of each item, for instance its number of
+	 *            edges. Items of negative cost are left out of the schedule.
+	 *            Costs must be less than 2<sup>31</sup>.
+	 * @param maxWorkers
+	 *            the maximal number of workers, see
+	 *            {@link RangeExecutor#getMaxWorkers()}.
+	 * @param minChunkCost
+	 *            the minimal cost of a chunk, below which the overhead of a
+	 *            chunk is not worth it.
+	 * @return a new schedule.
+	 */
+	public static LptSchedule of( final long[] costs, final int maxWorkers, final long minChunkCost )
+	{
+		int n = 0;
+		long total = 0;
+		for ( final long cost : costs )
+		{
+			if ( cost >= 0 )
+			{
+				n++;
+				total += cost;
+			}
+		}
+
+		// Decreasing cost then increasing index, in a single primitive sort.
+		final long[] keys = new long[ n ];
+		for ( int i = 0, j = 0; i < costs.length; i++ )
+			if ( costs[ i ] >= 0 )
+				keys[ j++ ] = ( -costs[ i ] << 32 ) | i;
+		Arrays.sort( keys );
+		final int[] order = new int[ n ];
+		for ( int j = 0; j < n; j++ )
+			order[ j ] = ( int ) keys[ j ];
+
+		final int workers = Math.max( 1, maxWorkers );
+		final long target = Math.max( Math.max( 1, minChunkCost ), ( total + workers * RangeExecutor.CHUNKS_PER_WORKER - 1 ) / ( workers * RangeExecutor.CHUNKS_PER_WORKER ) );
+		final long[] chunkCosts = new long[ n ];
+		final int[] starts = new int[ n + 1 ];
+		int nChunks = 0;
+		long current = 0;
+		for ( int j = 0; j < n; j++ )
+		{
+			if ( j == 0 || current >= target )
+			{
+				starts[ nChunks++ ] = j;
+				current = 0;
+			}
+			current += costs[ order[ j ] ];
+			chunkCosts[ nChunks - 1 ] = current;
+		}
+		starts[ nChunks ] = n;
+
+		/*
+		 * Simulate the run, each chunk going to the least loaded worker, to
+		 * estimate the ratio of the makespan to the mean load.
+		 */
+
+		final int nWorkers = Math.max( 1, Math.min( workers, nChunks ) );
+		final long[] loads = new long[ nWorkers ];
+		long makespan = 0;
+		for ( int c = 0; c < nChunks; c++ )
+		{
+			int least = 0;
+			for ( int w = 1; w < nWorkers; w++ )
+				if ( loads[ w ] < loads[ least ] )
+					least = w;
+			loads[ least ] += chunkCosts[ c ];
+			makespan = Math.max( makespan, loads[ least ] );
+		}
+		final double imbalance = total == 0 ? 1. : ( double ) makespan * nWorkers / total;
+
+		return new LptSchedule( order, Arrays.copyOf( starts, nChunks + 1 ), nWorkers, total, imbalance );
+	}
+
+	/**
+	 * Returns the number of items scheduled.
+	 *
+	 * @return the number of items.
+	 */
+	public int size()
+	{
+		return order.length;
+	}
+
+	public int nChunks()
+	{
+		return chunkStart.length - 1;
+	}
+
+	/**
+	 * Returns the number of workers the schedule was planned for, at most
+	 * the number of chunks.
+	 *
+	 * @return the number of workers.
+	 */
+	public int getNWorkers()
+	{
+		return nWorkers;
+	}
+
+	public long getTotalCost()
+	{
+		return totalCost;
+	}
+
+	/**
+	 * Returns the ratio of the largest to the mean load of the workers,
+	 * estimated from the costs. 1 is a perfect balance.
+	 *
+	 * @return the estimated imbalance.
+	 */
+	public double getEstimatedImbalance()
+	{
+		return estimatedImbalance;
+	}
+}
@@ -0,0 +1,85 @@
+package fiji.plugin.trackmate.features.linear;
+
+/**
+ * The mean-squared displacement of one track, for all the lags from 0 to
+ * the frame span of the track minus one.
+ * <p>
+ * Lags are counted in frames. The MSD at a lag is averaged over all the
+ * pairs of spots of the track that are this number of frames apart, so it
+ * is <code>NaN</code> for the lags no pair spans when the track skips
+ * frames.
+ */
+public class MsdCurve
+{
+
+	private final double frameInterval;
+
+	private final int nDims;
+
+	private final double[] msd;
+
+	private final int[] pairs;
+
+	public MsdCurve( final double frameInterval, final int nDims, final double[] msd, final int[] pairs )
+	{
+		if ( msd.length != pairs.length )
+			throw new IllegalArgumentException( "The MSD and pair counts must have the same length." );
+		this.frameInterval = frameInterval;
+		this.nDims = nDims;
+		this.msd = msd;
+		this.pairs = pairs;
+	}
+
+	/**
+	 * Returns the number of lags of the curve, including lag 0.
+	 *
+	 * @return the number of lags.
+	 */
+	public int size()
+	{
+		return msd.length;
+	}
+
+	/**
+	 * Returns the time between two consecutive frames of the track.
+	 *
+	 * @return the frame interval, in physical units.
+	 */
+	public double getFrameInterval()
+	{
+		return frameInterval;
+	}
+
+	/**
+	 * Returns the dimensionality of the track, 2 if all its spots have the
+	 * same Z position, 3 otherwise.
+	 *
+	 * @return 2 or 3.
+	 */
+	public int getNDims()
+	{
+		return nDims;
+	}
+
+	public double lagTime( final int lag )
+	{
+		return lag * frameInterval;
+	}
+
+	public double msd( final int lag )
+	{
+		return msd[ lag ];
+	}
+
+	/**
+	 * Returns the number of pairs of spots the MSD at a lag is averaged over.
+	 *
+	 * @param lag
+	 *            the lag, in frames.
+	 * @return the number of pairs.
+	 */
+	public int pairs( final int lag )
+	{
+		return pairs[ lag ];
+	}
+}
@@ -0,0 +1,250 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.Arrays;
+
+/**
+ * Computes the mean-squared displacement curve of the tracks of a
+ * {@link TrackGeometry} in <code>O(n log n)</code>, and fits a diffusion
+ * model to it.
+ * <p>
+ * The positions of a track are laid out on its frame grid, with a mask
+ * <code>w</code> that is 1 at the frames the track has a spot in and 0
+ * elsewhere. With <code>q = w |r|&sup2;</code>, the sum of the squared
+ * displacements over the pairs of spots <code>m</code> frames apart is
+ * <p>
+ * <code>S(m) = &Sigma; w<sub>i</sub> q<sub>i+m</sub> + q<sub>i</sub> w<sub>i+m</sub> - 2 &Sigma; r<sub>i</sub> &middot; r<sub>i+m</sub></code>,
+ * <p>
+ * and the number of such pairs is <code>&Sigma; w<sub>i</sub> w<sub>i+m</sub></code>. All
+ * three are correlations, computed with zero-padded FFTs. Real sequences
+ * are transformed in pairs, as the real and imaginary parts of one complex
+ * sequence, so that a 2D track costs two forward and two inverse
+ * transforms.
+ * <p>
+ * Tracks with more than one spot in a frame, that is with branches, have no
+ * MSD curve.
+ * <p>
+ * An instance holds work buffers and must not be shared between threads.
+ */
+public class MsdKernel
+{
+
+	/**
+	 * Minimal number of lags the fit is made on.
+	 */
+	public static final int MIN_FIT_LAGS = 4;
+
+	/**
+	 * Fraction of the lags the fit is made on, starting from lag 1. The MSD
+	 * at long lags is averaged over few pairs and too noisy to fit.
+	 */
+	public static final double FIT_FRACTION = 0.25;
+
+	/**
+	 * Ratio between two consecutive lags of the fit, above 10 frames. Lags
+	 * evenly spaced on a log scale keep the long, noisy lags from dominating
+	 * the fit.
+	 */
+	private static final double LAG_RATIO = 1.1;
+
+	private double[] re1 = new double[ 0 ];
+
+	private double[] im1 = new double[ 0 ];
+
+	private double[] re2 = new double[ 0 ];
+
+	private double[] im2 = new double[ 0 ];
+
+	private double[] re3 = new double[ 0 ];
+
+	private double[] im3 = new double[ 0 ];
+
+	/**
+	 * Computes the MSD curve of a track.
+	 *
+	 * @param geom
+	 *            the geometry snapshot, with the spots of each track sorted
+	 *            by frame.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @return the curve, or <code>null</code> if the track has less than 2
+	 *         spots or more than one spot in a frame.
+	 */
+	public MsdCurve compute( final TrackGeometry geom, final int track )
+	{
+		final int first = geom.spotStart[ track ];
+		final int end = geom.spotStart[ track + 1 ];
+		final int n = end - first;
+		if ( n < 2 )
+			return null;
+
+		final int[] frame = geom.frame;
+		for ( int i = first + 1; i < end; i++ )
+			if ( frame[ i ] <= frame[ i - 1 ] )
+				return null;
+
+		final int f0 = frame[ first ];
+		final int span = frame[ end - 1 ] - f0 + 1;
+		final double frameInterval = ( geom.t[ end - 1 ] - geom.t[ first ] ) / ( span - 1 );
+
+		// Center the positions, to keep the correlations small.
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		double mx = 0.;
+		double my = 0.;
+		double mz = 0.;
+		boolean flat = true;
+		for ( int i = first; i < end; i++ )
+		{
+			mx += x[ i ];
+			my += y[ i ];
+			mz += z[ i ];
+			flat &= z[ i ] == z[ first ];
+		}
+		mx /= n;
+		my /= n;
+		mz /= n;
+
+		final int size = FFT.nextPowerOfTwo( 2 * span );
+		final FFT fft = FFT.forSize( size );
+		ensureCapacity( size );
+		Arrays.fill( re1, 0, size, 0. );
+		Arrays.fill( im1, 0, size, 0. );
+		Arrays.fill( re2, 0, size, 0. );
+		Arrays.fill( im2, 0, size, 0. );
+		if ( !flat )
+		{
+			Arrays.fill( re3, 0, size, 0. );
+			Arrays.fill( im3, 0, size, 0. );
+		}
+
+		// (w + i q), (x + i y) and z.
+		for ( int i = first; i < end; i++ )
+		{
+			final int k = frame[ i ] - f0;
+			final double dx = x[ i ] - mx;
+			final double dy = y[ i ] - my;
+			final double dz = flat ? 0. : z[ i ] - mz;
+			re1[ k ] = 1.;
+			im1[ k ] = dx * dx + dy * dy + dz * dz;
+			re2[ k ] = dx;
+			im2[ k ] = dy;
+			if ( !flat )
+				re3[ k ] = dz;
+		}
+		fft.forward( re1, im1 );
+		fft.forward( re2, im2 );
+		if ( !flat )
+			fft.forward( re3, im3 );
+
+		/*
+		 * Power spectra. The transform of a real sequence is Hermitian, so
+		 * that the transforms of the real and imaginary parts of a packed
+		 * sequence are (Z_k + conj Z_-k) / 2 and (Z_k - conj Z_-k) / 2i. All
+		 * the spectra below are real and even, so they are written back at k
+		 * and -k: A = |X|^2 + |Y|^2 + |Z|^2 and the pair count |W|^2 in
+		 * (re2, im2), B = 2 Re( conj W Q ) in re1.
+		 */
+
+		for ( int k = 0; k <= size / 2; k++ )
+		{
+			final int j = ( size - k ) & ( size - 1 );
+
+			final double wr = 0.5 * ( re1[ k ] + re1[ j ] );
+			final double wi = 0.5 * ( im1[ k ] - im1[ j ] );
+			final double qr = 0.5 * ( im1[ k ] + im1[ j ] );
+			final double qi = -0.5 * ( re1[ k ] - re1[ j ] );
+			final double pw = wr * wr + wi * wi;
+			final double pq = 2. * ( wr * qr + wi * qi );
+
+			double pr = 0.5 * ( re2[ k ] * re2[ k ] + im2[ k ] * im2[ k ] + re2[ j ] * re2[ j ] + im2[ j ] * im2[ j ] );
+			if ( !flat )
+				pr += re3[ k ] * re3[ k ] + im3[ k ] * im3[ k ];
+
+			re2[ k ] = pr;
+			re2[ j ] = pr;
+			im2[ k ] = pw;
+			im2[ j ] = pw;
+			re1[ k ] = pq;
+			re1[ j ] = pq;
+			im1[ k ] = 0.;
+			im1[ j ] = 0.;
+		}
+		fft.inverse( re2, im2 );
+		fft.inverse( re1, im1 );
+
+		final double[] msd = new double[ span ];
+		final int[] pairs = new int[ span ];
+		pairs[ 0 ] = n;
+		for ( int m = 1; m < span; m++ )
+		{
+			final int count = ( int ) Math.rint( im2[ m ] );
+			pairs[ m ] = Math.max( 0, count );
+			msd[ m ] = count < 1 ? Double.NaN : Math.max( 0., ( re1[ m ] - 2. * re2[ m ] ) / count );
+		}
+		return new MsdCurve( frameInterval, flat ? 2 : 3, msd, pairs );
+	}
+
+	/**
+	 * Fits <code>MSD(&tau;) = 2 d D &tau;<sup>&alpha;</sup></code> to a curve,
+	 * by linear least squares on the logarithms, over the first lags of the
+	 * curve, sampled evenly on a log scale.
+	 *
+	 * @param curve
+	 *            the curve to fit.
+	 * @param out
+	 *            an array of at least 2 elements, in which the diffusion
+	 *            coefficient <code>D</code> and the anomalous exponent
+	 *            <code>&alpha;</code> are written, in this order. They are
+	 *            <code>NaN</code> if less than 2 lags have a positive MSD.
+	 * @see #MIN_FIT_LAGS
+	 * @see #FIT_FRACTION
+	 */
+	public static void fit( final MsdCurve curve, final double[] out )
+	{
+		out[ 0 ] = Double.NaN;
+		out[ 1 ] = Double.NaN;
+		final int maxLag = Math.min( curve.size() - 1, Math.max( MIN_FIT_LAGS, ( int ) ( FIT_FRACTION * ( curve.size() - 1 ) ) ) );
+		if ( !( curve.getFrameInterval() > 0. ) )
+			return;
+
+		int n = 0;
+		double sx = 0.;
+		double sy = 0.;
+		double sxx = 0.;
+		double sxy = 0.;
+		for ( int m = 1; m <= maxLag; m = Math.max( m + 1, ( int ) ( m * LAG_RATIO ) ) )
+		{
+			final double msd = curve.msd( m );
+			if ( !( msd > 0. ) || Double.isInfinite( msd ) )
+				continue;
+			final double lx = Math.log( curve.lagTime( m ) );
+			final double ly = Math.log( msd );
+			n++;
+			sx += lx;
+			sy += ly;
+			sxx += lx * lx;
+			sxy += lx * ly;
+		}
+		if ( n < 2 )
+			return;
+
+		final double slope = ( n * sxy - sx * sy ) / ( n * sxx - sx * sx );
+		final double intercept = ( sy - slope * sx ) / n;
+		out[ 0 ] = Math.exp( intercept ) / ( 2. * curve.getNDims() );
+		out[ 1 ] = slope;
+	}
+
+	private void ensureCapacity( final int size )
+	{
+		if ( re1.length < size )
+		{
+			re1 = new double[ size ];
+			im1 = new double[ size ];
+			re2 = new double[ size ];
+			im2 = new double[ size ];
+			re3 = new double[ size ];
+			im3 = new double[ size ];
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a loop over a range of indices in parallel on a {@link ForkJoinPool},
+ * in chunks of contiguous indices.
+ * <p>
+ * Up to <code>numThreads</code> workers, including the calling thread,
+ * fetch chunks from a shared atomic counter until the range is exhausted.
+ * Ranges that fit in a single chunk are run sequentially in the calling
+ * thread, without touching the pool, which is the common case when
+ * TrackMate updates features after an interactive edit.
+ * <p>
+ * When the items have very different costs, such as tracks of very
+ * different lengths, they can instead be run largest-first, in chunks of
+ * similar costs, following an {@link LptSchedule}.
+ * <p>
+ * By default, all the analyzers of this package use the same shared pool,
+ * which is the common pool of the JVM unless another one is set with
+ * {@link #setSharedPool(ForkJoinPool)}.
+ */
+public class RangeExecutor
+{
+
+	/**
+	 * Processes the indices of a range.
+	 */
+	public interface RangeTask
+	{
+		/**
+		 * Processes the indices from <code>from</code> inclusive to
+		 * <code>to</code> exclusive.
+		 *
+		 * @param from
+		 *            the first index.
+		 * @param to
+		 *            the index after the last one.
+		 */
+		public void run( int from, int to );
+	}
+
+	/**
+	 * How many chunks each worker gets on average. More chunks balance the
+	 * load better when items have different costs.
+	 */
+	static final int CHUNKS_PER_WORKER = 8;
+
+	private static volatile ForkJoinPool sharedPool = ForkJoinPool.commonPool();
+
+	private final ForkJoinPool pool;
+
+	private final int numThreads;
+
+	/**
+	 * Creates an executor running on the specified pool.
+	 *
+	 * @param pool
+	 *            the pool to run on. If <code>null</code>, the shared pool is
+	 *            used.
+	 * @param numThreads
+	 *            the maximal number of threads, including the calling
+	 *            thread, that will process a range.
+	 */
+	public RangeExecutor( final ForkJoinPool pool, final int numThreads )
+	{
+		this.pool = null == pool ? sharedPool : pool;
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	/**
+	 * Returns the pool shared by default by all analyzers.
+	 *
+	 * @return the shared pool.
+	 */
+	public static ForkJoinPool getSharedPool()
+	{
+		return sharedPool;
+	}
+
+	/**
+	 * Sets the pool shared by default by all analyzers. Hosts can use this
+	 * to run all the analyzers on a pool they manage.
+	 *
+	 * @param pool
+	 *            the pool to share. If <code>null</code>, the common pool of
+	 *            the JVM is used.
+	 */
+	public static void setSharedPool( final ForkJoinPool pool )
+	{
+		sharedPool = null == pool ? ForkJoinPool.commonPool() : pool;
+	}
+
+	/**
+	 * Returns the maximal number of workers, including the calling thread,
+	 * that will process a range.
+	 *
+	 * @return the number of workers.
+	 */
+	public int getMaxWorkers()
+	{
+		return Math.min( numThreads, pool.getParallelism() + 1 );
+	}
+
+	/**
+	 * Runs the specified task over the range <code>[0, n)</code> and returns
+	 * when all indices have been processed.
+	 *
+	 * @param n
+	 *            the number of indices.
+	 * @param grain
+	 *            the minimal number of indices in a chunk. A range smaller
+	 *            than this is processed sequentially in the calling thread.
+	 * @param task
+	 *            the task to run on each chunk.
+	 */
+	public void forEach( final int n, final int grain, final RangeTask task )
+	{
+		if ( n <= 0 )
+			return;
+
+		final int maxWorkers = getMaxWorkers();
+		final int chunkSize = Math.max( Math.max( 1, grain ), ( n + maxWorkers * CHUNKS_PER_WORKER - 1 ) / ( maxWorkers * CHUNKS_PER_WORKER ) );
+		final int nChunks = ( n + chunkSize - 1 ) / chunkSize;
+		final int nWorkers = Math.min( maxWorkers, nChunks );
+
+		// Sequential path, still chunk by chunk so that tasks can stop early.
+		if ( nWorkers <= 1 )
+		{
+			for ( int from = 0; from < n; from += chunkSize )
+				task.run( from, Math.min( n, from + chunkSize ) );
+			return;
+		}
+
+		final AtomicInteger nextChunk = new AtomicInteger( 0 );
+		run( nWorkers, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for ( int c = nextChunk.getAndIncrement(); c < nChunks; c = nextChunk.getAndIncrement() )
+				{
+					final int from = c * chunkSize;
+					task.run( from, Math.min( n, from + chunkSize ) );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Runs the specified task over the chunks of a schedule, in order, and
+	 * returns when all items have been processed. The task receives ranges
+	 * of positions in {@link LptSchedule#order}, one chunk at a time, and
+	 * must map them to items itself.
+	 *
+	 * @param schedule
+	 *            the schedule, planned for {@link #getMaxWorkers()} workers.
+	 * @param task
+	 *            the task to run on each chunk.
+	 */
+	public void forEach( final LptSchedule schedule, final RangeTask task )
+	{
+		final int nChunks = schedule.nChunks();
+		if ( nChunks <= 0 )
+			return;
+
+		final int nWorkers = Math.min( getMaxWorkers(), nChunks );
+		if ( nWorkers <= 1 )
+		{
+			for ( int c = 0; c < nChunks; c++ )
+				task.run( schedule.chunkStart[ c ], schedule.chunkStart[ c + 1 ] );
+			return;
+		}
+
+		final AtomicInteger nextChunk = new AtomicInteger( 0 );
+		run( nWorkers, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for ( int c = nextChunk.getAndIncrement(); c < nChunks; c = nextChunk.getAndIncrement() )
+					task.run( schedule.chunkStart[ c ], schedule.chunkStart[ c + 1 ] );
+			}
+		} );
+	}
+
+	/**
+	 * Runs a worker on the calling thread and on <code>nWorkers - 1</code>
+	 * tasks of the pool, and waits for all of them.
+	 */
+	private void run( final int nWorkers, final Runnable worker )
+	{
+		// The calling thread is one of the workers.
+		final boolean inPool = ForkJoinTask.getPool() == pool;
+		final ForkJoinTask< ? >[] others = new ForkJoinTask< ? >[ nWorkers - 1 ];
+		for ( int i = 0; i < others.length; i++ )
+		{
+			final ForkJoinTask< ? > other = ForkJoinTask.adapt( worker );
+			others[ i ] = inPool ? other.fork() : pool.submit( other );
+		}
+		try
+		{
+			worker.run();
+		}
+		finally
+		{
+			for ( final ForkJoinTask< ? > other : others )
+				other.join();
+		}
+	}
+}
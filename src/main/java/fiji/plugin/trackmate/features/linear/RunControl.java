@@ -0,0 +1,206 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.scijava.Cancelable;
+
+/**
+ * Lets a host cancel the runs of an analyzer, bound their duration, and
+ * follow their progress.
+ * <p>
+ * Analyzers check this control between chunks of items, never inside the
+ * loop over the items of a chunk, so that the checks cost nothing
+ * measurable. When a run is canceled or exceeds its time budget, the chunks
+ * that have started are completed and the others are skipped: the run
+ * publishes the features of the items it completed, and reports the others
+ * as pending, so that a later run on the pending items only completes the
+ * analysis.
+ * <p>
+ * A cancellation applies to the current run and to all the following ones,
+ * until {@link #reset()} is called. The time budget applies to each run
+ * separately. A control must be used by one run at a time.
+ */
+public class RunControl implements Cancelable
+{
+
+	/**
+	 * Receives the progress of a run.
+	 */
+	public interface ProgressListener
+	{
+		/**
+		 * Called when the run completed another
+		 * {@value RunControl#PROGRESS_STEPS}th of its items, and at its end.
+		 * Called from the worker threads, so it must be thread-safe and
+		 * return quickly.
+		 *
+		 * @param done
+		 *            the number of items completed so far.
+		 * @param total
+		 *            the number of items of the run.
+		 */
+		public void progress( long done, long total );
+	}
+
+	/**
+	 * Number of progress reports over a run, at most.
+	 */
+	public static final int PROGRESS_STEPS = 100;
+
+	private volatile String cancelReason;
+
+	private long timeBudgetNanos = -1;
+
+	private ProgressListener progressListener;
+
+	private volatile long deadline;
+
+	private volatile boolean timedOut;
+
+	private long total;
+
+	private final AtomicLong done = new AtomicLong();
+
+	private final AtomicInteger lastStep = new AtomicInteger();
+
+	/**
+	 * Sets the maximal duration of each run.
+	 *
+	 * @param duration
+	 *            the duration. A negative duration removes the budget.
+	 * @param unit
+	 *            the unit of the duration.
+	 */
+	public void setTimeBudget( final long duration, final TimeUnit unit )
+	{
+		this.timeBudgetNanos = duration < 0 ? -1 : unit.toNanos( duration );
+	}
+
+	/**
+	 * Returns the maximal duration of each run.
+	 *
+	 * @return the duration, in nanoseconds, or -1 if there is no budget.
+	 */
+	public long getTimeBudgetNanos()
+	{
+		return timeBudgetNanos;
+	}
+
+	/**
+	 * Sets the listener to report the progress of the runs to.
+	 *
+	 * @param progressListener
+	 *            the listener, or <code>null</code>.
+	 */
+	public void setProgressListener( final ProgressListener progressListener )
+	{
+		this.progressListener = progressListener;
+	}
+
+	@Override
+	public void cancel( final String reason )
+	{
+		this.cancelReason = null == reason ? "" : reason;
+	}
+
+	@Override
+	public boolean isCanceled()
+	{
+		return null != cancelReason;
+	}
+
+	@Override
+	public String getCancelReason()
+	{
+		return cancelReason;
+	}
+
+	/**
+	 * Clears the cancellation, so that the next runs complete.
+	 */
+	public void reset()
+	{
+		cancelReason = null;
+	}
+
+	/**
+	 * Returns whether the last run stopped because it exceeded its time
+	 * budget.
+	 *
+	 * @return whether the last run timed out.
+	 */
+	public boolean isTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * Marks the start of a run, for analyzers.
+	 *
+	 * @param nItems
+	 *            the number of items of the run.
+	 */
+	public void start( final long nItems )
+	{
+		total = nItems;
+		done.set( 0 );
+		lastStep.set( 0 );
+		timedOut = false;
+		deadline = timeBudgetNanos < 0 ? Long.MAX_VALUE : System.nanoTime() + timeBudgetNanos;
+	}
+
+	/**
+	 * Returns whether the run must stop before its next chunk, for
+	 * analyzers.
+	 *
+	 * @return whether the run is canceled or out of time.
+	 */
+	public boolean shouldStop()
+	{
+		if ( null != cancelReason )
+			return true;
+		if ( deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0 )
+		{
+			timedOut = true;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records items completed by the run, for analyzers. Called once per
+	 * chunk.
+	 *
+	 * @param nItems
+	 *            the number of items completed.
+	 */
+	public void advance( final long nItems )
+	{
+		final long d = done.addAndGet( nItems );
+		final ProgressListener listener = progressListener;
+		if ( null == listener || total <= 0 )
+			return;
+
+		final int step = ( int ) Math.min( PROGRESS_STEPS, d * PROGRESS_STEPS / total );
+		for ( int last = lastStep.get(); step > last; last = lastStep.get() )
+		{
+			if ( lastStep.compareAndSet( last, step ) )
+			{
+				listener.progress( d, total );
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of items the current or last run completed.
+	 *
+	 * @return the number of items.
+	 */
+	public long getDone()
+	{
+		return done.get();
+	}
+}
@@ -0,0 +1,185 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * A cache of the spots of each track, sorted by frame.
+ * <p>
+ * The sorted spots of a track are computed the first time they are
+ * queried, and are then reused until a model change touches the track.
+ * Repeated analyses of unchanged tracks therefore do not sort or copy
+ * their spots again. The index listens to the model: on a modification, it
+ * forgets the tracks of the spots and edges of the event, and when the
+ * tracks are recomputed, it forgets all tracks.
+ * <p>
+ * The listeners of a model are called in turn, so analyzers triggered by
+ * the same event may query the index before it forgets the tracks of the
+ * event. A cached track is therefore checked at each query, in linear time
+ * and without copy: it is only returned if its spots are still the spots
+ * of the track, and still in frame order.
+ * <p>
+ * The arrays returned by this index are shared and must not be modified.
+ */
+public class TrackFrameIndex implements ModelChangeListener
+{
+
+	private final Model model;
+
+	private final Map< Integer, Spot[] > cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an empty index and registers it as a listener of the specified
+	 * model.
+	 *
+	 * @param model
+	 *            the model to index.
+	 */
+	public TrackFrameIndex( final Model model )
+	{
+		this.model = model;
+		model.addModelChangeListener( this );
+	}
+
+	/**
+	 * Stops listening to the model and clears the index.
+	 */
+	public void quit()
+	{
+		model.removeModelChangeListener( this );
+		cache.clear();
+	}
+
+	/**
+	 * Returns the spots of the specified track, sorted by frame.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @return a shared array, that must not be modified, or
+	 *         <code>null</code> if the track does not exist.
+	 */
+	public Spot[] spotsInFrameOrder( final Integer trackID )
+	{
+		final Set< Spot > trackSpots = model.getTrackModel().trackSpots( trackID );
+		if ( null == trackSpots )
+		{
+			cache.remove( trackID );
+			return null;
+		}
+
+		Spot[] sorted = cache.get( trackID );
+		if ( null == sorted || !isValid( sorted, trackSpots ) )
+		{
+			sorted = trackSpots.toArray( new Spot[ trackSpots.size() ] );
+			Arrays.sort( sorted, Spot.frameComparator );
+			cache.put( trackID, sorted );
+		}
+		return sorted;
+	}
+
+	/**
+	 * Whether cached spots are the spots of a track, in frame order. As the
+	 * spots of a track are distinct, the same size and the membership of
+	 * each cached spot make the same set.
+	 */
+	private static boolean isValid( final Spot[] sorted, final Set< Spot > trackSpots )
+	{
+		if ( sorted.length != trackSpots.size() )
+			return false;
+		double previous = Double.NEGATIVE_INFINITY;
+		for ( final Spot spot : sorted )
+		{
+			if ( !trackSpots.contains( spot ) )
+				return false;
+			final double frame = spot.getFeature( Spot.FRAME ).doubleValue();
+			if ( frame < previous )
+				return false;
+			previous = frame;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the spot of the specified track with the lowest frame.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @return the first spot, or <code>null</code> if the track does not
+	 *         exist.
+	 */
+	public Spot firstSpot( final Integer trackID )
+	{
+		final Spot[] sorted = spotsInFrameOrder( trackID );
+		return null == sorted || sorted.length == 0 ? null : sorted[ 0 ];
+	}
+
+	/**
+	 * Returns the spot of the specified track with the highest frame.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @return the last spot, or <code>null</code> if the track does not
+	 *         exist.
+	 */
+	public Spot lastSpot( final Integer trackID )
+	{
+		final Spot[] sorted = spotsInFrameOrder( trackID );
+		return null == sorted || sorted.length == 0 ? null : sorted[ sorted.length - 1 ];
+	}
+
+	/**
+	 * Returns the number of tracks currently cached.
+	 *
+	 * @return the number of cached tracks.
+	 */
+	public int size()
+	{
+		return cache.size();
+	}
+
+	@Override
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
+		{
+			cache.clear();
+			return;
+		}
+
+		final TrackModel trackModel = model.getTrackModel();
+		for ( final Spot spot : event.getSpots() )
+			invalidate( spot, trackModel );
+
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			try
+			{
+				invalidate( trackModel.getEdgeSource( edge ), trackModel );
+				invalidate( trackModel.getEdgeTarget( edge ), trackModel );
+			}
+			catch ( final IllegalArgumentException e )
+			{
+				// Edge removed from the graph. Its track shrank.
+			}
+		}
+	}
+
+	private void invalidate( final Spot spot, final TrackModel trackModel )
+	{
+		if ( null == spot )
+			return;
+		final Integer trackID = trackModel.trackIDOf( spot );
+		if ( null != trackID )
+			cache.remove( trackID );
+	}
+}
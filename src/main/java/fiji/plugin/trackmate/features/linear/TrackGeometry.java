@@ -0,0 +1,497 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
+
+/**
+ * A columnar, primitive snapshot of the geometry of several tracks.
+ * <p>
+ * Spot coordinates are stored in struct-of-arrays form, and edges as pairs
+ * of indices into these arrays. Spots and edges are grouped per track:
+ * the spots of the track at index <code>k</code> are found in
+ * <code>[spotStart[k], spotStart[k+1])</code>, sorted by frame, and its
+ * edges in <code>[edgeStart[k], edgeStart[k+1])</code>, sorted by source
+ * spot. Edges are oriented forward in time, so that the source of an edge
+ * is never in a later frame than its target.
+ * <p>
+ * The snapshot is built once per analysis run, so that analyzers can then
+ * iterate over primitive arrays instead of querying the track model and
+ * the spot feature maps for every edge. It is not updated when the model
+ * changes.
+ */
+public class TrackGeometry
+{
+
+	/**
+	 * Number of spots in the snapshot.
+	 */
+	public final int nSpots;
+
+	/**
+	 * Number of edges in the snapshot.
+	 */
+	public final int nEdges;
+
+	/**
+	 * Number of tracks in the snapshot.
+	 */
+	public final int nTracks;
+
+	/**
+	 * The spots, indexed like the coordinate arrays, or <code>null</code>
+	 * if the snapshot was built from primitive arrays.
+	 */
+	public final Spot[] spots;
+
+	/**
+	 * Spot X, Y, Z and T positions.
+	 */
+	public final double[] x, y, z, t;
+
+	/**
+	 * Spot frames.
+	 */
+	public final int[] frame;
+
+	/**
+	 * The edges, indexed like the edge index arrays, or <code>null</code>
+	 * if the snapshot was built from primitive arrays.
+	 */
+	public final DefaultWeightedEdge[] edges;
+
+	/**
+	 * Index of the source spot of each edge.
+	 */
+	public final int[] source;
+
+	/**
+	 * Index of the target spot of each edge.
+	 */
+	public final int[] target;
+
+	/**
+	 * Index of the predecessor of the source spot of each edge, or -1 if
+	 * the source spot does not have exactly one predecessor.
+	 */
+	public final int[] predecessor;
+
+	/**
+	 * The ID of each track.
+	 */
+	public final int[] trackIDs;
+
+	/**
+	 * Index of the first spot of each track. Has <code>nTracks + 1</code>
+	 * elements.
+	 */
+	public final int[] spotStart;
+
+	/**
+	 * Index of the first edge of each track. Has <code>nTracks + 1</code>
+	 * elements.
+	 */
+	public final int[] edgeStart;
+
+	/**
+	 * Whether all Z positions are +0, 0 if not determined yet.
+	 */
+	private volatile int planar;
+
+	private TrackGeometry( final int nSpots, final int nEdges, final int nTracks, final boolean withObjects )
+	{
+		this.nSpots = nSpots;
+		this.nEdges = nEdges;
+		this.nTracks = nTracks;
+		this.spots = withObjects ? new Spot[ nSpots ] : null;
+		this.x = new double[ nSpots ];
+		this.y = new double[ nSpots ];
+		this.z = new double[ nSpots ];
+		this.t = new double[ nSpots ];
+		this.frame = new int[ nSpots ];
+		this.edges = withObjects ? new DefaultWeightedEdge[ nEdges ] : null;
+		this.source = new int[ nEdges ];
+		this.target = new int[ nEdges ];
+		this.predecessor = new int[ nEdges ];
+		this.trackIDs = new int[ nTracks ];
+		this.spotStart = new int[ nTracks + 1 ];
+		this.edgeStart = new int[ nTracks + 1 ];
+	}
+
+	/**
+	 * Returns whether all the spots of the snapshot are in the Z = 0 plane,
+	 * as in 2D data. Kernels then skip the Z positions, whose differences
+	 * are all +0. Determined at the first call.
+	 *
+	 * @return whether all the Z positions are +0.
+	 */
+	public boolean isPlanar()
+	{
+		if ( planar == 0 )
+		{
+			boolean allZero = true;
+			for ( int s = 0; s < nSpots && allZero; s++ )
+				allZero = Double.doubleToRawLongBits( z[ s ] ) == 0l;
+			planar = allZero ? 1 : -1;
+		}
+		return planar > 0;
+	}
+
+	/**
+	 * Returns the number of edges in the track at the specified index.
+	 *
+	 * @param track
+	 *            the track index.
+	 * @return the number of edges.
+	 */
+	public int nEdges( final int track )
+	{
+		return edgeStart[ track + 1 ] - edgeStart[ track ];
+	}
+
+	/**
+	 * Returns the number of spots in the track at the specified index.
+	 *
+	 * @param track
+	 *            the track index.
+	 * @return the number of spots.
+	 */
+	public int nSpots( final int track )
+	{
+		return spotStart[ track + 1 ] - spotStart[ track ];
+	}
+
+	/**
+	 * Builds a snapshot of the full geometry of the specified tracks.
+	 *
+	 * @param trackModel
+	 *            the track model to read from.
+	 * @param trackIDs
+	 *            the IDs of the tracks to include.
+	 * @return a new snapshot.
+	 */
+	public static TrackGeometry forTracks( final TrackModel trackModel, final Collection< Integer > trackIDs )
+	{
+		return forTracks( trackModel, trackIDs, null );
+	}
+
+	/**
+	 * Builds a snapshot of the full geometry of the specified tracks, taking
+	 * the spots of each track in frame order from an index instead of
+	 * sorting them.
+	 *
+	 * @param trackModel
+	 *            the track model to read from.
+	 * @param trackIDs
+	 *            the IDs of the tracks to include.
+	 * @param frameIndex
+	 *            the index of the spots of the model in frame order. If
+	 *            <code>null</code>, spots are sorted for this snapshot.
+	 * @return a new snapshot.
+	 */
+	public static TrackGeometry forTracks( final TrackModel trackModel, final Collection< Integer > trackIDs, final TrackFrameIndex frameIndex )
+	{
+		int nSpots = 0;
+		int nEdges = 0;
+		for ( final Integer trackID : trackIDs )
+		{
+			nSpots += trackModel.trackSpots( trackID ).size();
+			nEdges += trackModel.trackEdges( trackID ).size();
+		}
+
+		final TrackGeometry geom = new TrackGeometry( nSpots, nEdges, trackIDs.size(), true );
+		final Builder builder = geom.new Builder( trackModel, null );
+		for ( final Integer trackID : trackIDs )
+		{
+			final Spot[] sorted = null == frameIndex
+					? sortByFrame( trackModel.trackSpots( trackID ) )
+					: frameIndex.spotsInFrameOrder( trackID );
+			builder.addTrack( trackID.intValue(), sorted, trackModel.trackEdges( trackID ) );
+		}
+
+		return geom;
+	}
+
+	/**
+	 * Builds a snapshot of the specified edges. The snapshot contains the
+	 * specified edges, grouped by track, their source and target spots, and
+	 * the predecessors of their source spots. It does not contain the other
+	 * edges and spots of the tracks.
+	 *
+	 * @param trackModel
+	 *            the track model to read from.
+	 * @param edges
+	 *            the edges to include.
+	 * @return a new snapshot.
+	 */
+	public static TrackGeometry forEdges( final TrackModel trackModel, final Collection< DefaultWeightedEdge > edges )
+	{
+		final TimeDirectedNeighborIndex neighborIndex = trackModel.getDirectedNeighborIndex();
+
+		// Group edges and spots per track.
+		final Map< Integer, List< DefaultWeightedEdge > > edgeGroups = new LinkedHashMap<>();
+		final Map< Integer, Set< Spot > > spotGroups = new HashMap<>();
+		for ( final DefaultWeightedEdge edge : edges )
+		{
+			Integer trackID = trackModel.trackIDOf( edge );
+			if ( null == trackID )
+				trackID = Integer.valueOf( -1 );
+
+			List< DefaultWeightedEdge > edgeGroup = edgeGroups.get( trackID );
+			if ( null == edgeGroup )
+			{
+				edgeGroup = new ArrayList<>();
+				edgeGroups.put( trackID, edgeGroup );
+				spotGroups.put( trackID, new LinkedHashSet< Spot >() );
+			}
+			edgeGroup.add( edge );
+
+			final Set< Spot > spotGroup = spotGroups.get( trackID );
+			final Spot source = trackModel.getEdgeSource( edge );
+			final Spot target = trackModel.getEdgeTarget( edge );
+			spotGroup.add( source );
+			spotGroup.add( target );
+			final Spot first = source.diffTo( target, Spot.FRAME ) > 0 ? target : source;
+			final Set< Spot > predecessors = neighborIndex.predecessorsOf( first );
+			if ( null != predecessors && predecessors.size() == 1 )
+				spotGroup.add( predecessors.iterator().next() );
+		}
+
+		int nSpots = 0;
+		for ( final Set< Spot > spotGroup : spotGroups.values() )
+			nSpots += spotGroup.size();
+
+		final TrackGeometry geom = new TrackGeometry( nSpots, edges.size(), edgeGroups.size(), true );
+		final Builder builder = geom.new Builder( trackModel, neighborIndex );
+		for ( final Integer trackID : edgeGroups.keySet() )
+			builder.addTrack( trackID.intValue(), sortByFrame( spotGroups.get( trackID ) ), edgeGroups.get( trackID ) );
+
+		return geom;
+	}
+
+	/**
+	 * Builds a snapshot of a single track from primitive arrays, for
+	 * callers that do not have a model. The snapshot has no spot and edge
+	 * objects, and the predecessors are inferred from the edges, which must
+	 * then be all the edges of the track.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @param nSpots
+	 *            the number of spots.
+	 * @param x
+	 *            the spot X positions.
+	 * @param y
+	 *            the spot Y positions.
+	 * @param z
+	 *            the spot Z positions.
+	 * @param t
+	 *            the spot T positions.
+	 * @param frame
+	 *            the spot frames. The spots must be sorted by frame.
+	 * @param nEdges
+	 *            the number of edges.
+	 * @param edgeSource
+	 *            the index of the source spot of each edge.
+	 * @param edgeTarget
+	 *            the index of the target spot of each edge.
+	 * @return a new snapshot, in which spots are indexed like in the
+	 *         specified arrays.
+	 */
+	public static TrackGeometry forTrack( final int trackID,
+			final int nSpots, final double[] x, final double[] y, final double[] z, final double[] t, final int[] frame,
+			final int nEdges, final int[] edgeSource, final int[] edgeTarget )
+	{
+		final TrackGeometry geom = new TrackGeometry( nSpots, nEdges, 1, false );
+		System.arraycopy( x, 0, geom.x, 0, nSpots );
+		System.arraycopy( y, 0, geom.y, 0, nSpots );
+		System.arraycopy( z, 0, geom.z, 0, nSpots );
+		System.arraycopy( t, 0, geom.t, 0, nSpots );
+		System.arraycopy( frame, 0, geom.frame, 0, nSpots );
+
+		final Builder builder = geom.new Builder( null, null );
+		builder.beginTrack( trackID );
+		builder.spot = nSpots;
+		builder.addEdges( null, Arrays.copyOf( edgeSource, nEdges ), Arrays.copyOf( edgeTarget, nEdges ) );
+		builder.endTrack();
+		return geom;
+	}
+
+	private static Spot[] sortByFrame( final Collection< Spot > spots )
+	{
+		final Spot[] sorted = spots.toArray( new Spot[ spots.size() ] );
+		Arrays.sort( sorted, Spot.frameComparator );
+		return sorted;
+	}
+
+	/**
+	 * Fills the arrays of the snapshot, one track at a time.
+	 */
+	private class Builder
+	{
+
+		private final TrackModel trackModel;
+
+		/**
+		 * If <code>null</code>, the predecessors are inferred from the edges
+		 * of the track, which must then be complete.
+		 */
+		private final TimeDirectedNeighborIndex neighborIndex;
+
+		private final Map< Spot, Integer > indices = new HashMap<>();
+
+		private int track = 0;
+
+		private int spot = 0;
+
+		private int edge = 0;
+
+		public Builder( final TrackModel trackModel, final TimeDirectedNeighborIndex neighborIndex )
+		{
+			this.trackModel = trackModel;
+			this.neighborIndex = neighborIndex;
+		}
+
+		public void beginTrack( final int trackID )
+		{
+			trackIDs[ track ] = trackID;
+			spotStart[ track ] = spot;
+			edgeStart[ track ] = edge;
+		}
+
+		public void endTrack()
+		{
+			track++;
+			spotStart[ track ] = spot;
+			edgeStart[ track ] = edge;
+		}
+
+		public void addTrack( final int trackID, final Spot[] sorted, final Collection< DefaultWeightedEdge > trackEdges )
+		{
+			beginTrack( trackID );
+
+			/*
+			 * Spots, sorted by frame.
+			 */
+
+			indices.clear();
+			for ( final Spot s : sorted )
+			{
+				indices.put( s, Integer.valueOf( spot ) );
+				spots[ spot ] = s;
+				x[ spot ] = s.getDoublePosition( 0 );
+				y[ spot ] = s.getDoublePosition( 1 );
+				z[ spot ] = s.getDoublePosition( 2 );
+				t[ spot ] = s.getFeature( Spot.POSITION_T ).doubleValue();
+				frame[ spot ] = s.getFeature( Spot.FRAME ).intValue();
+				spot++;
+			}
+
+			final DefaultWeightedEdge[] input = trackEdges.toArray( new DefaultWeightedEdge[ trackEdges.size() ] );
+			final int[] sources = new int[ input.length ];
+			final int[] targets = new int[ input.length ];
+			for ( int i = 0; i < input.length; i++ )
+			{
+				sources[ i ] = indices.get( trackModel.getEdgeSource( input[ i ] ) ).intValue();
+				targets[ i ] = indices.get( trackModel.getEdgeTarget( input[ i ] ) ).intValue();
+			}
+			addEdges( input, sources, targets );
+			endTrack();
+		}
+
+		/**
+		 * Adds the edges of the current track, once all its spots are in.
+		 *
+		 * @param input
+		 *            the edge objects, or <code>null</code> if there are
+		 *            none.
+		 * @param sources
+		 *            the index of the source spot of each edge. Modified.
+		 * @param targets
+		 *            the index of the target spot of each edge. Modified.
+		 */
+		private void addEdges( final DefaultWeightedEdge[] input, final int[] sources, final int[] targets )
+		{
+			/*
+			 * Edges, oriented forward in time and sorted by source. We sort
+			 * on the source index packed with the position of the edge in
+			 * the input.
+			 */
+
+			final long[] keys = new long[ sources.length ];
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				// Some edges maybe improperly oriented.
+				if ( frame[ sources[ i ] ] > frame[ targets[ i ] ] )
+				{
+					final int tmp = targets[ i ];
+					targets[ i ] = sources[ i ];
+					sources[ i ] = tmp;
+				}
+				keys[ i ] = ( ( long ) sources[ i ] << 32 ) | i;
+			}
+			Arrays.sort( keys );
+
+			for ( final long key : keys )
+			{
+				final int i = ( int ) key;
+				if ( null != input )
+					edges[ edge ] = input[ i ];
+				source[ edge ] = sources[ i ];
+				target[ edge ] = targets[ i ];
+				edge++;
+			}
+
+			/*
+			 * Predecessors.
+			 */
+
+			final int from = edgeStart[ track ];
+			if ( null == neighborIndex )
+			{
+				// Count the incoming edges of each spot of the track.
+				final int offset = spotStart[ track ];
+				final int[] nPredecessors = new int[ spot - offset ];
+				final int[] lastPredecessor = new int[ spot - offset ];
+				for ( int e = from; e < edge; e++ )
+				{
+					if ( frame[ source[ e ] ] == frame[ target[ e ] ] )
+						continue;
+					nPredecessors[ target[ e ] - offset ]++;
+					lastPredecessor[ target[ e ] - offset ] = source[ e ];
+				}
+				for ( int e = from; e < edge; e++ )
+				{
+					final int s = source[ e ] - offset;
+					predecessor[ e ] = nPredecessors[ s ] == 1 ? lastPredecessor[ s ] : -1;
+				}
+			}
+			else
+			{
+				for ( int e = from; e < edge; e++ )
+				{
+					final Set< Spot > predecessors = neighborIndex.predecessorsOf( spots[ source[ e ] ] );
+					if ( null == predecessors || predecessors.size() != 1 )
+					{
+						predecessor[ e ] = -1;
+						continue;
+					}
+					final Integer p = indices.get( predecessors.iterator().next() );
+					predecessor[ e ] = null == p ? -1 : p.intValue();
+				}
+			}
+		}
+	}
+}
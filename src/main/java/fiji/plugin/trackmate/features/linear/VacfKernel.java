@@ -0,0 +1,272 @@
+package fiji.plugin.trackmate.features.linear;
+
+import java.util.Arrays;
+
+/**
+ * Computes the velocity autocorrelation function (VACF) of the linear
+ * tracks of a {@link TrackGeometry} in <code>O(n log n)</code>, and fits a
+ * persistence time to it.
+ * <p>
+ * The velocity of an edge is its displacement divided by its duration, as
+ * for the edge features of the linear track analysis. Velocities are laid
+ * out on the frame grid of the edge sources, with a mask <code>w</code> that
+ * is 1 at the frames an edge starts in, so that tracks that skip frames get
+ * exact pair counts per lag. The sums <code>&Sigma; v<sub>i</sub> &middot;
+ * v<sub>i+m</sub></code> and the pair counts <code>&Sigma; w<sub>i</sub>
+ * w<sub>i+m</sub></code> are correlations, computed with zero-padded FFTs:
+ * <code>(v<sub>x</sub> + i v<sub>y</sub>)</code> and <code>(w + i
+ * v<sub>z</sub>)</code> are transformed together, and both correlations come
+ * out of a single inverse transform.
+ * <p>
+ * The results of the last track computed are kept in the work buffers of
+ * this kernel, which are reused from one track to the next and only grow to
+ * the size of the longest track. An instance must not be shared between
+ * threads.
+ */
+public class VacfKernel
+{
+
+	/**
+	 * Minimal number of lags the fit is made on.
+	 */
+	public static final int MIN_FIT_LAGS = 4;
+
+	/**
+	 * Fraction of the lags the fit is made on, starting from lag 1.
+	 */
+	public static final double FIT_FRACTION = 0.25;
+
+	/**
+	 * The fit stops at the first lag where the normalized VACF falls below
+	 * this value, 1/e<sup>2</sup>, that is after two persistence times of an
+	 * exponential decay. Beyond, the VACF is mostly noise.
+	 */
+	public static final double NOISE_FLOOR = Math.exp( -2. );
+
+	private double[] re1 = new double[ 0 ];
+
+	private double[] im1 = new double[ 0 ];
+
+	private double[] re2 = new double[ 0 ];
+
+	private double[] im2 = new double[ 0 ];
+
+	private int nLags;
+
+	private double frameInterval;
+
+	private double meanSpeed;
+
+	/**
+	 * Computes the normalized VACF of a track.
+	 *
+	 * @param geom
+	 *            the geometry snapshot, with the spots of each track sorted
+	 *            by frame.
+	 * @param track
+	 *            the index of the track in the snapshot.
+	 * @return the number of lags of the VACF, including lag 0, or -1 if the
+	 *         track is not linear, has no edge, or has edges of null
+	 *         duration.
+	 */
+	public int compute( final TrackGeometry geom, final int track )
+	{
+		nLags = -1;
+		final int first = geom.spotStart[ track ];
+		final int end = geom.spotStart[ track + 1 ];
+		final int e0 = geom.edgeStart[ track ];
+		final int e1 = geom.edgeStart[ track + 1 ];
+		final int nEdges = e1 - e0;
+		if ( nEdges < 1 || nEdges != end - first - 1 )
+			return -1;
+
+		// Linear: each spot links to the next one, in a later frame.
+		final int[] source = geom.source;
+		final int[] target = geom.target;
+		final int[] frame = geom.frame;
+		final double[] t = geom.t;
+		for ( int e = e0; e < e1; e++ )
+			if ( target[ e ] != source[ e ] + 1 || frame[ target[ e ] ] <= frame[ source[ e ] ] || !( t[ target[ e ] ] > t[ source[ e ] ] ) )
+				return -1;
+
+		final int f0 = frame[ first ];
+		final int length = frame[ end - 1 ] - f0;
+		final int size = FFT.nextPowerOfTwo( 2 * length );
+		final FFT fft = FFT.forSize( size );
+		ensureCapacity( size );
+		Arrays.fill( re1, 0, size, 0. );
+		Arrays.fill( im1, 0, size, 0. );
+		Arrays.fill( re2, 0, size, 0. );
+		Arrays.fill( im2, 0, size, 0. );
+
+		// (vx + i vy) and (w + i vz).
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		double sumSpeed = 0.;
+		for ( int e = e0; e < e1; e++ )
+		{
+			final int s = source[ e ];
+			final int k = frame[ s ] - f0;
+			final double dt = t[ target[ e ] ] - t[ s ];
+			final double vx = ( x[ target[ e ] ] - x[ s ] ) / dt;
+			final double vy = ( y[ target[ e ] ] - y[ s ] ) / dt;
+			final double vz = ( z[ target[ e ] ] - z[ s ] ) / dt;
+			re1[ k ] = vx;
+			im1[ k ] = vy;
+			re2[ k ] = 1.;
+			im2[ k ] = vz;
+			sumSpeed += Math.sqrt( vx * vx + vy * vy + vz * vz );
+		}
+		fft.forward( re1, im1 );
+		fft.forward( re2, im2 );
+
+		/*
+		 * Power spectra, unpacked as in MsdKernel: |Vx|^2 + |Vy|^2 + |Vz|^2
+		 * in re1 and the pair count |W|^2 in im1.
+		 */
+
+		for ( int k = 0; k <= size / 2; k++ )
+		{
+			final int j = ( size - k ) & ( size - 1 );
+
+			final double wr = 0.5 * ( re2[ k ] + re2[ j ] );
+			final double wi = 0.5 * ( im2[ k ] - im2[ j ] );
+			final double zr = 0.5 * ( im2[ k ] + im2[ j ] );
+			final double zi = -0.5 * ( re2[ k ] - re2[ j ] );
+			final double pw = wr * wr + wi * wi;
+			final double pv = 0.5 * ( re1[ k ] * re1[ k ] + im1[ k ] * im1[ k ] + re1[ j ] * re1[ j ] + im1[ j ] * im1[ j ] )
+					+ zr * zr + zi * zi;
+
+			re1[ k ] = pv;
+			re1[ j ] = pv;
+			im1[ k ] = pw;
+			im1[ j ] = pw;
+		}
+		fft.inverse( re1, im1 );
+
+		// Normalize by the mean squared velocity, at lag 0.
+		final double c0 = re1[ 0 ] / nEdges;
+		for ( int m = 0; m < length; m++ )
+		{
+			final int count = Math.max( 0, ( int ) Math.rint( im1[ m ] ) );
+			re2[ m ] = count < 1 || !( c0 > 0. ) ? Double.NaN : re1[ m ] / count / c0;
+			im2[ m ] = count;
+		}
+		re2[ 0 ] = c0 > 0. ? 1. : Double.NaN;
+		im2[ 0 ] = nEdges;
+
+		this.nLags = length;
+		this.frameInterval = ( t[ end - 1 ] - t[ first ] ) / length;
+		this.meanSpeed = sumSpeed / nEdges;
+		return nLags;
+	}
+
+	/**
+	 * Returns the normalized VACF of the last track computed, at the
+	 * specified lag.
+	 *
+	 * @param lag
+	 *            the lag, in frames, from 0 to the number of lags minus one.
+	 * @return the VACF, 1 at lag 0, or <code>NaN</code> if no pair of edges
+	 *         is this many frames apart or if the track does not move.
+	 */
+	public double correlation( final int lag )
+	{
+		return re2[ lag ];
+	}
+
+	/**
+	 * Returns the number of pairs of edges the VACF of the last track
+	 * computed is averaged over, at the specified lag.
+	 *
+	 * @param lag
+	 *            the lag, in frames.
+	 * @return the number of pairs.
+	 */
+	public int pairs( final int lag )
+	{
+		return ( int ) im2[ lag ];
+	}
+
+	/**
+	 * Returns the time between two consecutive frames of the last track
+	 * computed.
+	 *
+	 * @return the frame interval, in physical units.
+	 */
+	public double getFrameInterval()
+	{
+		return frameInterval;
+	}
+
+	/**
+	 * Returns the mean speed over the edges of the last track computed.
+	 *
+	 * @return the mean speed.
+	 */
+	public double getMeanSpeed()
+	{
+		return meanSpeed;
+	}
+
+	/**
+	 * Fits <code>VACF(&tau;) = exp(-&tau; / P)</code> to the VACF of the last
+	 * track computed, by least squares on the logarithm, over the lags from
+	 * 1 to the first one where the VACF falls below {@link #NOISE_FLOOR}.
+	 * The persistence length is <code>P</code> times the mean speed.
+	 *
+	 * @param out
+	 *            an array of at least 2 elements, in which the persistence
+	 *            time and the persistence length are written, in this order.
+	 *            They are <code>NaN</code> if they cannot be measured: if
+	 *            the last track has no VACF or less than 2 lags, if no lag
+	 *            of the fit has a VACF above {@link #NOISE_FLOOR}, because
+	 *            the velocities decorrelate within one frame or because of
+	 *            gaps, and if the VACF does not decrease, as for straight
+	 *            or directed tracks. A persistence time longer than the
+	 *            track cannot be measured on it, and gives <code>NaN</code>
+	 *            too.
+	 */
+	public void fitPersistence( final double[] out )
+	{
+		out[ 0 ] = Double.NaN;
+		out[ 1 ] = Double.NaN;
+		if ( nLags < 2 || Double.isNaN( re2[ 0 ] ) || !( frameInterval > 0. ) )
+			return;
+
+		final int maxLag = Math.min( nLags - 1, Math.max( MIN_FIT_LAGS, ( int ) ( FIT_FRACTION * ( nLags - 1 ) ) ) );
+		double sxx = 0.;
+		double sxy = 0.;
+		for ( int m = 1; m <= maxLag; m++ )
+		{
+			final double c = re2[ m ];
+			if ( Double.isNaN( c ) )
+				continue;
+			if ( c <= NOISE_FLOOR )
+				break;
+			final double tau = m * frameInterval;
+			sxx += tau * tau;
+			sxy += tau * Math.log( c );
+		}
+
+		if ( sxx == 0. || sxy >= 0. )
+			return;
+		final double persistenceTime = -sxx / sxy;
+		if ( persistenceTime > nLags * frameInterval )
+			return;
+		out[ 0 ] = persistenceTime;
+		out[ 1 ] = persistenceTime * meanSpeed;
+	}
+
+	private void ensureCapacity( final int size )
+	{
+		if ( re1.length < size )
+		{
+			re1 = new double[ size ];
+			im1 = new double[ size ];
+			re2 = new double[ size ];
+			im2 = new double[ size ];
+		}
+	}
+}
@@ -0,0 +1,516 @@
+package fiji.plugin.trackmate.features.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects timings and counts over the runs of one analyzer.
+ * <p>
+ * Each run is recorded by a {@link Run}: the analyzer marks the end of each
+ * {@link Phase}, and reports each chunk of items it processes, from any
+ * thread. The totals since the last reset are available as an immutable
+ * {@link AnalyzerMetricsSnapshot}, and through JMX.
+ * <p>
+ * The metrics returned by {@link #get(String)} are shared by all the
+ * instances of an analyzer, and registered on the platform MBean server
+ * under <code>fiji.plugin.trackmate:type=AnalyzerMetrics,name=&lt;name&gt;</code>.
+ * <p>
+ * Runs may be recorded concurrently, for instance by analyzer instances
+ * running in parallel in batch mode. The totals are then the sums over all
+ * the runs, but the <code>LastRun</code> values are those of whichever run
+ * ended last. The values of one run are kept apart in the snapshot returned
+ * by {@link Run#snapshot()}.
+ */
+public class AnalyzerMetrics implements AnalyzerMetricsMXBean
+{
+
+	/**
+	 * The phases of an analyzer run.
+	 */
+	public enum Phase
+	{
+		/**
+		 * Gathering the spots and edges from the model.
+		 */
+		GATHER,
+		/**
+		 * Computing the features.
+		 */
+		COMPUTE,
+		/**
+		 * Writing the features to the feature model.
+		 */
+		WRITE;
+	}
+
+	/**
+	 * Number of bins of the track latency histogram.
+	 */
+	public static final int N_BINS = 64;
+
+	private static final String DOMAIN = "fiji.plugin.trackmate";
+
+	private static final ConcurrentMap< String, AnalyzerMetrics > REGISTRY = new ConcurrentHashMap<>();
+
+	private final String name;
+
+	private final AtomicLong runs = new AtomicLong();
+
+	private final AtomicLong tracks = new AtomicLong();
+
+	private final AtomicLong edges = new AtomicLong();
+
+	private final AtomicLong totalNanos = new AtomicLong();
+
+	private final AtomicLong[] phaseNanos = new AtomicLong[ Phase.values().length ];
+
+	private final AtomicLong queueWaitNanos = new AtomicLong();
+
+	private final AtomicLong cacheHits = new AtomicLong();
+
+	private final AtomicLong cacheMisses = new AtomicLong();
+
+	private final AtomicLongArray trackLatencyHistogram = new AtomicLongArray( N_BINS );
+
+	private volatile Map< String, Long > lastRunThreadItems = new TreeMap<>();
+
+	private volatile Map< String, Long > lastRunThreadBusyNanos = new TreeMap<>();
+
+	private volatile double lastRunEstimatedImbalance;
+
+	/**
+	 * Creates metrics that are not registered anywhere.
+	 *
+	 * @param name
+	 *            the name of the metrics.
+	 */
+	public AnalyzerMetrics( final String name )
+	{
+		this.name = name;
+		for ( int i = 0; i < phaseNanos.length; i++ )
+			phaseNanos[ i ] = new AtomicLong();
+	}
+
+	/**
+	 * Returns the metrics shared under the specified name, creating and
+	 * registering them on the platform MBean server on first use. If the
+	 * registration fails, the metrics are still collected and available
+	 * through {@link #snapshot()}.
+	 *
+	 * @param name
+	 *            the name of the metrics, typically the analyzer key.
+	 * @return the shared metrics.
+	 */
+	public static AnalyzerMetrics get( final String name )
+	{
+		final AnalyzerMetrics metrics = REGISTRY.get( name );
+		if ( null != metrics )
+			return metrics;
+
+		final AnalyzerMetrics created = new AnalyzerMetrics( name );
+		final AnalyzerMetrics previous = REGISTRY.putIfAbsent( name, created );
+		if ( null != previous )
+			return previous;
+
+		try
+		{
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objectName = getObjectName( name );
+			if ( !server.isRegistered( objectName ) )
+				server.registerMBean( created, objectName );
+		}
+		catch ( final JMException | SecurityException e )
+		{
+			// Metrics stay available programmatically.
+		}
+		return created;
+	}
+
+	/**
+	 * Returns the name the shared metrics of the specified name are
+	 * registered under.
+	 *
+	 * @param name
+	 *            the name of the metrics.
+	 * @return the JMX object name.
+	 * @throws JMException
+	 *             if the name is not valid.
+	 */
+	public static ObjectName getObjectName( final String name ) throws JMException
+	{
+		return new ObjectName( DOMAIN + ":type=AnalyzerMetrics,name=" + ObjectName.quote( name ) );
+	}
+
+	/**
+	 * Returns the histogram bin of a latency.
+	 *
+	 * @param nanos
+	 *            the latency, in nanoseconds.
+	 * @return the bin index, from 0 to {@value #N_BINS} - 1.
+	 */
+	public static int bin( final long nanos )
+	{
+		return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros( nanos );
+	}
+
+	/**
+	 * Starts recording a run. The run starts now, in the
+	 * {@link Phase#GATHER} phase.
+	 *
+	 * @return the run.
+	 */
+	public Run startRun()
+	{
+		return new Run();
+	}
+
+	/**
+	 * Returns a copy of the current values.
+	 *
+	 * @return a snapshot of the metrics.
+	 */
+	public AnalyzerMetricsSnapshot snapshot()
+	{
+		final long[] histogram = new long[ N_BINS ];
+		for ( int i = 0; i < N_BINS; i++ )
+			histogram[ i ] = trackLatencyHistogram.get( i );
+		return new AnalyzerMetricsSnapshot( name, runs.get(), tracks.get(), edges.get(), totalNanos.get(),
+				phaseNanos[ Phase.GATHER.ordinal() ].get(), phaseNanos[ Phase.COMPUTE.ordinal() ].get(), phaseNanos[ Phase.WRITE.ordinal() ].get(),
+				queueWaitNanos.get(), cacheHits.get(), cacheMisses.get(), lastRunThreadItems, lastRunThreadBusyNanos, lastRunEstimatedImbalance, histogram );
+	}
+
+	@Override
+	public void reset()
+	{
+		runs.set( 0 );
+		tracks.set( 0 );
+		edges.set( 0 );
+		totalNanos.set( 0 );
+		for ( final AtomicLong phase : phaseNanos )
+			phase.set( 0 );
+		queueWaitNanos.set( 0 );
+		cacheHits.set( 0 );
+		cacheMisses.set( 0 );
+		for ( int i = 0; i < N_BINS; i++ )
+			trackLatencyHistogram.set( i, 0 );
+		lastRunThreadItems = new TreeMap<>();
+		lastRunThreadBusyNanos = new TreeMap<>();
+		lastRunEstimatedImbalance = 0.;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public long getRuns()
+	{
+		return runs.get();
+	}
+
+	@Override
+	public long getTracks()
+	{
+		return tracks.get();
+	}
+
+	@Override
+	public long getEdges()
+	{
+		return edges.get();
+	}
+
+	@Override
+	public long getTotalTimeNanos()
+	{
+		return totalNanos.get();
+	}
+
+	@Override
+	public long getGatherTimeNanos()
+	{
+		return phaseNanos[ Phase.GATHER.ordinal() ].get();
+	}
+
+	@Override
+	public long getComputeTimeNanos()
+	{
+		return phaseNanos[ Phase.COMPUTE.ordinal() ].get();
+	}
+
+	@Override
+	public long getWriteTimeNanos()
+	{
+		return phaseNanos[ Phase.WRITE.ordinal() ].get();
+	}
+
+	@Override
+	public long getQueueWaitNanos()
+	{
+		return queueWaitNanos.get();
+	}
+
+	@Override
+	public long getCacheHits()
+	{
+		return cacheHits.get();
+	}
+
+	@Override
+	public long getCacheMisses()
+	{
+		return cacheMisses.get();
+	}
+
+	@Override
+	public double getCacheHitRate()
+	{
+		return snapshot().getCacheHitRate();
+	}
+
+	@Override
+	public double getTracksPerSecond()
+	{
+		return snapshot().getTracksPerSecond();
+	}
+
+	@Override
+	public double getEdgesPerSecond()
+	{
+		return snapshot().getEdgesPerSecond();
+	}
+
+	@Override
+	public Map< String, Long > getLastRunThreadItems()
+	{
+		return Collections.unmodifiableMap( lastRunThreadItems );
+	}
+
+	@Override
+	public Map< String, Long > getLastRunThreadBusyNanos()
+	{
+		return Collections.unmodifiableMap( lastRunThreadBusyNanos );
+	}
+
+	@Override
+	public double getLastRunImbalance()
+	{
+		return snapshot().getLastRunImbalance();
+	}
+
+	@Override
+	public double getLastRunEstimatedImbalance()
+	{
+		return lastRunEstimatedImbalance;
+	}
+
+	@Override
+	public long[] getTrackLatencyHistogram()
+	{
+		return snapshot().getTrackLatencyHistogram();
+	}
+
+	@Override
+	public long getTrackLatencyMedianNanos()
+	{
+		return snapshot().getTrackLatencyPercentileNanos( 50. );
+	}
+
+	@Override
+	public long getTrackLatency99thPercentileNanos()
+	{
+		return snapshot().getTrackLatencyPercentileNanos( 99. );
+	}
+
+	@Override
+	public String toString()
+	{
+		return snapshot().toString();
+	}
+
+	/**
+	 * Records one run of an analyzer. The phase methods must be called from
+	 * the thread that runs the analyzer, and {@link #chunk(long, int, long[])}
+	 * from the threads that process the items.
+	 */
+	public final class Run
+	{
+
+		private final long start;
+
+		private long mark;
+
+		/**
+		 * Items and busy time per thread. Each thread only updates its own
+		 * entry.
+		 */
+		private final ConcurrentMap< String, long[] > threads = new ConcurrentHashMap<>();
+
+		private double estimatedImbalance;
+
+		/*
+		 * Values of this run only.
+		 */
+
+		private final long[] runPhaseNanos = new long[ Phase.values().length ];
+
+		private final AtomicLong runQueueWaitNanos = new AtomicLong();
+
+		private long runCacheHits;
+
+		private long runCacheMisses;
+
+		private final AtomicLongArray runLatencyHistogram = new AtomicLongArray( N_BINS );
+
+		private volatile AnalyzerMetricsSnapshot snapshot;
+
+		private Run()
+		{
+			this.start = System.nanoTime();
+			this.mark = start;
+		}
+
+		/**
+		 * Marks the end of a phase, which started at the end of the previous
+		 * one.
+		 *
+		 * @param phase
+		 *            the phase that ends.
+		 */
+		public void endPhase( final Phase phase )
+		{
+			final long now = System.nanoTime();
+			phaseNanos[ phase.ordinal() ].addAndGet( now - mark );
+			runPhaseNanos[ phase.ordinal() ] += now - mark;
+			mark = now;
+		}
+
+		/**
+		 * Records a chunk of items processed by the current thread, ending
+		 * now.
+		 *
+		 * @param chunkStart
+		 *            the {@link System#nanoTime()} at which the chunk
+		 *            started.
+		 * @param nItems
+		 *            the number of items in the chunk.
+		 * @param latencyHistogram
+		 *            the latencies of the tracks of the chunk, binned with
+		 *            {@link AnalyzerMetrics#bin(long)}, or <code>null</code>.
+		 */
+		public void chunk( final long chunkStart, final int nItems, final long[] latencyHistogram )
+		{
+			final long end = System.nanoTime();
+			final String thread = Thread.currentThread().getName();
+			long[] counts = threads.get( thread );
+			if ( null == counts )
+			{
+				// First chunk of this thread: it waited since the phase start.
+				counts = new long[ 2 ];
+				threads.put( thread, counts );
+				final long wait = Math.max( 0, chunkStart - mark );
+				queueWaitNanos.addAndGet( wait );
+				runQueueWaitNanos.addAndGet( wait );
+			}
+			counts[ 0 ] += nItems;
+			counts[ 1 ] += end - chunkStart;
+
+			if ( null != latencyHistogram )
+				for ( int i = 0; i < N_BINS; i++ )
+					if ( latencyHistogram[ i ] != 0 )
+					{
+						trackLatencyHistogram.addAndGet( i, latencyHistogram[ i ] );
+						runLatencyHistogram.addAndGet( i, latencyHistogram[ i ] );
+					}
+		}
+
+		/**
+		 * Records the imbalance of the threads expected from the estimated
+		 * costs of the items, to compare with the measured one.
+		 *
+		 * @param estimatedImbalance
+		 *            the ratio of the largest to the mean estimated load of
+		 *            the threads.
+		 */
+		public void setEstimatedImbalance( final double estimatedImbalance )
+		{
+			this.estimatedImbalance = estimatedImbalance;
+		}
+
+		/**
+		 * Records the lookups of the run in a result cache.
+		 *
+		 * @param hits
+		 *            the number of tracks found in the cache.
+		 * @param misses
+		 *            the number of tracks not found in the cache.
+		 */
+		public void cacheLookups( final int hits, final int misses )
+		{
+			cacheHits.addAndGet( hits );
+			cacheMisses.addAndGet( misses );
+			runCacheHits += hits;
+			runCacheMisses += misses;
+		}
+
+		/**
+		 * Ends the run, after its last phase.
+		 *
+		 * @param nTracks
+		 *            the number of tracks processed.
+		 * @param nEdges
+		 *            the number of edges processed.
+		 * @return the duration of the run, in nanoseconds.
+		 */
+		public long end( final int nTracks, final int nEdges )
+		{
+			final long elapsed = System.nanoTime() - start;
+			final Map< String, Long > items = new TreeMap<>();
+			final Map< String, Long > busy = new TreeMap<>();
+			for ( final Map.Entry< String, long[] > entry : threads.entrySet() )
+			{
+				items.put( entry.getKey(), Long.valueOf( entry.getValue()[ 0 ] ) );
+				busy.put( entry.getKey(), Long.valueOf( entry.getValue()[ 1 ] ) );
+			}
+			runs.incrementAndGet();
+			tracks.addAndGet( nTracks );
+			edges.addAndGet( nEdges );
+			totalNanos.addAndGet( elapsed );
+			lastRunThreadItems = items;
+			lastRunThreadBusyNanos = busy;
+			lastRunEstimatedImbalance = estimatedImbalance;
+
+			final long[] histogram = new long[ N_BINS ];
+			for ( int i = 0; i < N_BINS; i++ )
+				histogram[ i ] = runLatencyHistogram.get( i );
+			snapshot = new AnalyzerMetricsSnapshot( name, 1, nTracks, nEdges, elapsed,
+					runPhaseNanos[ Phase.GATHER.ordinal() ], runPhaseNanos[ Phase.COMPUTE.ordinal() ], runPhaseNanos[ Phase.WRITE.ordinal() ],
+					runQueueWaitNanos.get(), runCacheHits, runCacheMisses, items, busy, estimatedImbalance, histogram );
+			return elapsed;
+		}
+
+		/**
+		 * Returns the values of this run only, unaffected by the runs
+		 * recorded concurrently in the same metrics.
+		 *
+		 * @return the snapshot of this run, or <code>null</code> if the run
+		 *         has not ended.
+		 */
+		public AnalyzerMetricsSnapshot snapshot()
+		{
+			return snapshot;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package fiji.plugin.trackmate.features.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link AnalyzerMetrics} of one analyzer. Times are in
+ * nanoseconds and are summed over all the runs since the last reset, except
+ * for the <code>LastRun</code> attributes.
+ */
+public interface AnalyzerMetricsMXBean
+{
+
+	public String getName();
+
+	public long getRuns();
+
+	public long getTracks();
+
+	public long getEdges();
+
+	public long getTotalTimeNanos();
+
+	public long getGatherTimeNanos();
+
+	public long getComputeTimeNanos();
+
+	public long getWriteTimeNanos();
+
+	public long getQueueWaitNanos();
+
+	public long getCacheHits();
+
+	public long getCacheMisses();
+
+	public double getCacheHitRate();
+
+	public double getTracksPerSecond();
+
+	public double getEdgesPerSecond();
+
+	public Map< String, Long > getLastRunThreadItems();
+
+	public Map< String, Long > getLastRunThreadBusyNanos();
+
+	public double getLastRunImbalance();
+
+	public double getLastRunEstimatedImbalance();
+
+	public long[] getTrackLatencyHistogram();
+
+	public long getTrackLatencyMedianNanos();
+
+	public long getTrackLatency99thPercentileNanos();
+
+	public void reset();
+}
@@ -0,0 +1,293 @@
+package fiji.plugin.trackmate.features.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable copy of the {@link AnalyzerMetrics} of one analyzer, taken
+ * at one point in time. Times are in nanoseconds and are summed over all the
+ * runs since the last reset, except for the <code>LastRun</code> values.
+ */
+public class AnalyzerMetricsSnapshot
+{
+
+	private final String name;
+
+	private final long runs;
+
+	private final long tracks;
+
+	private final long edges;
+
+	private final long totalNanos;
+
+	private final long gatherNanos;
+
+	private final long computeNanos;
+
+	private final long writeNanos;
+
+	private final long queueWaitNanos;
+
+	private final long cacheHits;
+
+	private final long cacheMisses;
+
+	private final Map< String, Long > lastRunThreadItems;
+
+	private final Map< String, Long > lastRunThreadBusyNanos;
+
+	private final double lastRunEstimatedImbalance;
+
+	private final long[] trackLatencyHistogram;
+
+	AnalyzerMetricsSnapshot( final String name, final long runs, final long tracks, final long edges,
+			final long totalNanos, final long gatherNanos, final long computeNanos, final long writeNanos, final long queueWaitNanos,
+			final long cacheHits, final long cacheMisses,
+			final Map< String, Long > lastRunThreadItems, final Map< String, Long > lastRunThreadBusyNanos,
+			final double lastRunEstimatedImbalance, final long[] trackLatencyHistogram )
+	{
+		this.name = name;
+		this.runs = runs;
+		this.tracks = tracks;
+		this.edges = edges;
+		this.totalNanos = totalNanos;
+		this.gatherNanos = gatherNanos;
+		this.computeNanos = computeNanos;
+		this.writeNanos = writeNanos;
+		this.queueWaitNanos = queueWaitNanos;
+		this.cacheHits = cacheHits;
+		this.cacheMisses = cacheMisses;
+		this.lastRunThreadItems = Collections.unmodifiableMap( lastRunThreadItems );
+		this.lastRunThreadBusyNanos = Collections.unmodifiableMap( lastRunThreadBusyNanos );
+		this.lastRunEstimatedImbalance = lastRunEstimatedImbalance;
+		this.trackLatencyHistogram = trackLatencyHistogram;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public long getRuns()
+	{
+		return runs;
+	}
+
+	public long getTracks()
+	{
+		return tracks;
+	}
+
+	public long getEdges()
+	{
+		return edges;
+	}
+
+	/**
+	 * Returns the wall-clock time spent in the runs.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	public long getTotalTimeNanos()
+	{
+		return totalNanos;
+	}
+
+	/**
+	 * Returns the time spent gathering the spots and edges from the model
+	 * into a snapshot.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	public long getGatherTimeNanos()
+	{
+		return gatherNanos;
+	}
+
+	/**
+	 * Returns the wall-clock time spent computing the features, from the
+	 * start of the parallel loop to the end of its last chunk.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	public long getComputeTimeNanos()
+	{
+		return computeNanos;
+	}
+
+	/**
+	 * Returns the time spent writing the features to the feature model.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	public long getWriteTimeNanos()
+	{
+		return writeNanos;
+	}
+
+	/**
+	 * Returns the time the threads waited between the start of the parallel
+	 * loop and their first chunk, summed over the threads.
+	 *
+	 * @return the time, in nanoseconds.
+	 */
+	public long getQueueWaitNanos()
+	{
+		return queueWaitNanos;
+	}
+
+	/**
+	 * Returns the number of tracks found in the result cache of the
+	 * analyzer, for the analyzers that use one.
+	 *
+	 * @return the number of hits.
+	 */
+	public long getCacheHits()
+	{
+		return cacheHits;
+	}
+
+	/**
+	 * Returns the number of tracks looked up in the result cache of the
+	 * analyzer and not found.
+	 *
+	 * @return the number of misses.
+	 */
+	public long getCacheMisses()
+	{
+		return cacheMisses;
+	}
+
+	/**
+	 * Returns the fraction of the cache lookups that were hits.
+	 *
+	 * @return the hit rate, or <code>NaN</code> if there was no lookup.
+	 */
+	public double getCacheHitRate()
+	{
+		return ( double ) cacheHits / ( cacheHits + cacheMisses );
+	}
+
+	public double getTracksPerSecond()
+	{
+		return totalNanos == 0 ? 0. : tracks * 1e9 / totalNanos;
+	}
+
+	public double getEdgesPerSecond()
+	{
+		return totalNanos == 0 ? 0. : edges * 1e9 / totalNanos;
+	}
+
+	/**
+	 * Returns the number of items each thread processed in the last run,
+	 * by thread name. Items are tracks for track analyzers, and edges for
+	 * edge analyzers.
+	 *
+	 * @return an unmodifiable map.
+	 */
+	public Map< String, Long > getLastRunThreadItems()
+	{
+		return lastRunThreadItems;
+	}
+
+	/**
+	 * Returns the time each thread spent processing chunks in the last run,
+	 * by thread name.
+	 *
+	 * @return an unmodifiable map, with times in nanoseconds.
+	 */
+	public Map< String, Long > getLastRunThreadBusyNanos()
+	{
+		return lastRunThreadBusyNanos;
+	}
+
+	/**
+	 * Returns the ratio of the largest to the mean busy time of the threads
+	 * in the last run. 1 is a perfect balance.
+	 *
+	 * @return the imbalance, or 0 if no thread ran.
+	 */
+	public double getLastRunImbalance()
+	{
+		long max = 0;
+		long sum = 0;
+		for ( final Long busy : lastRunThreadBusyNanos.values() )
+		{
+			max = Math.max( max, busy.longValue() );
+			sum += busy.longValue();
+		}
+		return sum == 0 ? 0. : ( double ) max * lastRunThreadBusyNanos.size() / sum;
+	}
+
+	/**
+	 * Returns the imbalance of the threads in the last run expected from the
+	 * estimated costs of the items, for the analyzers that schedule their
+	 * items by cost. Compare with {@link #getLastRunImbalance()} to check the
+	 * cost model.
+	 *
+	 * @return the estimated imbalance, or 0 if it was not estimated.
+	 */
+	public double getLastRunEstimatedImbalance()
+	{
+		return lastRunEstimatedImbalance;
+	}
+
+	/**
+	 * Returns the histogram of the time to compute the features of one
+	 * track. Bin <code>i</code> counts the tracks that took from
+	 * 2<sup>i</sup> inclusive to 2<sup>i+1</sup> exclusive nanoseconds. Bin 0
+	 * also counts the tracks that took 0 ns. Only track analyzers fill it.
+	 *
+	 * @return a copy of the histogram, with {@value AnalyzerMetrics#N_BINS}
+	 *         bins.
+	 */
+	public long[] getTrackLatencyHistogram()
+	{
+		return trackLatencyHistogram.clone();
+	}
+
+	/**
+	 * Returns an upper bound of the specified percentile of the track
+	 * latencies, with the resolution of the histogram bins.
+	 *
+	 * @param percentile
+	 *            the percentile, from 0 to 100.
+	 * @return the upper bound of the bin of the percentile, in nanoseconds,
+	 *         or 0 if no track was recorded.
+	 */
+	public long getTrackLatencyPercentileNanos( final double percentile )
+	{
+		long count = 0;
+		for ( final long c : trackLatencyHistogram )
+			count += c;
+		if ( count == 0 )
+			return 0;
+
+		final long rank = Math.max( 1, ( long ) Math.ceil( percentile / 100. * count ) );
+		long cumulated = 0;
+		for ( int i = 0; i < trackLatencyHistogram.length; i++ )
+		{
+			cumulated += trackLatencyHistogram[ i ];
+			if ( cumulated >= rank )
+				return i >= 62 ? Long.MAX_VALUE : ( 1l << ( i + 1 ) ) - 1;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder str = new StringBuilder( name );
+		str.append( ": " ).append( runs ).append( " runs, " ).append( tracks ).append( " tracks, " ).append( edges ).append( " edges" );
+		str.append( String.format( ", total %.3f ms (gather %.3f, compute %.3f, write %.3f, queue wait %.3f)",
+				totalNanos / 1e6, gatherNanos / 1e6, computeNanos / 1e6, writeNanos / 1e6, queueWaitNanos / 1e6 ) );
+		str.append( String.format( ", %.0f tracks/s, %.0f edges/s", getTracksPerSecond(), getEdgesPerSecond() ) );
+		str.append( String.format( ", last run on %d threads, imbalance %.2f", lastRunThreadItems.size(), getLastRunImbalance() ) );
+		if ( lastRunEstimatedImbalance > 0. )
+			str.append( String.format( " (estimated %.2f)", lastRunEstimatedImbalance ) );
+		if ( cacheHits + cacheMisses > 0 )
+			str.append( String.format( ", cache %d hits, %d misses (%.1f%% hits)", cacheHits, cacheMisses, 100. * getCacheHitRate() ) );
+		return str.toString();
+	}
+}
@@ -0,0 +1,314 @@
+package fiji.plugin.trackmate.features.neighbor;
+
+/**
+ * A k-d tree over 3D points, stored in primitive arrays that are reused
+ * when the tree is rebuilt over other points, for instance over the spots
+ * of each frame in turn.
+ * <p>
+ * The tree is implicit: the points are reordered so that the node of the
+ * range <code>[lo, hi)</code> is the point at <code>mid = (lo + hi) / 2</code>,
+ * its left subtree the range <code>[lo, mid)</code> and its right subtree
+ * the range <code>[mid + 1, hi)</code>. Each node splits its range on the
+ * dimension of largest extent, at the median. The tree is built in
+ * <code>O(n log n)</code> with no allocation once the arrays have grown to
+ * the largest point set, and answers nearest neighbor queries in
+ * <code>O(log n)</code> on average.
+ * <p>
+ * An instance must not be shared between threads.
+ */
+public class PointKDTree
+{
+
+	private int size;
+
+	/**
+	 * Coordinates in tree order.
+	 */
+	private double[][] pos = new double[ 3 ][ 0 ];
+
+	/**
+	 * The index of each point of the tree in the arrays it was built from.
+	 */
+	private int[] ids = new int[ 0 ];
+
+	/**
+	 * Split dimension of each node.
+	 */
+	private byte[] dims = new byte[ 0 ];
+
+	private int[] results = new int[ 16 ];
+
+	private int nResults;
+
+	private int nearest;
+
+	private double nearestDistanceSq;
+
+	/**
+	 * Builds the tree over a range of points, replacing the previous ones.
+	 *
+	 * @param x
+	 *            the X coordinates of the points.
+	 * @param y
+	 *            the Y coordinates of the points.
+	 * @param z
+	 *            the Z coordinates of the points.
+	 * @param from
+	 *            the index of the first point, inclusive.
+	 * @param to
+	 *            the index of the last point, exclusive.
+	 */
+	public void build( final double[] x, final double[] y, final double[] z, final int from, final int to )
+	{
+		size = to - from;
+		ensureCapacity( size );
+		for ( int i = 0; i < size; i++ )
+		{
+			pos[ 0 ][ i ] = x[ from + i ];
+			pos[ 1 ][ i ] = y[ from + i ];
+			pos[ 2 ][ i ] = z[ from + i ];
+			ids[ i ] = from + i;
+		}
+		build( 0, size );
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Finds the point of the tree nearest to a location, other than the
+	 * excluded point.
+	 *
+	 * @param qx
+	 *            the X coordinate of the location.
+	 * @param qy
+	 *            the Y coordinate of the location.
+	 * @param qz
+	 *            the Z coordinate of the location.
+	 * @param exclude
+	 *            the index of a point to ignore, typically the point the
+	 *            query is made from, or -1.
+	 * @return the index of the nearest point in the arrays the tree was
+	 *         built from, or -1 if there is no other point.
+	 * @see #getNearestDistanceSquared()
+	 */
+	public int nearest( final double qx, final double qy, final double qz, final int exclude )
+	{
+		nearest = -1;
+		nearestDistanceSq = Double.POSITIVE_INFINITY;
+		nearest( 0, size, qx, qy, qz, exclude );
+		return nearest;
+	}
+
+	/**
+	 * Returns the squared distance to the point found by the last call to
+	 * {@link #nearest(double, double, double, int)}.
+	 *
+	 * @return the squared distance, or +&infin; if no point was found.
+	 */
+	public double getNearestDistanceSquared()
+	{
+		return nearestDistanceSq;
+	}
+
+	/**
+	 * Finds the points of the tree within a distance of a location,
+	 * including the point at the location itself if any. The points are
+	 * available from {@link #result(int)}.
+	 *
+	 * @param qx
+	 *            the X coordinate of the location.
+	 * @param qy
+	 *            the Y coordinate of the location.
+	 * @param qz
+	 *            the Z coordinate of the location.
+	 * @param radius
+	 *            the distance.
+	 * @return the number of points found.
+	 */
+	public int withinRadius( final double qx, final double qy, final double qz, final double radius )
+	{
+		nResults = 0;
+		withinRadius( 0, size, qx, qy, qz, radius, radius * radius );
+		return nResults;
+	}
+
+	/**
+	 * Returns a point found by the last call to
+	 * {@link #withinRadius(double, double, double, double)}, in no
+	 * particular order.
+	 *
+	 * @param i
+	 *            the result index.
+	 * @return the index of the point in the arrays the tree was built from.
+	 */
+	public int result( final int i )
+	{
+		return ids[ results[ i ] ];
+	}
+
+	private void build( final int lo, final int hi )
+	{
+		if ( hi - lo < 2 )
+		{
+			if ( hi > lo )
+				dims[ lo ] = 0;
+			return;
+		}
+
+		// Split on the dimension of largest extent.
+		int dim = 0;
+		double extent = -1.;
+		for ( int d = 0; d < 3; d++ )
+		{
+			final double[] p = pos[ d ];
+			double min = p[ lo ];
+			double max = p[ lo ];
+			for ( int i = lo + 1; i < hi; i++ )
+			{
+				min = Math.min( min, p[ i ] );
+				max = Math.max( max, p[ i ] );
+			}
+			if ( max - min > extent )
+			{
+				extent = max - min;
+				dim = d;
+			}
+		}
+
+		final int mid = ( lo + hi ) >>> 1;
+		select( lo, hi - 1, mid, pos[ dim ] );
+		dims[ mid ] = ( byte ) dim;
+		build( lo, mid );
+		build( mid + 1, hi );
+	}
+
+	/**
+	 * Quickselect: moves the point of rank <code>k</code> along
+	 * <code>p</code> to <code>k</code>, with smaller or equal ones before it
+	 * and larger or equal ones after it.
+	 */
+	private void select( int left, int right, final int k, final double[] p )
+	{
+		while ( right > left )
+		{
+			// Median of three as pivot.
+			final int m = ( left + right ) >>> 1;
+			if ( p[ m ] < p[ left ] )
+				swap( m, left );
+			if ( p[ right ] < p[ left ] )
+				swap( right, left );
+			if ( p[ right ] < p[ m ] )
+				swap( right, m );
+			final double pivot = p[ m ];
+
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( p[ i ] < pivot )
+					i++;
+				while ( p[ j ] > pivot )
+					j--;
+				if ( i <= j )
+					swap( i++, j-- );
+			}
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+
+	private void swap( final int i, final int j )
+	{
+		for ( int d = 0; d < 3; d++ )
+		{
+			final double[] p = pos[ d ];
+			final double tmp = p[ i ];
+			p[ i ] = p[ j ];
+			p[ j ] = tmp;
+		}
+		final int id = ids[ i ];
+		ids[ i ] = ids[ j ];
+		ids[ j ] = id;
+	}
+
+	private void nearest( final int lo, final int hi, final double qx, final double qy, final double qz, final int exclude )
+	{
+		if ( hi <= lo )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+		if ( ids[ mid ] != exclude )
+		{
+			final double dx = pos[ 0 ][ mid ] - qx;
+			final double dy = pos[ 1 ][ mid ] - qy;
+			final double dz = pos[ 2 ][ mid ] - qz;
+			final double d2 = dx * dx + dy * dy + dz * dz;
+			if ( d2 < nearestDistanceSq )
+			{
+				nearestDistanceSq = d2;
+				nearest = ids[ mid ];
+			}
+		}
+
+		// Near side first, far side only if the split plane is closer.
+		final int dim = dims[ mid ];
+		final double delta = ( dim == 0 ? qx : dim == 1 ? qy : qz ) - pos[ dim ][ mid ];
+		if ( delta < 0 )
+		{
+			nearest( lo, mid, qx, qy, qz, exclude );
+			if ( delta * delta < nearestDistanceSq )
+				nearest( mid + 1, hi, qx, qy, qz, exclude );
+		}
+		else
+		{
+			nearest( mid + 1, hi, qx, qy, qz, exclude );
+			if ( delta * delta < nearestDistanceSq )
+				nearest( lo, mid, qx, qy, qz, exclude );
+		}
+	}
+
+	private void withinRadius( final int lo, final int hi, final double qx, final double qy, final double qz, final double radius, final double radiusSq )
+	{
+		if ( hi <= lo )
+			return;
+
+		final int mid = ( lo + hi ) >>> 1;
+		final double dx = pos[ 0 ][ mid ] - qx;
+		final double dy = pos[ 1 ][ mid ] - qy;
+		final double dz = pos[ 2 ][ mid ] - qz;
+		if ( dx * dx + dy * dy + dz * dz <= radiusSq )
+		{
+			if ( nResults == results.length )
+			{
+				final int[] grown = new int[ 2 * results.length ];
+				System.arraycopy( results, 0, grown, 0, nResults );
+				results = grown;
+			}
+			results[ nResults++ ] = mid;
+		}
+
+		final int dim = dims[ mid ];
+		final double delta = ( dim == 0 ? qx : dim == 1 ? qy : qz ) - pos[ dim ][ mid ];
+		if ( delta <= radius )
+			withinRadius( lo, mid, qx, qy, qz, radius, radiusSq );
+		if ( delta >= -radius )
+			withinRadius( mid + 1, hi, qx, qy, qz, radius, radiusSq );
+	}
+
+	private void ensureCapacity( final int n )
+	{
+		if ( ids.length >= n )
+			return;
+		final int capacity = Math.max( n, 2 * ids.length );
+		pos = new double[ 3 ][ capacity ];
+		ids = new int[ capacity ];
+		dims = new byte[ capacity ];
+	}
+}
@@ -0,0 +1,525 @@
+package fiji.plugin.trackmate.features.neighbor;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.LptSchedule;
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics.Phase;
+import fiji.plugin.trackmate.features.track.AbstractParallelTrackAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+
+/**
+ * Computes per-spot features of the neighborhood of each spot in its frame,
+ * across tracks: the distance to the nearest neighbor, the local density
+ * and the local velocity alignment.
+ * <p>
+ * The neighbors of a spot are the other spots of its frame within a radius
+ * of it, whatever their track. By default, the radius is
+ * {@value #DEFAULT_RADIUS_FACTOR} times the mean radius of the spots of the
+ * model, so that it follows the size of the objects and the calibration of
+ * the image; it can be fixed in physical units with
+ * {@link #setRadius(double)}. The local density is
+ * their number, and the local velocity alignment the mean cosine of the
+ * angle between the direction of motion of the spot and those of its
+ * neighbors. The direction of motion of a spot is that of the edge to its
+ * successor if it has exactly one, otherwise that of the edge from its
+ * predecessor if it has exactly one. Spots without direction of motion get
+ * a <code>NaN</code> alignment, and their neighbors ignore them.
+ * <p>
+ * Each frame is searched with a {@link PointKDTree} built over its spots,
+ * instead of comparing all pairs of spots. Frames are processed in
+ * parallel, largest first, and each worker reuses the storage of its tree
+ * from one frame to the next. The features of a spot only depend on the
+ * positions and directions of motion of the spots of its frame: frames
+ * unchanged since the last run of this instance on the same model, with
+ * the same radius, are not computed again. They are detected from a 64-bit
+ * hash of their spots.
+ * <p>
+ * TrackMate only computes spot features from images, so this analyzer runs
+ * with the track analyzers, and writes spot features instead of track
+ * features. It declares them to the feature model when it runs. Since the
+ * features of a spot depend on the other tracks, it is not local, and
+ * processes all the spots of the model at each run, including the spots
+ * that are not in a track.
+ * <p>
+ * It is not run by default, as its features are costly and stored in each
+ * spot. To run it, add it to the settings with
+ * <code>settings.addTrackAnalyzer( new SpotNeighborhoodAnalyzer() )</code>.
+ */
+@Plugin( type = TrackAnalyzer.class, priority = Priority.LOW, enabled = false )
+public class SpotNeighborhoodAnalyzer extends AbstractParallelTrackAnalyzer
+{
+
+	public static final String KEY = "Spot neighborhood analysis";
+
+	public static final String NEAREST_NEIGHBOR_DISTANCE = "NEAREST_NEIGHBOR_DISTANCE";
+
+	public static final String LOCAL_DENSITY = "LOCAL_DENSITY";
+
+	public static final String LOCAL_VELOCITY_ALIGNMENT = "LOCAL_VELOCITY_ALIGNMENT";
+
+	public static final List< String > SPOT_FEATURES = new ArrayList<>( 3 );
+
+	public static final Map< String, String > SPOT_FEATURE_NAMES = new HashMap<>( 3 );
+
+	public static final Map< String, String > SPOT_FEATURE_SHORT_NAMES = new HashMap<>( 3 );
+
+	public static final Map< String, Dimension > SPOT_FEATURE_DIMENSIONS = new HashMap<>( 3 );
+
+	public static final Map< String, Boolean > SPOT_IS_INT = new HashMap<>( 3 );
+
+	static
+	{
+		SPOT_FEATURES.add( NEAREST_NEIGHBOR_DISTANCE );
+		SPOT_FEATURES.add( LOCAL_DENSITY );
+		SPOT_FEATURES.add( LOCAL_VELOCITY_ALIGNMENT );
+
+		SPOT_FEATURE_NAMES.put( NEAREST_NEIGHBOR_DISTANCE, "Nearest neighbor distance" );
+		SPOT_FEATURE_NAMES.put( LOCAL_DENSITY, "Local density" );
+		SPOT_FEATURE_NAMES.put( LOCAL_VELOCITY_ALIGNMENT, "Local velocity alignment" );
+
+		SPOT_FEATURE_SHORT_NAMES.put( NEAREST_NEIGHBOR_DISTANCE, "NN dist." );
+		SPOT_FEATURE_SHORT_NAMES.put( LOCAL_DENSITY, "Local density" );
+		SPOT_FEATURE_SHORT_NAMES.put( LOCAL_VELOCITY_ALIGNMENT, "Local alignment" );
+
+		SPOT_FEATURE_DIMENSIONS.put( NEAREST_NEIGHBOR_DISTANCE, Dimension.LENGTH );
+		SPOT_FEATURE_DIMENSIONS.put( LOCAL_DENSITY, Dimension.NONE );
+		SPOT_FEATURE_DIMENSIONS.put( LOCAL_VELOCITY_ALIGNMENT, Dimension.NONE );
+
+		SPOT_IS_INT.put( NEAREST_NEIGHBOR_DISTANCE, Boolean.FALSE );
+		SPOT_IS_INT.put( LOCAL_DENSITY, Boolean.TRUE );
+		SPOT_IS_INT.put( LOCAL_VELOCITY_ALIGNMENT, Boolean.FALSE );
+	}
+
+	/**
+	 * The default radius of the neighborhood of a spot, in multiples of the
+	 * mean radius of the spots.
+	 */
+	public static final double DEFAULT_RADIUS_FACTOR = 5.;
+
+	private double radius = Double.NaN;
+
+	private double radiusFactor = DEFAULT_RADIUS_FACTOR;
+
+	/*
+	 * The frames of the last run, sorted, with the hash of their spots.
+	 */
+
+	private WeakReference< Model > lastModel;
+
+	private double lastRadius;
+
+	private int[] lastFrames;
+
+	private long[] lastHashes;
+
+	private int nComputedFrames;
+
+	public SpotNeighborhoodAnalyzer()
+	{
+		super( KEY );
+	}
+
+	/**
+	 * This analyzer has no track feature. Its spot features are declared
+	 * to the feature model when it runs, see {@link #SPOT_FEATURES}.
+	 */
+	@Override
+	public Map< String, Dimension > getFeatureDimensions()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map< String, String > getFeatureNames()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map< String, String > getFeatureShortNames()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public List< String > getFeatures()
+	{
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Map< String, Boolean > getIsIntFeature()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public boolean isManualFeature()
+	{
+		return false;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public String getInfoText()
+	{
+		return null;
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	@Override
+	public String getName()
+	{
+		return KEY;
+	}
+
+	/**
+	 * Sets a fixed radius of the neighborhood of a spot, within which its
+	 * local density and velocity alignment are measured.
+	 *
+	 * @param radius
+	 *            the radius, in physical units.
+	 * @throws IllegalArgumentException
+	 *             if the radius is not strictly positive.
+	 */
+	public void setRadius( final double radius )
+	{
+		if ( !( radius > 0. ) )
+			throw new IllegalArgumentException( "The radius must be strictly positive, got " + radius + "." );
+		this.radius = radius;
+	}
+
+	/**
+	 * Returns the fixed radius of the neighborhood of a spot.
+	 *
+	 * @return the radius, in physical units, or <code>NaN</code> if it
+	 *         scales with the mean spot radius.
+	 */
+	public double getRadius()
+	{
+		return radius;
+	}
+
+	/**
+	 * Makes the radius of the neighborhood of a spot the specified multiple
+	 * of the mean radius of the spots of the model, as by default with
+	 * {@value #DEFAULT_RADIUS_FACTOR}.
+	 *
+	 * @param radiusFactor
+	 *            the multiple of the mean spot radius.
+	 * @throws IllegalArgumentException
+	 *             if the factor is not strictly positive.
+	 */
+	public void setRadiusFactor( final double radiusFactor )
+	{
+		if ( !( radiusFactor > 0. ) )
+			throw new IllegalArgumentException( "The radius factor must be strictly positive, got " + radiusFactor + "." );
+		this.radiusFactor = radiusFactor;
+		this.radius = Double.NaN;
+	}
+
+	public double getRadiusFactor()
+	{
+		return radiusFactor;
+	}
+
+	/**
+	 * Returns the number of frames computed by the last run, the others
+	 * being unchanged.
+	 *
+	 * @return the number of frames.
+	 */
+	public int getLastRunComputedFrames()
+	{
+		return nComputedFrames;
+	}
+
+	@Override
+	public boolean isLocal()
+	{
+		return false;
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+		final AnalyzerMetrics.Run run = startRun();
+
+		final FeatureModel fm = model.getFeatureModel();
+		synchronized ( fm )
+		{
+			if ( !fm.getSpotFeatures().containsAll( SPOT_FEATURES ) )
+				fm.declareSpotFeatures( SPOT_FEATURES, SPOT_FEATURE_NAMES, SPOT_FEATURE_SHORT_NAMES, SPOT_FEATURE_DIMENSIONS, SPOT_IS_INT );
+		}
+
+		/*
+		 * Primitive snapshot of all the spots, frame after frame, with their
+		 * unit direction of motion, or NaN, and the hash of each frame.
+		 */
+
+		final SpotCollection spotCollection = model.getSpots();
+		final TrackModel trackModel = model.getTrackModel();
+		final int nFrames = spotCollection.keySet().size();
+		final int nSpots = spotCollection.getNSpots( false );
+		final Spot[] spots = new Spot[ nSpots ];
+		final double[] x = new double[ nSpots ];
+		final double[] y = new double[ nSpots ];
+		final double[] z = new double[ nSpots ];
+		final double[] ux = new double[ nSpots ];
+		final double[] uy = new double[ nSpots ];
+		final double[] uz = new double[ nSpots ];
+		final int[] frameStart = new int[ nFrames + 1 ];
+		final int[] frames = new int[ nFrames ];
+		final long[] hashes = new long[ nFrames ];
+		double sumRadius = 0.;
+		int nRadii = 0;
+		int n = 0;
+		int f = 0;
+		for ( final Integer frame : spotCollection.keySet() )
+		{
+			frames[ f ] = frame.intValue();
+			frameStart[ f ] = n;
+			long hash = frame.longValue();
+			for ( final Spot spot : spotCollection.iterable( frame.intValue(), false ) )
+			{
+				spots[ n ] = spot;
+				x[ n ] = spot.getFeature( Spot.POSITION_X ).doubleValue();
+				y[ n ] = spot.getFeature( Spot.POSITION_Y ).doubleValue();
+				z[ n ] = spot.getFeature( Spot.POSITION_Z ).doubleValue();
+				direction( trackModel, spot, frame.intValue(), ux, uy, uz, n );
+				final Double spotRadius = spot.getFeature( Spot.RADIUS );
+				if ( null != spotRadius && spotRadius.doubleValue() > 0. )
+				{
+					sumRadius += spotRadius.doubleValue();
+					nRadii++;
+				}
+				hash = mix( hash, System.identityHashCode( spot ) );
+				hash = mix( mix( mix( hash, Double.doubleToLongBits( x[ n ] ) ), Double.doubleToLongBits( y[ n ] ) ), Double.doubleToLongBits( z[ n ] ) );
+				hash = mix( mix( mix( hash, Double.doubleToLongBits( ux[ n ] ) ), Double.doubleToLongBits( uy[ n ] ) ), Double.doubleToLongBits( uz[ n ] ) );
+				n++;
+			}
+			hashes[ f++ ] = hash;
+		}
+		frameStart[ nFrames ] = n;
+
+		final FeatureColumns columns = new FeatureColumns( SPOT_FEATURES, nSpots );
+		final double[] nearestDistance = columns.column( NEAREST_NEIGHBOR_DISTANCE );
+		final double[] density = columns.column( LOCAL_DENSITY );
+		final double[] alignment = columns.column( LOCAL_VELOCITY_ALIGNMENT );
+		final double r = Double.isNaN( radius ) ? radiusFactor * sumRadius / nRadii : radius;
+
+		/*
+		 * Largest frames first, at an estimated cost of their number of
+		 * spots. Frames unchanged since the last run are skipped.
+		 */
+		final boolean sameModel = null != lastModel && lastModel.get() == model && lastRadius == r;
+		final long[] costs = new long[ nFrames ];
+		int nChanged = 0;
+		int nChangedSpots = 0;
+		for ( int i = 0; i < nFrames; i++ )
+		{
+			if ( sameModel && unchanged( frames[ i ], hashes[ i ] ) )
+			{
+				costs[ i ] = -1;
+				continue;
+			}
+			costs[ i ] = frameStart[ i + 1 ] - frameStart[ i ];
+			nChanged++;
+			nChangedSpots += frameStart[ i + 1 ] - frameStart[ i ];
+		}
+		final RangeExecutor executor = newExecutor();
+		final LptSchedule schedule = LptSchedule.of( costs, executor.getMaxWorkers(), MIN_COST_PER_CHUNK );
+		run.setEstimatedImbalance( schedule.getEstimatedImbalance() );
+		run.endPhase( Phase.GATHER );
+
+		executor.forEach( schedule, new RangeTask()
+		{
+			@Override
+			public void run( final int from, final int to )
+			{
+				final long chunkStart = System.nanoTime();
+				// Tree storage reused over the frames of the chunk.
+				final PointKDTree tree = new PointKDTree();
+
+				for ( int i = from; i < to; i++ )
+				{
+					final int frame = schedule.order[ i ];
+					final int first = frameStart[ frame ];
+					final int end = frameStart[ frame + 1 ];
+					tree.build( x, y, z, first, end );
+					for ( int s = first; s < end; s++ )
+					{
+						final int nearest = tree.nearest( x[ s ], y[ s ], z[ s ], s );
+						nearestDistance[ s ] = nearest < 0 ? Double.NaN : Math.sqrt( tree.getNearestDistanceSquared() );
+
+						if ( !( r > 0. ) )
+						{
+							// No spot radius to scale the neighborhood with.
+							density[ s ] = Double.NaN;
+							alignment[ s ] = Double.NaN;
+							continue;
+						}
+						final int nFound = tree.withinRadius( x[ s ], y[ s ], z[ s ], r );
+						int nNeighbors = 0;
+						int nAligned = 0;
+						double sumCos = 0.;
+						for ( int j = 0; j < nFound; j++ )
+						{
+							final int t = tree.result( j );
+							if ( t == s )
+								continue;
+							nNeighbors++;
+							if ( !Double.isNaN( ux[ t ] ) )
+							{
+								sumCos += ux[ s ] * ux[ t ] + uy[ s ] * uy[ t ] + uz[ s ] * uz[ t ];
+								nAligned++;
+							}
+						}
+						density[ s ] = nNeighbors;
+						alignment[ s ] = Double.isNaN( ux[ s ] ) || nAligned == 0 ? Double.NaN : sumCos / nAligned;
+					}
+				}
+				run.chunk( chunkStart, to - from, null );
+			}
+		} );
+		run.endPhase( Phase.COMPUTE );
+
+		if ( nChanged == nFrames )
+		{
+			columns.commitSpotFeatures( spots );
+		}
+		else
+		{
+			final int[] rows = new int[ nChangedSpots ];
+			final Spot[] changedSpots = new Spot[ nChangedSpots ];
+			for ( int i = 0, j = 0; i < nFrames; i++ )
+			{
+				if ( costs[ i ] < 0 )
+					continue;
+				for ( int s = frameStart[ i ]; s < frameStart[ i + 1 ]; s++ )
+				{
+					rows[ j ] = s;
+					changedSpots[ j++ ] = spots[ s ];
+				}
+			}
+			columns.subset( rows ).commitSpotFeatures( changedSpots );
+		}
+		lastModel = new WeakReference<>( model );
+		lastRadius = r;
+		lastFrames = frames;
+		lastHashes = hashes;
+		nComputedFrames = nChanged;
+		run.endPhase( Phase.WRITE );
+
+		endRun( run, trackIDs.size(), 0 );
+	}
+
+	/**
+	 * Returns whether a frame had the same hash at the last run.
+	 */
+	private boolean unchanged( final int frame, final long hash )
+	{
+		final int i = Arrays.binarySearch( lastFrames, frame );
+		return i >= 0 && lastHashes[ i ] == hash;
+	}
+
+	private static long mix( final long h, final long v )
+	{
+		final long m = ( h ^ v ) * 0x9e3779b97f4a7c15l;
+		return m ^ ( m >>> 29 );
+	}
+
+	/**
+	 * Stores the unit direction of motion of a spot, or <code>NaN</code> if
+	 * it has none.
+	 */
+	private static void direction( final TrackModel trackModel, final Spot spot, final int frame,
+			final double[] ux, final double[] uy, final double[] uz, final int index )
+	{
+		ux[ index ] = Double.NaN;
+		uy[ index ] = Double.NaN;
+		uz[ index ] = Double.NaN;
+
+		Spot successor = null;
+		Spot predecessor = null;
+		int nSuccessors = 0;
+		int nPredecessors = 0;
+		for ( final DefaultWeightedEdge edge : trackModel.edgesOf( spot ) )
+		{
+			Spot other = trackModel.getEdgeSource( edge );
+			if ( other == spot )
+				other = trackModel.getEdgeTarget( edge );
+			if ( other.getFeature( Spot.FRAME ).intValue() > frame )
+			{
+				successor = other;
+				nSuccessors++;
+			}
+			else
+			{
+				predecessor = other;
+				nPredecessors++;
+			}
+		}
+
+		final double dx;
+		final double dy;
+		final double dz;
+		if ( nSuccessors == 1 )
+		{
+			dx = successor.diffTo( spot, Spot.POSITION_X );
+			dy = successor.diffTo( spot, Spot.POSITION_Y );
+			dz = successor.diffTo( spot, Spot.POSITION_Z );
+		}
+		else if ( nPredecessors == 1 )
+		{
+			dx = spot.diffTo( predecessor, Spot.POSITION_X );
+			dy = spot.diffTo( predecessor, Spot.POSITION_Y );
+			dz = spot.diffTo( predecessor, Spot.POSITION_Z );
+		}
+		else
+		{
+			return;
+		}
+
+		final double norm = Math.sqrt( dx * dx + dy * dy + dz * dz );
+		if ( norm > 0. )
+		{
+			ux[ index ] = dx / norm;
+			uy[ index ] = dy / norm;
+			uz[ index ] = dz / norm;
+		}
+	}
+}
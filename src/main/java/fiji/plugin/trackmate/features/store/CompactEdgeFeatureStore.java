@@ -0,0 +1,481 @@
+package fiji.plugin.trackmate.features.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+/**
+ * Stores the values of a fixed set of edge features in dense
+ * <code>double</code> columns, indexed by a stable edge index.
+ * <p>
+ * An edge gets an index the first time one of its values is stored, and
+ * keeps it until it is removed, after which the index is reused. When
+ * removals leave less than a quarter of the columns in use, the store is
+ * compacted: the edges get new, dense indices, and the columns shrink. The edge
+ * to index map is an identity hash map without boxing, so that an edge
+ * costs about 16 bytes of index, 8 bytes per feature and 1 bit per feature
+ * to tell a stored NaN from a missing value. Storing the same values as
+ * boxed <code>Double</code>s in nested hash maps costs several hundred bytes
+ * per edge.
+ * <p>
+ * The columns are on the Java heap by default, and can be moved to direct
+ * buffers outside of the heap with {@link #setOffHeap(boolean)}.
+ * <p>
+ * Thread-safe. Reads are optimistic and do not block each other.
+ */
+public class CompactEdgeFeatureStore
+{
+
+	/**
+	 * Column capacity below which the store is never compacted.
+	 */
+	private static final int MIN_COMPACT_CAPACITY = 1024;
+
+	private final List< String > features;
+
+	private final StampedLock lock = new StampedLock();
+
+	private final EdgeIndex index;
+
+	private Column[] columns;
+
+	/**
+	 * One bit per edge index and per feature, set if the value is stored.
+	 */
+	private long[][] present;
+
+	private int[] freeIndices = new int[ 16 ];
+
+	private int nFree;
+
+	/**
+	 * The number of indices ever given out.
+	 */
+	private int nIndices;
+
+	private boolean offHeap;
+
+	/**
+	 * Creates an empty store for the specified features.
+	 *
+	 * @param features
+	 *            the feature keys.
+	 * @param expectedEdges
+	 *            the number of edges the store is expected to hold.
+	 * @throws IllegalArgumentException
+	 *             if there is no feature.
+	 */
+	public CompactEdgeFeatureStore( final List< String > features, final int expectedEdges )
+	{
+		if ( features.isEmpty() )
+			throw new IllegalArgumentException( "The store needs at least one feature." );
+		this.features = Collections.unmodifiableList( new ArrayList<>( features ) );
+		this.index = new EdgeIndex( expectedEdges );
+		final int capacity = Math.max( 16, expectedEdges );
+		this.columns = new Column[ features.size() ];
+		this.present = new long[ features.size() ][ ( capacity + 63 ) >>> 6 ];
+		for ( int f = 0; f < columns.length; f++ )
+			columns[ f ] = new HeapColumn( capacity );
+	}
+
+	/**
+	 * Returns the keys of the features stored.
+	 *
+	 * @return an unmodifiable list.
+	 */
+	public List< String > getFeatures()
+	{
+		return features;
+	}
+
+	/**
+	 * Returns the position of a feature in {@link #getFeatures()}.
+	 *
+	 * @param feature
+	 *            the feature key.
+	 * @return the feature index, or -1 if it is not stored.
+	 */
+	public int featureIndex( final String feature )
+	{
+		return features.indexOf( feature );
+	}
+
+	/**
+	 * Returns the value of a feature for an edge.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @param feature
+	 *            the feature index.
+	 * @return the value, or <code>null</code> if it is not stored.
+	 */
+	public Double get( final DefaultWeightedEdge edge, final int feature )
+	{
+		long stamp = lock.tryOptimisticRead();
+		if ( 0 != stamp )
+		{
+			final Double value = read( edge, feature );
+			if ( lock.validate( stamp ) )
+				return value;
+		}
+		stamp = lock.readLock();
+		try
+		{
+			return read( edge, feature );
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * Stores the value of a feature for an edge.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @param feature
+	 *            the feature index.
+	 * @param value
+	 *            the value, or <code>null</code> to remove it.
+	 */
+	public void put( final DefaultWeightedEdge edge, final int feature, final Double value )
+	{
+		final long stamp = lock.writeLock();
+		try
+		{
+			if ( null == value )
+			{
+				final int i = index.get( edge );
+				if ( i != EdgeIndex.NO_VALUE )
+					present[ feature ][ i >>> 6 ] &= ~( 1l << i );
+				return;
+			}
+			final int i = indexFor( edge );
+			columns[ feature ].set( i, value.doubleValue() );
+			present[ feature ][ i >>> 6 ] |= 1l << i;
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	/**
+	 * Stores the values of several features for several edges, under a
+	 * single lock.
+	 *
+	 * @param edges
+	 *            the edges.
+	 * @param featureKeys
+	 *            the feature keys, which must all be stored by this store.
+	 * @param values
+	 *            the values, one column per feature, indexed like the edges.
+	 * @throws IllegalArgumentException
+	 *             if a feature is not stored by this store.
+	 */
+	public void putAll( final DefaultWeightedEdge[] edges, final List< String > featureKeys, final double[][] values )
+	{
+		final int[] fs = new int[ featureKeys.size() ];
+		for ( int k = 0; k < fs.length; k++ )
+		{
+			fs[ k ] = featureIndex( featureKeys.get( k ) );
+			if ( fs[ k ] < 0 )
+				throw new IllegalArgumentException( "Feature not stored: " + featureKeys.get( k ) );
+		}
+
+		final long stamp = lock.writeLock();
+		try
+		{
+			for ( int e = 0; e < edges.length; e++ )
+			{
+				final int i = indexFor( edges[ e ] );
+				for ( int k = 0; k < fs.length; k++ )
+				{
+					columns[ fs[ k ] ].set( i, values[ k ][ e ] );
+					present[ fs[ k ] ][ i >>> 6 ] |= 1l << i;
+				}
+			}
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	/**
+	 * Removes all the values of an edge, and frees its index. The store is
+	 * compacted if few of its indices are still in use.
+	 *
+	 * @param edge
+	 *            the edge.
+	 */
+	public void remove( final DefaultWeightedEdge edge )
+	{
+		final long stamp = lock.writeLock();
+		try
+		{
+			final int i = index.remove( edge );
+			if ( i == EdgeIndex.NO_VALUE )
+				return;
+			for ( final long[] bits : present )
+				bits[ i >>> 6 ] &= ~( 1l << i );
+			if ( nFree == freeIndices.length )
+				freeIndices = Arrays.copyOf( freeIndices, 2 * nFree );
+			freeIndices[ nFree++ ] = i;
+
+			final int capacity = columns[ 0 ].capacity();
+			if ( capacity > MIN_COMPACT_CAPACITY && index.size() < capacity / 4 )
+				compact();
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	/**
+	 * Returns the index of an edge in the columns. The index changes when the
+	 * store is compacted, after a removal.
+	 *
+	 * @param edge
+	 *            the edge.
+	 * @return the index, or -1 if the store has no value for this edge.
+	 */
+	public int indexOf( final DefaultWeightedEdge edge )
+	{
+		final long stamp = lock.readLock();
+		try
+		{
+			return index.get( edge );
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * Returns the number of edges with an index.
+	 *
+	 * @return the number of edges.
+	 */
+	public int size()
+	{
+		final long stamp = lock.readLock();
+		try
+		{
+			return index.size();
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * Moves the columns to direct buffers, outside of the Java heap, or back
+	 * to the heap.
+	 *
+	 * @param offHeap
+	 *            whether to store the columns outside of the heap.
+	 */
+	public void setOffHeap( final boolean offHeap )
+	{
+		final long stamp = lock.writeLock();
+		try
+		{
+			if ( offHeap == this.offHeap )
+				return;
+			for ( int f = 0; f < columns.length; f++ )
+			{
+				final Column column = offHeap ? new DirectColumn( columns[ f ].capacity() ) : new HeapColumn( columns[ f ].capacity() );
+				for ( int i = 0; i < nIndices; i++ )
+					column.set( i, columns[ f ].get( i ) );
+				columns[ f ] = column;
+			}
+			this.offHeap = offHeap;
+		}
+		finally
+		{
+			lock.unlockWrite( stamp );
+		}
+	}
+
+	public boolean isOffHeap()
+	{
+		return offHeap;
+	}
+
+	/**
+	 * Returns an estimate of the memory used by this store, in bytes, on and
+	 * off the heap, assuming compressed object pointers.
+	 *
+	 * @return the number of bytes.
+	 */
+	public long getMemoryFootprint()
+	{
+		final long stamp = lock.readLock();
+		try
+		{
+			long bytes = 8l * index.capacity();
+			for ( int f = 0; f < columns.length; f++ )
+				bytes += 8l * columns[ f ].capacity() + 8l * present[ f ].length;
+			return bytes + 4l * freeIndices.length;
+		}
+		finally
+		{
+			lock.unlockRead( stamp );
+		}
+	}
+
+	/**
+	 * Reads a value. Never throws, even when called without the lock while
+	 * the store is modified.
+	 */
+	private Double read( final DefaultWeightedEdge edge, final int feature )
+	{
+		final int i = index.get( edge );
+		if ( i < 0 )
+			return null;
+		final long[] bits = present[ feature ];
+		final Column column = columns[ feature ];
+		if ( ( i >>> 6 ) >= bits.length || i >= column.capacity() || ( bits[ i >>> 6 ] & ( 1l << i ) ) == 0 )
+			return null;
+		return Double.valueOf( column.get( i ) );
+	}
+
+	/**
+	 * Returns the index of an edge, giving it one if needed. Called with the
+	 * write lock.
+	 */
+	private int indexFor( final DefaultWeightedEdge edge )
+	{
+		final int existing = index.get( edge );
+		if ( existing != EdgeIndex.NO_VALUE )
+			return existing;
+
+		final int i = nFree > 0 ? freeIndices[ --nFree ] : nIndices++;
+		index.putIfAbsent( edge, i );
+		if ( i >= columns[ 0 ].capacity() )
+			grow( i + 1 );
+		return i;
+	}
+
+	/**
+	 * Gives the edges dense indices and shrinks the columns to 1.5 times the
+	 * number of edges. Called with the write lock.
+	 */
+	private void compact()
+	{
+		final int[] previous = index.compact();
+		final int n = previous.length;
+		final int capacity = Math.max( 16, n + ( n >> 1 ) );
+		for ( int f = 0; f < columns.length; f++ )
+		{
+			final Column column = offHeap ? new DirectColumn( capacity ) : new HeapColumn( capacity );
+			final long[] bits = new long[ ( capacity + 63 ) >>> 6 ];
+			for ( int i = 0; i < n; i++ )
+			{
+				final int j = previous[ i ];
+				column.set( i, columns[ f ].get( j ) );
+				if ( ( present[ f ][ j >>> 6 ] & ( 1l << j ) ) != 0 )
+					bits[ i >>> 6 ] |= 1l << i;
+			}
+			columns[ f ] = column;
+			present[ f ] = bits;
+		}
+		nIndices = n;
+		nFree = 0;
+		freeIndices = new int[ 16 ];
+	}
+
+	private void grow( final int minCapacity )
+	{
+		final int capacity = Math.max( minCapacity, columns[ 0 ].capacity() + ( columns[ 0 ].capacity() >> 1 ) );
+		for ( int f = 0; f < columns.length; f++ )
+		{
+			final Column column = offHeap ? new DirectColumn( capacity ) : new HeapColumn( capacity );
+			for ( int i = 0; i < columns[ f ].capacity(); i++ )
+				column.set( i, columns[ f ].get( i ) );
+			columns[ f ] = column;
+			present[ f ] = Arrays.copyOf( present[ f ], ( capacity + 63 ) >>> 6 );
+		}
+	}
+
+	/*
+	 * Columns.
+	 */
+
+	private static abstract class Column
+	{
+		abstract int capacity();
+
+		abstract double get( int i );
+
+		abstract void set( int i, double value );
+	}
+
+	private static final class HeapColumn extends Column
+	{
+		private final double[] values;
+
+		HeapColumn( final int capacity )
+		{
+			this.values = new double[ capacity ];
+		}
+
+		@Override
+		int capacity()
+		{
+			return values.length;
+		}
+
+		@Override
+		double get( final int i )
+		{
+			return values[ i ];
+		}
+
+		@Override
+		void set( final int i, final double value )
+		{
+			values[ i ] = value;
+		}
+	}
+
+	private static final class DirectColumn extends Column
+	{
+		private final DoubleBuffer values;
+
+		DirectColumn( final int capacity )
+		{
+			this.values = ByteBuffer.allocateDirect( 8 * capacity ).order( ByteOrder.nativeOrder() ).asDoubleBuffer();
+		}
+
+		@Override
+		int capacity()
+		{
+			return values.capacity();
+		}
+
+		@Override
+		double get( final int i )
+		{
+			return values.get( i );
+		}
+
+		@Override
+		void set( final int i, final double value )
+		{
+			values.put( i, value );
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package fiji.plugin.trackmate.features.store;
+
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+
+/**
+ * A {@link FeatureModel} that keeps the values of some edge features in a
+ * {@link CompactEdgeFeatureStore} instead of its per-edge hash maps.
+ * <p>
+ * {@link #putEdgeFeature(DefaultWeightedEdge, String, Double)} and
+ * {@link #getEdgeFeature(DefaultWeightedEdge, String)}, through which
+ * TrackMate reads and writes edge feature values, are redirected to the
+ * store for these features. All other features are handled by the feature
+ * model.
+ * <p>
+ * Registered as a listener of its model by {@link CompactModel}, the
+ * feature model frees the values of the edges removed from the model, and
+ * the store shrinks with it. The feature model of a {@link Model} cannot be
+ * replaced: use a {@link CompactModel}, see there how a session opts in.
+ */
+public class CompactFeatureModel extends FeatureModel implements ModelChangeListener
+{
+
+	private final CompactEdgeFeatureStore edgeStore;
+
+	/**
+	 * Creates a feature model storing the features of
+	 * {@link LinearTrackEdgeStatistics} in compact form.
+	 *
+	 * @param model
+	 *            the model this feature model belongs to.
+	 */
+	public CompactFeatureModel( final Model model )
+	{
+		this( model, LinearTrackEdgeStatistics.FEATURES );
+	}
+
+	/**
+	 * Creates a feature model storing the specified edge features in compact
+	 * form.
+	 *
+	 * @param model
+	 *            the model this feature model belongs to.
+	 * @param compactEdgeFeatures
+	 *            the keys of the edge features to store in compact form.
+	 */
+	public CompactFeatureModel( final Model model, final List< String > compactEdgeFeatures )
+	{
+		super( model );
+		this.edgeStore = new CompactEdgeFeatureStore( compactEdgeFeatures, 1024 );
+	}
+
+	/**
+	 * Returns the store holding the compact edge features.
+	 *
+	 * @return the store.
+	 */
+	public CompactEdgeFeatureStore getEdgeStore()
+	{
+		return edgeStore;
+	}
+
+	@Override
+	public void putEdgeFeature( final DefaultWeightedEdge edge, final String feature, final Double value )
+	{
+		final int f = edgeStore.featureIndex( feature );
+		if ( f < 0 )
+			super.putEdgeFeature( edge, feature, value );
+		else
+			edgeStore.put( edge, f, value );
+	}
+
+	@Override
+	public Double getEdgeFeature( final DefaultWeightedEdge edge, final String feature )
+	{
+		final int f = edgeStore.featureIndex( feature );
+		if ( f < 0 )
+			return super.getEdgeFeature( edge, feature );
+		return edgeStore.get( edge, f );
+	}
+
+	@Override
+	public void modelChanged( final ModelChangeEvent event )
+	{
+		if ( event.getEventID() != ModelChangeEvent.MODEL_MODIFIED )
+			return;
+
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			final Integer flag = event.getEdgeFlag( edge );
+			if ( null != flag && flag.intValue() == ModelChangeEvent.FLAG_EDGE_REMOVED )
+				edgeStore.remove( edge );
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package fiji.plugin.trackmate.features.store;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.TrackModel;
+
+/**
+ * A {@link Model} whose feature model is a {@link CompactFeatureModel},
+ * storing the features of the linear edge analyzer in compact form.
+ * <p>
+ * For models with millions of edges, this cuts the memory used by these
+ * features by about an order of magnitude, and most of the garbage created
+ * when they are computed.
+ * <p>
+ * TrackMate and its XML reader create plain models, so a session opts in
+ * explicitly:
+ * <ul>
+ * <li>a new session passes a compact model to TrackMate, with
+ * <code>new TrackMate( new CompactModel(), settings )</code>, before
+ * detection and tracking;</li>
+ * <li>a session loaded from a file converts the model read with
+ * {@link #copyOf(Model)}, then recomputes the track features.</li>
+ * </ul>
+ */
+public class CompactModel extends Model
+{
+
+	public CompactModel()
+	{
+		super();
+		addModelChangeListener( getFeatureModel() );
+	}
+
+	@Override
+	protected FeatureModel createFeatureModel()
+	{
+		return new CompactFeatureModel( this );
+	}
+
+	@Override
+	public CompactFeatureModel getFeatureModel()
+	{
+		return ( CompactFeatureModel ) super.getFeatureModel();
+	}
+
+	/**
+	 * Returns a compact model with the spots, edges and edge feature values
+	 * of a model, for instance one read from a TrackMate file.
+	 * <p>
+	 * The spots, with their features, are shared and not copied: the source
+	 * model must be discarded afterwards. The edges are new, with the same
+	 * weights and feature values. The feature declarations and the track
+	 * features are not copied, as the track IDs are reassigned: recompute
+	 * them, for instance with the feature updater of TrackMate.
+	 *
+	 * @param source
+	 *            the model to convert.
+	 * @return a new compact model.
+	 */
+	public static CompactModel copyOf( final Model source )
+	{
+		final CompactModel model = new CompactModel();
+		model.setPhysicalUnits( source.getSpaceUnits(), source.getTimeUnits() );
+		final SpotCollection spots = source.getSpots();
+		final TrackModel trackModel = source.getTrackModel();
+		final FeatureModel sourceFeatures = source.getFeatureModel();
+		final FeatureModel features = model.getFeatureModel();
+
+		model.beginUpdate();
+		try
+		{
+			for ( final Integer frame : spots.keySet() )
+				for ( final Spot spot : spots.iterable( frame, false ) )
+					model.addSpotTo( spot, frame );
+
+			for ( final DefaultWeightedEdge edge : trackModel.edgeSet() )
+			{
+				final DefaultWeightedEdge copy = model.addEdge( trackModel.getEdgeSource( edge ), trackModel.getEdgeTarget( edge ), trackModel.getEdgeWeight( edge ) );
+				for ( final String feature : sourceFeatures.getEdgeFeatures() )
+				{
+					final Double value = sourceFeatures.getEdgeFeature( edge, feature );
+					if ( null != value )
+						features.putEdgeFeature( copy, feature, value );
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+}
@@ -0,0 +1,186 @@
+package fiji.plugin.trackmate.features.store;
+
+/**
+ * A minimal open-addressing hash map from objects, compared by identity, to
+ * non-negative <code>int</code> values, without boxing. It keeps the load
+ * factor at most 1/2 and removes keys by backward shifting, so that it
+ * never holds tombstones.
+ * <p>
+ * Not thread-safe. {@link #get(Object)} never throws and always returns,
+ * even when the map is modified concurrently, but then its result is
+ * meaningless and must be validated by the caller.
+ */
+class EdgeIndex
+{
+
+	/**
+	 * The value returned for absent keys.
+	 */
+	static final int NO_VALUE = -1;
+
+	private Object[] keys;
+
+	private int[] values;
+
+	private int size;
+
+	EdgeIndex( final int expectedSize )
+	{
+		final int capacity = capacityFor( expectedSize );
+		keys = new Object[ capacity ];
+		values = new int[ capacity ];
+	}
+
+	int get( final Object key )
+	{
+		final Object[] k = keys;
+		final int[] v = values;
+		if ( k.length != v.length )
+			return NO_VALUE;
+
+		final int mask = k.length - 1;
+		int slot = hash( key ) & mask;
+		for ( int i = 0; i < k.length; i++ )
+		{
+			final Object candidate = k[ slot ];
+			if ( null == candidate )
+				return NO_VALUE;
+			if ( candidate == key )
+				return v[ slot ];
+			slot = ( slot + 1 ) & mask;
+		}
+		return NO_VALUE;
+	}
+
+	/**
+	 * Associates a value with a key, if the key is absent.
+	 *
+	 * @return the value already associated with the key, or
+	 *         {@link #NO_VALUE} if the key was absent and the value was
+	 *         added.
+	 */
+	int putIfAbsent( final Object key, final int value )
+	{
+		final int mask = keys.length - 1;
+		int slot = hash( key ) & mask;
+		while ( null != keys[ slot ] )
+		{
+			if ( keys[ slot ] == key )
+				return values[ slot ];
+			slot = ( slot + 1 ) & mask;
+		}
+		values[ slot ] = value;
+		keys[ slot ] = key;
+		size++;
+		if ( 2 * size > keys.length )
+			rehash( 2 * keys.length );
+		return NO_VALUE;
+	}
+
+	/**
+	 * Removes a key.
+	 *
+	 * @return the value that was associated with the key, or
+	 *         {@link #NO_VALUE} if the key was absent.
+	 */
+	int remove( final Object key )
+	{
+		final int mask = keys.length - 1;
+		int slot = hash( key ) & mask;
+		while ( keys[ slot ] != key )
+		{
+			if ( null == keys[ slot ] )
+				return NO_VALUE;
+			slot = ( slot + 1 ) & mask;
+		}
+		final int value = values[ slot ];
+
+		// Shift back the following keys of the cluster.
+		int hole = slot;
+		int next = ( hole + 1 ) & mask;
+		while ( null != keys[ next ] )
+		{
+			final int home = hash( keys[ next ] ) & mask;
+			// Move if the home of the key is not in (hole, next].
+			if ( ( ( next - home ) & mask ) >= ( ( next - hole ) & mask ) )
+			{
+				keys[ hole ] = keys[ next ];
+				values[ hole ] = values[ next ];
+				hole = next;
+			}
+			next = ( next + 1 ) & mask;
+		}
+		keys[ hole ] = null;
+		size--;
+		return value;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the number of slots of the table.
+	 */
+	int capacity()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * Renumbers the values from 0 to <code>size() - 1</code>, and shrinks the
+	 * table to the number of keys.
+	 *
+	 * @return the previous value of each key, indexed by its new value.
+	 */
+	int[] compact()
+	{
+		final int[] previous = new int[ size ];
+		int n = 0;
+		for ( int i = 0; i < keys.length; i++ )
+		{
+			if ( null == keys[ i ] )
+				continue;
+			previous[ n ] = values[ i ];
+			values[ i ] = n++;
+		}
+		rehash( capacityFor( size ) );
+		return previous;
+	}
+
+	private void rehash( final int capacity )
+	{
+		final Object[] oldKeys = keys;
+		final int[] oldValues = values;
+		final Object[] newKeys = new Object[ capacity ];
+		final int[] newValues = new int[ capacity ];
+		final int mask = capacity - 1;
+		for ( int i = 0; i < oldKeys.length; i++ )
+		{
+			if ( null == oldKeys[ i ] )
+				continue;
+			int slot = hash( oldKeys[ i ] ) & mask;
+			while ( null != newKeys[ slot ] )
+				slot = ( slot + 1 ) & mask;
+			newKeys[ slot ] = oldKeys[ i ];
+			newValues[ slot ] = oldValues[ i ];
+		}
+		values = newValues;
+		keys = newKeys;
+	}
+
+	private static int capacityFor( final int expectedSize )
+	{
+		int capacity = 16;
+		while ( capacity < 2 * expectedSize )
+			capacity <<= 1;
+		return capacity;
+	}
+
+	private static int hash( final Object key )
+	{
+		final int h = System.identityHashCode( key ) * 0x9E3779B9;
+		return h ^ ( h >>> 16 );
+	}
+}
@@ -0,0 +1,450 @@
+package fiji.plugin.trackmate.features.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+
+/**
+ * Caches the features computed for tracks, keyed by a hash of their
+ * geometry, so that tracks already analyzed in this or a previous session
+ * are not computed again.
+ * <p>
+ * The key of a track is a 128-bit hash of the positions and times of its
+ * spots, in the order of a {@link TrackGeometry} snapshot, of its edges, and
+ * of a salt identifying the settings and the other inputs the features
+ * depend on. Tracks with the same geometry and inputs share an entry
+ * whatever their ID. An entry holds the track features and, optionally, the
+ * features of the track edges, in the order of the snapshot.
+ * <p>
+ * The entries are held in memory, bounded in bytes, and the least recently
+ * used entries are evicted first. The file is a snapshot of the entries: it
+ * is read once when the cache is created, and only written by
+ * {@link #save()} and {@link #close()}, least recently used entries first.
+ * Entries added since the last save are lost if the cache is not saved.
+ * <p>
+ * No cache is used unless one is set on an analyzer, for instance:
+ *
+ * <pre>
+ * try (TrackResultCache cache = new TrackResultCache( file ))
+ * {
+ * 	analyzer.setResultCache( cache );
+ * 	analyzer.process( trackIDs, model );
+ * }
+ * </pre>
+ * <p>
+ * Thread-safe.
+ */
+public class TrackResultCache implements Closeable
+{
+
+	public static final long DEFAULT_MAX_BYTES = 256l << 20;
+
+	static final byte[] MAGIC = new byte[] { 'T', 'M', 'C', 'A', 'C', 'H', 'E', 0 };
+
+	static final int VERSION = 1;
+
+	/**
+	 * Bytes of an entry besides its values: key, value counts and map
+	 * overhead.
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	private final File file;
+
+	private final long maxBytes;
+
+	private final LinkedHashMap< Key, Entry > entries = new LinkedHashMap<>( 16, 0.75f, true );
+
+	private long bytes;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * Creates a cache stored in the specified file, with the default
+	 * bound of {@value #DEFAULT_MAX_BYTES} bytes.
+	 *
+	 * @param file
+	 *            the cache file. Loaded if it exists.
+	 * @throws IOException
+	 *             if the file exists and cannot be read or is not a cache
+	 *             file.
+	 */
+	public TrackResultCache( final File file ) throws IOException
+	{
+		this( file, DEFAULT_MAX_BYTES );
+	}
+
+	/**
+	 * Creates a cache stored in the specified file.
+	 *
+	 * @param file
+	 *            the cache file, or <code>null</code> for a cache kept in
+	 *            memory only. Loaded if it exists.
+	 * @param maxBytes
+	 *            the maximal size of the entries, in bytes.
+	 * @throws IOException
+	 *             if the file exists and cannot be read or is not a cache
+	 *             file.
+	 */
+	public TrackResultCache( final File file, final long maxBytes ) throws IOException
+	{
+		this.file = file;
+		this.maxBytes = maxBytes;
+		if ( null != file && file.exists() )
+			load();
+	}
+
+	/**
+	 * Mixes a value in a salt, for features that depend on values other than
+	 * the geometry of the tracks.
+	 *
+	 * @param salt
+	 *            the salt.
+	 * @param value
+	 *            the value.
+	 * @return the new salt.
+	 */
+	public static long salt( final long salt, final double value )
+	{
+		return fmix( mix1( salt, Double.doubleToLongBits( value ) ) );
+	}
+
+	/**
+	 * Computes the key of a track of a snapshot.
+	 *
+	 * @param geom
+	 *            the snapshot.
+	 * @param k
+	 *            the track index in the snapshot.
+	 * @param salt
+	 *            identifies the settings the features depend on.
+	 * @param keys
+	 *            the array to write the key to, at <code>2 * k</code> and
+	 *            <code>2 * k + 1</code>.
+	 */
+	public static void key( final TrackGeometry geom, final int k, final long salt, final long[] keys )
+	{
+		final int s0 = geom.spotStart[ k ];
+		final int s1 = geom.spotStart[ k + 1 ];
+		final int e0 = geom.edgeStart[ k ];
+		final int e1 = geom.edgeStart[ k + 1 ];
+
+		// Two independent 64-bit streams.
+		long h1 = 0x9e3779b97f4a7c15l ^ salt;
+		long h2 = 0xc2b2ae3d27d4eb4fl + salt;
+		final long size = ( ( long ) ( s1 - s0 ) << 32 ) | ( e1 - e0 );
+		h1 = mix1( h1, size );
+		h2 = mix2( h2, size );
+		for ( int s = s0; s < s1; s++ )
+		{
+			final long x = Double.doubleToLongBits( geom.x[ s ] );
+			final long y = Double.doubleToLongBits( geom.y[ s ] );
+			final long z = Double.doubleToLongBits( geom.z[ s ] );
+			final long t = Double.doubleToLongBits( geom.t[ s ] );
+			h1 = mix1( mix1( mix1( mix1( h1, x ), y ), z ), t );
+			h2 = mix2( mix2( mix2( mix2( h2, x ), y ), z ), t );
+		}
+		for ( int e = e0; e < e1; e++ )
+		{
+			final long edge = ( ( long ) ( geom.source[ e ] - s0 ) << 32 ) | ( geom.target[ e ] - s0 );
+			h1 = mix1( h1, edge );
+			h2 = mix2( h2, edge );
+		}
+		keys[ 2 * k ] = fmix( h1 );
+		keys[ 2 * k + 1 ] = fmix( h2 ^ h1 );
+	}
+
+	/**
+	 * Returns the values stored for a key.
+	 *
+	 * @param key0
+	 *            the first half of the key.
+	 * @param key1
+	 *            the second half of the key.
+	 * @param withEdges
+	 *            whether the edge features are needed. Entries without them
+	 *            are then misses.
+	 * @return the track features and the edge features, or
+	 *         <code>null</code> if missing. The edge features are
+	 *         <code>null</code> if not stored. The arrays must not be
+	 *         modified.
+	 */
+	public synchronized double[][] get( final long key0, final long key1, final boolean withEdges )
+	{
+		final Entry entry = entries.get( new Key( key0, key1 ) );
+		if ( null == entry || ( withEdges && null == entry.edgeValues ) )
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return new double[][] { entry.trackValues, entry.edgeValues };
+	}
+
+	/**
+	 * Stores the values of a key, and evicts the least recently used entries
+	 * if the cache is full.
+	 *
+	 * @param key0
+	 *            the first half of the key.
+	 * @param key1
+	 *            the second half of the key.
+	 * @param trackValues
+	 *            the track features.
+	 * @param edgeValues
+	 *            the edge features, or <code>null</code>.
+	 */
+	public synchronized void put( final long key0, final long key1, final double[] trackValues, final double[] edgeValues )
+	{
+		final Entry entry = new Entry( trackValues, edgeValues );
+		final Entry previous = entries.put( new Key( key0, key1 ), entry );
+		if ( null != previous )
+			bytes -= previous.bytes();
+		bytes += entry.bytes();
+
+		final Iterator< Entry > it = entries.values().iterator();
+		while ( bytes > maxBytes && it.hasNext() )
+		{
+			bytes -= it.next().bytes();
+			it.remove();
+		}
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the approximate memory used by the entries.
+	 *
+	 * @return the size, in bytes.
+	 */
+	public synchronized long getSizeBytes()
+	{
+		return bytes;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the fraction of the lookups that were hits, since the cache
+	 * was created or its counters were reset.
+	 *
+	 * @return the hit rate, <code>NaN</code> if there was no lookup.
+	 */
+	public synchronized double getHitRate()
+	{
+		return ( double ) hits / ( hits + misses );
+	}
+
+	public synchronized void resetCounters()
+	{
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Removes all the entries.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Writes the entries to the cache file, through a temporary file so that
+	 * the file is never left half written.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written.
+	 */
+	public synchronized void save() throws IOException
+	{
+		if ( null == file )
+			return;
+
+		final File tmp = new File( file.getPath() + ".tmp" );
+		try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ) ))
+		{
+			out.write( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( entries.size() );
+			// Least recently used first, so that loading restores the order.
+			for ( final Map.Entry< Key, Entry > e : entries.entrySet() )
+			{
+				out.writeLong( e.getKey().key0 );
+				out.writeLong( e.getKey().key1 );
+				write( out, e.getValue().trackValues );
+				write( out, e.getValue().edgeValues );
+			}
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+	}
+
+	/**
+	 * Saves the cache.
+	 *
+	 * @see #save()
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		save();
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format( "Track result cache: %d hits, %d misses (%.1f%% hits), %d entries, %.1f MB",
+				hits, misses, 100. * getHitRate(), entries.size(), bytes / ( 1024. * 1024. ) );
+	}
+
+	private void load() throws IOException
+	{
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) ))
+		{
+			final byte[] magic = new byte[ MAGIC.length ];
+			in.readFully( magic );
+			if ( !Arrays.equals( magic, MAGIC ) )
+				throw new IOException( "Not a track result cache file: " + file );
+			final int version = in.readInt();
+			if ( version != VERSION )
+				throw new IOException( "Unsupported version " + version + " of track result cache file: " + file );
+
+			final int n = in.readInt();
+			for ( int i = 0; i < n; i++ )
+			{
+				final long key0 = in.readLong();
+				final long key1 = in.readLong();
+				final double[] trackValues = read( in );
+				final double[] edgeValues = read( in );
+				put( key0, key1, trackValues, edgeValues );
+			}
+		}
+		catch ( final EOFException e )
+		{
+			throw new IOException( "Truncated track result cache file: " + file, e );
+		}
+	}
+
+	private static void write( final DataOutputStream out, final double[] values ) throws IOException
+	{
+		if ( null == values )
+		{
+			out.writeInt( -1 );
+			return;
+		}
+		out.writeInt( values.length );
+		for ( final double v : values )
+			out.writeDouble( v );
+	}
+
+	private static double[] read( final DataInputStream in ) throws IOException
+	{
+		final int n = in.readInt();
+		if ( n < 0 )
+			return null;
+		final double[] values = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+			values[ i ] = in.readDouble();
+		return values;
+	}
+
+	private static long mix1( final long h, final long v )
+	{
+		return Long.rotateLeft( h ^ ( v * 0x87c37b91114253d5l ), 31 ) * 0x4cf5ad432745937fl;
+	}
+
+	private static long mix2( final long h, final long v )
+	{
+		return Long.rotateLeft( h + ( v ^ ( v >>> 29 ) ) * 0xbf58476d1ce4e5b9l, 27 ) * 0x94d049bb133111ebl + 0x52dce729l;
+	}
+
+	/**
+	 * Murmur3 finalizer.
+	 */
+	private static long fmix( long h )
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdl;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53l;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static final class Key
+	{
+
+		private final long key0;
+
+		private final long key1;
+
+		private Key( final long key0, final long key1 )
+		{
+			this.key0 = key0;
+			this.key1 = key1;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ( int ) ( key0 ^ ( key0 >>> 32 ) );
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof Key ) )
+				return false;
+			final Key other = ( Key ) obj;
+			return key0 == other.key0 && key1 == other.key1;
+		}
+	}
+
+	private static final class Entry
+	{
+
+		private final double[] trackValues;
+
+		private final double[] edgeValues;
+
+		private Entry( final double[] trackValues, final double[] edgeValues )
+		{
+			this.trackValues = trackValues;
+			this.edgeValues = edgeValues;
+		}
+
+		private long bytes()
+		{
+			return ENTRY_OVERHEAD + 8l * ( trackValues.length + ( null == edgeValues ? 0 : edgeValues.length ) );
+		}
+	}
+}
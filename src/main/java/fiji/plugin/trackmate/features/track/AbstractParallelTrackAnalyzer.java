@@ -0,0 +1,190 @@
+package fiji.plugin.trackmate.features.track;
+
+import java.util.concurrent.ForkJoinPool;
+
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.TrackFrameIndex;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetricsSnapshot;
+
+/**
+ * Base class for the track analyzers that split their runs over a
+ * {@link RangeExecutor}: it holds their threading settings, the index of
+ * the spots of each track in frame order, and the metrics of their runs.
+ * <p>
+ * A subclass starts a run with {@link #startRun()}, computes on the
+ * executor returned by {@link #newExecutor()}, with schedules of at least
+ * {@link #MIN_COST_PER_CHUNK} per chunk, and ends the run with
+ * {@link #endRun(AnalyzerMetrics.Run, int, int)}.
+ */
+public abstract class AbstractParallelTrackAnalyzer implements TrackAnalyzer
+{
+
+	/**
+	 * Below this estimated cost, in edges or spots, a run is processed
+	 * sequentially in the calling thread.
+	 */
+	protected static final int MIN_COST_PER_CHUNK = 1024;
+
+	private int numThreads;
+
+	private long processingTime;
+
+	private ForkJoinPool forkJoinPool;
+
+	private TrackFrameIndex frameIndex;
+
+	private AnalyzerMetrics metrics;
+
+	private AnalyzerMetricsSnapshot lastRunMetrics;
+
+	/**
+	 * Creates an analyzer recording its runs in the metrics shared by all
+	 * the analyzers of the same key.
+	 *
+	 * @param key
+	 *            the key of the analyzer.
+	 */
+	protected AbstractParallelTrackAnalyzer( final String key )
+	{
+		this.metrics = AnalyzerMetrics.get( key );
+		setNumThreads();
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Sets the pool this analyzer runs on. If <code>null</code>, the pool
+	 * shared by all the analyzers of this package is used.
+	 *
+	 * @param forkJoinPool
+	 *            the pool to use.
+	 * @see RangeExecutor#setSharedPool(ForkJoinPool)
+	 */
+	public void setForkJoinPool( final ForkJoinPool forkJoinPool )
+	{
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Sets the index this analyzer takes the spots of each track in frame
+	 * order from. If <code>null</code>, the spots are sorted at each run.
+	 * Analyzers that do not process the spots of tracks in frame order
+	 * ignore it.
+	 *
+	 * @param frameIndex
+	 *            the index to use. It must index the model this analyzer
+	 *            processes.
+	 */
+	public void setFrameIndex( final TrackFrameIndex frameIndex )
+	{
+		this.frameIndex = frameIndex;
+	}
+
+	/**
+	 * Sets the metrics the runs of this analyzer are recorded in. By
+	 * default, the metrics shared by all the instances of this analyzer, see
+	 * {@link AnalyzerMetrics#get(String)}.
+	 *
+	 * @param metrics
+	 *            the metrics to record the runs in.
+	 */
+	public void setMetrics( final AnalyzerMetrics metrics )
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics the runs of this analyzer are recorded in. Unless
+	 * set otherwise, they are shared by all the instances of this analyzer,
+	 * and their <code>LastRun</code> values may come from another instance
+	 * running concurrently. Use {@link #getLastRunMetrics()} for the values
+	 * of the last run of this instance.
+	 *
+	 * @return the metrics.
+	 */
+	public AnalyzerMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Returns the metrics of the last run of this instance only.
+	 *
+	 * @return the metrics of the last run, or <code>null</code> if this
+	 *         instance did not complete a run yet.
+	 */
+	public AnalyzerMetricsSnapshot getLastRunMetrics()
+	{
+		return lastRunMetrics;
+	}
+
+	/**
+	 * Returns the index set with {@link #setFrameIndex(TrackFrameIndex)}.
+	 *
+	 * @return the index, or <code>null</code>.
+	 */
+	protected TrackFrameIndex getFrameIndex()
+	{
+		return frameIndex;
+	}
+
+	/**
+	 * Returns an executor on the pool and with the number of threads of this
+	 * analyzer.
+	 *
+	 * @return a new executor.
+	 */
+	protected RangeExecutor newExecutor()
+	{
+		return new RangeExecutor( forkJoinPool, numThreads );
+	}
+
+	/**
+	 * Starts recording a run in the metrics of this analyzer.
+	 *
+	 * @return the run.
+	 */
+	protected AnalyzerMetrics.Run startRun()
+	{
+		return metrics.startRun();
+	}
+
+	/**
+	 * Ends a run, and stores its processing time and its metrics.
+	 *
+	 * @param run
+	 *            the run, returned by {@link #startRun()}.
+	 * @param nTracks
+	 *            the number of tracks processed.
+	 * @param nEdges
+	 *            the number of edges processed.
+	 */
+	protected void endRun( final AnalyzerMetrics.Run run, final int nTracks, final int nEdges )
+	{
+		processingTime = run.end( nTracks, nEdges ) / 1000000;
+		lastRunMetrics = run.snapshot();
+	}
+}
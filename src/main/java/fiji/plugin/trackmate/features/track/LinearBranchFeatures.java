@@ -0,0 +1,141 @@
+package fiji.plugin.trackmate.features.track;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.linear.BranchDecomposition;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+
+/**
+ * The features of {@link LinearTrackDescriptor} computed for each branch of
+ * the tracks of one analysis run, see {@link BranchDecomposition}.
+ * <p>
+ * Branches are identified by an index, from 0 to {@link #size()} - 1, valid
+ * for this instance only. The branches of a track are consecutive, in the
+ * order of their first edge. The features of a branch only depend on its
+ * own spots: distances are measured from its first spot, and its duration
+ * and mean speed are its own.
+ * <p>
+ * Instances are immutable.
+ */
+public class LinearBranchFeatures
+{
+
+	private final FeatureColumns columns;
+
+	private final int[] branchTrackIDs;
+
+	private final int[] parent;
+
+	private final Spot[] firstSpots;
+
+	private final Spot[] lastSpots;
+
+	private final Map< Integer, int[] > trackBranches;
+
+	LinearBranchFeatures( final BranchDecomposition branches, final FeatureColumns columns )
+	{
+		final TrackGeometry geom = branches.getGeometry();
+		this.columns = columns;
+		this.parent = branches.parent;
+		this.branchTrackIDs = new int[ branches.nBranches ];
+		this.firstSpots = new Spot[ branches.nBranches ];
+		this.lastSpots = new Spot[ branches.nBranches ];
+		for ( int b = 0; b < branches.nBranches; b++ )
+		{
+			branchTrackIDs[ b ] = geom.trackIDs[ branches.track[ b ] ];
+			if ( null != geom.spots )
+			{
+				firstSpots[ b ] = geom.spots[ branches.firstSpot( b ) ];
+				lastSpots[ b ] = geom.spots[ branches.lastSpot( b ) ];
+			}
+		}
+		this.trackBranches = new HashMap<>( 2 * geom.nTracks );
+		for ( int k = 0; k < geom.nTracks; k++ )
+			trackBranches.put( Integer.valueOf( geom.trackIDs[ k ] ), new int[] { branches.trackBranchStart[ k ], branches.trackBranchStart[ k + 1 ] } );
+	}
+
+	/**
+	 * Returns the number of branches.
+	 *
+	 * @return the number of branches.
+	 */
+	public int size()
+	{
+		return branchTrackIDs.length;
+	}
+
+	/**
+	 * Returns the keys of the features computed for each branch, those of
+	 * {@link LinearTrackDescriptor#FEATURES}.
+	 *
+	 * @return the feature keys.
+	 */
+	public List< String > getFeatures()
+	{
+		return Collections.unmodifiableList( columns.getFeatures() );
+	}
+
+	/**
+	 * Returns the value of a feature for a branch.
+	 *
+	 * @param branch
+	 *            the branch index.
+	 * @param feature
+	 *            the feature key.
+	 * @return the value.
+	 * @throws IllegalArgumentException
+	 *             if the feature is not computed for branches.
+	 */
+	public double getFeature( final int branch, final String feature )
+	{
+		return columns.column( feature )[ branch ];
+	}
+
+	/**
+	 * Returns the range of the indices of the branches of a track.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @return the first branch index, inclusive, and the last one,
+	 *         exclusive, or <code>null</code> if the track was not
+	 *         processed. The range is empty for tracks of a single spot.
+	 */
+	public int[] getBranches( final Integer trackID )
+	{
+		final int[] range = trackBranches.get( trackID );
+		return null == range ? null : range.clone();
+	}
+
+	public int getTrackID( final int branch )
+	{
+		return branchTrackIDs[ branch ];
+	}
+
+	/**
+	 * Returns the branch that ends at the first spot of a branch.
+	 *
+	 * @param branch
+	 *            the branch index.
+	 * @return the index of the parent branch, or -1 if the first spot of the
+	 *         branch does not have exactly one predecessor.
+	 */
+	public int getParent( final int branch )
+	{
+		return parent[ branch ];
+	}
+
+	public Spot getFirstSpot( final int branch )
+	{
+		return firstSpots[ branch ];
+	}
+
+	public Spot getLastSpot( final int branch )
+	{
+		return lastSpots[ branch ];
+	}
+}
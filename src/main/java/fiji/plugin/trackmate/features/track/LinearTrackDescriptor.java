@@ -6,24 +6,38 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.swing.ImageIcon;
 
-import net.imglib2.multithreading.SimpleMultiThreading;
-
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.scijava.Priority;
 import org.scijava.plugin.Plugin;
 
 import fiji.plugin.trackmate.Dimension;
 import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Logger;
 import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.linear.AnglePrecision;
+import fiji.plugin.trackmate.features.linear.BranchDecomposition;
+import fiji.plugin.trackmate.features.linear.FastAtan2;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.LinearTrackAccumulator;
+import fiji.plugin.trackmate.features.linear.LinearTrackKernel;
+import fiji.plugin.trackmate.features.linear.LptSchedule;
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+import fiji.plugin.trackmate.features.linear.RunControl;
+import fiji.plugin.trackmate.features.linear.TrackFrameIndex;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics.Phase;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetricsSnapshot;
+import fiji.plugin.trackmate.features.store.TrackResultCache;
 
-@SuppressWarnings( "deprecation" )
 @Plugin( type = TrackAnalyzer.class, priority = Priority.LOW )
 public class LinearTrackDescriptor implements TrackAnalyzer
 {
@@ -111,10 +125,60 @@ public class LinearTrackDescriptor implements TrackAnalyzer
 		IS_INT.put( TOTAL_ABSOLUTE_ANGLE_ZX, Boolean.FALSE );
 	}
 
+	/**
+	 * Below this number of edges, a run is processed sequentially in the
+	 * calling thread.
+	 */
+	private static final int MIN_EDGES_PER_CHUNK = 1024;
+
+	/**
+	 * Tracks with at least this number of edges are split in blocks of
+	 * edges, processed in parallel and merged, so that a few giant tracks do
+	 * not keep a single thread busy while the others are idle.
+	 */
+	static final int SPLIT_EDGES = 1 << 16;
+
+	/**
+	 * Number of edges in the blocks giant tracks are split in.
+	 */
+	private static final int EDGE_BLOCK = 1 << 13;
+
+	/**
+	 * Version of the feature definitions, part of the keys of the result
+	 * cache. Must be incremented when the values computed for a track change.
+	 */
+	private static final int RESULTS_VERSION = 1;
+
 	private int numThreads;
 
 	private long processingTime;
 
+	private ForkJoinPool forkJoinPool;
+
+	private boolean computeEdgeFeatures = false;
+
+	private TrackFrameIndex frameIndex;
+
+	private AnglePrecision anglePrecision = AnglePrecision.EXACT;
+
+	private boolean computeBranchFeatures = false;
+
+	private LinearBranchFeatures branchFeatures;
+
+	private AnalyzerMetrics metrics = AnalyzerMetrics.get( KEY );
+
+	private AnalyzerMetricsSnapshot lastRunMetrics;
+
+	private int nSplitTracks;
+
+	private RunControl runControl = new RunControl();
+
+	private List< Integer > pendingTrackIDs = Collections.emptyList();
+
+	private TrackResultCache resultCache;
+
+	private Logger logger;
+
 	public LinearTrackDescriptor()
 	{
 		setNumThreads();
@@ -205,6 +269,241 @@ public class LinearTrackDescriptor implements TrackAnalyzer
 
 	}
 
+	/**
+	 * Sets the pool this analyzer runs on. If <code>null</code>, the pool
+	 * shared by all the analyzers of this package is used.
+	 *
+	 * @param forkJoinPool
+	 *            the pool to use.
+	 * @see RangeExecutor#setSharedPool(ForkJoinPool)
+	 */
+	public void setForkJoinPool( final ForkJoinPool forkJoinPool )
+	{
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Sets whether this analyzer also computes the features of
+	 * {@link LinearTrackEdgeStatistics} for the edges of the tracks it
+	 * processes.
+	 * <p>
+	 * In this fused mode, the edge features are computed in the same
+	 * traversal as the track features and fed directly to the track sums,
+	 * instead of being read back from the feature model. They are published
+	 * under the same keys as with {@link LinearTrackEdgeStatistics}, which
+	 * then does not have to run before this analyzer.
+	 *
+	 * @param computeEdgeFeatures
+	 *            whether to compute the edge features.
+	 */
+	public void setComputeEdgeFeatures( final boolean computeEdgeFeatures )
+	{
+		this.computeEdgeFeatures = computeEdgeFeatures;
+	}
+
+	/**
+	 * Returns whether this analyzer also computes the edge features.
+	 *
+	 * @return whether the fused mode is on.
+	 * @see #setComputeEdgeFeatures(boolean)
+	 */
+	public boolean isComputeEdgeFeatures()
+	{
+		return computeEdgeFeatures;
+	}
+
+	/**
+	 * Sets the index this analyzer takes the spots of each track in frame
+	 * order from. If <code>null</code>, the spots are sorted at each run.
+	 *
+	 * @param frameIndex
+	 *            the index to use. It must index the model this analyzer
+	 *            processes.
+	 */
+	public void setFrameIndex( final TrackFrameIndex frameIndex )
+	{
+		this.frameIndex = frameIndex;
+	}
+
+	/**
+	 * Sets the precision with which the angle features are computed. With
+	 * {@link AnglePrecision#FAST}, angles are within
+	 * {@value FastAtan2#MAX_ERROR} radians of the exact values. The default is
+	 * {@link AnglePrecision#EXACT}.
+	 * <p>
+	 * This applies to the total absolute angles and, in fused mode, to the
+	 * edge features. Otherwise, the directional change rates are those
+	 * computed by {@link LinearTrackEdgeStatistics}, with its own setting.
+	 *
+	 * @param anglePrecision
+	 *            the precision of the angles.
+	 */
+	public void setAnglePrecision( final AnglePrecision anglePrecision )
+	{
+		this.anglePrecision = anglePrecision;
+	}
+
+	public AnglePrecision getAnglePrecision()
+	{
+		return anglePrecision;
+	}
+
+	/**
+	 * Sets whether this analyzer also computes its features for each branch
+	 * of the tracks it processes, that is for each maximal linear segment
+	 * between divisions and merges. In lineages, the per-track features mix
+	 * the sister branches together.
+	 * <p>
+	 * The branch features of the last run are available from
+	 * {@link #getBranchFeatures()}. They are computed from the spot
+	 * positions only, and do not depend on other analyzers.
+	 *
+	 * @param computeBranchFeatures
+	 *            whether to compute the branch features.
+	 */
+	public void setComputeBranchFeatures( final boolean computeBranchFeatures )
+	{
+		this.computeBranchFeatures = computeBranchFeatures;
+		if ( !computeBranchFeatures )
+			branchFeatures = null;
+	}
+
+	public boolean isComputeBranchFeatures()
+	{
+		return computeBranchFeatures;
+	}
+
+	/**
+	 * Returns the branch features of the tracks processed by the last run.
+	 *
+	 * @return the branch features, or <code>null</code> if they are not
+	 *         computed.
+	 * @see #setComputeBranchFeatures(boolean)
+	 */
+	public LinearBranchFeatures getBranchFeatures()
+	{
+		return branchFeatures;
+	}
+
+	/**
+	 * Sets the metrics the runs of this analyzer are recorded in. By
+	 * default, the metrics shared by all the instances of this analyzer, see
+	 * {@link AnalyzerMetrics#get(String)}.
+	 *
+	 * @param metrics
+	 *            the metrics to record the runs in.
+	 */
+	public void setMetrics( final AnalyzerMetrics metrics )
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the metrics the runs of this analyzer are recorded in. Unless
+	 * set otherwise, they are shared by all the instances of this analyzer,
+	 * and their <code>LastRun</code> values may come from another instance
+	 * running concurrently. Use {@link #getLastRunMetrics()} for the values
+	 * of the last run of this instance.
+	 *
+	 * @return the metrics.
+	 */
+	public AnalyzerMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Returns the metrics of the last run of this instance only.
+	 *
+	 * @return the metrics of the last run, or <code>null</code> if this
+	 *         instance did not complete a run yet.
+	 */
+	public AnalyzerMetricsSnapshot getLastRunMetrics()
+	{
+		return lastRunMetrics;
+	}
+
+	/**
+	 * Returns the number of tracks the last run split in blocks of edges.
+	 */
+	int getLastRunSplitTracks()
+	{
+		return nSplitTracks;
+	}
+
+	/**
+	 * Sets the control used to cancel the runs of this analyzer, bound their
+	 * duration and follow their progress. Progress is counted in tracks.
+	 *
+	 * @param runControl
+	 *            the control.
+	 */
+	public void setRunControl( final RunControl runControl )
+	{
+		this.runControl = runControl;
+	}
+
+	public RunControl getRunControl()
+	{
+		return runControl;
+	}
+
+	/**
+	 * Sets the cache of the results of this analyzer. Tracks whose geometry
+	 * is found in the cache are not computed again, and the results of the
+	 * other tracks are added to it. In fused mode, the edge features are
+	 * cached with the track features.
+	 * <p>
+	 * The keys of the cache hash the geometry of a track, the mode and angle
+	 * precision of this analyzer, and the values of the features it depends
+	 * on: the displacement, duration and mean speed of the track and, if the
+	 * edge features are not fused, the directional change rates of its edges.
+	 * <p>
+	 * No cache is used by default. The hits and misses of each run are
+	 * recorded in the metrics of this analyzer, see
+	 * {@link AnalyzerMetricsSnapshot#getCacheHits()}.
+	 *
+	 * @param resultCache
+	 *            the cache, or <code>null</code> to compute all the tracks.
+	 */
+	public void setResultCache( final TrackResultCache resultCache )
+	{
+		this.resultCache = resultCache;
+	}
+
+	public TrackResultCache getResultCache()
+	{
+		return resultCache;
+	}
+
+	/**
+	 * Sets a logger the hit and miss rates of the result cache are reported
+	 * to at the end of each run that uses a cache. Nothing is logged by
+	 * default.
+	 *
+	 * @param logger
+	 *            the logger, or <code>null</code>.
+	 */
+	public void setLogger( final Logger logger )
+	{
+		this.logger = logger;
+	}
+
+	/**
+	 * Returns the tracks the last run did not process, because it was
+	 * canceled or ran out of time. Their features, and in fused mode the
+	 * features of their edges, are left unchanged. The branch features are
+	 * only computed by runs that process all their tracks. Processing these
+	 * tracks completes the analysis.
+	 *
+	 * @return the IDs of the pending tracks, empty if the last run
+	 *         completed.
+	 */
+	public List< Integer > getPendingTrackIDs()
+	{
+		return pendingTrackIDs;
+	}
+
 	@Override
 	public boolean isLocal()
 	{
@@ -215,117 +514,430 @@ public class LinearTrackDescriptor implements TrackAnalyzer
 	public void process( final Collection< Integer > trackIDs, final Model model )
 	{
 
+		pendingTrackIDs = Collections.emptyList();
 		if ( trackIDs.isEmpty() )
 		{ return; }
 
-		final ArrayBlockingQueue< Integer > queue = new ArrayBlockingQueue<>( trackIDs.size(), false, trackIDs );
+		final AnalyzerMetrics.Run run = metrics.startRun();
+		final RunControl control = runControl;
+
 		final FeatureModel fm = model.getFeatureModel();
+		// Primitive snapshot of the tracks, spots sorted by frame.
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), trackIDs, frameIndex );
+		final FeatureColumns columns = new FeatureColumns( FEATURES, geom.nTracks );
+		final boolean fused = computeEdgeFeatures;
+		final FeatureColumns edgeColumns = fused ? new FeatureColumns( LinearTrackEdgeStatistics.FEATURES, geom.nEdges ) : null;
+		final double[][] edgeArrays = fused ? new double[][] {
+				edgeColumns.column( LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ),
+				edgeColumns.column( LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_XY ),
+				edgeColumns.column( LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_YZ ),
+				edgeColumns.column( LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_ZX ) } : null;
+
+		final RangeExecutor executor = new RangeExecutor( forkJoinPool, numThreads );
+
+		// Tracks found in the cache are done already.
+		final TrackResultCache cache = resultCache;
+		final boolean[] cached = new boolean[ geom.nTracks ];
+		// Not fused: the directional change rates, read once for the keys.
+		final double[] rates = null == cache || fused ? null : new double[ geom.nEdges ];
+		final long[] keys = null == cache ? null : readCache( executor, cache, fm, geom, columns, edgeArrays, rates, cached );
+		final boolean[] done = cached.clone();
+
+		/*
+		 * Giant tracks are split in blocks of edges. The blocks and the other
+		 * tracks form a single work list, run largest first at an estimated
+		 * cost of their number of edges. The items from nTracks on are the
+		 * blocks.
+		 */
+		final int nTracks = geom.nTracks;
+		int nGiants = 0;
+		int nBlocks = 0;
+		int nCached = 0;
+		for ( int k = 0; k < nTracks; k++ )
+		{
+			if ( done[ k ] )
+				nCached++;
+			else if ( geom.nEdges( k ) >= SPLIT_EDGES )
+			{
+				nGiants++;
+				nBlocks += ( geom.nEdges( k ) + EDGE_BLOCK - 1 ) / EDGE_BLOCK;
+			}
+		}
+		final int[] giants = new int[ nGiants ];
+		final int[] firstBlock = new int[ nGiants + 1 ];
+		final int[] blockGiant = new int[ nBlocks ];
+		final long[] costs = new long[ nTracks + nBlocks ];
+		for ( int k = 0, g = 0, b = 0; k < nTracks; k++ )
+		{
+			if ( done[ k ] )
+			{
+				costs[ k ] = -1;
+			}
+			else if ( geom.nEdges( k ) >= SPLIT_EDGES )
+			{
+				costs[ k ] = -1;
+				giants[ g ] = k;
+				firstBlock[ g ] = b;
+				for ( int e = geom.edgeStart[ k ]; e < geom.edgeStart[ k + 1 ]; e += EDGE_BLOCK )
+				{
+					blockGiant[ b ] = g;
+					costs[ nTracks + b++ ] = Math.min( EDGE_BLOCK, geom.edgeStart[ k + 1 ] - e );
+				}
+				g++;
+			}
+			else
+			{
+				costs[ k ] = geom.nEdges( k ) + 1;
+			}
+		}
+		firstBlock[ nGiants ] = nBlocks;
+		nSplitTracks = nGiants;
+
+		// The block sums, merged in edge order by the last block of a giant.
+		final LinearTrackAccumulator[] blocks = new LinearTrackAccumulator[ nBlocks ];
+		final AtomicIntegerArray blocksLeft = new AtomicIntegerArray( nGiants );
+		for ( int g = 0; g < nGiants; g++ )
+			blocksLeft.set( g, firstBlock[ g + 1 ] - firstBlock[ g ] );
+		final AtomicLongArray giantStart = new AtomicLongArray( nGiants );
+
+		final LptSchedule schedule = LptSchedule.of( costs, executor.getMaxWorkers(), MIN_EDGES_PER_CHUNK );
+		run.setEstimatedImbalance( schedule.getEstimatedImbalance() );
+		// Split once per run, then reused for all the branch features.
+		final BranchDecomposition branches = computeBranchFeatures ? BranchDecomposition.of( geom ) : null;
+		control.start( nTracks );
+		control.advance( nCached );
+		if ( null != cache )
+			run.cacheLookups( nCached, nTracks - nCached );
+		run.endPhase( Phase.GATHER );
+
+		executor.forEach( schedule, new RangeTask()
+		{
+			@Override
+			public void run( final int from, final int to )
+			{
+				if ( control.shouldStop() )
+					return;
+				final long chunkStart = System.nanoTime();
+				final long[] latencies = new long[ AnalyzerMetrics.N_BINS ];
+				final LinearTrackAccumulator acc = new LinearTrackAccumulator();
+				final double[] features = new double[ LinearTrackAccumulator.N_FEATURES ];
+				int nTracksDone = 0;
+
+				for ( int i = from; i < to; i++ )
+				{
+					final int item = schedule.order[ i ];
+					final long itemStart = System.nanoTime();
+					if ( item < nTracks )
+					{
+						final int k = item;
+						acc.reset();
+						accumulate( fm, geom, k, geom.edgeStart[ k ], geom.edgeStart[ k + 1 ], acc, edgeArrays, rates );
+						computeFeatures( fm, geom.trackIDs[ k ], acc, features );
+						columns.setRow( k, features );
+						done[ k ] = true;
+						nTracksDone++;
+						latencies[ AnalyzerMetrics.bin( System.nanoTime() - itemStart ) ]++;
+						continue;
+					}
+
+					final int b = item - nTracks;
+					final int g = blockGiant[ b ];
+					final int k = giants[ g ];
+					// The latency of a giant runs from the start of its first block.
+					giantStart.compareAndSet( g, 0l, itemStart );
+					final int start = geom.edgeStart[ k ] + ( b - firstBlock[ g ] ) * EDGE_BLOCK;
+					final LinearTrackAccumulator block = new LinearTrackAccumulator();
+					accumulate( fm, geom, k, start, Math.min( geom.edgeStart[ k + 1 ], start + EDGE_BLOCK ), block, edgeArrays, rates );
+					blocks[ b ] = block;
+					if ( blocksLeft.decrementAndGet( g ) > 0 )
+						continue;
+
+					// Last block of the giant: merge all its blocks in edge order.
+					final LinearTrackAccumulator merged = blocks[ firstBlock[ g ] ];
+					for ( int j = firstBlock[ g ] + 1; j < firstBlock[ g + 1 ]; j++ )
+						merged.merge( blocks[ j ] );
+					computeFeatures( fm, geom.trackIDs[ k ], merged, features );
+					columns.setRow( k, features );
+					done[ k ] = true;
+					nTracksDone++;
+					latencies[ AnalyzerMetrics.bin( System.nanoTime() - giantStart.get( g ) ) ]++;
+				}
+				run.chunk( chunkStart, nTracksDone, latencies );
+				control.advance( nTracksDone );
+			}
+		} );
+
+		final int nDone = ( int ) control.getDone();
+		final boolean complete = nDone == geom.nTracks;
+		final FeatureColumns branchColumns = null == branches || !complete ? null : computeBranches( executor, branches );
+		run.endPhase( Phase.COMPUTE );
+
+		if ( null != cache )
+			writeCache( cache, geom, keys, columns, edgeArrays, cached, done );
+
+		// Publish all values at once, for the tracks processed.
+		int nDoneEdges = geom.nEdges;
+		if ( complete )
+		{
+			if ( fused )
+				edgeColumns.commitEdgeFeatures( fm, geom.edges );
+			columns.commitTrackFeatures( fm, geom.trackIDs );
+			if ( null != branches )
+				branchFeatures = new LinearBranchFeatures( branches, branchColumns );
+		}
+		else
+		{
+			final int[] rows = new int[ nDone ];
+			final int[] doneTrackIDs = new int[ nDone ];
+			final List< Integer > pending = new ArrayList<>( geom.nTracks - nDone );
+			nDoneEdges = 0;
+			for ( int k = 0, n = 0; k < geom.nTracks; k++ )
+			{
+				if ( done[ k ] )
+				{
+					rows[ n ] = k;
+					doneTrackIDs[ n++ ] = geom.trackIDs[ k ];
+					nDoneEdges += geom.nEdges( k );
+				}
+				else
+				{
+					pending.add( Integer.valueOf( geom.trackIDs[ k ] ) );
+				}
+			}
+			if ( fused )
+			{
+				final int[] edgeRows = new int[ nDoneEdges ];
+				final DefaultWeightedEdge[] doneEdges = new DefaultWeightedEdge[ nDoneEdges ];
+				int n = 0;
+				for ( final int k : rows )
+				{
+					for ( int e = geom.edgeStart[ k ]; e < geom.edgeStart[ k + 1 ]; e++ )
+					{
+						edgeRows[ n ] = e;
+						doneEdges[ n++ ] = geom.edges[ e ];
+					}
+				}
+				edgeColumns.subset( edgeRows ).commitEdgeFeatures( fm, doneEdges );
+			}
+			columns.subset( rows ).commitTrackFeatures( fm, doneTrackIDs );
+			if ( null != branches )
+				branchFeatures = null;
+			pendingTrackIDs = Collections.unmodifiableList( pending );
+		}
+		run.endPhase( Phase.WRITE );
+
+		processingTime = run.end( nDone, nDoneEdges ) / 1000000;
+		lastRunMetrics = run.snapshot();
 
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
-		for ( int i = 0; i < threads.length; i++ )
+		if ( null != cache && null != logger )
 		{
-			threads[ i ] = new Thread( KEY + " thread " + i )
+			final int nMisses = nTracks - nCached;
+			logger.log( String.format( "%s: %d tracks from the result cache (%.1f%% hits), %d computed (%.1f%% misses).\n",
+					KEY, nCached, 100. * nCached / nTracks, nMisses, 100. * nMisses / nTracks ) );
+		}
+	}
+
+	/**
+	 * Computes the cache keys of all the tracks, and copies the cached
+	 * results to the columns. Returns the keys. If not fused, the
+	 * directional change rates of the edges are read to the rate array.
+	 */
+	private long[] readCache( final RangeExecutor executor, final TrackResultCache cache, final FeatureModel fm, final TrackGeometry geom,
+			final FeatureColumns columns, final double[][] edgeArrays, final double[] rates, final boolean[] cached )
+	{
+		final boolean withEdges = null != edgeArrays;
+		final long salt = ( ( long ) RESULTS_VERSION << 32 ) | ( withEdges ? 1l << 16 : 0l ) | anglePrecision.ordinal();
+		final long[] keys = new long[ 2 * geom.nTracks ];
+		final int grain = ( int ) Math.max( 1l, ( long ) MIN_EDGES_PER_CHUNK * geom.nTracks / Math.max( 1, geom.nEdges ) );
+		executor.forEach( geom.nTracks, grain, new RangeTask()
+		{
+			@Override
+			public void run( final int from, final int to )
 			{
-				@Override
-				public void run()
+				for ( int k = from; k < to; k++ )
 				{
-					Integer trackID;
-					while ( ( trackID = queue.poll() ) != null )
+					// The values read from the feature model are inputs too.
+					final Integer trackID = Integer.valueOf( geom.trackIDs[ k ] );
+					long trackSalt = salt;
+					trackSalt = TrackResultCache.salt( trackSalt, value( fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DISPLACEMENT ) ) );
+					trackSalt = TrackResultCache.salt( trackSalt, value( fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DURATION ) ) );
+					trackSalt = TrackResultCache.salt( trackSalt, value( fm.getTrackFeature( trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED ) ) );
+					if ( null != rates )
 					{
-						/*
-						 * Get the first spot (lowest FRAME).
-						 */
-
-						final List< Spot > spots = new ArrayList<>( model.getTrackModel().trackSpots( trackID ) );
-						Collections.sort( spots, Spot.frameComparator );
-						final Spot first = spots.get( 0 );
-
-						/*
-						 * Iterate over edges.
-						 */
-
-						final Set< DefaultWeightedEdge > edges = model.getTrackModel().trackEdges( trackID );
-
-						double totalDistance = 0.;
-						double maxDistanceSq = Double.NEGATIVE_INFINITY;
-						double maxDistance = 0.;
-						double sumAngleSpeed = 0.;
-						int nAngleSpeed = 0;
-						double dx = 0;
-						double dy = 0;
-						double dz = 0;
-
-						for ( final DefaultWeightedEdge edge : edges )
+						for ( int e = geom.edgeStart[ k ]; e < geom.edgeStart[ k + 1 ]; e++ )
 						{
-							// Total distance travelled.
-							final Spot source = model.getTrackModel().getEdgeSource( edge );
-							final Spot target = model.getTrackModel().getEdgeTarget( edge );
-							final double d = Math.sqrt( source.squareDistanceTo( target ) );
-							totalDistance += d;
-
-							// Max distance traveled.
-							final double dToFirstSq = first.squareDistanceTo( target );
-							if ( dToFirstSq > maxDistanceSq )
-							{
-								maxDistanceSq = dToFirstSq;
-								maxDistance = Math.sqrt( maxDistanceSq );
-							}
-
-							/*
-							 * Mean rate of directional change. We depend on the
-							 * edge feature
-							 */
-
-							final Double val = fm.getEdgeFeature( edge, LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE );
-							if ( null != val && !val.isNaN() )
-							{
-								sumAngleSpeed += val.doubleValue();
-								nAngleSpeed++;
-							}
-
-							dx += target.getDoublePosition( 0 ) - source.getDoublePosition( 0 );
-							dy += target.getDoublePosition( 1 ) - source.getDoublePosition( 1 );
-							dz += target.getDoublePosition( 2 ) - source.getDoublePosition( 2 );
+							rates[ e ] = value( fm.getEdgeFeature( geom.edges[ e ], LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ) );
+							trackSalt = TrackResultCache.salt( trackSalt, rates[ e ] );
 						}
-
-						/*
-						 * Compute features.
-						 */
-
-						// Dependency features.
-						final double netDistance = fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DISPLACEMENT );
-						final double tTotal = fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DURATION );
-						final double vMean = fm.getTrackFeature( trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED );
-
-						// Our features.
-						final double confinmentRatio = netDistance / totalDistance;
-						final double meanStraightLineSpeed = netDistance / tTotal;
-						final double linearityForwardProgression = meanStraightLineSpeed / vMean;
-						final double meanAngleSpeed = sumAngleSpeed / nAngleSpeed;
-
-						// Angle features.
-						final double angleXY = Math.atan2( dy, dx );
-						final double angleYZ = Math.atan2( dz, dy );
-						final double angleZX = Math.atan2( dx, dz );
-
-						// Store.
-						fm.putTrackFeature( trackID, TRACK_TOTAL_DISTANCE_TRAVELED, totalDistance );
-						fm.putTrackFeature( trackID, TRACK_MAX_DISTANCE_TRAVELED, maxDistance );
-						fm.putTrackFeature( trackID, TRACK_CONFINMENT_RATIO, confinmentRatio );
-						fm.putTrackFeature( trackID, TRACK_MEAN_STRAIGHT_LINE_SPEED, meanStraightLineSpeed );
-						fm.putTrackFeature( trackID, TRACK_LINEARITY_OF_FORWARD_PROGRESSION, linearityForwardProgression );
-						fm.putTrackFeature( trackID, TRACK_MEAN_DIRECTIONAL_CHANGE_RATE, meanAngleSpeed );
-						fm.putTrackFeature( trackID, TOTAL_ABSOLUTE_ANGLE_XY, angleXY );
-						fm.putTrackFeature( trackID, TOTAL_ABSOLUTE_ANGLE_YZ, angleYZ );
-						fm.putTrackFeature( trackID, TOTAL_ABSOLUTE_ANGLE_ZX, angleZX );
 					}
+					TrackResultCache.key( geom, k, trackSalt, keys );
 				}
-			};
+			}
+		} );
+
+		for ( int k = 0; k < geom.nTracks; k++ )
+		{
+			final double[][] values = cache.get( keys[ 2 * k ], keys[ 2 * k + 1 ], withEdges );
+			if ( null == values )
+				continue;
+
+			columns.setRow( k, values[ 0 ] );
+			if ( withEdges )
+			{
+				final int e0 = geom.edgeStart[ k ];
+				final int n = geom.nEdges( k );
+				for ( int f = 0; f < edgeArrays.length; f++ )
+					System.arraycopy( values[ 1 ], f * n, edgeArrays[ f ], e0, n );
+			}
+			cached[ k ] = true;
+		}
+		return keys;
+	}
+
+	/**
+	 * Adds the results of the tracks computed by this run to the cache.
+	 */
+	private static void writeCache( final TrackResultCache cache, final TrackGeometry geom, final long[] keys,
+			final FeatureColumns columns, final double[][] edgeArrays, final boolean[] cached, final boolean[] done )
+	{
+		final List< String > features = columns.getFeatures();
+		for ( int k = 0; k < geom.nTracks; k++ )
+		{
+			if ( cached[ k ] || !done[ k ] )
+				continue;
+
+			final double[] trackValues = new double[ features.size() ];
+			for ( int f = 0; f < trackValues.length; f++ )
+				trackValues[ f ] = columns.column( features.get( f ) )[ k ];
+			double[] edgeValues = null;
+			if ( null != edgeArrays )
+			{
+				final int e0 = geom.edgeStart[ k ];
+				final int n = geom.nEdges( k );
+				edgeValues = new double[ edgeArrays.length * n ];
+				for ( int f = 0; f < edgeArrays.length; f++ )
+					System.arraycopy( edgeArrays[ f ], e0, edgeValues, f * n, n );
+			}
+			cache.put( keys[ 2 * k ], keys[ 2 * k + 1 ], trackValues, edgeValues );
+		}
+	}
+
+	private static double value( final Double val )
+	{
+		return null == val ? Double.NaN : val.doubleValue();
+	}
+
+	/**
+	 * Adds a range of the edges of a track to an accumulator. In fused mode,
+	 * the edge features are computed on the fly and stored in the edge
+	 * arrays, otherwise the directional change rates are taken from the rate
+	 * array if read already, or from the feature model.
+	 */
+	private void accumulate( final FeatureModel fm, final TrackGeometry geom, final int k, final int fromEdge, final int toEdge,
+			final LinearTrackAccumulator acc, final double[][] edgeArrays, final double[] rates )
+	{
+		if ( null != edgeArrays )
+		{
+			// Edge features computed on the fly.
+			LinearTrackKernel.accumulate( geom, k, fromEdge, toEdge, acc, edgeArrays[ 0 ], edgeArrays[ 1 ], edgeArrays[ 2 ], edgeArrays[ 3 ], anglePrecision );
+			return;
+		}
+
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		// 2D data: the Z positions are not read.
+		final boolean planar = geom.isPlanar();
+
+		/*
+		 * The first spot (lowest FRAME) is the first one of the track in the
+		 * snapshot.
+		 */
+
+		final int first = geom.spotStart[ k ];
+
+		/*
+		 * Iterate over edges.
+		 */
+
+		for ( int e = fromEdge; e < toEdge; e++ )
+		{
+			final int source = geom.source[ e ];
+			final int target = geom.target[ e ];
+			final double ex = x[ target ] - x[ source ];
+			final double ey = y[ target ] - y[ source ];
+
+			// Max distance traveled.
+			final double fx = x[ target ] - x[ first ];
+			final double fy = y[ target ] - y[ first ];
+
+			/*
+			 * Mean rate of directional change. We depend on the edge feature.
+			 */
+
+			final double angleSpeed = null != rates ? rates[ e ]
+					: value( fm.getEdgeFeature( geom.edges[ e ], LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ) );
+
+			if ( planar )
+			{
+				acc.accumulate2D( ex, ey, fx * fx + fy * fy, angleSpeed );
+				continue;
+			}
+
+			final double ez = z[ target ] - z[ source ];
+			final double fz = z[ target ] - z[ first ];
+			final double dToFirstSq = fx * fx + fy * fy + fz * fz;
+			acc.accumulate( ex, ey, ez, dToFirstSq, angleSpeed );
 		}
+	}
 
-		final long start = System.currentTimeMillis();
-		SimpleMultiThreading.startAndJoin( threads );
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+	/**
+	 * Computes the features of a track from its sums and from the features of
+	 * the analyzers this analyzer depends on.
+	 */
+	private void computeFeatures( final FeatureModel fm, final int id, final LinearTrackAccumulator acc, final double[] features )
+	{
+		final Integer trackID = Integer.valueOf( id );
+
+		// Dependency features.
+		final double netDistance = fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DISPLACEMENT );
+		final double tTotal = fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DURATION );
+		final double vMean = fm.getTrackFeature( trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED );
+
+		// Our features.
+		acc.computeFeatures( netDistance, tTotal, vMean, features, anglePrecision );
+	}
+
+	private FeatureColumns computeBranches( final RangeExecutor executor, final BranchDecomposition branches )
+	{
+		final FeatureColumns branchColumns = new FeatureColumns( FEATURES, branches.nBranches );
+		final TrackGeometry geom = branches.getGeometry();
+		final int grain = ( int ) Math.max( 1l, ( long ) MIN_EDGES_PER_CHUNK * branches.nBranches / Math.max( 1, geom.nEdges ) );
+		executor.forEach( branches.nBranches, grain, new RangeTask()
+		{
+			@Override
+			public void run( final int from, final int to )
+			{
+				final LinearTrackAccumulator acc = new LinearTrackAccumulator();
+				final double[] features = new double[ LinearTrackAccumulator.N_FEATURES ];
+				for ( int b = from; b < to; b++ )
+				{
+					acc.reset();
+					final double vMean = LinearTrackKernel.accumulateBranch( branches, b, acc, anglePrecision );
+
+					final int first = branches.firstSpot( b );
+					final int last = branches.lastSpot( b );
+					final double dx = geom.x[ last ] - geom.x[ first ];
+					final double dy = geom.y[ last ] - geom.y[ first ];
+					final double dz = geom.z[ last ] - geom.z[ first ];
+					final double netDistance = Math.sqrt( dx * dx + dy * dy + dz * dz );
+					final double tTotal = geom.t[ last ] - geom.t[ first ];
+
+					acc.computeFeatures( netDistance, tTotal, vMean, features, anglePrecision );
+					branchColumns.setRow( b, features );
+				}
+			}
+		} );
+		return branchColumns;
 	}
 }
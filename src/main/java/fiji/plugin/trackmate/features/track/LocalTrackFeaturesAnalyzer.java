@@ -0,0 +1,257 @@
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.LocalTrackKernel;
+import fiji.plugin.trackmate.features.linear.LptSchedule;
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics.Phase;
+
+/**
+ * Computes per-spot features over a sliding window of frames along each
+ * linear track: the local confinement ratio, the local straightness and the
+ * local directional change rate. Whole-track aggregates such as the
+ * confinement ratio hide the transitions between confined and directed
+ * motion along a track, which these features show.
+ * <p>
+ * The features are computed in <code>O(n)</code> per track from prefix
+ * sums, whatever the window size, see {@link LocalTrackKernel}, and in
+ * parallel over the tracks. The spots of tracks with branches or merges get
+ * <code>NaN</code> features.
+ * <p>
+ * TrackMate only computes spot features from images, so this analyzer runs
+ * with the track analyzers, and writes spot features instead of track
+ * features. It declares them to the feature model when it runs. As it
+ * stores three values in every spot, it is not run by default: add it to
+ * the settings with
+ * <code>settings.addTrackAnalyzer( new LocalTrackFeaturesAnalyzer() )</code>.
+ */
+@Plugin( type = TrackAnalyzer.class, priority = Priority.LOW, enabled = false )
+public class LocalTrackFeaturesAnalyzer extends AbstractParallelTrackAnalyzer
+{
+
+	public static final String KEY = "Local track features";
+
+	public static final String LOCAL_CONFINEMENT_RATIO = "LOCAL_CONFINEMENT_RATIO";
+
+	public static final String LOCAL_STRAIGHTNESS = "LOCAL_STRAIGHTNESS";
+
+	public static final String LOCAL_DIRECTIONAL_CHANGE_RATE = "LOCAL_DIRECTIONAL_CHANGE_RATE";
+
+	public static final List< String > SPOT_FEATURES = new ArrayList<>( 3 );
+
+	public static final Map< String, String > SPOT_FEATURE_NAMES = new HashMap<>( 3 );
+
+	public static final Map< String, String > SPOT_FEATURE_SHORT_NAMES = new HashMap<>( 3 );
+
+	public static final Map< String, Dimension > SPOT_FEATURE_DIMENSIONS = new HashMap<>( 3 );
+
+	public static final Map< String, Boolean > SPOT_IS_INT = new HashMap<>( 3 );
+
+	static
+	{
+		SPOT_FEATURES.add( LOCAL_CONFINEMENT_RATIO );
+		SPOT_FEATURES.add( LOCAL_STRAIGHTNESS );
+		SPOT_FEATURES.add( LOCAL_DIRECTIONAL_CHANGE_RATE );
+
+		SPOT_FEATURE_NAMES.put( LOCAL_CONFINEMENT_RATIO, "Local confinement ratio" );
+		SPOT_FEATURE_NAMES.put( LOCAL_STRAIGHTNESS, "Local straightness" );
+		SPOT_FEATURE_NAMES.put( LOCAL_DIRECTIONAL_CHANGE_RATE, "Local directional change rate" );
+
+		SPOT_FEATURE_SHORT_NAMES.put( LOCAL_CONFINEMENT_RATIO, "Local confinement" );
+		SPOT_FEATURE_SHORT_NAMES.put( LOCAL_STRAIGHTNESS, "Local straightness" );
+		SPOT_FEATURE_SHORT_NAMES.put( LOCAL_DIRECTIONAL_CHANGE_RATE, "Local dir. change rate" );
+
+		SPOT_FEATURE_DIMENSIONS.put( LOCAL_CONFINEMENT_RATIO, Dimension.NONE );
+		SPOT_FEATURE_DIMENSIONS.put( LOCAL_STRAIGHTNESS, Dimension.NONE );
+		SPOT_FEATURE_DIMENSIONS.put( LOCAL_DIRECTIONAL_CHANGE_RATE, Dimension.RATE );
+
+		SPOT_IS_INT.put( LOCAL_CONFINEMENT_RATIO, Boolean.FALSE );
+		SPOT_IS_INT.put( LOCAL_STRAIGHTNESS, Boolean.FALSE );
+		SPOT_IS_INT.put( LOCAL_DIRECTIONAL_CHANGE_RATE, Boolean.FALSE );
+	}
+
+	/**
+	 * The default number of frames of the window of a spot.
+	 */
+	public static final int DEFAULT_WINDOW = 9;
+
+	private int window = DEFAULT_WINDOW;
+
+	public LocalTrackFeaturesAnalyzer()
+	{
+		super( KEY );
+	}
+
+	/**
+	 * This analyzer has no track feature. Its spot features are declared
+	 * to the feature model when it runs, see {@link #SPOT_FEATURES}.
+	 */
+	@Override
+	public Map< String, Dimension > getFeatureDimensions()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map< String, String > getFeatureNames()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map< String, String > getFeatureShortNames()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public List< String > getFeatures()
+	{
+		return Collections.emptyList();
+	}
+
+	@Override
+	public Map< String, Boolean > getIsIntFeature()
+	{
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public boolean isManualFeature()
+	{
+		return false;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public String getInfoText()
+	{
+		return null;
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	@Override
+	public String getName()
+	{
+		return KEY;
+	}
+
+	/**
+	 * Sets the number of frames the window of each spot spans, centered on
+	 * the spot. The window of a spot holds the spots of its track at most
+	 * <code>(window - 1) / 2</code> frames before or after it. The window
+	 * must be odd, so that it is centered on the spot. The default is
+	 * {@value #DEFAULT_WINDOW} frames.
+	 *
+	 * @param window
+	 *            the window size, in frames.
+	 * @throws IllegalArgumentException
+	 *             if the window is smaller than 3 frames or even.
+	 */
+	public void setWindow( final int window )
+	{
+		if ( window < 3 || window % 2 == 0 )
+			throw new IllegalArgumentException( "The window must span an odd number of frames, at least 3, got " + window + "." );
+		this.window = window;
+	}
+
+	public int getWindow()
+	{
+		return window;
+	}
+
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+
+		if ( trackIDs.isEmpty() )
+		{ return; }
+
+		final AnalyzerMetrics.Run run = startRun();
+
+		final FeatureModel fm = model.getFeatureModel();
+		synchronized ( fm )
+		{
+			if ( !fm.getSpotFeatures().containsAll( SPOT_FEATURES ) )
+				fm.declareSpotFeatures( SPOT_FEATURES, SPOT_FEATURE_NAMES, SPOT_FEATURE_SHORT_NAMES, SPOT_FEATURE_DIMENSIONS, SPOT_IS_INT );
+		}
+
+		// Primitive snapshot of the tracks, spots sorted by frame.
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), trackIDs, getFrameIndex() );
+		final FeatureColumns columns = new FeatureColumns( SPOT_FEATURES, geom.nSpots );
+		final double[] confinementRatio = columns.column( LOCAL_CONFINEMENT_RATIO );
+		final double[] straightness = columns.column( LOCAL_STRAIGHTNESS );
+		final double[] directionalChangeRate = columns.column( LOCAL_DIRECTIONAL_CHANGE_RATE );
+		final int halfWindow = ( window - 1 ) / 2;
+
+		// Largest tracks first, at an estimated cost of their number of spots.
+		final long[] costs = new long[ geom.nTracks ];
+		for ( int k = 0; k < geom.nTracks; k++ )
+			costs[ k ] = geom.nSpots( k );
+		final RangeExecutor executor = newExecutor();
+		final LptSchedule schedule = LptSchedule.of( costs, executor.getMaxWorkers(), MIN_COST_PER_CHUNK );
+		run.setEstimatedImbalance( schedule.getEstimatedImbalance() );
+		run.endPhase( Phase.GATHER );
+
+		executor.forEach( schedule, new RangeTask()
+		{
+			@Override
+			public void run( final int from, final int to )
+			{
+				final long chunkStart = System.nanoTime();
+				final long[] latencies = new long[ AnalyzerMetrics.N_BINS ];
+				// Prefix sums reused over the tracks of the chunk.
+				final LocalTrackKernel kernel = new LocalTrackKernel();
+
+				for ( int i = from; i < to; i++ )
+				{
+					final int k = schedule.order[ i ];
+					final long trackStart = System.nanoTime();
+					kernel.compute( geom, k, halfWindow, confinementRatio, straightness, directionalChangeRate );
+					latencies[ AnalyzerMetrics.bin( System.nanoTime() - trackStart ) ]++;
+				}
+				run.chunk( chunkStart, to - from, latencies );
+			}
+		} );
+		run.endPhase( Phase.COMPUTE );
+
+		columns.commitSpotFeatures( geom.spots );
+		run.endPhase( Phase.WRITE );
+
+		endRun( run, geom.nTracks, geom.nEdges );
+	}
+}
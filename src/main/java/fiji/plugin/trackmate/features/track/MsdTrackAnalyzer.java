@@ -0,0 +1,273 @@
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.swing.ImageIcon;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.LptSchedule;
+import fiji.plugin.trackmate.features.linear.MsdCurve;
+import fiji.plugin.trackmate.features.linear.MsdKernel;
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics.Phase;
+
+/**
+ * Computes the mean-squared displacement (MSD) curve of each track, and
+ * publishes the diffusion coefficient and the anomalous exponent fitted to
+ * it.
+ * <p>
+ * The curve is computed for all lags in <code>O(n log n)</code> per track,
+ * see {@link MsdKernel}. Tracks with branches and tracks of a single spot
+ * get <code>NaN</code> features.
+ * <p>
+ * The diffusion coefficient is in <code>length² / time</code>, in the
+ * physical units of the model, strictly so for normal diffusion only, as it
+ * is fitted together with the anomalous exponent <code>α</code> to
+ * <code>MSD(t) = 2 d D t<sup>α</sup></code>. TrackMate has no
+ * {@link Dimension} for it: it is declared {@link Dimension#NONE}, so that no
+ * wrong unit is displayed, and its name states its unit instead.
+ * <p>
+ * Not run by default. Add it to the settings with
+ * <code>settings.addTrackAnalyzer( new MsdTrackAnalyzer() )</code> to
+ * compute these features.
+ */
+@Plugin( type = TrackAnalyzer.class, priority = Priority.LOW, enabled = false )
+public class MsdTrackAnalyzer extends AbstractParallelTrackAnalyzer
+{
+
+	public static final String KEY = "MSD analysis";
+
+	/**
+	 * The diffusion coefficient, in <code>length² / time</code>. Declared
+	 * with {@link Dimension#NONE}, for want of a matching dimension.
+	 */
+	public static final String MSD_DIFFUSION_COEFFICIENT = "MSD_DIFFUSION_COEFFICIENT";
+
+	public static final String MSD_ANOMALOUS_EXPONENT = "MSD_ANOMALOUS_EXPONENT";
+
+	public static final List< String > FEATURES = new ArrayList<>( 2 );
+
+	public static final Map< String, String > FEATURE_NAMES = new HashMap<>( 2 );
+
+	public static final Map< String, String > FEATURE_SHORT_NAMES = new HashMap<>( 2 );
+
+	public static final Map< String, Dimension > FEATURE_DIMENSIONS = new HashMap<>( 2 );
+
+	public static final Map< String, Boolean > IS_INT = new HashMap<>( 2 );
+
+	static
+	{
+		FEATURES.add( MSD_DIFFUSION_COEFFICIENT );
+		FEATURES.add( MSD_ANOMALOUS_EXPONENT );
+
+		FEATURE_NAMES.put( MSD_DIFFUSION_COEFFICIENT, "Diffusion coefficient (length²/time)" );
+		FEATURE_NAMES.put( MSD_ANOMALOUS_EXPONENT, "Anomalous exponent" );
+
+		FEATURE_SHORT_NAMES.put( MSD_DIFFUSION_COEFFICIENT, "D" );
+		FEATURE_SHORT_NAMES.put( MSD_ANOMALOUS_EXPONENT, "α" );
+
+		FEATURE_DIMENSIONS.put( MSD_DIFFUSION_COEFFICIENT, Dimension.NONE );
+		FEATURE_DIMENSIONS.put( MSD_ANOMALOUS_EXPONENT, Dimension.NONE );
+
+		IS_INT.put( MSD_DIFFUSION_COEFFICIENT, Boolean.FALSE );
+		IS_INT.put( MSD_ANOMALOUS_EXPONENT, Boolean.FALSE );
+	}
+
+	private boolean storeCurves = false;
+
+	private final ConcurrentMap< Integer, MsdCurve > curves = new ConcurrentHashMap<>();
+
+	public MsdTrackAnalyzer()
+	{
+		super( KEY );
+	}
+
+	@Override
+	public Map< String, Dimension > getFeatureDimensions()
+	{
+		return FEATURE_DIMENSIONS;
+	}
+
+	@Override
+	public Map< String, String > getFeatureNames()
+	{
+		return FEATURE_NAMES;
+	}
+
+	@Override
+	public Map< String, String > getFeatureShortNames()
+	{
+		return FEATURE_SHORT_NAMES;
+	}
+
+	@Override
+	public List< String > getFeatures()
+	{
+		return FEATURES;
+	}
+
+	@Override
+	public Map< String, Boolean > getIsIntFeature()
+	{
+		return IS_INT;
+	}
+
+	@Override
+	public boolean isManualFeature()
+	{
+		return false;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public String getInfoText()
+	{
+		return null;
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	@Override
+	public String getName()
+	{
+		return KEY;
+	}
+
+	/**
+	 * Sets whether this analyzer keeps the MSD curves of the tracks it
+	 * processes, so that they can be retrieved with
+	 * {@link #getCurve(Integer)}. Curves have one value per frame spanned by
+	 * a track, so they are not kept by default.
+	 *
+	 * @param storeCurves
+	 *            whether to keep the curves.
+	 */
+	public void setStoreCurves( final boolean storeCurves )
+	{
+		this.storeCurves = storeCurves;
+		if ( !storeCurves )
+			curves.clear();
+	}
+
+	public boolean isStoreCurves()
+	{
+		return storeCurves;
+	}
+
+	/**
+	 * Returns the MSD curve of a track, as computed by the last run that
+	 * processed it.
+	 *
+	 * @param trackID
+	 *            the track ID.
+	 * @return the curve, or <code>null</code> if the curves are not kept,
+	 *         or if the track has no curve.
+	 * @see #setStoreCurves(boolean)
+	 */
+	public MsdCurve getCurve( final Integer trackID )
+	{
+		return curves.get( trackID );
+	}
+
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+
+		if ( trackIDs.isEmpty() )
+		{ return; }
+
+		final AnalyzerMetrics.Run run = startRun();
+
+		final FeatureModel fm = model.getFeatureModel();
+		// Primitive snapshot of the tracks, spots sorted by frame.
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), trackIDs, getFrameIndex() );
+		final FeatureColumns columns = new FeatureColumns( FEATURES, geom.nTracks );
+		final boolean store = storeCurves;
+
+		/*
+		 * Largest tracks first. The FFTs run on a grid spanning the frames
+		 * of the track, so the cost grows with the frame span rather than
+		 * with the number of spots.
+		 */
+		final long[] costs = new long[ geom.nTracks ];
+		for ( int k = 0; k < geom.nTracks; k++ )
+			costs[ k ] = geom.nSpots( k ) < 2 ? 1 : geom.frame[ geom.spotStart[ k + 1 ] - 1 ] - geom.frame[ geom.spotStart[ k ] ] + 1;
+		final RangeExecutor executor = newExecutor();
+		final LptSchedule schedule = LptSchedule.of( costs, executor.getMaxWorkers(), MIN_COST_PER_CHUNK );
+		run.setEstimatedImbalance( schedule.getEstimatedImbalance() );
+		run.endPhase( Phase.GATHER );
+
+		executor.forEach( schedule, new RangeTask()
+		{
+			@Override
+			public void run( final int from, final int to )
+			{
+				final long chunkStart = System.nanoTime();
+				final long[] latencies = new long[ AnalyzerMetrics.N_BINS ];
+				final MsdKernel kernel = new MsdKernel();
+				final double[] features = new double[ 2 ];
+
+				for ( int i = from; i < to; i++ )
+				{
+					final int k = schedule.order[ i ];
+					final long trackStart = System.nanoTime();
+					final Integer trackID = Integer.valueOf( geom.trackIDs[ k ] );
+
+					final MsdCurve curve = kernel.compute( geom, k );
+					if ( null == curve )
+					{
+						features[ 0 ] = Double.NaN;
+						features[ 1 ] = Double.NaN;
+						if ( store )
+							curves.remove( trackID );
+					}
+					else
+					{
+						MsdKernel.fit( curve, features );
+						if ( store )
+							curves.put( trackID, curve );
+					}
+					columns.setRow( k, features );
+					latencies[ AnalyzerMetrics.bin( System.nanoTime() - trackStart ) ]++;
+				}
+				run.chunk( chunkStart, to - from, latencies );
+			}
+		} );
+		run.endPhase( Phase.COMPUTE );
+
+		columns.commitTrackFeatures( fm, geom.trackIDs );
+		run.endPhase( Phase.WRITE );
+
+		endRun( run, geom.nTracks, geom.nEdges );
+	}
+}
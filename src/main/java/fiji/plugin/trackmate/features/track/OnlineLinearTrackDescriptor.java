@@ -0,0 +1,503 @@
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.LinearTrackAccumulator;
+import fiji.plugin.trackmate.features.linear.LinearTrackKernel;
+import fiji.plugin.trackmate.features.linear.LinearTrackMath;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+
+/**
+ * Keeps the features of {@link LinearTrackDescriptor} up to date while
+ * spots are appended to tracks, as during live acquisition.
+ * <p>
+ * For each track, this class keeps the running sums the features are
+ * computed from, and the position of the first spot, of the last spot and
+ * of the last displacement. When a model change only appends new spots at
+ * the end of a linear track, the sums are updated in O(number of new
+ * edges). Any other change to a track, such as a deletion, a split, a merge
+ * or a change of the first spot, invalidates its running state, and the
+ * track is then recomputed from scratch. Tracks that are not linear are
+ * always recomputed from scratch.
+ * <p>
+ * The features this class depends on (track displacement, duration and
+ * mean speed) are computed from the running state as well, with the same
+ * definitions as in {@link TrackDurationAnalyzer} and
+ * {@link TrackSpeedStatisticsAnalyzer}, so that updates do not have to
+ * wait for these analyzers.
+ * <p>
+ * Each event is processed in O(number of spots and edges of the event),
+ * plus the recomputation of the tracks it invalidates: tracks the event
+ * does not touch are not visited. To find the tracks an edge removal
+ * splits, this class remembers the ends of the edges of the tracks it
+ * keeps a state for.
+ * <p>
+ * This class writes the same track features as {@link LinearTrackDescriptor}
+ * and replaces it: both must not be run on the same model, or the two
+ * would overwrite each other's values. Create it with
+ * {@link #OnlineLinearTrackDescriptor(Model, Settings)} to remove
+ * {@link LinearTrackDescriptor} from the track analyzers of the settings.
+ */
+public class OnlineLinearTrackDescriptor implements ModelChangeListener
+{
+
+	private final Model model;
+
+	private final Map< Integer, TrackState > states = new HashMap<>();
+
+	/**
+	 * The source and target of the edges of the tracks with a state, to
+	 * find the tracks of removed edges.
+	 */
+	private final Map< DefaultWeightedEdge, Spot[] > edgeEnds = new HashMap<>();
+
+	private long nFullRecomputations = 0;
+
+	private long nAppendedEdges = 0;
+
+	/**
+	 * Creates an online descriptor and registers it as a listener of the
+	 * specified model. Tracks are computed from scratch the first time they
+	 * are modified, or when {@link #process(Collection)} is called.
+	 *
+	 * @param model
+	 *            the model to keep up to date.
+	 */
+	public OnlineLinearTrackDescriptor( final Model model )
+	{
+		this.model = model;
+		model.addModelChangeListener( this );
+	}
+
+	/**
+	 * Creates an online descriptor for the specified model, registers it as
+	 * a listener of the model, and removes the {@link LinearTrackDescriptor}
+	 * instances from the track analyzers of the settings, since this
+	 * descriptor computes their features.
+	 *
+	 * @param model
+	 *            the model to keep up to date.
+	 * @param settings
+	 *            the settings the model features are computed with.
+	 */
+	public OnlineLinearTrackDescriptor( final Model model, final Settings settings )
+	{
+		this( model );
+		for ( final TrackAnalyzer analyzer : new ArrayList<>( settings.getTrackAnalyzers() ) )
+			if ( analyzer instanceof LinearTrackDescriptor )
+				settings.removeTrackAnalyzer( analyzer );
+	}
+
+	/**
+	 * Stops listening to the model.
+	 */
+	public void quit()
+	{
+		model.removeModelChangeListener( this );
+	}
+
+	/**
+	 * Returns the number of tracks that have been recomputed from scratch
+	 * since this descriptor was created.
+	 *
+	 * @return the number of full track recomputations.
+	 */
+	public long getFullRecomputationCount()
+	{
+		return nFullRecomputations;
+	}
+
+	/**
+	 * Returns the number of edges that have been appended to a running state
+	 * since this descriptor was created.
+	 *
+	 * @return the number of appended edges.
+	 */
+	public long getAppendedEdgeCount()
+	{
+		return nAppendedEdges;
+	}
+
+	/**
+	 * Recomputes the specified tracks from scratch and publishes their
+	 * features.
+	 *
+	 * @param trackIDs
+	 *            the IDs of the tracks to recompute.
+	 */
+	public synchronized void process( final Collection< Integer > trackIDs )
+	{
+		recompute( trackIDs );
+		publish( trackIDs );
+	}
+
+	@Override
+	public synchronized void modelChanged( final ModelChangeEvent event )
+	{
+		switch ( event.getEventID() )
+		{
+		case ModelChangeEvent.TRACKS_COMPUTED:
+			states.clear();
+			edgeEnds.clear();
+			process( model.getTrackModel().trackIDs( false ) );
+			break;
+
+		case ModelChangeEvent.MODEL_MODIFIED:
+			update( event );
+			break;
+
+		default:
+			break;
+		}
+	}
+
+	private void update( final ModelChangeEvent event )
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Set< Integer > invalid = new LinkedHashSet<>();
+		final List< DefaultWeightedEdge > added = new ArrayList<>();
+
+		/*
+		 * Sort changes into appended edges and structural edits.
+		 */
+
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			final Integer flag = event.getEdgeFlag( edge );
+			if ( null != flag && flag.intValue() == ModelChangeEvent.FLAG_EDGE_ADDED )
+			{
+				added.add( edge );
+				continue;
+			}
+
+			// Removed or modified edge: invalidate the tracks of its ends.
+			if ( null != flag && flag.intValue() == ModelChangeEvent.FLAG_EDGE_REMOVED )
+			{
+				// Not in the graph anymore. Unknown ends: no state to update.
+				final Spot[] ends = edgeEnds.remove( edge );
+				if ( null != ends )
+				{
+					addTrackOf( ends[ 0 ], trackModel, invalid );
+					addTrackOf( ends[ 1 ], trackModel, invalid );
+				}
+				continue;
+			}
+			addTrackOf( trackModel.getEdgeSource( edge ), trackModel, invalid );
+			addTrackOf( trackModel.getEdgeTarget( edge ), trackModel, invalid );
+		}
+
+		for ( final Spot spot : event.getSpots() )
+		{
+			final Integer flag = event.getSpotFlag( spot );
+			if ( null == flag )
+				continue;
+			if ( flag.intValue() == ModelChangeEvent.FLAG_SPOT_MODIFIED || flag.intValue() == ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED )
+				addTrackOf( spot, trackModel, invalid );
+		}
+
+		/*
+		 * Append edges in time order. An edge can be appended only if it
+		 * extends the tip of a linear track with a new spot.
+		 */
+
+		Collections.sort( added, new Comparator< DefaultWeightedEdge >()
+		{
+			@Override
+			public int compare( final DefaultWeightedEdge e1, final DefaultWeightedEdge e2 )
+			{
+				return Double.compare( laterFrame( e1, trackModel ), laterFrame( e2, trackModel ) );
+			}
+		} );
+
+		final Set< Integer > appended = new LinkedHashSet<>();
+		for ( final DefaultWeightedEdge edge : added )
+		{
+			Spot source = trackModel.getEdgeSource( edge );
+			Spot target = trackModel.getEdgeTarget( edge );
+			if ( source.diffTo( target, Spot.FRAME ) > 0 )
+			{
+				final Spot tmp = target;
+				target = source;
+				source = tmp;
+			}
+
+			final Integer trackID = trackModel.trackIDOf( target );
+			if ( null == trackID || invalid.contains( trackID ) )
+				continue;
+
+			final TrackState state = states.get( trackID );
+			final boolean isAppend = null != state
+					&& state.tip == source
+					&& source.diffTo( target, Spot.FRAME ) < 0
+					&& trackModel.edgesOf( source ).size() <= 2
+					&& isNewTip( target, edge, trackModel );
+			if ( isAppend )
+			{
+				state.append( target );
+				edgeEnds.put( edge, new Spot[] { source, target } );
+				appended.add( trackID );
+				nAppendedEdges++;
+			}
+			else
+			{
+				// New track, merge or edit inside a track.
+				invalid.add( trackID );
+			}
+		}
+
+		/*
+		 * A track that got an edge this event did not append, for instance
+		 * in a merge with a track appended in the same event, is recomputed.
+		 */
+
+		for ( final Integer trackID : appended )
+			if ( states.get( trackID ).nEdges != trackModel.trackEdges( trackID ).size() )
+				invalid.add( trackID );
+
+		// The tracks that do not exist anymore are not computed.
+		for ( final Iterator< Integer > it = invalid.iterator(); it.hasNext(); )
+		{
+			final Integer trackID = it.next();
+			if ( null == trackModel.trackEdges( trackID ) )
+			{
+				it.remove();
+				states.remove( trackID );
+			}
+		}
+		appended.removeAll( invalid );
+
+		recompute( invalid );
+		appended.addAll( invalid );
+		publish( appended );
+		forgetVanishedTracks( trackModel );
+	}
+
+	/**
+	 * Removes the states of the tracks that do not exist anymore, such as
+	 * the tracks merged into others. Their IDs are not known from the
+	 * events, so the states are swept when they outnumber the tracks twice,
+	 * in amortized constant time per event.
+	 */
+	private void forgetVanishedTracks( final TrackModel trackModel )
+	{
+		if ( states.size() <= 2 * trackModel.nTracks( false ) + 16 )
+			return;
+		for ( final Iterator< Integer > it = states.keySet().iterator(); it.hasNext(); )
+			if ( null == trackModel.trackEdges( it.next() ) )
+				it.remove();
+	}
+
+	private void recompute( final Collection< Integer > trackIDs )
+	{
+		if ( trackIDs.isEmpty() )
+			return;
+
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), trackIDs );
+		for ( int k = 0; k < geom.nTracks; k++ )
+		{
+			final TrackState state = new TrackState();
+			state.init( geom, k );
+			states.put( Integer.valueOf( geom.trackIDs[ k ] ), state );
+			for ( int e = geom.edgeStart[ k ]; e < geom.edgeStart[ k + 1 ]; e++ )
+				edgeEnds.put( geom.edges[ e ], new Spot[] { geom.spots[ geom.source[ e ] ], geom.spots[ geom.target[ e ] ] } );
+			nFullRecomputations++;
+		}
+	}
+
+	private void publish( final Collection< Integer > trackIDs )
+	{
+		final int[] ids = new int[ trackIDs.size() ];
+		final FeatureColumns columns = new FeatureColumns( LinearTrackDescriptor.FEATURES, ids.length );
+		final double[] features = new double[ LinearTrackAccumulator.N_FEATURES ];
+		int i = 0;
+		for ( final Integer trackID : trackIDs )
+		{
+			states.get( trackID ).computeFeatures( features );
+			columns.setRow( i, features );
+			ids[ i++ ] = trackID.intValue();
+		}
+		columns.commitTrackFeatures( model.getFeatureModel(), ids );
+	}
+
+	private static void addTrackOf( final Spot spot, final TrackModel trackModel, final Set< Integer > trackIDs )
+	{
+		if ( null == spot )
+			return;
+		final Integer trackID = trackModel.trackIDOf( spot );
+		if ( null != trackID )
+			trackIDs.add( trackID );
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified edge is the only link of
+	 * the spot to the past, and if the spot has at most one link to the
+	 * future. Such a link is appended later in the same event.
+	 */
+	private static boolean isNewTip( final Spot spot, final DefaultWeightedEdge edge, final TrackModel trackModel )
+	{
+		final double frame = spot.getFeature( Spot.FRAME ).doubleValue();
+		int nLater = 0;
+		for ( final DefaultWeightedEdge other : trackModel.edgesOf( spot ) )
+		{
+			if ( other == edge )
+				continue;
+			final Spot source = trackModel.getEdgeSource( other );
+			final Spot neighbor = source == spot ? trackModel.getEdgeTarget( other ) : source;
+			if ( neighbor.getFeature( Spot.FRAME ).doubleValue() <= frame )
+				return false;
+			nLater++;
+		}
+		return nLater <= 1;
+	}
+
+	private static double laterFrame( final DefaultWeightedEdge edge, final TrackModel trackModel )
+	{
+		return Math.max(
+				trackModel.getEdgeSource( edge ).getFeature( Spot.FRAME ).doubleValue(),
+				trackModel.getEdgeTarget( edge ).getFeature( Spot.FRAME ).doubleValue() );
+	}
+
+	/**
+	 * The running state of one track.
+	 */
+	private static final class TrackState
+	{
+
+		private final LinearTrackAccumulator acc = new LinearTrackAccumulator();
+
+		/**
+		 * The last spot of the track, or <code>null</code> if the track is
+		 * not linear and cannot be appended to.
+		 */
+		private Spot tip;
+
+		private double x0, y0, z0, t0;
+
+		private double xt, yt, zt, tt;
+
+		private boolean hasLastEdge;
+
+		private double lx, ly, lz;
+
+		private double sumSpeed;
+
+		private int nEdges;
+
+		private void init( final TrackGeometry geom, final int k )
+		{
+			final int first = geom.spotStart[ k ];
+			final int last = geom.spotStart[ k + 1 ] - 1;
+			x0 = geom.x[ first ];
+			y0 = geom.y[ first ];
+			z0 = geom.z[ first ];
+			t0 = geom.t[ first ];
+			xt = geom.x[ last ];
+			yt = geom.y[ last ];
+			zt = geom.z[ last ];
+			tt = geom.t[ last ];
+
+			acc.reset();
+			LinearTrackKernel.accumulate( geom, k, acc );
+			nEdges = geom.nEdges( k );
+			sumSpeed = 0.;
+			for ( int e = geom.edgeStart[ k ]; e < geom.edgeStart[ k + 1 ]; e++ )
+				sumSpeed += LinearTrackKernel.speed( geom, e );
+
+			tip = isLinear( geom, k ) ? geom.spots[ last ] : null;
+			hasLastEdge = nEdges > 0;
+			if ( hasLastEdge )
+			{
+				// In a linear track, the last edge leads to the last spot.
+				final int e = geom.edgeStart[ k + 1 ] - 1;
+				lx = geom.x[ geom.target[ e ] ] - geom.x[ geom.source[ e ] ];
+				ly = geom.y[ geom.target[ e ] ] - geom.y[ geom.source[ e ] ];
+				lz = geom.z[ geom.target[ e ] ] - geom.z[ geom.source[ e ] ];
+			}
+		}
+
+		private void append( final Spot target )
+		{
+			final double x = target.getDoublePosition( 0 );
+			final double y = target.getDoublePosition( 1 );
+			final double z = target.getDoublePosition( 2 );
+			final double t = target.getFeature( Spot.POSITION_T ).doubleValue();
+
+			final double ex = x - xt;
+			final double ey = y - yt;
+			final double ez = z - zt;
+			final double dt = t - tt;
+			final double angleSpeed = hasLastEdge
+					? LinearTrackMath.directionalChangeRate( lx, ly, lz, ex, ey, ez, dt )
+					: Double.NaN;
+
+			final double fx = x - x0;
+			final double fy = y - y0;
+			final double fz = z - z0;
+			acc.accumulate( ex, ey, ez, fx * fx + fy * fy + fz * fz, angleSpeed );
+			sumSpeed += Math.sqrt( ex * ex + ey * ey + ez * ez ) / Math.abs( dt );
+			nEdges++;
+
+			hasLastEdge = true;
+			lx = ex;
+			ly = ey;
+			lz = ez;
+			tip = target;
+			xt = x;
+			yt = y;
+			zt = z;
+			tt = t;
+		}
+
+		private void computeFeatures( final double[] out )
+		{
+			final double dx = xt - x0;
+			final double dy = yt - y0;
+			final double dz = zt - z0;
+			final double netDistance = Math.sqrt( dx * dx + dy * dy + dz * dz );
+			final double tTotal = tt - t0;
+			final double vMean = sumSpeed / nEdges;
+			acc.computeFeatures( netDistance, tTotal, vMean, out );
+		}
+
+		/**
+		 * A track is linear if each spot has at most one predecessor and one
+		 * successor, and if time increases along each edge.
+		 */
+		private static boolean isLinear( final TrackGeometry geom, final int k )
+		{
+			final int offset = geom.spotStart[ k ];
+			if ( geom.nEdges( k ) != geom.nSpots( k ) - 1 )
+				return false;
+			final boolean[] hasPredecessor = new boolean[ geom.nSpots( k ) ];
+			final boolean[] hasSuccessor = new boolean[ geom.nSpots( k ) ];
+			for ( int e = geom.edgeStart[ k ]; e < geom.edgeStart[ k + 1 ]; e++ )
+			{
+				final int s = geom.source[ e ] - offset;
+				final int t = geom.target[ e ] - offset;
+				if ( geom.frame[ geom.source[ e ] ] >= geom.frame[ geom.target[ e ] ] || hasSuccessor[ s ] || hasPredecessor[ t ] )
+					return false;
+				hasSuccessor[ s ] = true;
+				hasPredecessor[ t ] = true;
+			}
+			return true;
+		}
+	}
+}
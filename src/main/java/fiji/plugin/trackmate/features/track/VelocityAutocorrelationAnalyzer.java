@@ -0,0 +1,207 @@
+package fiji.plugin.trackmate.features.track;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+
+import fiji.plugin.trackmate.Dimension;
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.linear.FeatureColumns;
+import fiji.plugin.trackmate.features.linear.LptSchedule;
+import fiji.plugin.trackmate.features.linear.RangeExecutor;
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+import fiji.plugin.trackmate.features.linear.VacfKernel;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics;
+import fiji.plugin.trackmate.features.metrics.AnalyzerMetrics.Phase;
+
+/**
+ * Computes the velocity autocorrelation function (VACF) of each linear
+ * track, and publishes the persistence time and the persistence length
+ * fitted to it.
+ * <p>
+ * The VACF is computed for all lags in <code>O(n log n)</code> per track,
+ * see {@link VacfKernel}. Tracks with branches or merges get
+ * <code>NaN</code> features, and so do tracks whose persistence cannot be
+ * fitted, see {@link VacfKernel#fitPersistence(double[])}.
+ * <p>
+ * This analyzer is opt-in: it is only run once added to the settings, with
+ * <code>settings.addTrackAnalyzer( new VelocityAutocorrelationAnalyzer() )</code>.
+ */
+@Plugin( type = TrackAnalyzer.class, priority = Priority.LOW, enabled = false )
+public class VelocityAutocorrelationAnalyzer extends AbstractParallelTrackAnalyzer
+{
+
+	public static final String KEY = "Velocity autocorrelation analysis";
+
+	public static final String PERSISTENCE_TIME = "PERSISTENCE_TIME";
+
+	public static final String PERSISTENCE_LENGTH = "PERSISTENCE_LENGTH";
+
+	public static final List< String > FEATURES = new ArrayList<>( 2 );
+
+	public static final Map< String, String > FEATURE_NAMES = new HashMap<>( 2 );
+
+	public static final Map< String, String > FEATURE_SHORT_NAMES = new HashMap<>( 2 );
+
+	public static final Map< String, Dimension > FEATURE_DIMENSIONS = new HashMap<>( 2 );
+
+	public static final Map< String, Boolean > IS_INT = new HashMap<>( 2 );
+
+	static
+	{
+		FEATURES.add( PERSISTENCE_TIME );
+		FEATURES.add( PERSISTENCE_LENGTH );
+
+		FEATURE_NAMES.put( PERSISTENCE_TIME, "Persistence time" );
+		FEATURE_NAMES.put( PERSISTENCE_LENGTH, "Persistence length" );
+
+		FEATURE_SHORT_NAMES.put( PERSISTENCE_TIME, "Pers. time" );
+		FEATURE_SHORT_NAMES.put( PERSISTENCE_LENGTH, "Pers. length" );
+
+		FEATURE_DIMENSIONS.put( PERSISTENCE_TIME, Dimension.TIME );
+		FEATURE_DIMENSIONS.put( PERSISTENCE_LENGTH, Dimension.LENGTH );
+
+		IS_INT.put( PERSISTENCE_TIME, Boolean.FALSE );
+		IS_INT.put( PERSISTENCE_LENGTH, Boolean.FALSE );
+	}
+
+	public VelocityAutocorrelationAnalyzer()
+	{
+		super( KEY );
+	}
+
+	@Override
+	public Map< String, Dimension > getFeatureDimensions()
+	{
+		return FEATURE_DIMENSIONS;
+	}
+
+	@Override
+	public Map< String, String > getFeatureNames()
+	{
+		return FEATURE_NAMES;
+	}
+
+	@Override
+	public Map< String, String > getFeatureShortNames()
+	{
+		return FEATURE_SHORT_NAMES;
+	}
+
+	@Override
+	public List< String > getFeatures()
+	{
+		return FEATURES;
+	}
+
+	@Override
+	public Map< String, Boolean > getIsIntFeature()
+	{
+		return IS_INT;
+	}
+
+	@Override
+	public boolean isManualFeature()
+	{
+		return false;
+	}
+
+	@Override
+	public ImageIcon getIcon()
+	{
+		return null;
+	}
+
+	@Override
+	public String getInfoText()
+	{
+		return null;
+	}
+
+	@Override
+	public String getKey()
+	{
+		return KEY;
+	}
+
+	@Override
+	public String getName()
+	{
+		return KEY;
+	}
+
+	@Override
+	public boolean isLocal()
+	{
+		return true;
+	}
+
+	@Override
+	public void process( final Collection< Integer > trackIDs, final Model model )
+	{
+
+		if ( trackIDs.isEmpty() )
+		{ return; }
+
+		final AnalyzerMetrics.Run run = startRun();
+
+		final FeatureModel fm = model.getFeatureModel();
+		// Primitive snapshot of the tracks, spots sorted by frame.
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), trackIDs, getFrameIndex() );
+		final FeatureColumns columns = new FeatureColumns( FEATURES, geom.nTracks );
+		// Largest tracks first, at an estimated cost of their number of edges.
+		final long[] costs = new long[ geom.nTracks ];
+		for ( int k = 0; k < geom.nTracks; k++ )
+			costs[ k ] = geom.nEdges( k ) + 1;
+		final RangeExecutor executor = newExecutor();
+		final LptSchedule schedule = LptSchedule.of( costs, executor.getMaxWorkers(), MIN_COST_PER_CHUNK );
+		run.setEstimatedImbalance( schedule.getEstimatedImbalance() );
+		run.endPhase( Phase.GATHER );
+
+		executor.forEach( schedule, new RangeTask()
+		{
+			@Override
+			public void run( final int from, final int to )
+			{
+				final long chunkStart = System.nanoTime();
+				final long[] latencies = new long[ AnalyzerMetrics.N_BINS ];
+				// Scratch buffers reused over the tracks of the chunk.
+				final VacfKernel kernel = new VacfKernel();
+				final double[] features = new double[ 2 ];
+
+				for ( int i = from; i < to; i++ )
+				{
+					final int k = schedule.order[ i ];
+					final long trackStart = System.nanoTime();
+					if ( kernel.compute( geom, k ) < 0 )
+					{
+						features[ 0 ] = Double.NaN;
+						features[ 1 ] = Double.NaN;
+					}
+					else
+					{
+						kernel.fitPersistence( features );
+					}
+					columns.setRow( k, features );
+					latencies[ AnalyzerMetrics.bin( System.nanoTime() - trackStart ) ]++;
+				}
+				run.chunk( chunkStart, to - from, latencies );
+			}
+		} );
+		run.endPhase( Phase.COMPUTE );
+
+		columns.commitTrackFeatures( fm, geom.trackIDs );
+		run.endPhase( Phase.WRITE );
+
+		endRun( run, geom.nTracks, geom.nEdges );
+	}
+}
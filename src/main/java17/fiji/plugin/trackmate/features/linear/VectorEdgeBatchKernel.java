@@ -0,0 +1,209 @@
+package fiji.plugin.trackmate.features.linear;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link EdgeBatchKernel} with the Vector API of Java 17. Loaded by
+ * {@link EdgeBatchKernel#get()} when the <code>jdk.incubator.vector</code>
+ * module is available.
+ * <p>
+ * The positions of the spots of {@link #lanes()} edges are gathered with the
+ * source, target and predecessor indices of the snapshot. Edges without a
+ * predecessor use their source instead, and their directional change rate is
+ * replaced by NaN. The last edges of the range, fewer than the number of
+ * lanes, are computed by {@link EdgeKernel}.
+ */
+class VectorEdgeBatchKernel extends EdgeBatchKernel
+{
+
+	private static final VectorSpecies< Double > SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	private static final DoubleVector ZERO = DoubleVector.zero( SPECIES );
+
+	private static final DoubleVector NAN = DoubleVector.broadcast( SPECIES, Double.NaN );
+
+	private static final DoubleVector PI = DoubleVector.broadcast( SPECIES, Math.PI );
+
+	private static final DoubleVector HALF_PI = DoubleVector.broadcast( SPECIES, FastAtan2.HALF_PI );
+
+	private static final DoubleVector MINUS_HALF_PI = DoubleVector.broadcast( SPECIES, -FastAtan2.HALF_PI );
+
+	@Override
+	public void compute( final TrackGeometry geom, final int from, final int to,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		final int upper = from + SPECIES.loopBound( to - from );
+		if ( geom.isPlanar() )
+			compute2D( geom, from, upper, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+		else
+			compute3D( geom, from, upper, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+		EdgeKernel.compute( geom, upper, to, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+	}
+
+	@Override
+	public int lanes()
+	{
+		return SPECIES.length();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "vector-" + SPECIES.length();
+	}
+
+	private static void compute3D( final TrackGeometry geom, final int from, final int to,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] z = geom.z;
+		final double[] t = geom.t;
+		final int[] source = geom.source;
+		final int[] target = geom.target;
+		final int[] predecessor = new int[ SPECIES.length() ];
+		final boolean[] noPredecessor = new boolean[ SPECIES.length() ];
+
+		for ( int e = from; e < to; e += SPECIES.length() )
+		{
+			final DoubleVector xs = DoubleVector.fromArray( SPECIES, x, 0, source, e );
+			final DoubleVector ys = DoubleVector.fromArray( SPECIES, y, 0, source, e );
+			final DoubleVector zs = DoubleVector.fromArray( SPECIES, z, 0, source, e );
+
+			final DoubleVector dx2 = DoubleVector.fromArray( SPECIES, x, 0, target, e ).sub( xs );
+			final DoubleVector dy2 = DoubleVector.fromArray( SPECIES, y, 0, target, e ).sub( ys );
+			final DoubleVector dz2 = DoubleVector.fromArray( SPECIES, z, 0, target, e ).sub( zs );
+
+			atan2( dy2, dx2, precision ).intoArray( angleXY, e );
+			atan2( dz2, dy2, precision ).intoArray( angleYZ, e );
+			atan2( dx2, dz2, precision ).intoArray( angleZX, e );
+
+			final VectorMask< Double > none = predecessors( geom, e, predecessor, noPredecessor );
+			if ( none.allTrue() )
+			{
+				NAN.intoArray( directionalChangeRate, e );
+				continue;
+			}
+
+			final DoubleVector dx1 = xs.sub( DoubleVector.fromArray( SPECIES, x, 0, predecessor, 0 ) );
+			final DoubleVector dy1 = ys.sub( DoubleVector.fromArray( SPECIES, y, 0, predecessor, 0 ) );
+			final DoubleVector dz1 = zs.sub( DoubleVector.fromArray( SPECIES, z, 0, predecessor, 0 ) );
+
+			// Same operations as LinearTrackMath.turningAngle().
+			final DoubleVector cx = dy1.mul( dz2 ).sub( dz1.mul( dy2 ) );
+			final DoubleVector cy = dz1.mul( dx2 ).sub( dx1.mul( dz2 ) );
+			final DoubleVector cz = dx1.mul( dy2 ).sub( dy1.mul( dx2 ) );
+			final DoubleVector norm = cx.mul( cx ).add( cy.mul( cy ) ).add( cz.mul( cz ) ).sqrt();
+			final DoubleVector dot = dx1.mul( dx2 ).add( dy1.mul( dy2 ) ).add( dz1.mul( dz2 ) );
+			final DoubleVector dt = DoubleVector.fromArray( SPECIES, t, 0, target, e ).sub( DoubleVector.fromArray( SPECIES, t, 0, source, e ) );
+
+			atan2( norm, dot, precision ).div( dt ).blend( NAN, none ).intoArray( directionalChangeRate, e );
+		}
+	}
+
+	private static void compute2D( final TrackGeometry geom, final int from, final int to,
+			final double[] directionalChangeRate, final double[] angleXY, final double[] angleYZ, final double[] angleZX,
+			final AnglePrecision precision )
+	{
+		final double[] x = geom.x;
+		final double[] y = geom.y;
+		final double[] t = geom.t;
+		final int[] source = geom.source;
+		final int[] target = geom.target;
+		final int[] predecessor = new int[ SPECIES.length() ];
+		final boolean[] noPredecessor = new boolean[ SPECIES.length() ];
+
+		for ( int e = from; e < to; e += SPECIES.length() )
+		{
+			final DoubleVector xs = DoubleVector.fromArray( SPECIES, x, 0, source, e );
+			final DoubleVector ys = DoubleVector.fromArray( SPECIES, y, 0, source, e );
+
+			final DoubleVector dx2 = DoubleVector.fromArray( SPECIES, x, 0, target, e ).sub( xs );
+			final DoubleVector dy2 = DoubleVector.fromArray( SPECIES, y, 0, target, e ).sub( ys );
+
+			atan2( dy2, dx2, precision ).intoArray( angleXY, e );
+			// Same values as LinearTrackMath.atan2ZeroY() and atan2ZeroX().
+			final VectorMask< Double > nanY = dy2.test( VectorOperators.IS_NAN );
+			ZERO.blend( PI, dy2.test( VectorOperators.IS_NEGATIVE ) )
+					.blend( dy2, nanY )
+					.intoArray( angleYZ, e );
+			HALF_PI.blend( MINUS_HALF_PI, dx2.test( VectorOperators.IS_NEGATIVE ) )
+					.blend( dx2, dx2.compare( VectorOperators.EQ, 0. ).or( dx2.test( VectorOperators.IS_NAN ) ) )
+					.intoArray( angleZX, e );
+
+			final VectorMask< Double > none = predecessors( geom, e, predecessor, noPredecessor );
+			if ( none.allTrue() )
+			{
+				NAN.intoArray( directionalChangeRate, e );
+				continue;
+			}
+
+			final DoubleVector dx1 = xs.sub( DoubleVector.fromArray( SPECIES, x, 0, predecessor, 0 ) );
+			final DoubleVector dy1 = ys.sub( DoubleVector.fromArray( SPECIES, y, 0, predecessor, 0 ) );
+
+			// Same operations as LinearTrackMath.turningAngle2D().
+			final DoubleVector cz = dx1.mul( dy2 ).sub( dy1.mul( dx2 ) );
+			final DoubleVector dot = dx1.mul( dx2 ).add( dy1.mul( dy2 ) ).add( 0. );
+			final DoubleVector dt = DoubleVector.fromArray( SPECIES, t, 0, target, e ).sub( DoubleVector.fromArray( SPECIES, t, 0, source, e ) );
+
+			atan2( cz.abs(), dot, precision ).div( dt ).blend( NAN, none ).intoArray( directionalChangeRate, e );
+		}
+	}
+
+	/**
+	 * Fills the predecessor indices of the edges from <code>e</code>, with
+	 * the source for edges without predecessor, and returns the mask of these
+	 * edges.
+	 */
+	private static VectorMask< Double > predecessors( final TrackGeometry geom, final int e, final int[] predecessor, final boolean[] noPredecessor )
+	{
+		for ( int i = 0; i < predecessor.length; i++ )
+		{
+			final int p = geom.predecessor[ e + i ];
+			noPredecessor[ i ] = p < 0;
+			predecessor[ i ] = p < 0 ? geom.source[ e + i ] : p;
+		}
+		return VectorMask.fromArray( SPECIES, noPredecessor, 0 );
+	}
+
+	private static DoubleVector atan2( final DoubleVector y, final DoubleVector x, final AnglePrecision precision )
+	{
+		if ( precision == AnglePrecision.EXACT )
+			return y.lanewise( VectorOperators.ATAN2, x );
+		return fastAtan2( y, x );
+	}
+
+	/**
+	 * Same operations as {@link FastAtan2#atan2(double, double)}, lane-wise.
+	 */
+	private static DoubleVector fastAtan2( final DoubleVector y, final DoubleVector x )
+	{
+		final DoubleVector ax = x.abs();
+		final DoubleVector ay = y.abs();
+		final DoubleVector max = ax.max( ay );
+		// Also false for NaN.
+		final VectorMask< Double > regular = max.compare( VectorOperators.GT, 0. )
+				.and( max.compare( VectorOperators.LT, Double.POSITIVE_INFINITY ) );
+
+		final DoubleVector a = ax.min( ay ).div( max );
+		final DoubleVector s = a.mul( a );
+		DoubleVector r = a.mul( s.mul( s.mul( s.mul( s.mul( FastAtan2.A9 ).add( FastAtan2.A7 ) ).add( FastAtan2.A5 ) ).add( FastAtan2.A3 ) ).add( FastAtan2.A1 ) );
+		r = r.blend( HALF_PI.sub( r ), ay.compare( VectorOperators.GT, ax ) );
+		r = r.blend( PI.sub( r ), x.compare( VectorOperators.LT, 0. ) );
+		// r is positive: copy the sign bit of y.
+		r = r.viewAsIntegralLanes().or( y.viewAsIntegralLanes().and( Long.MIN_VALUE ) ).viewAsFloatingLanes();
+		if ( regular.allTrue() )
+			return r;
+
+		final double[] values = r.toArray();
+		for ( int i = 0; i < values.length; i++ )
+			if ( !regular.laneIsSet( i ) )
+				values[ i ] = Math.atan2( y.lane( i ), x.lane( i ) );
+		return DoubleVector.fromArray( SPECIES, values, 0 );
+	}
+}
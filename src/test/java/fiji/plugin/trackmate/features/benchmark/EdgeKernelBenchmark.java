@@ -0,0 +1,104 @@
+package fiji.plugin.trackmate.features.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.linear.AnglePrecision;
+import fiji.plugin.trackmate.features.linear.EdgeBatchKernel;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
+
+/**
+ * Per-edge cost of the edge feature math, with exact and approximate
+ * angles, on a single thread. Scores are in ns per edge.
+ * <p>
+ * Without <code>vectorized</code>, the edges are computed one at a time, as
+ * by <code>EdgeKernel</code>. With it, they are computed by
+ * {@link EdgeBatchKernel#get()}, which is the same unless the
+ * benchmark runs on Java 17 or later with
+ * <code>-jvmArgsAppend "--add-modules jdk.incubator.vector"</code>.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@OperationsPerInvocation( EdgeKernelBenchmark.N_EDGES )
+public class EdgeKernelBenchmark
+{
+
+	static final int N_EDGES = 100000;
+
+	@Param( { "RANDOM_WALK", "BRANCHING" } )
+	public Motion motion;
+
+	@Param( { "2", "3" } )
+	public int nDims;
+
+	@Param( { "EXACT", "FAST" } )
+	public AnglePrecision precision;
+
+	@Param( { "false", "true" } )
+	public boolean vectorized;
+
+	private EdgeBatchKernel kernel;
+
+	private TrackGeometry geom;
+
+	private double[] directionalChangeRate;
+
+	private double[] angleXY;
+
+	private double[] angleYZ;
+
+	private double[] angleZX;
+
+	@Setup( Level.Trial )
+	public void setUp()
+	{
+		final Model model = SyntheticModels.create( motion, nDims, N_EDGES, 100, 1l );
+		geom = TrackGeometry.forEdges( model.getTrackModel(), model.getTrackModel().edgeSet() );
+		kernel = vectorized ? EdgeBatchKernel.get() : EdgeBatchKernel.scalar();
+		directionalChangeRate = new double[ geom.nEdges ];
+		angleXY = new double[ geom.nEdges ];
+		angleYZ = new double[ geom.nEdges ];
+		angleZX = new double[ geom.nEdges ];
+	}
+
+	@Benchmark
+	public double[] compute()
+	{
+		kernel.compute( geom, 0, geom.nEdges, directionalChangeRate, angleXY, angleYZ, angleZX, precision );
+		return directionalChangeRate;
+	}
+
+	public static void main( final String[] args ) throws RunnerException, CommandLineOptionException
+	{
+		final Options opt = new OptionsBuilder()
+				.parent( new CommandLineOptions( args ) )
+				.include( EdgeKernelBenchmark.class.getSimpleName() )
+				.build();
+		new Runner( opt ).run();
+	}
+}
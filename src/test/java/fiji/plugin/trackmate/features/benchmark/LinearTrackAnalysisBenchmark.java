@@ -0,0 +1,196 @@
+package fiji.plugin.trackmate.features.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+
+/**
+ * JMH benchmarks for {@link LinearTrackEdgeStatistics} and
+ * {@link LinearTrackDescriptor}, run on synthetic models built by
+ * {@link SyntheticModels}.
+ * <p>
+ * Run from the command line with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=fiji.plugin.trackmate.features.benchmark.LinearTrackAnalysisBenchmark
+ * </pre>
+ *
+ * Standard JMH options can be passed with <code>-Dexec.args</code>, for
+ * instance <code>-Dexec.args="-p nEdges=10000000 -p numThreads=1,16"</code>
+ * to benchmark the largest models. Models with 10M edges need a heap of
+ * several GB, to be set with <code>-jvmArgsAppend</code>.
+ * <p>
+ * On top of the JMH report, the {@link #main(String[])} method prints a
+ * summary with the throughput in ops/s, the time per edge in ns and the
+ * allocation rate measured by the GC profiler.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.AverageTime } )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" } )
+public class LinearTrackAnalysisBenchmark
+{
+
+	@Param( { "1000", "100000", "1000000" } )
+	public int nEdges;
+
+	@Param( { "100" } )
+	public int edgesPerTrack;
+
+	@Param( { "RANDOM_WALK", "DIRECTED", "BRANCHING" } )
+	public Motion motion;
+
+	@Param( { "2", "3" } )
+	public int nDims;
+
+	@Param( { "1", "2", "4", "8" } )
+	public int numThreads;
+
+	private Model model;
+
+	private Collection< DefaultWeightedEdge > edges;
+
+	private Collection< Integer > trackIDs;
+
+	private LinearTrackEdgeStatistics edgeAnalyzer;
+
+	private LinearTrackDescriptor trackAnalyzer;
+
+	private LinearTrackDescriptor fusedAnalyzer;
+
+	@Setup( Level.Trial )
+	public void setUp()
+	{
+		model = SyntheticModels.create( motion, nDims, nEdges, edgesPerTrack, 1l );
+		edges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( false ) );
+
+		edgeAnalyzer = new LinearTrackEdgeStatistics();
+		edgeAnalyzer.setNumThreads( numThreads );
+		trackAnalyzer = new LinearTrackDescriptor();
+		trackAnalyzer.setNumThreads( numThreads );
+		fusedAnalyzer = new LinearTrackDescriptor();
+		fusedAnalyzer.setNumThreads( numThreads );
+		fusedAnalyzer.setComputeEdgeFeatures( true );
+
+		// Features the track descriptor depends on.
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		edgeAnalyzer.process( edges, model );
+	}
+
+	@Benchmark
+	public Model edgeStatistics()
+	{
+		edgeAnalyzer.process( edges, model );
+		return model;
+	}
+
+	@Benchmark
+	public Model trackDescriptor()
+	{
+		trackAnalyzer.process( trackIDs, model );
+		return model;
+	}
+
+	@Benchmark
+	public Model edgeStatisticsAndTrackDescriptor()
+	{
+		edgeAnalyzer.process( edges, model );
+		trackAnalyzer.process( trackIDs, model );
+		return model;
+	}
+
+	@Benchmark
+	public Model fusedEdgeAndTrack()
+	{
+		fusedAnalyzer.process( trackIDs, model );
+		return model;
+	}
+
+	public static void main( final String[] args ) throws RunnerException, CommandLineOptionException
+	{
+		final Options opt = new OptionsBuilder()
+				.parent( new CommandLineOptions( args ) )
+				.include( LinearTrackAnalysisBenchmark.class.getSimpleName() )
+				.addProfiler( GCProfiler.class )
+				.build();
+		final Collection< RunResult > results = new Runner( opt ).run();
+		printSummary( results );
+	}
+
+	private static void printSummary( final Collection< RunResult > results )
+	{
+		System.out.println();
+		System.out.println( String.format( "%-36s %-12s %5s %10s %8s %14s %12s %14s",
+				"Benchmark", "Motion", "Dims", "Edges", "Threads", "ops/s", "ns/edge", "alloc MB/s" ) );
+		for ( final RunResult result : results )
+		{
+			if ( result.getParams().getMode() != Mode.AverageTime )
+				continue;
+
+			final String name = result.getParams().getBenchmark();
+			final long n = Long.parseLong( result.getParams().getParam( "nEdges" ) );
+			// Average time is reported in s/op.
+			final double secondsPerOp = result.getPrimaryResult().getScore();
+			final double opsPerSecond = 1. / secondsPerOp;
+			final double nsPerEdge = secondsPerOp * 1e9 / n;
+			final double allocRate = getAllocationRate( result.getSecondaryResults() );
+
+			System.out.println( String.format( "%-36s %-12s %5s %10d %8s %14.3f %12.2f %14.1f",
+					name.substring( name.lastIndexOf( '.' ) + 1 ),
+					result.getParams().getParam( "motion" ),
+					result.getParams().getParam( "nDims" ),
+					n,
+					result.getParams().getParam( "numThreads" ),
+					opsPerSecond,
+					nsPerEdge,
+					allocRate ) );
+		}
+	}
+
+	private static double getAllocationRate( final Map< String, Result > secondaryResults )
+	{
+		for ( final String key : secondaryResults.keySet() )
+		{
+			// Key is prefixed with a separator that depends on JMH version.
+			if ( key.endsWith( "gc.alloc.rate" ) )
+				return secondaryResults.get( key ).getScore();
+		}
+		return Double.NaN;
+	}
+}
@@ -0,0 +1,219 @@
+package fiji.plugin.trackmate.features.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+/**
+ * Builds synthetic TrackMate {@link Model}s offline, so that the track
+ * analyzers can be benchmarked and tested without downloading images and
+ * running detection and tracking first.
+ */
+public class SyntheticModels
+{
+
+	public enum Motion
+	{
+		/**
+		 * Brownian motion: isotropic Gaussian steps.
+		 */
+		RANDOM_WALK,
+		/**
+		 * Directed motion: constant velocity plus Gaussian noise.
+		 */
+		DIRECTED,
+		/**
+		 * Random walk lineages where each cell divides in two after a fixed
+		 * number of frames.
+		 */
+		BRANCHING;
+	}
+
+	/**
+	 * Number of frames between two divisions in {@link Motion#BRANCHING}
+	 * lineages.
+	 */
+	private static final int CELL_CYCLE = 20;
+
+	private static final double FIELD_SIZE = 1000.;
+
+	private static final double STEP_SIGMA = 1.;
+
+	private static final double SPEED = 2.;
+
+	private SyntheticModels()
+	{}
+
+	/**
+	 * Creates a new model containing exactly <code>nEdges</code> edges,
+	 * split in tracks of <code>edgesPerTrack</code> edges (the last track
+	 * may be shorter). The feature model is left empty.
+	 *
+	 * @param motion
+	 *            the type of motion to simulate.
+	 * @param nDims
+	 *            the dimensionality, 2 or 3. In 2D, all the spots have a Z
+	 *            position of 0.
+	 * @param nEdges
+	 *            the total number of edges to generate.
+	 * @param edgesPerTrack
+	 *            the number of edges per track.
+	 * @param seed
+	 *            the seed of the random generator, so that the same model
+	 *            can be rebuilt across runs.
+	 * @return a new model.
+	 */
+	public static Model create( final Motion motion, final int nDims, final int nEdges, final int edgesPerTrack, final long seed )
+	{
+		return populate( new Model(), motion, nDims, nEdges, edgesPerTrack, seed );
+	}
+
+	/**
+	 * Adds synthetic tracks to the specified model, as in
+	 * {@link #create(Motion, int, int, int, long)}.
+	 *
+	 * @param model
+	 *            the model to add the tracks to.
+	 * @param motion
+	 *            the type of motion to simulate.
+	 * @param nDims
+	 *            the dimensionality, 2 or 3.
+	 * @param nEdges
+	 *            the total number of edges to generate.
+	 * @param edgesPerTrack
+	 *            the number of edges per track.
+	 * @param seed
+	 *            the seed of the random generator.
+	 * @return the model.
+	 */
+	public static < M extends Model > M populate( final M model, final Motion motion, final int nDims, final int nEdges, final int edgesPerTrack, final long seed )
+	{
+		if ( nDims != 2 && nDims != 3 )
+			throw new IllegalArgumentException( "Dimensionality must be 2 or 3, was " + nDims + "." );
+		if ( edgesPerTrack < 1 )
+			throw new IllegalArgumentException( "Tracks must have at least one edge." );
+
+		final Random ran = new Random( seed );
+		model.beginUpdate();
+		try
+		{
+			int remaining = nEdges;
+			while ( remaining > 0 )
+			{
+				final int n = Math.min( remaining, edgesPerTrack );
+				switch ( motion )
+				{
+				case RANDOM_WALK:
+					createLinearTrack( model, n, nDims, false, ran );
+					break;
+				case DIRECTED:
+					createLinearTrack( model, n, nDims, true, ran );
+					break;
+				case BRANCHING:
+					createLineage( model, n, nDims, ran );
+					break;
+				default:
+					throw new IllegalArgumentException( "Unknown motion type: " + motion );
+				}
+				remaining -= n;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return model;
+	}
+
+	private static void createLinearTrack( final Model model, final int nEdges, final int nDims, final boolean directed, final Random ran )
+	{
+		final double[] pos = randomPosition( nDims, ran );
+		final double[] velocity = new double[ 3 ];
+		if ( directed )
+		{
+			final double[] dir = randomPosition( nDims, ran );
+			double norm = 0.;
+			for ( int d = 0; d < nDims; d++ )
+			{
+				dir[ d ] -= FIELD_SIZE / 2.;
+				norm += dir[ d ] * dir[ d ];
+			}
+			norm = Math.sqrt( norm );
+			for ( int d = 0; d < nDims; d++ )
+				velocity[ d ] = SPEED * dir[ d ] / norm;
+		}
+
+		final int firstFrame = ran.nextInt( 10 );
+		Spot previous = addSpot( model, pos, firstFrame );
+		for ( int i = 1; i <= nEdges; i++ )
+		{
+			step( pos, velocity, nDims, ran );
+			final Spot spot = addSpot( model, pos, firstFrame + i );
+			model.addEdge( previous, spot, -1 );
+			previous = spot;
+		}
+	}
+
+	private static void createLineage( final Model model, final int nEdges, final int nDims, final Random ran )
+	{
+		final double[] zero = new double[ 3 ];
+		final int firstFrame = ran.nextInt( 10 );
+
+		// The tips of the branches currently growing.
+		List< Spot > tips = new ArrayList<>();
+		List< double[] > positions = new ArrayList<>();
+		tips.add( addSpot( model, randomPosition( nDims, ran ), firstFrame ) );
+		positions.add( new double[] { tips.get( 0 ).getDoublePosition( 0 ), tips.get( 0 ).getDoublePosition( 1 ), tips.get( 0 ).getDoublePosition( 2 ) } );
+
+		int created = 0;
+		int frame = firstFrame;
+		while ( created < nEdges )
+		{
+			frame++;
+			final boolean divide = ( frame - firstFrame ) % CELL_CYCLE == 0;
+			final List< Spot > newTips = new ArrayList<>();
+			final List< double[] > newPositions = new ArrayList<>();
+			for ( int i = 0; i < tips.size() && created < nEdges; i++ )
+			{
+				final int nDaughters = divide ? 2 : 1;
+				for ( int j = 0; j < nDaughters && created < nEdges; j++ )
+				{
+					final double[] pos = positions.get( i ).clone();
+					step( pos, zero, nDims, ran );
+					final Spot spot = addSpot( model, pos, frame );
+					model.addEdge( tips.get( i ), spot, -1 );
+					newTips.add( spot );
+					newPositions.add( pos );
+					created++;
+				}
+			}
+			tips = newTips;
+			positions = newPositions;
+		}
+	}
+
+	private static Spot addSpot( final Model model, final double[] pos, final int frame )
+	{
+		final Spot spot = new Spot( pos[ 0 ], pos[ 1 ], pos[ 2 ], 1., 1. );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+		model.addSpotTo( spot, Integer.valueOf( frame ) );
+		return spot;
+	}
+
+	private static double[] randomPosition( final int nDims, final Random ran )
+	{
+		final double[] pos = new double[ 3 ];
+		for ( int d = 0; d < nDims; d++ )
+			pos[ d ] = FIELD_SIZE * ran.nextDouble();
+		return pos;
+	}
+
+	private static void step( final double[] pos, final double[] velocity, final int nDims, final Random ran )
+	{
+		for ( int d = 0; d < nDims; d++ )
+			pos[ d ] += velocity[ d ] + STEP_SIGMA * ran.nextGaussian();
+	}
+}
@@ -0,0 +1,171 @@
+package fiji.plugin.trackmate.features.edge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class LinearTrackEdgeStatisticsUpdaterTest
+{
+
+	private Model model;
+
+	private LinearTrackEdgeStatistics analyzer;
+
+	@Before
+	public void setUp()
+	{
+		model = SyntheticModels.create( Motion.BRANCHING, 3, 500, 100, 3l );
+		analyzer = new LinearTrackEdgeStatistics();
+		analyzer.process( model.getTrackModel().edgeSet(), model );
+		new LinearTrackEdgeStatisticsUpdater( model, analyzer );
+	}
+
+	@Test
+	public void testMoveSpot()
+	{
+		final Spot spot = middleSpot();
+		model.beginUpdate();
+		try
+		{
+			spot.putFeature( Spot.POSITION_X, spot.getFeature( Spot.POSITION_X ) + 10. );
+			spot.putFeature( Spot.POSITION_Y, spot.getFeature( Spot.POSITION_Y ) - 5. );
+			model.updateFeatures( spot );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameAsFullRecomputation();
+	}
+
+	@Test
+	public void testRemoveEdge()
+	{
+		final List< DefaultWeightedEdge > edges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		model.beginUpdate();
+		try
+		{
+			model.removeEdge( edges.get( edges.size() / 2 ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameAsFullRecomputation();
+	}
+
+	@Test
+	public void testAddEdges()
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Spot spot = middleSpot();
+		final int frame = spot.getFeature( Spot.FRAME ).intValue();
+		model.beginUpdate();
+		try
+		{
+			// A new branch, giving a second successor to the spot.
+			final Spot branch = new Spot( 0., 0., 0., 1., 1. );
+			branch.putFeature( Spot.POSITION_T, Double.valueOf( frame + 1 ) );
+			model.addSpotTo( branch, Integer.valueOf( frame + 1 ) );
+			model.addEdge( spot, branch, -1 );
+
+			// A second predecessor for one of its successors.
+			final Spot successor = trackModel.getDirectedNeighborIndex().successorsOf( spot ).iterator().next();
+			final Spot merge = new Spot( 10., 10., 10., 1., 1. );
+			merge.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+			model.addSpotTo( merge, Integer.valueOf( frame ) );
+			model.addEdge( merge, successor, -1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameAsFullRecomputation();
+	}
+
+	@Test
+	public void testDirtySetIsSmall()
+	{
+		final List< ModelChangeEvent > events = new ArrayList<>();
+		model.addModelChangeListener( new ModelChangeListener()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent event )
+			{
+				events.add( event );
+			}
+		} );
+
+		final Spot spot = middleSpot();
+		model.beginUpdate();
+		try
+		{
+			spot.putFeature( Spot.POSITION_Z, spot.getFeature( Spot.POSITION_Z ) + 1. );
+			model.updateFeatures( spot );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// The 2 edges of the spot, plus the 1 or 2 edges after its successor.
+		assertEquals( 1, events.size() );
+		final int nDirty = LinearTrackEdgeStatisticsUpdater.dirtyEdges( events.get( 0 ), model.getTrackModel() ).size();
+		assertTrue( nDirty >= 2 && nDirty <= 4 );
+		assertSameAsFullRecomputation();
+	}
+
+	private Spot middleSpot()
+	{
+		final List< Spot > spots = new ArrayList<>( model.getTrackModel().vertexSet() );
+		for ( int i = spots.size() / 2; i < spots.size(); i++ )
+		{
+			final Spot spot = spots.get( i );
+			if ( model.getTrackModel().getDirectedNeighborIndex().predecessorsOf( spot ).size() == 1
+					&& model.getTrackModel().getDirectedNeighborIndex().successorsOf( spot ).size() == 1 )
+				return spot;
+		}
+		throw new IllegalStateException( "Could not find a spot in the middle of a branch." );
+	}
+
+	private void assertSameAsFullRecomputation()
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final Map< DefaultWeightedEdge, double[] > incremental = new HashMap<>();
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+		{
+			final double[] values = new double[ LinearTrackEdgeStatistics.FEATURES.size() ];
+			for ( int i = 0; i < values.length; i++ )
+				values[ i ] = fm.getEdgeFeature( edge, LinearTrackEdgeStatistics.FEATURES.get( i ) ).doubleValue();
+			incremental.put( edge, values );
+		}
+
+		new LinearTrackEdgeStatistics().process( model.getTrackModel().edgeSet(), model );
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+		{
+			final double[] values = incremental.get( edge );
+			for ( int i = 0; i < values.length; i++ )
+			{
+				final String feature = LinearTrackEdgeStatistics.FEATURES.get( i );
+				assertEquals( feature, fm.getEdgeFeature( edge, feature ).doubleValue(), values[ i ], 0. );
+			}
+		}
+	}
+}
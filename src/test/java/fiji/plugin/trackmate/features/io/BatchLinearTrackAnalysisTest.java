@@ -0,0 +1,71 @@
+package fiji.plugin.trackmate.features.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class BatchLinearTrackAnalysisTest
+{
+
+	@Test
+	public void testFailedFileDoesNotAbortBatch() throws IOException
+	{
+		final File dir = Files.createTempDirectory( "batch-test" ).toFile();
+		final Model model1 = SyntheticModels.create( Motion.DIRECTED, 3, 500, 50, 1l );
+		final Model model2 = SyntheticModels.create( Motion.BRANCHING, 2, 300, 100, 2l );
+		StreamingLinearTrackAnalysisTest.write( model1, new File( dir, "a.xml" ) );
+		final File sub = new File( dir, "sub" );
+		sub.mkdir();
+		StreamingLinearTrackAnalysisTest.write( model2, new File( sub, "b.xml" ) );
+		try (FileOutputStream os = new FileOutputStream( new File( dir, "c.xml" ) ))
+		{
+			os.write( "<TrackMate><Model><AllTracks><Track TRACK_ID=\"0\"><Edge".getBytes( StandardCharsets.UTF_8 ) );
+		}
+
+		assertEquals( 2, BatchLinearTrackAnalysis.resolve( dir.getPath() ).size() );
+		final String glob = dir.getPath() + File.separator + "**.xml";
+		final List< File > files = BatchLinearTrackAnalysis.resolve( glob );
+		assertEquals( 3, files.size() );
+		assertEquals( dir.getAbsoluteFile(), BatchLinearTrackAnalysis.inputRoot( glob ) );
+
+		final File edgeTable = new File( dir, "out-edges.csv" );
+		final File trackTable = new File( dir, "out-tracks.csv" );
+		final BatchLinearTrackAnalysis batch = new BatchLinearTrackAnalysis( files, edgeTable, trackTable );
+		batch.setNumThreads( 2 );
+		batch.setOutput( new PrintStream( new ByteArrayOutputStream() ) );
+		assertFalse( batch.process() );
+
+		assertEquals( 1, batch.getFailures().size() );
+		assertTrue( batch.getFailures().containsKey( new File( dir, "c.xml" ).getAbsoluteFile() ) );
+
+		final List< String > edgeLines = Files.readAllLines( edgeTable.toPath(), StandardCharsets.UTF_8 );
+		final List< String > trackLines = Files.readAllLines( trackTable.toPath(), StandardCharsets.UTF_8 );
+		assertTrue( edgeLines.get( 0 ).startsWith( "FILE,TRACK_ID" ) );
+		assertEquals( 1 + model1.getTrackModel().edgeSet().size() + model2.getTrackModel().edgeSet().size(), edgeLines.size() );
+		assertEquals( 1 + model1.getTrackModel().nTracks( false ) + model2.getTrackModel().nTracks( false ), trackLines.size() );
+		for ( final String line : trackLines.subList( 1, trackLines.size() ) )
+			assertTrue( Arrays.asList( "a.xml", "sub/b.xml" ).contains( line.substring( 0, line.indexOf( ',' ) ) ) );
+
+		for ( final File file : sub.listFiles() )
+			file.delete();
+		for ( final File file : dir.listFiles() )
+			file.delete();
+		dir.delete();
+	}
+}
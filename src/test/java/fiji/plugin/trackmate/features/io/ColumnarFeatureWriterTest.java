@@ -0,0 +1,82 @@
+package fiji.plugin.trackmate.features.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+
+public class ColumnarFeatureWriterTest
+{
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 20000, 500, 131l );
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		new LinearTrackEdgeStatistics().process( model.getTrackModel().edgeSet(), model );
+		new LinearTrackDescriptor().process( trackIDs, model );
+
+		final File file = File.createTempFile( "features", ".bin" );
+		file.deleteOnExit();
+		ColumnarFeatureWriter.export( model, file, 4 );
+
+		final FeatureModel fm = model.getFeatureModel();
+		try (final ColumnarFeatureReader reader = new ColumnarFeatureReader( file ))
+		{
+			assertEquals( Arrays.asList( ColumnarFeatureWriter.EDGE_TABLE, ColumnarFeatureWriter.TRACK_TABLE ), reader.getTables() );
+
+			final List< String > edgeColumns = new ArrayList<>( Arrays.asList( "TRACK_ID", "SPOT_SOURCE_ID", "SPOT_TARGET_ID" ) );
+			edgeColumns.addAll( LinearTrackEdgeStatistics.FEATURES );
+			assertEquals( edgeColumns, reader.getColumns( ColumnarFeatureWriter.EDGE_TABLE ) );
+
+			// Edges by source and target spot IDs.
+			final Map< Long, DefaultWeightedEdge > edges = new HashMap<>();
+			for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+				edges.put( key( model.getTrackModel().getEdgeSource( edge ).ID(), model.getTrackModel().getEdgeTarget( edge ).ID() ), edge );
+
+			final String table = ColumnarFeatureWriter.EDGE_TABLE;
+			assertEquals( edges.size(), reader.getNRows( table ) );
+			for ( long row = 0; row < reader.getNRows( table ); row++ )
+			{
+				final DefaultWeightedEdge edge = edges.remove( key( reader.getInt( table, "SPOT_SOURCE_ID", row ), reader.getInt( table, "SPOT_TARGET_ID", row ) ) );
+				assertEquals( model.getTrackModel().trackIDOf( edge ).intValue(), reader.getInt( table, "TRACK_ID", row ) );
+				for ( final String feature : LinearTrackEdgeStatistics.FEATURES )
+					assertEquals( fm.getEdgeFeature( edge, feature ).doubleValue(), reader.getDouble( table, feature, row ), 0. );
+			}
+			assertEquals( 0, edges.size() );
+
+			assertEquals( trackIDs.size(), reader.getNRows( ColumnarFeatureWriter.TRACK_TABLE ) );
+			for ( long row = 0; row < trackIDs.size(); row++ )
+			{
+				final Integer trackID = Integer.valueOf( reader.getInt( ColumnarFeatureWriter.TRACK_TABLE, "TRACK_ID", row ) );
+				for ( final String feature : LinearTrackDescriptor.FEATURES )
+					assertEquals( fm.getTrackFeature( trackID, feature ).doubleValue(), reader.getDouble( ColumnarFeatureWriter.TRACK_TABLE, feature, row ), 0. );
+			}
+		}
+	}
+
+	private static Long key( final int sourceID, final int targetID )
+	{
+		return Long.valueOf( ( ( long ) sourceID << 32 ) | ( targetID & 0xffffffffl ) );
+	}
+}
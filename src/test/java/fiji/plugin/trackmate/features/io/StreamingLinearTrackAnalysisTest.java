@@ -0,0 +1,181 @@
+package fiji.plugin.trackmate.features.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+import fiji.plugin.trackmate.io.TmXmlWriter;
+
+public class StreamingLinearTrackAnalysisTest
+{
+
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	public void testDirected() throws IOException
+	{
+		test( SyntheticModels.create( Motion.DIRECTED, 3, 2000, 50, 13l ), true );
+	}
+
+	@Test
+	public void testBranching() throws IOException
+	{
+		/*
+		 * Branching tracks have several last spots, and TrackMate picks one
+		 * arbitrarily for the displacement. We only compare edge features.
+		 */
+		test( SyntheticModels.create( Motion.BRANCHING, 2, 2000, 100, 17l ), false );
+	}
+
+	@Test
+	public void testSeveralPasses() throws IOException
+	{
+		final StreamingLinearTrackAnalysis analysis = test( SyntheticModels.create( Motion.DIRECTED, 3, 2000, 50, 19l ), true, 120 );
+		assertTrue( analysis.getNPasses() > 1 );
+	}
+
+	@Test
+	public void testMissingSpot() throws IOException
+	{
+		// Spot 2 is linked but not in AllSpots.
+		assertFails( spot( 0 ) + spot( 1 ), "not in the file" );
+		// Spot 2 is missing, and the ID of spot 1 is used twice.
+		assertFails( spot( 0 ) + spot( 1 ) + spot( 1 ), "missing from the spots" );
+	}
+
+	private static void assertFails( final String spots, final String message ) throws IOException
+	{
+		final File file = File.createTempFile( "streaming-test", ".xml" );
+		file.deleteOnExit();
+		try (final Writer writer = new FileWriter( file ))
+		{
+			writer.write( "<TrackMate><Model><AllSpots>" + spots + "</AllSpots><AllTracks>"
+					+ "<Track TRACK_ID=\"0\"><Edge SPOT_SOURCE_ID=\"0\" SPOT_TARGET_ID=\"1\" /><Edge SPOT_SOURCE_ID=\"1\" SPOT_TARGET_ID=\"2\" /></Track>"
+					+ "</AllTracks></Model></TrackMate>" );
+		}
+		try (final CsvFeatureSink sink = new CsvFeatureSink( new StringWriter(), new StringWriter() ))
+		{
+			new StreamingLinearTrackAnalysis( file ).process( sink );
+			fail( "Expected an error " + message );
+		}
+		catch ( final IOException e )
+		{
+			assertTrue( e.getMessage(), e.getMessage().contains( message ) );
+		}
+		file.delete();
+	}
+
+	private static String spot( final int id )
+	{
+		return "<Spot ID=\"" + id + "\" FRAME=\"" + id + "\" POSITION_X=\"" + id + "\" POSITION_Y=\"0\" POSITION_Z=\"0\" POSITION_T=\"" + id + "\" />";
+	}
+
+	private static void test( final Model model, final boolean compareTracks ) throws IOException
+	{
+		final StreamingLinearTrackAnalysis analysis = test( model, compareTracks, StreamingLinearTrackAnalysis.DEFAULT_MAX_SPOTS_PER_PASS );
+		assertEquals( 1, analysis.getNPasses() );
+	}
+
+	private static StreamingLinearTrackAnalysis test( final Model model, final boolean compareTracks, final int maxSpotsPerPass ) throws IOException
+	{
+		final File file = File.createTempFile( "streaming-test", ".xml" );
+		file.deleteOnExit();
+		write( model, file );
+
+		final StringWriter edges = new StringWriter();
+		final StringWriter tracks = new StringWriter();
+		final StreamingLinearTrackAnalysis analysis = new StreamingLinearTrackAnalysis( file );
+		analysis.setMaxSpotsPerPass( maxSpotsPerPass );
+		try (final CsvFeatureSink sink = new CsvFeatureSink( edges, tracks ))
+		{
+			analysis.process( sink );
+		}
+		file.delete();
+
+		final TrackModel trackModel = model.getTrackModel();
+		assertEquals( trackModel.edgeSet().size(), analysis.getNEdges() );
+		assertEquals( trackModel.nTracks( false ), analysis.getNTracks() );
+
+		// Reference.
+		final List< Integer > trackIDs = new ArrayList<>( trackModel.trackIDs( false ) );
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		new LinearTrackEdgeStatistics().process( trackModel.edgeSet(), model );
+		new LinearTrackDescriptor().process( trackIDs, model );
+		final FeatureModel fm = model.getFeatureModel();
+
+		final Map< String, DefaultWeightedEdge > edgeMap = new HashMap<>();
+		for ( final DefaultWeightedEdge edge : trackModel.edgeSet() )
+		{
+			final Spot source = trackModel.getEdgeSource( edge );
+			final Spot target = trackModel.getEdgeTarget( edge );
+			edgeMap.put( source.ID() + "-" + target.ID(), edge );
+			edgeMap.put( target.ID() + "-" + source.ID(), edge );
+		}
+
+		final String[] edgeLines = edges.toString().split( "\n" );
+		assertEquals( trackModel.edgeSet().size() + 1, edgeLines.length );
+		for ( int i = 1; i < edgeLines.length; i++ )
+		{
+			final String[] tokens = edgeLines[ i ].split( "," );
+			final DefaultWeightedEdge edge = edgeMap.get( tokens[ 1 ] + "-" + tokens[ 2 ] );
+			assertNotNull( edge );
+			for ( int f = 0; f < LinearTrackEdgeStatistics.FEATURES.size(); f++ )
+			{
+				final String feature = LinearTrackEdgeStatistics.FEATURES.get( f );
+				assertEquals( feature, fm.getEdgeFeature( edge, feature ).doubleValue(), Double.parseDouble( tokens[ 3 + f ] ), 0. );
+			}
+		}
+
+		final String[] trackLines = tracks.toString().split( "\n" );
+		assertEquals( trackIDs.size() + 1, trackLines.length );
+		if ( !compareTracks )
+			return analysis;
+		for ( int i = 1; i < trackLines.length; i++ )
+		{
+			final String[] tokens = trackLines[ i ].split( "," );
+			final Integer trackID = Integer.valueOf( tokens[ 0 ] );
+			for ( int f = 0; f < LinearTrackDescriptor.FEATURES.size(); f++ )
+			{
+				final String feature = LinearTrackDescriptor.FEATURES.get( f );
+				final double expected = fm.getTrackFeature( trackID, feature ).doubleValue();
+				assertEquals( feature, expected, Double.parseDouble( tokens[ 1 + f ] ), TOLERANCE * Math.max( 1., Math.abs( expected ) ) );
+			}
+		}
+		return analysis;
+	}
+
+	/**
+	 * Writes a model to a TrackMate file.
+	 */
+	static void write( final Model model, final File file ) throws IOException
+	{
+		final TmXmlWriter writer = new TmXmlWriter( file );
+		writer.appendModel( model );
+		writer.writeToFile();
+	}
+}
@@ -0,0 +1,92 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class BranchDecompositionTest
+{
+
+	@Test
+	public void testDivisionAndMerge()
+	{
+		/*
+		 * A0 - B1 - C2 - D3 - E4 - H5 - I6
+		 *             \           /
+		 *              F3 - G4 --
+		 *
+		 * Spots are named after their X position.
+		 */
+		final Model model = new Model();
+		model.beginUpdate();
+		final Spot[] spots = new Spot[ 9 ];
+		final int[] frames = new int[] { 0, 1, 2, 3, 4, 3, 4, 5, 6 };
+		try
+		{
+			for ( int i = 0; i < spots.length; i++ )
+			{
+				spots[ i ] = new Spot( i, 0., 0., 1., 1. );
+				spots[ i ].putFeature( Spot.POSITION_T, Double.valueOf( frames[ i ] ) );
+				model.addSpotTo( spots[ i ], Integer.valueOf( frames[ i ] ) );
+			}
+			link( model, spots, "AB", "BC", "CD", "DE", "CF", "FG", "EH", "GH", "HI" );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+		final BranchDecomposition branches = BranchDecomposition.of( geom );
+		assertEquals( 4, branches.nBranches );
+		assertArrayEquals( new int[] { 0, 4 }, branches.trackBranchStart );
+
+		final String[] paths = new String[ branches.nBranches ];
+		for ( int b = 0; b < branches.nBranches; b++ )
+		{
+			final StringBuilder path = new StringBuilder().append( name( geom, branches.firstSpot( b ) ) );
+			for ( int i = branches.edgeStart[ b ]; i < branches.edgeStart[ b + 1 ]; i++ )
+				path.append( name( geom, geom.target[ branches.edges[ i ] ] ) );
+			paths[ b ] = path.toString();
+			assertEquals( name( geom, branches.lastSpot( b ) ), path.charAt( path.length() - 1 ) );
+		}
+
+		final int abc = indexOf( paths, "ABC" );
+		final int cdeh = indexOf( paths, "CDEH" );
+		final int cfgh = indexOf( paths, "CFGH" );
+		final int hi = indexOf( paths, "HI" );
+		assertEquals( -1, branches.parent[ abc ] );
+		assertEquals( abc, branches.parent[ cdeh ] );
+		assertEquals( abc, branches.parent[ cfgh ] );
+		// H has two predecessors.
+		assertEquals( -1, branches.parent[ hi ] );
+	}
+
+	/**
+	 * The letter of a spot, from its X position.
+	 */
+	private static char name( final TrackGeometry geom, final int spot )
+	{
+		return ( char ) ( 'A' + ( int ) geom.x[ spot ] );
+	}
+
+	private static int indexOf( final String[] paths, final String path )
+	{
+		for ( int i = 0; i < paths.length; i++ )
+			if ( paths[ i ].equals( path ) )
+				return i;
+		throw new AssertionError( "Missing branch " + path );
+	}
+
+	private static void link( final Model model, final Spot[] spots, final String... links )
+	{
+		for ( final String link : links )
+			model.addEdge( spots[ link.charAt( 0 ) - 'A' ], spots[ link.charAt( 1 ) - 'A' ], -1 );
+	}
+}
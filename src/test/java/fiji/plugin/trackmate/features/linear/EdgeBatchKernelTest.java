@@ -0,0 +1,159 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+
+public class EdgeBatchKernelTest
+{
+
+	@Test
+	public void testSameAsEdgeKernel()
+	{
+		for ( final Motion motion : Motion.values() )
+		{
+			for ( int nDims = 2; nDims <= 3; nDims++ )
+			{
+				final Model model = SyntheticModels.create( motion, nDims, 3000, 100, 31l );
+				final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), model.getTrackModel().trackIDs( false ) );
+				assertEquals( nDims == 2, geom.isPlanar() );
+				assertSameAsEdgeKernel( geom, 0, geom.nEdges );
+				// Ranges that are not a multiple of the number of lanes.
+				assertSameAsEdgeKernel( geom, 3, geom.nEdges - 5 );
+			}
+		}
+	}
+
+	@Test
+	public void testDegenerateEdges()
+	{
+		// Spots that do not move, move back, or jump several frames.
+		final double[][] positions = new double[][] { { 0, 0, 0 }, { 0, 0, 0 }, { 1, 0, 0 }, { 0, 0, 0 }, { 0, 0, 0 }, { 0, -2, 0 }, { 0, -2, 5 },
+				{ -1, -2, 5 }, { -1, -2, 5 }, { -1, 3, -5 }, { Double.NaN, 3, -5 }, { 2, 3, -5 }, { 2, 3, -5 } };
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			Spot previous = null;
+			for ( int i = 0; i < positions.length; i++ )
+			{
+				final Spot spot = new Spot( positions[ i ][ 0 ], positions[ i ][ 1 ], positions[ i ][ 2 ], 1., 1. );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( 2 * i ) );
+				model.addSpotTo( spot, Integer.valueOf( 2 * i ) );
+				if ( null != previous )
+					model.addEdge( previous, spot, -1 );
+				previous = spot;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+		assertSameAsEdgeKernel( geom, 0, geom.nEdges );
+
+		final TrackGeometry planar = TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+		for ( int s = 0; s < planar.nSpots; s++ )
+			planar.z[ s ] = 0.;
+		assertTrue( planar.isPlanar() );
+		assertSameAsEdgeKernel( planar, 0, planar.nEdges );
+	}
+
+	@Test
+	public void testScalarIsEdgeKernel()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 1000, 50, 37l );
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), model.getTrackModel().trackIDs( false ) );
+		for ( final AnglePrecision precision : AnglePrecision.values() )
+		{
+			final double[][] expected = compute( null, geom, 0, geom.nEdges, precision );
+			final double[][] actual = compute( EdgeBatchKernel.scalar(), geom, 0, geom.nEdges, precision );
+			for ( int f = 0; f < expected.length; f++ )
+				for ( int e = 0; e < geom.nEdges; e++ )
+					assertEquals( Double.doubleToLongBits( expected[ f ][ e ] ), Double.doubleToLongBits( actual[ f ][ e ] ) );
+		}
+	}
+
+	@Test
+	public void testVectorizedAnalyzer()
+	{
+		final Model model = SyntheticModels.create( Motion.RANDOM_WALK, 3, 3000, 100, 41l );
+		final LinearTrackEdgeStatistics analyzer = new LinearTrackEdgeStatistics();
+		analyzer.process( model.getTrackModel().edgeSet(), model );
+		final Map< DefaultWeightedEdge, double[] > expected = new HashMap<>();
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+			expected.put( edge, values( model, edge ) );
+
+		analyzer.setVectorized( true );
+		assertEquals( EdgeBatchKernel.get().isVectorized(), analyzer.isVectorized() );
+		analyzer.process( model.getTrackModel().edgeSet(), model );
+		for ( final DefaultWeightedEdge edge : model.getTrackModel().edgeSet() )
+		{
+			final double[] actual = values( model, edge );
+			for ( int i = 0; i < actual.length; i++ )
+			{
+				final double v = expected.get( edge )[ i ];
+				assertEquals( LinearTrackEdgeStatistics.FEATURES.get( i ), v, actual[ i ], Double.isNaN( v ) ? 0. : EdgeBatchKernel.MAX_EXACT_ULPS * Math.ulp( v ) );
+			}
+		}
+	}
+
+	private static double[] values( final Model model, final DefaultWeightedEdge edge )
+	{
+		final double[] values = new double[ LinearTrackEdgeStatistics.FEATURES.size() ];
+		for ( int i = 0; i < values.length; i++ )
+			values[ i ] = model.getFeatureModel().getEdgeFeature( edge, LinearTrackEdgeStatistics.FEATURES.get( i ) ).doubleValue();
+		return values;
+	}
+
+	private static void assertSameAsEdgeKernel( final TrackGeometry geom, final int from, final int to )
+	{
+		final EdgeBatchKernel kernel = EdgeBatchKernel.get();
+		for ( final AnglePrecision precision : AnglePrecision.values() )
+		{
+			final double[][] expected = compute( null, geom, from, to, precision );
+			final double[][] actual = compute( kernel, geom, from, to, precision );
+			final boolean exact = precision == AnglePrecision.FAST || !kernel.isVectorized();
+			for ( int f = 0; f < expected.length; f++ )
+			{
+				for ( int e = 0; e < geom.nEdges; e++ )
+				{
+					final String message = kernel + ", " + precision + ", feature " + f + ", edge " + e;
+					if ( exact || Double.isNaN( expected[ f ][ e ] ) || expected[ f ][ e ] == 0. )
+						assertEquals( message, Double.doubleToLongBits( expected[ f ][ e ] ), Double.doubleToLongBits( actual[ f ][ e ] ) );
+					else
+						assertEquals( message, expected[ f ][ e ], actual[ f ][ e ], EdgeBatchKernel.MAX_EXACT_ULPS * Math.ulp( expected[ f ][ e ] ) );
+				}
+			}
+		}
+	}
+
+	/**
+	 * With {@link EdgeKernel} if the kernel is <code>null</code>. Edges out of
+	 * the range are left to -1.
+	 */
+	private static double[][] compute( final EdgeBatchKernel kernel, final TrackGeometry geom, final int from, final int to, final AnglePrecision precision )
+	{
+		final double[][] values = new double[ 4 ][ geom.nEdges ];
+		for ( final double[] v : values )
+			Arrays.fill( v, -1. );
+		if ( null == kernel )
+			EdgeKernel.compute( geom, from, to, values[ 0 ], values[ 1 ], values[ 2 ], values[ 3 ], precision );
+		else
+			kernel.compute( geom, from, to, values[ 0 ], values[ 1 ], values[ 2 ], values[ 3 ], precision );
+		return values;
+	}
+}
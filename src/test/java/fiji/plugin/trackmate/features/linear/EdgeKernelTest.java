@@ -0,0 +1,143 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class EdgeKernelTest
+{
+
+	@Test
+	public void testSameAsFused()
+	{
+		for ( final Motion motion : Motion.values() )
+		{
+			final Model model = SyntheticModels.create( motion, 3, 3000, 100, 23l );
+			assertSameAsFused( TrackGeometry.forTracks( model.getTrackModel(), model.getTrackModel().trackIDs( false ) ) );
+		}
+	}
+
+	@Test
+	public void testDegenerateEdges()
+	{
+		// Spots that do not move, move back, or jump several frames.
+		final Model model = new Model();
+		final double[][] positions = new double[][] { { 0, 0, 0 }, { 0, 0, 0 }, { 1, 0, 0 }, { 0, 0, 0 }, { 0, 0, 0 }, { 0, -2, 0 }, { 0, -2, 5 } };
+		final int[] frames = new int[] { 0, 1, 2, 3, 5, 6, 9 };
+		model.beginUpdate();
+		try
+		{
+			Spot previous = null;
+			for ( int i = 0; i < positions.length; i++ )
+			{
+				final Spot spot = new Spot( positions[ i ][ 0 ], positions[ i ][ 1 ], positions[ i ][ 2 ], 1., 1. );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( frames[ i ] ) );
+				model.addSpotTo( spot, Integer.valueOf( frames[ i ] ) );
+				if ( null != previous )
+					model.addEdge( previous, spot, -1 );
+				previous = spot;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertSameAsFused( TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) ) );
+	}
+
+	@Test
+	public void testPlanarSameAs3D()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 2, 3000, 100, 29l );
+		final TrackGeometry planar = TrackGeometry.forTracks( model.getTrackModel(), model.getTrackModel().trackIDs( false ) );
+		// Z positions of -0 run the 3D path, with the same +0 Z differences.
+		final TrackGeometry full = TrackGeometry.forTracks( model.getTrackModel(), model.getTrackModel().trackIDs( false ) );
+		for ( int s = 0; s < full.nSpots; s++ )
+			full.z[ s ] = -0.;
+		assertTrue( planar.isPlanar() );
+		assertFalse( full.isPlanar() );
+
+		final int n = planar.nEdges;
+		for ( final AnglePrecision precision : AnglePrecision.values() )
+		{
+			final double[][] expected = new double[ 4 ][ n ];
+			final double[][] scalar = new double[ 4 ][ n ];
+			final double[][] fused = new double[ 4 ][ n ];
+			EdgeKernel.compute( full, 0, n, expected[ 0 ], expected[ 1 ], expected[ 2 ], expected[ 3 ], precision );
+			EdgeKernel.compute( planar, 0, n, scalar[ 0 ], scalar[ 1 ], scalar[ 2 ], scalar[ 3 ], precision );
+
+			final double[] expectedFeatures = new double[ LinearTrackAccumulator.N_FEATURES ];
+			final double[] features = new double[ LinearTrackAccumulator.N_FEATURES ];
+			for ( int k = 0; k < planar.nTracks; k++ )
+			{
+				final LinearTrackAccumulator expectedAcc = new LinearTrackAccumulator();
+				final LinearTrackAccumulator acc = new LinearTrackAccumulator();
+				LinearTrackKernel.accumulate( full, k, expectedAcc, new double[ n ], new double[ n ], new double[ n ], new double[ n ], precision );
+				LinearTrackKernel.accumulate( planar, k, acc, fused[ 0 ], fused[ 1 ], fused[ 2 ], fused[ 3 ], precision );
+				expectedAcc.computeFeatures( 1., 1., 1., expectedFeatures, precision );
+				acc.computeFeatures( 1., 1., 1., features, precision );
+				for ( int f = 0; f < features.length; f++ )
+					assertSameBits( expectedFeatures[ f ], features[ f ] );
+			}
+
+			for ( int f = 0; f < 4; f++ )
+			{
+				for ( int e = 0; e < n; e++ )
+				{
+					assertSameBits( expected[ f ][ e ], scalar[ f ][ e ] );
+					assertSameBits( expected[ f ][ e ], fused[ f ][ e ] );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testAxisAngles()
+	{
+		final double[] values = new double[] { 0., -0., 1., -1., 1e-300, -1e300, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN };
+		for ( final AnglePrecision precision : AnglePrecision.values() )
+		{
+			for ( final double v : values )
+			{
+				assertSameBits( precision.atan2( 0., v ), LinearTrackMath.atan2ZeroY( v ) );
+				assertSameBits( precision.atan2( v, 0. ), LinearTrackMath.atan2ZeroX( v ) );
+			}
+		}
+	}
+
+	private static void assertSameBits( final double expected, final double actual )
+	{
+		assertEquals( Double.doubleToLongBits( expected ), Double.doubleToLongBits( actual ) );
+	}
+
+	private static void assertSameAsFused( final TrackGeometry geom )
+	{
+		final int n = geom.nEdges;
+		final double[][] expected = new double[ 4 ][ n ];
+		final double[][] actual = new double[ 4 ][ n ];
+		final LinearTrackAccumulator acc = new LinearTrackAccumulator();
+		for ( int k = 0; k < geom.nTracks; k++ )
+		{
+			acc.reset();
+			LinearTrackKernel.accumulate( geom, k, acc, expected[ 0 ], expected[ 1 ], expected[ 2 ], expected[ 3 ], AnglePrecision.EXACT );
+		}
+
+		// Two ranges that do not follow track boundaries.
+		final int from = Math.min( 3, n );
+		EdgeKernel.compute( geom, 0, from, actual[ 0 ], actual[ 1 ], actual[ 2 ], actual[ 3 ] );
+		EdgeKernel.compute( geom, from, n, actual[ 0 ], actual[ 1 ], actual[ 2 ], actual[ 3 ] );
+
+		for ( int f = 0; f < 4; f++ )
+			for ( int e = 0; e < n; e++ )
+				assertEquals( "Feature " + f + ", edge " + e, expected[ f ][ e ], actual[ f ][ e ], 0. );
+	}
+}
@@ -0,0 +1,117 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class FastAtan2Test
+{
+
+	@Test
+	public void testErrorBoundOnCircle()
+	{
+		// The result only depends on the ratio y/x, so this covers all angles.
+		final int n = 2000000;
+		final double[] scales = new double[] { Double.MIN_VALUE, 1e-300, 1e-10, 1., 1e10, 1e300, Double.MAX_VALUE };
+		for ( final double scale : scales )
+		{
+			for ( int i = 0; i <= n; i++ )
+			{
+				final double theta = -Math.PI + 2. * Math.PI * i / n;
+				assertWithinBound( scale * Math.sin( theta ), scale * Math.cos( theta ) );
+			}
+		}
+	}
+
+	@Test
+	public void testErrorBoundOnRatios()
+	{
+		// Dense sweep of the reduced argument, where the error is maximal.
+		final int n = 4000000;
+		for ( int i = 0; i <= n; i++ )
+		{
+			final double r = ( double ) i / n;
+			assertWithinBound( r, 1. );
+			assertWithinBound( 1., r );
+			assertWithinBound( -r, -1. );
+		}
+	}
+
+	@Test
+	public void testErrorBoundOnRandomDoubles()
+	{
+		// Any finite bit pattern, including subnormals and huge ratios.
+		final Random ran = new Random( 29l );
+		for ( int i = 0; i < 2000000; i++ )
+		{
+			final double y = Double.longBitsToDouble( ran.nextLong() );
+			final double x = Double.longBitsToDouble( ran.nextLong() );
+			if ( Double.isNaN( x ) || Double.isNaN( y ) )
+				continue;
+			assertWithinBound( y, x );
+		}
+	}
+
+	@Test
+	public void testSpecialCases()
+	{
+		final double[] values = new double[] { 0., -0., 1., -1., Double.MIN_VALUE, -Double.MAX_VALUE,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN };
+		for ( final double y : values )
+		{
+			for ( final double x : values )
+			{
+				final double expected = Math.atan2( y, x );
+				final double actual = FastAtan2.atan2( y, x );
+				if ( Double.isInfinite( x ) || Double.isInfinite( y ) || Double.isNaN( x ) || Double.isNaN( y ) || ( x == 0. && y == 0. ) )
+					assertEquals( "atan2(" + y + ", " + x + ")", Double.doubleToLongBits( expected ), Double.doubleToLongBits( actual ) );
+				else
+					assertWithinBound( y, x );
+				// Sign of zero results is preserved.
+				if ( actual == 0. )
+					assertEquals( "atan2(" + y + ", " + x + ")", Math.copySign( 1., expected ), Math.copySign( 1., actual ), 0. );
+			}
+		}
+	}
+
+	@Test
+	public void testKernelPrecision()
+	{
+		final Model model = SyntheticModels.create( Motion.RANDOM_WALK, 3, 2000, 100, 31l );
+		final TrackGeometry geom = TrackGeometry.forEdges( model.getTrackModel(), model.getTrackModel().edgeSet() );
+		final int n = geom.nEdges;
+		final double[][] exact = new double[ 4 ][ n ];
+		final double[][] fast = new double[ 4 ][ n ];
+		EdgeKernel.compute( geom, 0, n, exact[ 0 ], exact[ 1 ], exact[ 2 ], exact[ 3 ], AnglePrecision.EXACT );
+		EdgeKernel.compute( geom, 0, n, fast[ 0 ], fast[ 1 ], fast[ 2 ], fast[ 3 ], AnglePrecision.FAST );
+
+		for ( int e = 0; e < n; e++ )
+		{
+			// The rate is the angle divided by the edge duration.
+			final double dt = geom.t[ geom.target[ e ] ] - geom.t[ geom.source[ e ] ];
+			if ( Double.isNaN( exact[ 0 ][ e ] ) )
+				assertTrue( Double.isNaN( fast[ 0 ][ e ] ) );
+			else
+				assertEquals( exact[ 0 ][ e ], fast[ 0 ][ e ], FastAtan2.MAX_ERROR / Math.abs( dt ) );
+			for ( int f = 1; f < 4; f++ )
+				assertEquals( exact[ f ][ e ], fast[ f ][ e ], FastAtan2.MAX_ERROR );
+		}
+	}
+
+	private static void assertWithinBound( final double y, final double x )
+	{
+		final double expected = Math.atan2( y, x );
+		final double actual = FastAtan2.atan2( y, x );
+		// Called on millions of points: only build the message on failure.
+		if ( !( Math.abs( actual - expected ) <= FastAtan2.MAX_ERROR && Math.abs( actual ) <= Math.PI ) )
+			fail( "atan2(" + y + ", " + x + ") = " + actual + ", expected " + expected );
+	}
+}
@@ -0,0 +1,162 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class LocalTrackKernelTest
+{
+
+	@Test
+	public void testSameAsNaive()
+	{
+		final Random ran = new Random( 101l );
+		final LocalTrackKernel kernel = new LocalTrackKernel();
+		for ( int trial = 0; trial < 20; trial++ )
+		{
+			final TrackGeometry geom = walk( 1 + ran.nextInt( 200 ), 0.3, false, ran );
+			final int halfWindow = 1 + ran.nextInt( 10 );
+			final double[] cr = new double[ geom.nSpots ];
+			final double[] st = new double[ geom.nSpots ];
+			final double[] dcr = new double[ geom.nSpots ];
+			assertTrue( kernel.compute( geom, 0, halfWindow, cr, st, dcr ) );
+
+			for ( int i = 0; i < geom.nSpots; i++ )
+			{
+				// Window by brute force.
+				int a = -1;
+				int b = -1;
+				for ( int j = 0; j < geom.nSpots; j++ )
+				{
+					if ( Math.abs( geom.frame[ j ] - geom.frame[ i ] ) <= halfWindow )
+					{
+						if ( a < 0 )
+							a = j;
+						b = j;
+					}
+				}
+
+				double path = 0.;
+				final double[] u = new double[ 3 ];
+				double sumRate = 0.;
+				for ( int j = a + 1; j <= b; j++ )
+				{
+					final double[] d = step( geom, j );
+					final double length = Math.sqrt( d[ 0 ] * d[ 0 ] + d[ 1 ] * d[ 1 ] + d[ 2 ] * d[ 2 ] );
+					path += length;
+					for ( int c = 0; c < 3; c++ )
+						u[ c ] += d[ c ] / length;
+					if ( j > a + 1 )
+					{
+						final double[] p = step( geom, j - 1 );
+						sumRate += LinearTrackMath.directionalChangeRate( p[ 0 ], p[ 1 ], p[ 2 ], d[ 0 ], d[ 1 ], d[ 2 ], geom.t[ j ] - geom.t[ j - 1 ] );
+					}
+				}
+
+				if ( b == a )
+				{
+					assertTrue( Double.isNaN( cr[ i ] ) );
+					assertTrue( Double.isNaN( st[ i ] ) );
+				}
+				else
+				{
+					final double[] net = new double[] { geom.x[ b ] - geom.x[ a ], geom.y[ b ] - geom.y[ a ], geom.z[ b ] - geom.z[ a ] };
+					assertEquals( norm( net ) / path, cr[ i ], 1e-9 );
+					assertEquals( norm( u ) / ( b - a ), st[ i ], 1e-9 );
+				}
+				if ( b - a < 2 )
+					assertTrue( Double.isNaN( dcr[ i ] ) );
+				else
+					assertEquals( sumRate / ( b - a - 1 ), dcr[ i ], 1e-9 );
+			}
+		}
+	}
+
+	@Test
+	public void testStraightLine()
+	{
+		final TrackGeometry geom = walk( 50, 0.3, true, new Random( 103l ) );
+		final double[] cr = new double[ geom.nSpots ];
+		final double[] st = new double[ geom.nSpots ];
+		final double[] dcr = new double[ geom.nSpots ];
+		assertTrue( new LocalTrackKernel().compute( geom, 0, 4, cr, st, dcr ) );
+		for ( int s = geom.spotStart[ 0 ]; s < geom.spotStart[ 1 ]; s++ )
+		{
+			assertEquals( 1., cr[ s ], 1e-9 );
+			assertEquals( 1., st[ s ], 1e-9 );
+			assertEquals( 0., dcr[ s ], 1e-6 );
+		}
+	}
+
+	@Test
+	public void testNotLinear()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 100, 100, 107l );
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+		final double[] cr = new double[ geom.nSpots ];
+		final double[] st = new double[ geom.nSpots ];
+		final double[] dcr = new double[ geom.nSpots ];
+		assertFalse( new LocalTrackKernel().compute( geom, 0, 4, cr, st, dcr ) );
+		for ( int s = geom.spotStart[ 0 ]; s < geom.spotStart[ 1 ]; s++ )
+			assertTrue( Double.isNaN( cr[ s ] ) && Double.isNaN( st[ s ] ) && Double.isNaN( dcr[ s ] ) );
+	}
+
+	private static double[] step( final TrackGeometry geom, final int j )
+	{
+		return new double[] { geom.x[ j ] - geom.x[ j - 1 ], geom.y[ j ] - geom.y[ j - 1 ], geom.z[ j ] - geom.z[ j - 1 ] };
+	}
+
+	private static double norm( final double[] v )
+	{
+		return Math.sqrt( v[ 0 ] * v[ 0 ] + v[ 1 ] * v[ 1 ] + v[ 2 ] * v[ 2 ] );
+	}
+
+	/**
+	 * A single 3D random walk, or straight line, that skips frames with the
+	 * specified probability.
+	 */
+	private static TrackGeometry walk( final int nSpots, final double gapProbability, final boolean straight, final Random ran )
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			double x = 0.;
+			double y = 0.;
+			double z = 0.;
+			int frame = ran.nextInt( 10 );
+			Spot previous = null;
+			for ( int i = 0; i < nSpots; i++ )
+			{
+				final Spot spot = new Spot( x, y, z, 1., 1. );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+				model.addSpotTo( spot, Integer.valueOf( frame ) );
+				if ( null != previous )
+					model.addEdge( previous, spot, -1 );
+				previous = spot;
+
+				x += straight ? 1. : ran.nextGaussian();
+				y += straight ? 0.5 : ran.nextGaussian();
+				z += straight ? -0.2 : ran.nextGaussian();
+				frame++;
+				while ( ran.nextDouble() < gapProbability )
+					frame++;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+	}
+}
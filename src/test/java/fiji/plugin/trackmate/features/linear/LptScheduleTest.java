@@ -0,0 +1,75 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.features.linear.RangeExecutor.RangeTask;
+
+public class LptScheduleTest
+{
+
+	@Test
+	public void testOrderAndChunks()
+	{
+		final LptSchedule schedule = LptSchedule.of( new long[] { 5, 1, 3, -1, 3 }, 2, 1 );
+		assertArrayEquals( new int[] { 0, 2, 4, 1 }, schedule.order );
+		assertEquals( 4, schedule.nChunks() );
+		assertEquals( 12, schedule.getTotalCost() );
+		// Workers end at 5 + 1 and 3 + 3.
+		assertEquals( 1., schedule.getEstimatedImbalance(), 0. );
+
+		// Cheap items are grouped, the costly ones stay alone.
+		final long[] costs = new long[ 100 ];
+		costs[ 50 ] = 1000;
+		for ( int i = 0; i < costs.length; i++ )
+			if ( i != 50 )
+				costs[ i ] = 10;
+		final LptSchedule skewed = LptSchedule.of( costs, 4, 1 );
+		assertEquals( 50, skewed.order[ 0 ] );
+		assertEquals( 1, skewed.chunkStart[ 1 ] );
+		// The largest track alone sets the makespan.
+		assertEquals( 1000. * 4 / 1990, skewed.getEstimatedImbalance(), 1e-12 );
+	}
+
+	@Test
+	public void testAllItemsOnce()
+	{
+		final Random ran = new Random( 97l );
+		final long[] costs = new long[ 10000 ];
+		for ( int i = 0; i < costs.length; i++ )
+			costs[ i ] = ran.nextDouble() < 0.01 ? 10000 + ran.nextInt( 100000 ) : ran.nextInt( 100 );
+
+		final ForkJoinPool pool = new ForkJoinPool( 3 );
+		try
+		{
+			final RangeExecutor executor = new RangeExecutor( pool, 4 );
+			final LptSchedule schedule = LptSchedule.of( costs, executor.getMaxWorkers(), 1024 );
+			assertTrue( schedule.getEstimatedImbalance() >= 1. );
+			assertTrue( schedule.getEstimatedImbalance() < 1.1 );
+
+			final AtomicIntegerArray visits = new AtomicIntegerArray( costs.length );
+			executor.forEach( schedule, new RangeTask()
+			{
+				@Override
+				public void run( final int from, final int to )
+				{
+					for ( int i = from; i < to; i++ )
+						visits.incrementAndGet( schedule.order[ i ] );
+				}
+			} );
+			for ( int i = 0; i < costs.length; i++ )
+				assertEquals( 1, visits.get( i ) );
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+}
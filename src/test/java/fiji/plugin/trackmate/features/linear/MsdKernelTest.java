@@ -0,0 +1,203 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class MsdKernelTest
+{
+
+	@Test
+	public void testFFTAgainstDFT()
+	{
+		final Random ran = new Random( 53l );
+		for ( int size = 1; size <= 64; size <<= 1 )
+		{
+			final double[] re = new double[ size ];
+			final double[] im = new double[ size ];
+			for ( int i = 0; i < size; i++ )
+			{
+				re[ i ] = ran.nextGaussian();
+				im[ i ] = ran.nextGaussian();
+			}
+			final double[] re0 = re.clone();
+			final double[] im0 = im.clone();
+
+			final FFT fft = new FFT( size );
+			fft.forward( re, im );
+			for ( int k = 0; k < size; k++ )
+			{
+				double sr = 0.;
+				double si = 0.;
+				for ( int j = 0; j < size; j++ )
+				{
+					final double a = -2. * Math.PI * j * k / size;
+					sr += re0[ j ] * Math.cos( a ) - im0[ j ] * Math.sin( a );
+					si += re0[ j ] * Math.sin( a ) + im0[ j ] * Math.cos( a );
+				}
+				assertEquals( sr, re[ k ], 1e-9 );
+				assertEquals( si, im[ k ], 1e-9 );
+			}
+
+			fft.inverse( re, im );
+			for ( int i = 0; i < size; i++ )
+			{
+				assertEquals( re0[ i ], re[ i ], 1e-12 );
+				assertEquals( im0[ i ], im[ i ], 1e-12 );
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsNaive()
+	{
+		final Random ran = new Random( 59l );
+		for ( int trial = 0; trial < 20; trial++ )
+		{
+			final boolean flat = trial % 2 == 0;
+			final TrackGeometry geom = randomWalk( 2 + ran.nextInt( 300 ), 0.3, flat, 0.5, ran );
+			final MsdCurve curve = new MsdKernel().compute( geom, 0 );
+			assertEquals( flat ? 2 : 3, curve.getNDims() );
+			assertEquals( 0.5, curve.getFrameInterval(), 1e-12 );
+
+			final int first = geom.spotStart[ 0 ];
+			final int end = geom.spotStart[ 1 ];
+			assertEquals( geom.frame[ end - 1 ] - geom.frame[ first ] + 1, curve.size() );
+			for ( int m = 1; m < curve.size(); m++ )
+			{
+				int pairs = 0;
+				double sum = 0.;
+				for ( int i = first; i < end; i++ )
+					for ( int j = i + 1; j < end; j++ )
+						if ( geom.frame[ j ] - geom.frame[ i ] == m )
+						{
+							final double dx = geom.x[ j ] - geom.x[ i ];
+							final double dy = geom.y[ j ] - geom.y[ i ];
+							final double dz = geom.z[ j ] - geom.z[ i ];
+							sum += dx * dx + dy * dy + dz * dz;
+							pairs++;
+						}
+				assertEquals( pairs, curve.pairs( m ) );
+				if ( pairs == 0 )
+					assertTrue( Double.isNaN( curve.msd( m ) ) );
+				else
+					assertEquals( sum / pairs, curve.msd( m ), 1e-9 * ( 1. + sum / pairs ) );
+			}
+		}
+	}
+
+	@Test
+	public void testFit()
+	{
+		final Random ran = new Random( 61l );
+		final double[] out = new double[ 2 ];
+
+		// Brownian motion, D = sigma^2 / 2, averaged over several tracks.
+		final MsdKernel kernel = new MsdKernel();
+		double meanD = 0.;
+		double meanAlpha = 0.;
+		for ( int i = 0; i < 10; i++ )
+		{
+			MsdKernel.fit( kernel.compute( randomWalk( 2000, 0., false, 1., ran ), 0 ), out );
+			meanD += out[ 0 ] / 10;
+			meanAlpha += out[ 1 ] / 10;
+		}
+		assertEquals( 0.5, meanD, 0.05 );
+		assertEquals( 1., meanAlpha, 0.1 );
+
+		// Exact power law.
+		final double[] msd = new double[ 100 ];
+		final int[] pairs = new int[ 100 ];
+		for ( int m = 1; m < msd.length; m++ )
+		{
+			msd[ m ] = 2. * 2. * 3. * Math.pow( 0.1 * m, 1.5 );
+			pairs[ m ] = msd.length - m;
+		}
+		MsdKernel.fit( new MsdCurve( 0.1, 2, msd, pairs ), out );
+		assertEquals( 3., out[ 0 ], 1e-9 );
+		assertEquals( 1.5, out[ 1 ], 1e-9 );
+	}
+
+	@Test
+	public void testDegenerateTracks()
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			// A single spot.
+			addSpot( model, 0., 0 );
+			// Two spots in the same frame.
+			final Spot mother = addSpot( model, 0., 0 );
+			model.addEdge( mother, addSpot( model, 1., 1 ), -1 );
+			model.addEdge( mother, addSpot( model, 2., 1 ), -1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+		assertEquals( 1, geom.nTracks );
+		assertNull( new MsdKernel().compute( geom, 0 ) );
+	}
+
+	/**
+	 * A 3D random walk with unit steps, that skips frames with the specified
+	 * probability.
+	 */
+	private static TrackGeometry randomWalk( final int nSpots, final double gapProbability, final boolean flat, final double frameInterval, final Random ran )
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			double x = 100. * ran.nextDouble();
+			double y = 100. * ran.nextDouble();
+			double z = flat ? 3. : 100. * ran.nextDouble();
+			int frame = ran.nextInt( 10 );
+			Spot previous = null;
+			for ( int i = 0; i < nSpots; i++ )
+			{
+				final Spot spot = new Spot( x, y, z, 1., 1. );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( frame * frameInterval ) );
+				model.addSpotTo( spot, Integer.valueOf( frame ) );
+				if ( null != previous )
+					model.addEdge( previous, spot, -1 );
+				previous = spot;
+
+				int skip = 1;
+				while ( ran.nextDouble() < gapProbability )
+					skip++;
+				for ( int s = 0; s < skip; s++ )
+				{
+					x += ran.nextGaussian();
+					y += ran.nextGaussian();
+					if ( !flat )
+						z += ran.nextGaussian();
+				}
+				frame += skip;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+	}
+
+	private static Spot addSpot( final Model model, final double x, final int frame )
+	{
+		final Spot spot = new Spot( x, 0., 0., 1., 1. );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+		model.addSpotTo( spot, Integer.valueOf( frame ) );
+		return spot;
+	}
+}
@@ -0,0 +1,163 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.linear.RunControl.ProgressListener;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+
+public class RunControlTest
+{
+
+	@Test
+	public void testTimeBudget() throws InterruptedException
+	{
+		final RunControl control = new RunControl();
+		control.start( 10 );
+		assertFalse( control.shouldStop() );
+
+		control.setTimeBudget( 0, TimeUnit.MILLISECONDS );
+		control.start( 10 );
+		Thread.sleep( 2 );
+		assertTrue( control.shouldStop() );
+		assertTrue( control.isTimedOut() );
+		assertFalse( control.isCanceled() );
+	}
+
+	@Test
+	public void testProgress()
+	{
+		final RunControl control = new RunControl();
+		final List< Long > reports = new ArrayList<>();
+		control.setProgressListener( new ProgressListener()
+		{
+			@Override
+			public void progress( final long done, final long total )
+			{
+				assertEquals( 1000, total );
+				reports.add( Long.valueOf( done ) );
+			}
+		} );
+		control.start( 1000 );
+		for ( int i = 0; i < 1000; i++ )
+			control.advance( 1 );
+
+		assertEquals( RunControl.PROGRESS_STEPS, reports.size() );
+		for ( int i = 1; i < reports.size(); i++ )
+			assertTrue( reports.get( i ) > reports.get( i - 1 ) );
+		assertEquals( 1000, reports.get( reports.size() - 1 ).longValue() );
+	}
+
+	@Test
+	public void testEdgesCanceledThenResumed()
+	{
+		final Model expected = SyntheticModels.create( Motion.RANDOM_WALK, 3, 50000, 100, 17l );
+		new LinearTrackEdgeStatistics().process( expected.getTrackModel().edgeSet(), expected );
+
+		final Model model = SyntheticModels.create( Motion.RANDOM_WALK, 3, 50000, 100, 17l );
+		final Set< DefaultWeightedEdge > edges = model.getTrackModel().edgeSet();
+		final LinearTrackEdgeStatistics analyzer = new LinearTrackEdgeStatistics();
+		analyzer.setNumThreads( 1 );
+
+		// Canceled before the run: nothing is processed.
+		analyzer.getRunControl().cancel( "test" );
+		analyzer.process( edges, model );
+		assertEquals( edges.size(), analyzer.getPendingEdges().size() );
+		assertNull( model.getFeatureModel().getEdgeFeature( edges.iterator().next(), LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ) );
+
+		// Canceled after the first chunk.
+		analyzer.getRunControl().reset();
+		analyzer.getRunControl().setProgressListener( cancelOnProgress( analyzer.getRunControl() ) );
+		analyzer.process( edges, model );
+		final List< DefaultWeightedEdge > pending = analyzer.getPendingEdges();
+		assertTrue( pending.size() > 0 && pending.size() < edges.size() );
+
+		// Resumed.
+		analyzer.getRunControl().reset();
+		analyzer.getRunControl().setProgressListener( null );
+		analyzer.process( pending, model );
+		assertTrue( analyzer.getPendingEdges().isEmpty() );
+
+		final FeatureModel efm = expected.getFeatureModel();
+		final List< DefaultWeightedEdge > expectedEdges = new ArrayList<>( expected.getTrackModel().edgeSet() );
+		final List< DefaultWeightedEdge > actualEdges = new ArrayList<>( edges );
+		for ( int i = 0; i < actualEdges.size(); i++ )
+			for ( final String feature : LinearTrackEdgeStatistics.FEATURES )
+				assertEquals( efm.getEdgeFeature( expectedEdges.get( i ), feature ), model.getFeatureModel().getEdgeFeature( actualEdges.get( i ), feature ) );
+	}
+
+	@Test
+	public void testTracksCanceledThenResumed()
+	{
+		final Model expected = trackModel();
+		final LinearTrackDescriptor full = new LinearTrackDescriptor();
+		full.setComputeEdgeFeatures( true );
+		full.process( expected.getTrackModel().trackIDs( false ), expected );
+
+		final Model model = trackModel();
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		final LinearTrackDescriptor analyzer = new LinearTrackDescriptor();
+		analyzer.setNumThreads( 1 );
+		analyzer.setComputeEdgeFeatures( true );
+		analyzer.setComputeBranchFeatures( true );
+		analyzer.getRunControl().setProgressListener( cancelOnProgress( analyzer.getRunControl() ) );
+		analyzer.process( trackIDs, model );
+		final List< Integer > pending = analyzer.getPendingTrackIDs();
+		assertTrue( pending.size() > 0 && pending.size() < trackIDs.size() );
+		assertNull( analyzer.getBranchFeatures() );
+		for ( final Integer trackID : pending )
+			assertNull( model.getFeatureModel().getTrackFeature( trackID, LinearTrackDescriptor.TRACK_TOTAL_DISTANCE_TRAVELED ) );
+
+		analyzer.getRunControl().reset();
+		analyzer.getRunControl().setProgressListener( null );
+		analyzer.process( pending, model );
+		assertTrue( analyzer.getPendingTrackIDs().isEmpty() );
+
+		for ( final Integer trackID : trackIDs )
+			for ( final String feature : LinearTrackDescriptor.FEATURES )
+				assertEquals( expected.getFeatureModel().getTrackFeature( trackID, feature ), model.getFeatureModel().getTrackFeature( trackID, feature ) );
+		final List< DefaultWeightedEdge > expectedEdges = new ArrayList<>( expected.getTrackModel().edgeSet() );
+		final List< DefaultWeightedEdge > actualEdges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		for ( int i = 0; i < actualEdges.size(); i++ )
+			assertEquals( expected.getFeatureModel().getEdgeFeature( expectedEdges.get( i ), LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ),
+					model.getFeatureModel().getEdgeFeature( actualEdges.get( i ), LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ) );
+	}
+
+	private static Model trackModel()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 50000, 100, 23l );
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		return model;
+	}
+
+	private static ProgressListener cancelOnProgress( final RunControl control )
+	{
+		return new ProgressListener()
+		{
+			@Override
+			public void progress( final long done, final long total )
+			{
+				control.cancel( "test" );
+			}
+		};
+	}
+}
@@ -0,0 +1,173 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class TrackFrameIndexTest
+{
+
+	private Model model;
+
+	private TrackFrameIndex index;
+
+	private List< Integer > trackIDs;
+
+	/**
+	 * The spots of the track of a spot, as queried by a listener called
+	 * before the index, as TrackMate's feature updater is.
+	 */
+	private Spot[] queried;
+
+	private Spot queriedSpot;
+
+	@Before
+	public void setUp()
+	{
+		model = SyntheticModels.create( Motion.BRANCHING, 3, 1000, 100, 11l );
+		model.addModelChangeListener( new ModelChangeListener()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent event )
+			{
+				if ( null != queriedSpot )
+					queried = index.spotsInFrameOrder( model.getTrackModel().trackIDOf( queriedSpot ) );
+			}
+		} );
+		index = new TrackFrameIndex( model );
+		trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( false ) );
+	}
+
+	@Test
+	public void testUnchangedTracksAreCached()
+	{
+		final Integer trackID = trackIDs.get( 0 );
+		final Spot[] sorted = index.spotsInFrameOrder( trackID );
+		assertSortedTrack( trackID, sorted );
+		assertSame( sorted, index.spotsInFrameOrder( trackID ) );
+
+		// The snapshot built from the index is the same as without.
+		final TrackGeometry expected = TrackGeometry.forTracks( model.getTrackModel(), trackIDs );
+		final TrackGeometry actual = TrackGeometry.forTracks( model.getTrackModel(), trackIDs, index );
+		assertArrayEquals( expected.spots, actual.spots );
+		assertArrayEquals( expected.edges, actual.edges );
+		assertArrayEquals( expected.predecessor, actual.predecessor );
+		assertEquals( trackIDs.size(), index.size() );
+	}
+
+	@Test
+	public void testModifiedTrackIsInvalidated()
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Integer changed = trackIDs.get( 0 );
+		final Integer unchanged = trackIDs.get( 1 );
+		final Spot[] before = index.spotsInFrameOrder( changed );
+		final Spot[] other = index.spotsInFrameOrder( unchanged );
+
+		// Append a spot before the first one of the track.
+		final Spot first = index.firstSpot( changed );
+		final int frame = first.getFeature( Spot.FRAME ).intValue() - 1;
+		final Spot spot = new Spot( 0., 0., 0., 1., 1. );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( spot, Integer.valueOf( frame ) );
+			model.addEdge( spot, first, -1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final Integer trackID = trackModel.trackIDOf( spot );
+		final Spot[] after = index.spotsInFrameOrder( trackID );
+		assertNotSame( before, after );
+		assertSame( spot, after[ 0 ] );
+		assertSortedTrack( trackID, after );
+		assertSame( other, index.spotsInFrameOrder( unchanged ) );
+	}
+
+	@Test
+	public void testSpotMovedToAnotherFrame()
+	{
+		final Integer trackID = trackIDs.get( 0 );
+		final Spot[] before = index.spotsInFrameOrder( trackID );
+		final Spot first = before[ 0 ];
+
+		// The first spot moves after the last one: same spots, new order.
+		final double frame = before[ before.length - 1 ].getFeature( Spot.FRAME ).doubleValue() + 1.;
+		queriedSpot = first;
+		model.beginUpdate();
+		try
+		{
+			first.putFeature( Spot.FRAME, Double.valueOf( frame ) );
+			first.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+			model.updateFeatures( first );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertNotSame( before, queried );
+		assertSortedTrack( trackID, queried );
+		assertSame( first, queried[ queried.length - 1 ] );
+	}
+
+	@Test
+	public void testSpotReplacedInTrack()
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final Integer trackID = trackIDs.get( 0 );
+		final Spot[] before = index.spotsInFrameOrder( trackID );
+
+		// The last spot is replaced by a new one: same size, other spots.
+		final Spot last = before[ before.length - 1 ];
+		final Spot previous = before[ before.length - 2 ];
+		final Spot spot = new Spot( 0., 0., 0., 1., 1. );
+		spot.putFeature( Spot.POSITION_T, last.getFeature( Spot.POSITION_T ) );
+		queriedSpot = previous;
+		model.beginUpdate();
+		try
+		{
+			model.removeSpot( last );
+			model.addSpotTo( spot, Integer.valueOf( last.getFeature( Spot.FRAME ).intValue() ) );
+			model.addEdge( previous, spot, -1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertEquals( trackID, trackModel.trackIDOf( spot ) );
+		assertSortedTrack( trackID, queried );
+		assertTrue( Arrays.asList( queried ).contains( spot ) );
+		assertFalse( Arrays.asList( queried ).contains( last ) );
+	}
+
+	private void assertSortedTrack( final Integer trackID, final Spot[] sorted )
+	{
+		assertEquals( model.getTrackModel().trackSpots( trackID ).size(), sorted.length );
+		for ( int i = 1; i < sorted.length; i++ )
+			assertTrue( sorted[ i - 1 ].diffTo( sorted[ i ], Spot.FRAME ) <= 0 );
+	}
+}
@@ -0,0 +1,205 @@
+package fiji.plugin.trackmate.features.linear;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class VacfKernelTest
+{
+
+	@Test
+	public void testSameAsNaive()
+	{
+		final Random ran = new Random( 79l );
+		final VacfKernel kernel = new VacfKernel();
+		for ( int trial = 0; trial < 20; trial++ )
+		{
+			final TrackGeometry geom = persistentWalk( 2 + ran.nextInt( 300 ), 0.5, 0.3, 0.5, ran );
+			final int nLags = kernel.compute( geom, 0 );
+			final int e0 = geom.edgeStart[ 0 ];
+			final int e1 = geom.edgeStart[ 1 ];
+			assertEquals( geom.frame[ geom.spotStart[ 1 ] - 1 ] - geom.frame[ geom.spotStart[ 0 ] ], nLags );
+			assertEquals( 0.5, kernel.getFrameInterval(), 1e-12 );
+
+			final double[][] v = new double[ e1 - e0 ][];
+			double c0 = 0.;
+			for ( int e = e0; e < e1; e++ )
+			{
+				final int s = geom.source[ e ];
+				final int t = geom.target[ e ];
+				final double dt = geom.t[ t ] - geom.t[ s ];
+				v[ e - e0 ] = new double[] { ( geom.x[ t ] - geom.x[ s ] ) / dt, ( geom.y[ t ] - geom.y[ s ] ) / dt, ( geom.z[ t ] - geom.z[ s ] ) / dt };
+				c0 += dot( v[ e - e0 ], v[ e - e0 ] ) / v.length;
+			}
+
+			assertEquals( 1., kernel.correlation( 0 ), 0. );
+			for ( int m = 1; m < nLags; m++ )
+			{
+				int pairs = 0;
+				double sum = 0.;
+				for ( int i = 0; i < v.length; i++ )
+					for ( int j = i + 1; j < v.length; j++ )
+						if ( geom.frame[ geom.source[ e0 + j ] ] - geom.frame[ geom.source[ e0 + i ] ] == m )
+						{
+							sum += dot( v[ i ], v[ j ] );
+							pairs++;
+						}
+				assertEquals( pairs, kernel.pairs( m ) );
+				if ( pairs == 0 )
+					assertTrue( Double.isNaN( kernel.correlation( m ) ) );
+				else
+					assertEquals( sum / pairs / c0, kernel.correlation( m ), 1e-9 );
+			}
+		}
+	}
+
+	@Test
+	public void testPersistence()
+	{
+		// Velocities with a lag-1 correlation rho: P = -dt / ln(rho).
+		final Random ran = new Random( 83l );
+		final VacfKernel kernel = new VacfKernel();
+		final double[] out = new double[ 2 ];
+		double meanP = 0.;
+		for ( int i = 0; i < 10; i++ )
+		{
+			kernel.compute( persistentWalk( 5000, 0.9, 0., 1., ran ), 0 );
+			kernel.fitPersistence( out );
+			assertEquals( out[ 0 ] * kernel.getMeanSpeed(), out[ 1 ], 1e-12 );
+			meanP += out[ 0 ] / 10;
+		}
+		assertEquals( -1. / Math.log( 0.9 ), meanP, 1. );
+
+		// Uncorrelated steps.
+		kernel.compute( persistentWalk( 5000, 0., 0., 1., ran ), 0 );
+		kernel.fitPersistence( out );
+		assertTrue( Double.isNaN( out[ 0 ] ) );
+		assertTrue( Double.isNaN( out[ 1 ] ) );
+	}
+
+	@Test
+	public void testStraightTrack()
+	{
+		// Constant velocity: the VACF does not decrease.
+		final VacfKernel kernel = new VacfKernel();
+		kernel.compute( track( 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 ), 0 );
+		assertEquals( 1., kernel.correlation( 5 ), 1e-12 );
+		final double[] out = new double[ 2 ];
+		kernel.fitPersistence( out );
+		assertTrue( Double.isNaN( out[ 0 ] ) );
+		assertTrue( Double.isNaN( out[ 1 ] ) );
+	}
+
+	@Test
+	public void testAllGaps()
+	{
+		// No pair of edges at the lags of the fit.
+		final VacfKernel kernel = new VacfKernel();
+		assertEquals( 6, kernel.compute( track( 0, 5, 6 ), 0 ) );
+		for ( int m = 1; m <= 4; m++ )
+			assertEquals( 0, kernel.pairs( m ) );
+		final double[] out = new double[ 2 ];
+		kernel.fitPersistence( out );
+		assertTrue( Double.isNaN( out[ 0 ] ) );
+		assertTrue( Double.isNaN( out[ 1 ] ) );
+	}
+
+	@Test
+	public void testNotLinear()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 100, 100, 89l );
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+		final VacfKernel kernel = new VacfKernel();
+		assertEquals( -1, kernel.compute( geom, 0 ) );
+		final double[] out = new double[ 2 ];
+		kernel.fitPersistence( out );
+		assertTrue( Double.isNaN( out[ 0 ] ) );
+	}
+
+	/**
+	 * A track moving along X at constant speed, with spots at the specified
+	 * frames.
+	 */
+	private static TrackGeometry track( final int... frames )
+	{
+		final Model model = new Model();
+		model.beginUpdate();
+		try
+		{
+			Spot previous = null;
+			for ( final int frame : frames )
+			{
+				final Spot spot = new Spot( 2. * frame, 1., 0., 1., 1. );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+				model.addSpotTo( spot, Integer.valueOf( frame ) );
+				if ( null != previous )
+					model.addEdge( previous, spot, -1 );
+				previous = spot;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+	}
+
+	/**
+	 * A 3D walk whose velocity is an AR(1) process of lag-1 correlation
+	 * <code>rho</code>, that skips frames with the specified probability.
+	 */
+	private static TrackGeometry persistentWalk( final int nSpots, final double rho, final double gapProbability, final double frameInterval, final Random ran )
+	{
+		final Model model = new Model();
+		final double noise = Math.sqrt( 1. - rho * rho );
+		model.beginUpdate();
+		try
+		{
+			final double[] pos = new double[] { 100. * ran.nextDouble(), 100. * ran.nextDouble(), 100. * ran.nextDouble() };
+			final double[] velocity = new double[] { ran.nextGaussian(), ran.nextGaussian(), ran.nextGaussian() };
+			int frame = ran.nextInt( 10 );
+			Spot previous = null;
+			for ( int i = 0; i < nSpots; i++ )
+			{
+				final Spot spot = new Spot( pos[ 0 ], pos[ 1 ], pos[ 2 ], 1., 1. );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( frame * frameInterval ) );
+				model.addSpotTo( spot, Integer.valueOf( frame ) );
+				if ( null != previous )
+					model.addEdge( previous, spot, -1 );
+				previous = spot;
+
+				int skip = 1;
+				while ( ran.nextDouble() < gapProbability )
+					skip++;
+				for ( int s = 0; s < skip; s++ )
+				{
+					for ( int d = 0; d < 3; d++ )
+					{
+						velocity[ d ] = rho * velocity[ d ] + noise * ran.nextGaussian();
+						pos[ d ] += velocity[ d ] * frameInterval;
+					}
+				}
+				frame += skip;
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		return TrackGeometry.forTracks( model.getTrackModel(), new ArrayList<>( model.getTrackModel().trackIDs( false ) ) );
+	}
+
+	private static double dot( final double[] a, final double[] b )
+	{
+		return a[ 0 ] * b[ 0 ] + a[ 1 ] * b[ 1 ] + a[ 2 ] * b[ 2 ];
+	}
+}
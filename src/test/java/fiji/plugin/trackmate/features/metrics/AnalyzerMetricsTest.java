@@ -0,0 +1,175 @@
+package fiji.plugin.trackmate.features.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+
+public class AnalyzerMetricsTest
+{
+
+	@Test
+	public void testRuns()
+	{
+		final Model model = SyntheticModels.create( Motion.RANDOM_WALK, 3, 20000, 500, 37l );
+		final List< Integer > trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( false ) );
+		final int nEdges = model.getTrackModel().edgeSet().size();
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+
+		final ForkJoinPool pool = new ForkJoinPool( 3 );
+		try
+		{
+			final AnalyzerMetrics edgeMetrics = new AnalyzerMetrics( "edges" );
+			final LinearTrackEdgeStatistics edgeAnalyzer = new LinearTrackEdgeStatistics();
+			edgeAnalyzer.setForkJoinPool( pool );
+			edgeAnalyzer.setNumThreads( 4 );
+			edgeAnalyzer.setMetrics( edgeMetrics );
+			edgeAnalyzer.process( model.getTrackModel().edgeSet(), model );
+
+			final AnalyzerMetrics trackMetrics = new AnalyzerMetrics( "tracks" );
+			final LinearTrackDescriptor trackAnalyzer = new LinearTrackDescriptor();
+			trackAnalyzer.setForkJoinPool( pool );
+			trackAnalyzer.setNumThreads( 4 );
+			trackAnalyzer.setMetrics( trackMetrics );
+			trackAnalyzer.process( trackIDs, model );
+			trackAnalyzer.process( trackIDs, model );
+
+			final AnalyzerMetricsSnapshot edges = edgeMetrics.snapshot();
+			assertEquals( 1, edges.getRuns() );
+			assertEquals( nEdges, edges.getEdges() );
+			assertEquals( nEdges, sum( edges.getLastRunThreadItems().values() ) );
+			assertEquals( 0, sum( edges.getTrackLatencyHistogram() ) );
+			assertPhases( edges );
+
+			final AnalyzerMetricsSnapshot tracks = trackMetrics.snapshot();
+			assertEquals( 2, tracks.getRuns() );
+			assertEquals( 2 * trackIDs.size(), tracks.getTracks() );
+			assertEquals( 2 * nEdges, tracks.getEdges() );
+			// Per-thread counts are for the last run only.
+			assertEquals( trackIDs.size(), sum( tracks.getLastRunThreadItems().values() ) );
+			assertEquals( tracks.getLastRunThreadItems().keySet(), tracks.getLastRunThreadBusyNanos().keySet() );
+			assertTrue( tracks.getLastRunImbalance() >= 1. );
+			assertEquals( 2 * trackIDs.size(), sum( tracks.getTrackLatencyHistogram() ) );
+			assertTrue( tracks.getTrackLatencyPercentileNanos( 50. ) <= tracks.getTrackLatencyPercentileNanos( 99. ) );
+			assertTrue( tracks.getTracksPerSecond() > 0. );
+			assertPhases( tracks );
+
+			trackMetrics.reset();
+			assertEquals( 0, trackMetrics.snapshot().getRuns() );
+			assertEquals( 0, sum( trackMetrics.snapshot().getTrackLatencyHistogram() ) );
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testConcurrentRuns() throws InterruptedException
+	{
+		final AnalyzerMetrics metrics = new AnalyzerMetrics( "shared" );
+		final Model[] models = new Model[] {
+				SyntheticModels.create( Motion.RANDOM_WALK, 3, 20000, 100, 41l ),
+				SyntheticModels.create( Motion.DIRECTED, 2, 5000, 100, 43l ) };
+		final LinearTrackEdgeStatistics[] analyzers = new LinearTrackEdgeStatistics[ models.length ];
+		final Thread[] threads = new Thread[ models.length ];
+		for ( int i = 0; i < models.length; i++ )
+		{
+			final Model model = models[ i ];
+			final LinearTrackEdgeStatistics analyzer = new LinearTrackEdgeStatistics();
+			analyzer.setNumThreads( 2 );
+			analyzer.setMetrics( metrics );
+			analyzers[ i ] = analyzer;
+			threads[ i ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					analyzer.process( model.getTrackModel().edgeSet(), model );
+				}
+			} );
+			threads[ i ].start();
+		}
+		for ( final Thread thread : threads )
+			thread.join();
+
+		assertEquals( 2, metrics.getRuns() );
+		for ( int i = 0; i < models.length; i++ )
+		{
+			final int nEdges = models[ i ].getTrackModel().edgeSet().size();
+			final AnalyzerMetricsSnapshot lastRun = analyzers[ i ].getLastRunMetrics();
+			assertEquals( 1, lastRun.getRuns() );
+			assertEquals( nEdges, lastRun.getEdges() );
+			assertEquals( nEdges, sum( lastRun.getLastRunThreadItems().values() ) );
+			assertPhases( lastRun );
+		}
+	}
+
+	@Test
+	public void testPercentiles()
+	{
+		final long[] histogram = new long[ AnalyzerMetrics.N_BINS ];
+		histogram[ AnalyzerMetrics.bin( 100 ) ] = 90;
+		histogram[ AnalyzerMetrics.bin( 5000 ) ] = 10;
+		final AnalyzerMetricsSnapshot snapshot = new AnalyzerMetricsSnapshot( "test", 1, 100, 0, 1, 0, 0, 0, 0, 0, 0,
+				new TreeMap< String, Long >(), new TreeMap< String, Long >(), 0., histogram );
+		assertEquals( 127, snapshot.getTrackLatencyPercentileNanos( 50. ) );
+		assertEquals( 127, snapshot.getTrackLatencyPercentileNanos( 90. ) );
+		assertEquals( 8191, snapshot.getTrackLatencyPercentileNanos( 99. ) );
+		assertEquals( 0, AnalyzerMetrics.bin( 0 ) );
+		assertEquals( 62, AnalyzerMetrics.bin( Long.MAX_VALUE ) );
+	}
+
+	@Test
+	public void testJmx() throws JMException
+	{
+		final AnalyzerMetrics metrics = AnalyzerMetrics.get( LinearTrackDescriptor.KEY );
+		assertSame( metrics, new LinearTrackDescriptor().getMetrics() );
+
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertTrue( server.isRegistered( AnalyzerMetrics.getObjectName( LinearTrackDescriptor.KEY ) ) );
+		assertEquals( Long.valueOf( metrics.getRuns() ), server.getAttribute( AnalyzerMetrics.getObjectName( LinearTrackDescriptor.KEY ), "Runs" ) );
+	}
+
+	private static void assertPhases( final AnalyzerMetricsSnapshot snapshot )
+	{
+		final long phases = snapshot.getGatherTimeNanos() + snapshot.getComputeTimeNanos() + snapshot.getWriteTimeNanos();
+		assertTrue( snapshot.getComputeTimeNanos() > 0 );
+		assertTrue( phases <= snapshot.getTotalTimeNanos() );
+	}
+
+	private static long sum( final Iterable< Long > values )
+	{
+		long sum = 0;
+		for ( final Long value : values )
+			sum += value.longValue();
+		return sum;
+	}
+
+	private static long sum( final long[] values )
+	{
+		long sum = 0;
+		for ( final long value : values )
+			sum += value;
+		return sum;
+	}
+}
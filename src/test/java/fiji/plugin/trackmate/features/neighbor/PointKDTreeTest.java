@@ -0,0 +1,84 @@
+package fiji.plugin.trackmate.features.neighbor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PointKDTreeTest
+{
+
+	@Test
+	public void testSameAsBruteForce()
+	{
+		final Random ran = new Random( 127l );
+		final PointKDTree tree = new PointKDTree();
+		for ( int trial = 0; trial < 20; trial++ )
+		{
+			// Some frames flat in Z, some points duplicated.
+			final int n = 1 + ran.nextInt( 500 );
+			final int offset = ran.nextInt( 10 );
+			final boolean flat = ran.nextBoolean();
+			final double[] x = new double[ offset + n ];
+			final double[] y = new double[ offset + n ];
+			final double[] z = new double[ offset + n ];
+			for ( int i = offset; i < offset + n; i++ )
+			{
+				final int copy = i > offset && ran.nextDouble() < 0.1 ? i - 1 : -1;
+				x[ i ] = copy < 0 ? 100. * ran.nextDouble() : x[ copy ];
+				y[ i ] = copy < 0 ? 100. * ran.nextDouble() : y[ copy ];
+				z[ i ] = copy < 0 && !flat ? 20. * ran.nextDouble() : flat ? 0. : z[ copy ];
+			}
+			tree.build( x, y, z, offset, offset + n );
+			assertEquals( n, tree.size() );
+
+			final double radius = 15. * ran.nextDouble();
+			for ( int q = offset; q < offset + n; q++ )
+			{
+				double best = Double.POSITIVE_INFINITY;
+				int expectedCount = 0;
+				for ( int i = offset; i < offset + n; i++ )
+				{
+					final double d2 = distanceSq( x, y, z, q, i );
+					if ( i != q )
+						best = Math.min( best, d2 );
+					if ( d2 <= radius * radius )
+						expectedCount++;
+				}
+
+				final int nearest = tree.nearest( x[ q ], y[ q ], z[ q ], q );
+				if ( n == 1 )
+				{
+					assertEquals( -1, nearest );
+				}
+				else
+				{
+					assertEquals( best, tree.getNearestDistanceSquared(), 0. );
+					assertEquals( best, distanceSq( x, y, z, q, nearest ), 0. );
+				}
+
+				final int count = tree.withinRadius( x[ q ], y[ q ], z[ q ], radius );
+				assertEquals( expectedCount, count );
+				final int[] found = new int[ count ];
+				for ( int j = 0; j < count; j++ )
+				{
+					found[ j ] = tree.result( j );
+					assertEquals( true, distanceSq( x, y, z, q, found[ j ] ) <= radius * radius );
+				}
+				Arrays.sort( found );
+				for ( int j = 1; j < count; j++ )
+					assertEquals( true, found[ j ] > found[ j - 1 ] );
+			}
+		}
+	}
+
+	private static double distanceSq( final double[] x, final double[] y, final double[] z, final int i, final int j )
+	{
+		final double dx = x[ i ] - x[ j ];
+		final double dy = y[ i ] - y[ j ];
+		final double dz = z[ i ] - z[ j ];
+		return dx * dx + dy * dy + dz * dz;
+	}
+}
@@ -0,0 +1,112 @@
+package fiji.plugin.trackmate.features.neighbor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+
+public class SpotNeighborhoodAnalyzerTest
+{
+
+	@Test
+	public void testTwoFrames()
+	{
+		/*
+		 * Frame 0: A(0,0), B(3,0), C(0,4) and a lone spot D(100,0). In frame
+		 * 1, A and B moved along X, C along Y.
+		 */
+		final Model model = new Model();
+		model.beginUpdate();
+		final Spot a = spot( model, 0., 0., 0 );
+		final Spot b = spot( model, 3., 0., 0 );
+		final Spot c = spot( model, 0., 4., 0 );
+		final Spot d = spot( model, 100., 0., 0 );
+		try
+		{
+			model.addEdge( a, spot( model, 1., 0., 1 ), -1 );
+			model.addEdge( b, spot( model, 5., 0., 1 ), -1 );
+			model.addEdge( c, spot( model, 0., 5., 1 ), -1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		final SpotNeighborhoodAnalyzer analyzer = new SpotNeighborhoodAnalyzer();
+		analyzer.setRadius( 4.5 );
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+
+		assertEquals( 3., a.getFeature( SpotNeighborhoodAnalyzer.NEAREST_NEIGHBOR_DISTANCE ), 1e-12 );
+		assertEquals( 3., b.getFeature( SpotNeighborhoodAnalyzer.NEAREST_NEIGHBOR_DISTANCE ), 1e-12 );
+		assertEquals( 4., c.getFeature( SpotNeighborhoodAnalyzer.NEAREST_NEIGHBOR_DISTANCE ), 1e-12 );
+		assertEquals( 97., d.getFeature( SpotNeighborhoodAnalyzer.NEAREST_NEIGHBOR_DISTANCE ), 1e-12 );
+
+		// B and C are 5 apart, out of the radius.
+		assertEquals( 2., a.getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+		assertEquals( 1., b.getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+		assertEquals( 1., c.getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+		assertEquals( 0., d.getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+
+		// A is aligned with B and perpendicular to C.
+		assertEquals( 0.5, a.getFeature( SpotNeighborhoodAnalyzer.LOCAL_VELOCITY_ALIGNMENT ), 1e-12 );
+		assertEquals( 1., b.getFeature( SpotNeighborhoodAnalyzer.LOCAL_VELOCITY_ALIGNMENT ), 1e-12 );
+		assertEquals( 0., c.getFeature( SpotNeighborhoodAnalyzer.LOCAL_VELOCITY_ALIGNMENT ), 1e-12 );
+		assertTrue( Double.isNaN( d.getFeature( SpotNeighborhoodAnalyzer.LOCAL_VELOCITY_ALIGNMENT ) ) );
+		assertTrue( model.getFeatureModel().getSpotFeatures().containsAll( SpotNeighborhoodAnalyzer.SPOT_FEATURES ) );
+	}
+
+	@Test
+	public void testOnlyChangedFramesAreComputed()
+	{
+		// Lone spots, in no track, 2 apart along X in 3 frames.
+		final Model model = new Model();
+		final Spot[][] spots = new Spot[ 3 ][ 4 ];
+		model.beginUpdate();
+		try
+		{
+			for ( int frame = 0; frame < 3; frame++ )
+				for ( int i = 0; i < 4; i++ )
+					spots[ frame ][ i ] = spot( model, 2. * i, 0., frame );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// Default radius: 5 times the spot radius of 1.
+		final SpotNeighborhoodAnalyzer analyzer = new SpotNeighborhoodAnalyzer();
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		assertEquals( 3, analyzer.getLastRunComputedFrames() );
+		assertEquals( 2., spots[ 1 ][ 0 ].getFeature( SpotNeighborhoodAnalyzer.NEAREST_NEIGHBOR_DISTANCE ), 1e-12 );
+		assertEquals( 2., spots[ 1 ][ 0 ].getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		assertEquals( 0, analyzer.getLastRunComputedFrames() );
+
+		// Moving a spot of frame 1 only recomputes frame 1.
+		spots[ 1 ][ 0 ].putFeature( Spot.POSITION_X, Double.valueOf( -4. ) );
+		spots[ 0 ][ 0 ].putFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY, Double.valueOf( -1. ) );
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		assertEquals( 1, analyzer.getLastRunComputedFrames() );
+		assertEquals( 6., spots[ 1 ][ 0 ].getFeature( SpotNeighborhoodAnalyzer.NEAREST_NEIGHBOR_DISTANCE ), 1e-12 );
+		assertEquals( 0., spots[ 1 ][ 0 ].getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+		assertEquals( -1., spots[ 0 ][ 0 ].getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+
+		// A new radius recomputes all the frames.
+		analyzer.setRadius( 2.5 );
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		assertEquals( 3, analyzer.getLastRunComputedFrames() );
+		assertEquals( 1., spots[ 0 ][ 0 ].getFeature( SpotNeighborhoodAnalyzer.LOCAL_DENSITY ), 0. );
+	}
+
+	private static Spot spot( final Model model, final double x, final double y, final int frame )
+	{
+		final Spot spot = new Spot( x, y, 0., 1., 1. );
+		spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+		model.addSpotTo( spot, Integer.valueOf( frame ) );
+		return spot;
+	}
+}
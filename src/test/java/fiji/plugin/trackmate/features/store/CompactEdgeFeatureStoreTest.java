@@ -0,0 +1,201 @@
+package fiji.plugin.trackmate.features.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+
+public class CompactEdgeFeatureStoreTest
+{
+
+	@Test
+	public void testSameAsFeatureModel()
+	{
+		final Model reference = SyntheticModels.create( Motion.BRANCHING, 3, 5000, 100, 41l );
+		final CompactModel compact = SyntheticModels.populate( new CompactModel(), Motion.BRANCHING, 3, 5000, 100, 41l );
+		new LinearTrackEdgeStatistics().process( reference.getTrackModel().edgeSet(), reference );
+		new LinearTrackEdgeStatistics().process( compact.getTrackModel().edgeSet(), compact );
+
+		final CompactEdgeFeatureStore store = compact.getFeatureModel().getEdgeStore();
+		assertEquals( compact.getTrackModel().edgeSet().size(), store.size() );
+
+		final List< DefaultWeightedEdge > referenceEdges = sorted( reference );
+		final List< DefaultWeightedEdge > compactEdges = sorted( compact );
+		for ( int i = 0; i < referenceEdges.size(); i++ )
+		{
+			for ( final String feature : LinearTrackEdgeStatistics.FEATURES )
+			{
+				final Double expected = reference.getFeatureModel().getEdgeFeature( referenceEdges.get( i ), feature );
+				final Double actual = compact.getFeatureModel().getEdgeFeature( compactEdges.get( i ), feature );
+				assertEquals( feature, expected.doubleValue(), actual.doubleValue(), 0. );
+			}
+		}
+	}
+
+	@Test
+	public void testPutGetRemove()
+	{
+		final CompactModel model = SyntheticModels.populate( new CompactModel(), Motion.RANDOM_WALK, 2, 100, 10, 43l );
+		final FeatureModel fm = model.getFeatureModel();
+		final CompactEdgeFeatureStore store = model.getFeatureModel().getEdgeStore();
+		final DefaultWeightedEdge edge = model.getTrackModel().edgeSet().iterator().next();
+
+		// Other features go to the feature model.
+		fm.putEdgeFeature( edge, "OTHER", Double.valueOf( 3. ) );
+		assertEquals( 0, store.size() );
+		assertEquals( 3., fm.getEdgeFeature( edge, "OTHER" ).doubleValue(), 0. );
+
+		// A stored NaN is not a missing value.
+		assertNull( fm.getEdgeFeature( edge, LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ) );
+		fm.putEdgeFeature( edge, LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE, Double.valueOf( Double.NaN ) );
+		assertTrue( Double.isNaN( fm.getEdgeFeature( edge, LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ).doubleValue() ) );
+		assertNull( fm.getEdgeFeature( edge, LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_XY ) );
+		assertEquals( 1, store.size() );
+		final int index = store.indexOf( edge );
+
+		// Removing the edge from the model frees its index.
+		model.beginUpdate();
+		try
+		{
+			model.removeEdge( edge );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertEquals( 0, store.size() );
+		assertNull( fm.getEdgeFeature( edge, LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ) );
+
+		final DefaultWeightedEdge other = model.getTrackModel().edgeSet().iterator().next();
+		fm.putEdgeFeature( other, LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_YZ, Double.valueOf( 1. ) );
+		assertEquals( index, store.indexOf( other ) );
+		assertNull( fm.getEdgeFeature( other, LinearTrackEdgeStatistics.DIRECTIONAL_CHANGE_RATE ) );
+	}
+
+	@Test
+	public void testCopyOfThenShrink()
+	{
+		final Model reference = SyntheticModels.create( Motion.RANDOM_WALK, 3, 20000, 100, 53l );
+		final LinearTrackEdgeStatistics analyzer = new LinearTrackEdgeStatistics();
+		// Declared as when read from a file.
+		reference.getFeatureModel().declareEdgeFeatures( analyzer.getFeatures(), analyzer.getFeatureNames(), analyzer.getFeatureShortNames(), analyzer.getFeatureDimensions(), analyzer.getIsIntFeature() );
+		analyzer.process( reference.getTrackModel().edgeSet(), reference );
+		final List< DefaultWeightedEdge > referenceEdges = sorted( reference );
+		final Map< DefaultWeightedEdge, Double > expected = new IdentityHashMap<>();
+		for ( final DefaultWeightedEdge edge : referenceEdges )
+			expected.put( edge, reference.getFeatureModel().getEdgeFeature( edge, LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_XY ) );
+
+		final CompactModel model = CompactModel.copyOf( reference );
+		final CompactEdgeFeatureStore store = model.getFeatureModel().getEdgeStore();
+		final List< DefaultWeightedEdge > edges = sorted( model );
+		assertEquals( referenceEdges.size(), store.size() );
+		for ( int i = 0; i < edges.size(); i++ )
+			assertEquals( expected.get( referenceEdges.get( i ) ), model.getFeatureModel().getEdgeFeature( edges.get( i ), LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_XY ) );
+
+		// Removing most edges shrinks the store and keeps the other values.
+		final long footprint = store.getMemoryFootprint();
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < edges.size(); i++ )
+				if ( i % 10 != 0 )
+					model.removeEdge( edges.get( i ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		assertEquals( model.getTrackModel().edgeSet().size(), store.size() );
+		assertTrue( store.getMemoryFootprint() < footprint / 2 );
+		for ( int i = 0; i < edges.size(); i += 10 )
+			assertEquals( expected.get( referenceEdges.get( i ) ), model.getFeatureModel().getEdgeFeature( edges.get( i ), LinearTrackEdgeStatistics.ABSOLUTE_ANGLE_XY ) );
+	}
+
+	@Test
+	public void testRandomOperations()
+	{
+		final List< String > features = Arrays.asList( "A", "B" );
+		final CompactEdgeFeatureStore store = new CompactEdgeFeatureStore( features, 4 );
+		final Map< DefaultWeightedEdge, double[] > expected = new IdentityHashMap<>();
+		final List< DefaultWeightedEdge > edges = new ArrayList<>();
+		for ( int i = 0; i < 3000; i++ )
+			edges.add( new DefaultWeightedEdge() );
+
+		final Random ran = new Random( 47l );
+		for ( int op = 0; op < 100000; op++ )
+		{
+			final DefaultWeightedEdge edge = edges.get( ran.nextInt( edges.size() ) );
+			if ( op == 50000 )
+				store.setOffHeap( true );
+			if ( ran.nextInt( 4 ) == 0 )
+			{
+				store.remove( edge );
+				expected.remove( edge );
+			}
+			else
+			{
+				final double value = ran.nextDouble();
+				store.put( edge, 0, Double.valueOf( value ) );
+				store.put( edge, 1, Double.valueOf( -value ) );
+				expected.put( edge, new double[] { value, -value } );
+			}
+		}
+
+		assertTrue( store.isOffHeap() );
+		assertEquals( expected.size(), store.size() );
+		for ( final DefaultWeightedEdge edge : edges )
+		{
+			final double[] values = expected.get( edge );
+			if ( null == values )
+			{
+				assertNull( store.get( edge, 0 ) );
+				assertEquals( -1, store.indexOf( edge ) );
+				continue;
+			}
+			assertEquals( values[ 0 ], store.get( edge, 0 ).doubleValue(), 0. );
+			assertEquals( values[ 1 ], store.get( edge, 1 ).doubleValue(), 0. );
+			assertTrue( store.indexOf( edge ) < edges.size() );
+		}
+	}
+
+	/**
+	 * The edges of a model sorted by source and target positions, so that
+	 * two models built with the same seed can be compared edge by edge.
+	 */
+	private static List< DefaultWeightedEdge > sorted( final Model model )
+	{
+		final List< DefaultWeightedEdge > edges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		final Map< DefaultWeightedEdge, String > keys = new IdentityHashMap<>();
+		for ( final DefaultWeightedEdge edge : edges )
+			keys.put( edge, model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.POSITION_T ) + " "
+					+ model.getTrackModel().getEdgeSource( edge ).getFeature( Spot.POSITION_X ) + " "
+					+ model.getTrackModel().getEdgeTarget( edge ).getFeature( Spot.POSITION_Y ) );
+		Collections.sort( edges, new Comparator< DefaultWeightedEdge >()
+		{
+			@Override
+			public int compare( final DefaultWeightedEdge e1, final DefaultWeightedEdge e2 )
+			{
+				return keys.get( e1 ).compareTo( keys.get( e2 ) );
+			}
+		} );
+		return edges;
+	}
+}
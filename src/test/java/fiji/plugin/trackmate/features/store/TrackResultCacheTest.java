@@ -0,0 +1,136 @@
+package fiji.plugin.trackmate.features.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.track.LinearTrackDescriptor;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackSpeedStatisticsAnalyzer;
+
+public class TrackResultCacheTest
+{
+
+	@Test
+	public void testAcrossSessions() throws IOException
+	{
+		final File file = File.createTempFile( "tracks", ".cache" );
+		file.delete();
+		file.deleteOnExit();
+
+		// First session: all misses.
+		final Model expected = model();
+		final int nTracks = expected.getTrackModel().nTracks( false );
+		try (final TrackResultCache cache = new TrackResultCache( file ))
+		{
+			process( expected, cache );
+			assertEquals( 0, cache.getHits() );
+			assertEquals( nTracks, cache.getMisses() );
+			assertEquals( nTracks, cache.size() );
+		}
+
+		// Second session, same geometry: all hits, same values.
+		final Model model = model();
+		try (final TrackResultCache cache = new TrackResultCache( file ))
+		{
+			assertEquals( nTracks, cache.size() );
+			process( model, cache );
+			assertEquals( nTracks, cache.getHits() );
+			assertEquals( 0, cache.getMisses() );
+			assertEquals( 1., cache.getHitRate(), 0. );
+		}
+
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			for ( final String feature : LinearTrackDescriptor.FEATURES )
+				assertEquals( expected.getFeatureModel().getTrackFeature( trackID, feature ), model.getFeatureModel().getTrackFeature( trackID, feature ) );
+		final List< DefaultWeightedEdge > expectedEdges = new ArrayList<>( expected.getTrackModel().edgeSet() );
+		final List< DefaultWeightedEdge > edges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		for ( int i = 0; i < edges.size(); i++ )
+			for ( final String feature : LinearTrackEdgeStatistics.FEATURES )
+				assertEquals( expected.getFeatureModel().getEdgeFeature( expectedEdges.get( i ), feature ), model.getFeatureModel().getEdgeFeature( edges.get( i ), feature ) );
+	}
+
+	@Test
+	public void testDependenciesAreHashed() throws IOException
+	{
+		final Model model = model();
+		final TrackResultCache cache = new TrackResultCache( null, Long.MAX_VALUE );
+		final LinearTrackDescriptor analyzer = new LinearTrackDescriptor();
+		analyzer.setResultCache( cache );
+		new LinearTrackEdgeStatistics().process( model.getTrackModel().edgeSet(), model );
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		analyzer.process( trackIDs, model );
+		final int nTracks = trackIDs.size();
+		assertEquals( nTracks, cache.getMisses() );
+
+		// A changed dependency feature misses.
+		final Integer trackID = trackIDs.iterator().next();
+		final double speed = model.getFeatureModel().getTrackFeature( trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED );
+		model.getFeatureModel().putTrackFeature( trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED, 2. * speed );
+		cache.resetCounters();
+		analyzer.process( trackIDs, model );
+		assertEquals( nTracks - 1, cache.getHits() );
+		assertEquals( 1, cache.getMisses() );
+		assertEquals( nTracks - 1, analyzer.getLastRunMetrics().getCacheHits() );
+		assertEquals( 1, analyzer.getLastRunMetrics().getCacheMisses() );
+
+		// So do the fused results, cached apart.
+		cache.resetCounters();
+		analyzer.setComputeEdgeFeatures( true );
+		analyzer.process( trackIDs, model );
+		assertEquals( 0, cache.getHits() );
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws IOException
+	{
+		final double[] values = new double[ 4 ];
+		final TrackResultCache cache = new TrackResultCache( null, Long.MAX_VALUE );
+		cache.put( 1, 1, values, null );
+		final long entryBytes = cache.getSizeBytes();
+
+		final TrackResultCache bounded = new TrackResultCache( null, 3 * entryBytes );
+		bounded.put( 1, 1, values, null );
+		bounded.put( 2, 2, values, null );
+		bounded.put( 3, 3, values, null );
+		assertNotNull( bounded.get( 1, 1, false ) );
+		bounded.put( 4, 4, values, null );
+
+		assertEquals( 3, bounded.size() );
+		assertNull( bounded.get( 2, 2, false ) );
+		assertNotNull( bounded.get( 1, 1, false ) );
+		assertNotNull( bounded.get( 4, 4, false ) );
+		// Entries without edge features do not serve lookups needing them.
+		assertNull( bounded.get( 3, 3, true ) );
+	}
+
+	private static Model model()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 20000, 100, 59l );
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		return model;
+	}
+
+	private static void process( final Model model, final TrackResultCache cache )
+	{
+		final LinearTrackDescriptor analyzer = new LinearTrackDescriptor();
+		analyzer.setComputeEdgeFeatures( true );
+		analyzer.setResultCache( cache );
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+	}
+}
@@ -1,7 +1,12 @@
 package fiji.plugin.trackmate.features.track;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -10,6 +15,12 @@ import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Settings;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.features.ModelFeatureUpdater;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+import fiji.plugin.trackmate.features.linear.LinearTrackAccumulator;
+import fiji.plugin.trackmate.features.linear.LinearTrackKernel;
+import fiji.plugin.trackmate.features.linear.TrackGeometry;
 import fiji.plugin.trackmate.providers.TrackAnalyzerProvider;
 
 public class LinearTrackDescriptorTest
@@ -74,4 +85,145 @@ public class LinearTrackDescriptorTest
 		assertEquals( 90, Math.toDegrees( featureModel.getTrackFeature( 0, LinearTrackDescriptor.TOTAL_ABSOLUTE_ANGLE_XY ) ), 0.0 );
 		assertEquals( 45, Math.toDegrees( featureModel.getTrackFeature( 1, LinearTrackDescriptor.TOTAL_ABSOLUTE_ANGLE_XY ) ), 0.0 );
 	}
+
+	@Test
+	public void testFusedMode()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 2000, 100, 7l );
+		final List< Integer > trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( false ) );
+		final List< DefaultWeightedEdge > edges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+
+		// Two passes through the feature model.
+		new LinearTrackEdgeStatistics().process( edges, model );
+		new LinearTrackDescriptor().process( trackIDs, model );
+		final FeatureModel fm = model.getFeatureModel();
+		final double[] expected = featureValues( fm, trackIDs, edges );
+
+		// Clear the edge features, and compute everything in one pass.
+		for ( final DefaultWeightedEdge edge : edges )
+			for ( final String feature : LinearTrackEdgeStatistics.FEATURES )
+				fm.putEdgeFeature( edge, feature, Double.valueOf( -1. ) );
+		final LinearTrackDescriptor fused = new LinearTrackDescriptor();
+		fused.setComputeEdgeFeatures( true );
+		fused.process( trackIDs, model );
+		final double[] actual = featureValues( fm, trackIDs, edges );
+
+		assertEquals( expected.length, actual.length );
+		for ( int i = 0; i < expected.length; i++ )
+			assertEquals( expected[ i ], actual[ i ], 0. );
+	}
+
+	@Test
+	public void testBranchFeatures()
+	{
+		// Linear tracks: one branch per track, with the track features.
+		final Model model = SyntheticModels.create( Motion.DIRECTED, 3, 2000, 100, 11l );
+		final List< Integer > trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( false ) );
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		final LinearTrackDescriptor descriptor = new LinearTrackDescriptor();
+		descriptor.setComputeEdgeFeatures( true );
+		descriptor.setComputeBranchFeatures( true );
+		descriptor.process( trackIDs, model );
+
+		final LinearBranchFeatures branches = descriptor.getBranchFeatures();
+		assertEquals( trackIDs.size(), branches.size() );
+		for ( final Integer trackID : trackIDs )
+		{
+			final int[] range = branches.getBranches( trackID );
+			assertEquals( 1, range[ 1 ] - range[ 0 ] );
+			assertEquals( trackID.intValue(), branches.getTrackID( range[ 0 ] ) );
+			assertEquals( -1, branches.getParent( range[ 0 ] ) );
+			for ( final String feature : LinearTrackDescriptor.FEATURES )
+			{
+				final double expected = model.getFeatureModel().getTrackFeature( trackID, feature ).doubleValue();
+				assertEquals( feature, expected, branches.getFeature( range[ 0 ], feature ), 1e-9 * Math.max( 1., Math.abs( expected ) ) );
+			}
+		}
+
+		// Lineages: branches start at divisions, with their own features.
+		final Model lineages = SyntheticModels.create( Motion.BRANCHING, 2, 2000, 100, 13l );
+		final List< Integer > lineageIDs = new ArrayList<>( lineages.getTrackModel().trackIDs( false ) );
+		new TrackDurationAnalyzer().process( lineageIDs, lineages );
+		new TrackSpeedStatisticsAnalyzer().process( lineageIDs, lineages );
+		descriptor.setComputeEdgeFeatures( false );
+		descriptor.process( lineageIDs, lineages );
+		final LinearBranchFeatures lineageBranches = descriptor.getBranchFeatures();
+		int nEdges = 0;
+		for ( int b = 0; b < lineageBranches.size(); b++ )
+		{
+			final Spot first = lineageBranches.getFirstSpot( b );
+			final Spot last = lineageBranches.getLastSpot( b );
+			assertTrue( last.getFeature( Spot.FRAME ) > first.getFeature( Spot.FRAME ) );
+			nEdges += ( int ) Math.round( last.getFeature( Spot.FRAME ) - first.getFeature( Spot.FRAME ) );
+			if ( lineageBranches.getParent( b ) >= 0 )
+				assertTrue( lineageBranches.getLastSpot( lineageBranches.getParent( b ) ) == first );
+			assertEquals( 1., lineageBranches.getFeature( b, LinearTrackDescriptor.TRACK_LINEARITY_OF_FORWARD_PROGRESSION ) / lineageBranches.getFeature( b, LinearTrackDescriptor.TRACK_CONFINMENT_RATIO ), 1e-9 );
+		}
+		assertEquals( lineages.getTrackModel().edgeSet().size(), nEdges );
+	}
+
+	@Test
+	public void testGiantTrackIsSplit()
+	{
+		// One giant track among small ones.
+		final Model model = SyntheticModels.create( Motion.DIRECTED, 3, 2 * LinearTrackDescriptor.SPLIT_EDGES + 1001, 2 * LinearTrackDescriptor.SPLIT_EDGES + 1, 17l );
+		final List< Integer > trackIDs = new ArrayList<>( model.getTrackModel().trackIDs( false ) );
+		final List< DefaultWeightedEdge > edges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		final FeatureModel fm = model.getFeatureModel();
+
+		// Sequential reference, in one pass over each track.
+		final TrackGeometry geom = TrackGeometry.forTracks( model.getTrackModel(), trackIDs );
+		final double[][] expected = new double[ geom.nTracks ][ LinearTrackAccumulator.N_FEATURES ];
+		final LinearTrackAccumulator acc = new LinearTrackAccumulator();
+		for ( int k = 0; k < geom.nTracks; k++ )
+		{
+			acc.reset();
+			LinearTrackKernel.accumulate( geom, k, acc );
+			final Integer trackID = Integer.valueOf( geom.trackIDs[ k ] );
+			acc.computeFeatures( fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DISPLACEMENT ),
+					fm.getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DURATION ),
+					fm.getTrackFeature( trackID, TrackSpeedStatisticsAnalyzer.TRACK_MEAN_SPEED ), expected[ k ] );
+		}
+
+		final LinearTrackDescriptor descriptor = new LinearTrackDescriptor();
+		descriptor.setComputeEdgeFeatures( true );
+		descriptor.setNumThreads( 1 );
+		descriptor.process( trackIDs, model );
+		final double[] sequential = featureValues( fm, trackIDs, edges );
+		descriptor.setNumThreads( 4 );
+		descriptor.process( trackIDs, model );
+		assertEquals( 1, descriptor.getLastRunSplitTracks() );
+		final double[] parallel = featureValues( fm, trackIDs, edges );
+		for ( int i = 0; i < sequential.length; i++ )
+			assertEquals( sequential[ i ], parallel[ i ], 0. );
+
+		for ( int k = 0; k < geom.nTracks; k++ )
+		{
+			for ( int f = 0; f < LinearTrackDescriptor.FEATURES.size(); f++ )
+			{
+				final double actual = fm.getTrackFeature( Integer.valueOf( geom.trackIDs[ k ] ), LinearTrackDescriptor.FEATURES.get( f ) ).doubleValue();
+				assertEquals( expected[ k ][ f ], actual, 1e-9 * Math.max( 1., Math.abs( expected[ k ][ f ] ) ) );
+			}
+		}
+	}
+
+	private static double[] featureValues( final FeatureModel fm, final List< Integer > trackIDs, final List< DefaultWeightedEdge > edges )
+	{
+		final int nTrackFeatures = LinearTrackDescriptor.FEATURES.size();
+		final int nEdgeFeatures = LinearTrackEdgeStatistics.FEATURES.size();
+		final double[] values = new double[ trackIDs.size() * nTrackFeatures + edges.size() * nEdgeFeatures ];
+		int i = 0;
+		for ( final Integer trackID : trackIDs )
+			for ( final String feature : LinearTrackDescriptor.FEATURES )
+				values[ i++ ] = fm.getTrackFeature( trackID, feature ).doubleValue();
+		for ( final DefaultWeightedEdge edge : edges )
+			for ( final String feature : LinearTrackEdgeStatistics.FEATURES )
+				values[ i++ ] = fm.getEdgeFeature( edge, feature ).doubleValue();
+		return values;
+	}
 }
@@ -0,0 +1,74 @@
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+
+public class LocalTrackFeaturesAnalyzerTest
+{
+
+	@Test
+	public void testDirectedIsStraighter()
+	{
+		final double directed = meanStraightness( SyntheticModels.create( Motion.DIRECTED, 3, 5000, 500, 109l ) );
+		final double randomWalk = meanStraightness( SyntheticModels.create( Motion.RANDOM_WALK, 3, 5000, 500, 109l ) );
+		assertTrue( directed > randomWalk + 0.2 );
+	}
+
+	@Test
+	public void testEvenWindowIsRejected()
+	{
+		final LocalTrackFeaturesAnalyzer analyzer = new LocalTrackFeaturesAnalyzer();
+		try
+		{
+			analyzer.setWindow( 4 );
+			fail( "An even window must be rejected." );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			assertEquals( LocalTrackFeaturesAnalyzer.DEFAULT_WINDOW, analyzer.getWindow() );
+		}
+	}
+
+	private static double meanStraightness( final Model model )
+	{
+		final LocalTrackFeaturesAnalyzer analyzer = new LocalTrackFeaturesAnalyzer();
+		analyzer.setWindow( 5 );
+		analyzer.process( model.getTrackModel().trackIDs( false ), model );
+		assertTrue( model.getFeatureModel().getSpotFeatures().containsAll( LocalTrackFeaturesAnalyzer.SPOT_FEATURES ) );
+
+		double sum = 0.;
+		int n = 0;
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			for ( final Spot spot : model.getTrackModel().trackSpots( trackID ) )
+			{
+				final Double straightness = spot.getFeature( LocalTrackFeaturesAnalyzer.LOCAL_STRAIGHTNESS );
+				assertNotNull( straightness );
+				final double confinementRatio = spot.getFeature( LocalTrackFeaturesAnalyzer.LOCAL_CONFINEMENT_RATIO ).doubleValue();
+				assertTrue( confinementRatio >= 0. && confinementRatio <= 1. + 1e-12 );
+				sum += straightness.doubleValue();
+				n++;
+			}
+		}
+		return sum / n;
+	}
+
+	@Test
+	public void testBranching()
+	{
+		final Model model = SyntheticModels.create( Motion.BRANCHING, 3, 500, 100, 113l );
+		new LocalTrackFeaturesAnalyzer().process( model.getTrackModel().trackIDs( false ), model );
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+			for ( final Spot spot : model.getTrackModel().trackSpots( trackID ) )
+				assertTrue( Double.isNaN( spot.getFeature( LocalTrackFeaturesAnalyzer.LOCAL_DIRECTIONAL_CHANGE_RATE ).doubleValue() ) );
+	}
+}
@@ -0,0 +1,66 @@
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.linear.MsdCurve;
+
+public class MsdTrackAnalyzerTest
+{
+
+	@Test
+	public void testRandomWalk()
+	{
+		final Model model = SyntheticModels.create( Motion.RANDOM_WALK, 2, 20000, 2000, 67l );
+		final MsdTrackAnalyzer analyzer = new MsdTrackAnalyzer();
+		analyzer.setStoreCurves( true );
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		analyzer.process( trackIDs, model );
+
+		// Steps of unit variance per dimension: D = 1/2.
+		final FeatureModel fm = model.getFeatureModel();
+		double meanD = 0.;
+		double meanAlpha = 0.;
+		for ( final Integer trackID : trackIDs )
+		{
+			meanD += fm.getTrackFeature( trackID, MsdTrackAnalyzer.MSD_DIFFUSION_COEFFICIENT ).doubleValue() / trackIDs.size();
+			meanAlpha += fm.getTrackFeature( trackID, MsdTrackAnalyzer.MSD_ANOMALOUS_EXPONENT ).doubleValue() / trackIDs.size();
+
+			final MsdCurve curve = analyzer.getCurve( trackID );
+			assertNotNull( curve );
+			assertEquals( 2001, curve.size() );
+			assertEquals( 2, curve.getNDims() );
+		}
+		assertEquals( 0.5, meanD, 0.05 );
+		assertEquals( 1., meanAlpha, 0.1 );
+	}
+
+	@Test
+	public void testDirectedAndBranching()
+	{
+		final Model directed = SyntheticModels.create( Motion.DIRECTED, 3, 2000, 1000, 71l );
+		final MsdTrackAnalyzer analyzer = new MsdTrackAnalyzer();
+		analyzer.process( directed.getTrackModel().trackIDs( false ), directed );
+		for ( final Integer trackID : directed.getTrackModel().trackIDs( false ) )
+		{
+			final double alpha = directed.getFeatureModel().getTrackFeature( trackID, MsdTrackAnalyzer.MSD_ANOMALOUS_EXPONENT ).doubleValue();
+			assertEquals( 2., alpha, 0.15 );
+			assertNull( analyzer.getCurve( trackID ) );
+		}
+
+		final Model branching = SyntheticModels.create( Motion.BRANCHING, 3, 500, 100, 73l );
+		analyzer.process( branching.getTrackModel().trackIDs( false ), branching );
+		for ( final Integer trackID : branching.getTrackModel().trackIDs( false ) )
+			assertTrue( Double.isNaN( branching.getFeatureModel().getTrackFeature( trackID, MsdTrackAnalyzer.MSD_DIFFUSION_COEFFICIENT ).doubleValue() ) );
+	}
+}
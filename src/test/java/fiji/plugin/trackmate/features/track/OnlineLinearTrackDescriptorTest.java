@@ -0,0 +1,181 @@
+package fiji.plugin.trackmate.features.track;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.FeatureModel;
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels;
+import fiji.plugin.trackmate.features.benchmark.SyntheticModels.Motion;
+import fiji.plugin.trackmate.features.edge.LinearTrackEdgeStatistics;
+
+public class OnlineLinearTrackDescriptorTest
+{
+
+	private static final double TOLERANCE = 1e-9;
+
+	private Model model;
+
+	private OnlineLinearTrackDescriptor descriptor;
+
+	@Before
+	public void setUp()
+	{
+		model = SyntheticModels.create( Motion.DIRECTED, 3, 100, 20, 5l );
+		descriptor = new OnlineLinearTrackDescriptor( model );
+		descriptor.process( model.getTrackModel().trackIDs( false ) );
+	}
+
+	@Test
+	public void testAppendIsIncremental()
+	{
+		final long nFull = descriptor.getFullRecomputationCount();
+		for ( int i = 0; i < 5; i++ )
+			appendToAllTracks();
+
+		assertEquals( nFull, descriptor.getFullRecomputationCount() );
+		assertEquals( 5 * model.getTrackModel().nTracks( false ), descriptor.getAppendedEdgeCount() );
+		assertSameAsReference();
+	}
+
+	@Test
+	public void testRemoveEdge()
+	{
+		appendToAllTracks();
+		final long nFull = descriptor.getFullRecomputationCount();
+
+		final List< DefaultWeightedEdge > edges = new ArrayList<>( model.getTrackModel().edgeSet() );
+		model.beginUpdate();
+		try
+		{
+			model.removeEdge( edges.get( edges.size() / 2 ) );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertTrue( descriptor.getFullRecomputationCount() > nFull );
+		assertSameAsReference();
+	}
+
+	@Test
+	public void testRemoveSpotSplitsTrack()
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final int nTracks = trackModel.nTracks( false );
+		final Integer trackID = trackModel.trackIDs( false ).iterator().next();
+		final List< Spot > spots = new ArrayList<>( trackModel.trackSpots( trackID ) );
+		Collections.sort( spots, Spot.frameComparator );
+		final Spot middle = spots.get( spots.size() / 2 );
+
+		model.beginUpdate();
+		try
+		{
+			model.removeSpot( middle );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertEquals( nTracks + 1, trackModel.nTracks( false ) );
+		assertSameAsReference();
+	}
+
+	@Test
+	public void testReplacesLinearTrackDescriptor()
+	{
+		final Settings settings = new Settings();
+		settings.addTrackAnalyzer( new TrackDurationAnalyzer() );
+		settings.addTrackAnalyzer( new LinearTrackDescriptor() );
+		new OnlineLinearTrackDescriptor( model, settings ).quit();
+
+		assertEquals( 1, settings.getTrackAnalyzers().size() );
+		for ( final TrackAnalyzer analyzer : settings.getTrackAnalyzers() )
+			assertFalse( analyzer instanceof LinearTrackDescriptor );
+	}
+
+	/**
+	 * Appends one spot at the end of each track, in a single update.
+	 */
+	private void appendToAllTracks()
+	{
+		final TrackModel trackModel = model.getTrackModel();
+		final List< Spot > tips = new ArrayList<>();
+		for ( final Integer trackID : trackModel.trackIDs( false ) )
+		{
+			Spot tip = null;
+			for ( final Spot spot : trackModel.trackSpots( trackID ) )
+				if ( null == tip || spot.diffTo( tip, Spot.FRAME ) > 0 )
+					tip = spot;
+			tips.add( tip );
+		}
+
+		model.beginUpdate();
+		try
+		{
+			for ( final Spot tip : tips )
+			{
+				final int frame = tip.getFeature( Spot.FRAME ).intValue() + 1;
+				final Spot spot = new Spot(
+						tip.getDoublePosition( 0 ) + 1.,
+						tip.getDoublePosition( 1 ) + 0.5 * ( frame % 3 ),
+						tip.getDoublePosition( 2 ) - 0.25,
+						1., 1. );
+				spot.putFeature( Spot.POSITION_T, Double.valueOf( frame ) );
+				model.addSpotTo( spot, Integer.valueOf( frame ) );
+				model.addEdge( tip, spot, -1 );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+	}
+
+	private void assertSameAsReference()
+	{
+		final FeatureModel fm = model.getFeatureModel();
+		final Set< Integer > trackIDs = model.getTrackModel().trackIDs( false );
+		final Map< Integer, double[] > online = new HashMap<>();
+		for ( final Integer trackID : trackIDs )
+		{
+			final double[] values = new double[ LinearTrackDescriptor.FEATURES.size() ];
+			for ( int i = 0; i < values.length; i++ )
+				values[ i ] = fm.getTrackFeature( trackID, LinearTrackDescriptor.FEATURES.get( i ) ).doubleValue();
+			online.put( trackID, values );
+		}
+
+		new TrackDurationAnalyzer().process( trackIDs, model );
+		new TrackSpeedStatisticsAnalyzer().process( trackIDs, model );
+		new LinearTrackEdgeStatistics().process( model.getTrackModel().edgeSet(), model );
+		new LinearTrackDescriptor().process( trackIDs, model );
+
+		for ( final Integer trackID : trackIDs )
+		{
+			final double[] values = online.get( trackID );
+			for ( int i = 0; i < values.length; i++ )
+			{
+				final String feature = LinearTrackDescriptor.FEATURES.get( i );
+				final double expected = fm.getTrackFeature( trackID, feature ).doubleValue();
+				assertEquals( feature, expected, values[ i ], TOLERANCE * Math.max( 1., Math.abs( expected ) ) );
+			}
+		}
+	}
+}